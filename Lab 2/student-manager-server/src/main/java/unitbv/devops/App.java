@@ -2,9 +2,16 @@ package unitbv.devops;
 
 import com.sun.net.httpserver.HttpServer;
 import unitbv.devops.data.FileStudentStore;
+import unitbv.devops.data.LogStudentStore;
+import unitbv.devops.data.MappedStudentStore;
+import unitbv.devops.http.AccessLogFilter;
 import unitbv.devops.http.RootHandler;
 import unitbv.devops.handlers.StudentHandler;
+import unitbv.devops.ports.StudentStore;
+import unitbv.devops.util.AccessLog;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
@@ -15,14 +22,17 @@ public class App {
         int port = 8080;
 
         String projectDir = System.getProperty("user.dir");
-        Path dataFile = Path.of(projectDir, "students.txt");
-        System.out.println("Students file path: " + dataFile.toAbsolutePath());
+        StudentStore store = openStore(projectDir);
 
-        var store = new FileStudentStore(dataFile);
+        // Request threads only queue log entries; a background thread writes them
+        Path logFile = Path.of(projectDir, "access.log");
+        System.out.println("Access log: " + logFile.toAbsolutePath());
+        AccessLog accessLog = AccessLog.open(logFile);
+        AccessLogFilter logFilter = new AccessLogFilter(accessLog);
 
         HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.createContext("/", new RootHandler());
-        server.createContext("/students", new StudentHandler(store));
+        server.createContext("/", new RootHandler()).getFilters().add(logFilter);
+        server.createContext("/students", new StudentHandler(store)).getFilters().add(logFilter);
 
         ExecutorService pool = Executors.newFixedThreadPool(4);
         server.setExecutor(pool);
@@ -34,6 +44,41 @@ public class App {
             System.out.println("Shutting down...");
             server.stop(0);
             pool.shutdown();
+            accessLog.close();
+            System.out.println("Access log entries dropped: " + accessLog.getDropped());
+            if (store instanceof Closeable) {
+                try {
+                    ((Closeable) store).close();
+                } catch (IOException e) {
+                    System.err.println("Closing the student store failed: " + e.getMessage());
+                }
+            }
         }));
     }
+
+    /**
+     * The whole-file store by default. With {@code -Dstudents.store=log} a write-ahead log in
+     * {@code students-log/}; {@code -Dstudents.fsync=always|interval|never} picks when it syncs.
+     * With {@code -Dstudents.store=mapped} a memory-mapped {@code students.dat} for large lists.
+     */
+    private static StudentStore openStore(String projectDir) throws IOException {
+        String kind = System.getProperty("students.store", "file");
+        if ("mapped".equalsIgnoreCase(kind)) {
+            Path dataFile = Path.of(projectDir, "students.dat");
+            System.out.println("Students data file (mapped): " + dataFile.toAbsolutePath());
+            return new MappedStudentStore(dataFile);
+        }
+        if ("log".equalsIgnoreCase(kind)) {
+            Path dir = Path.of(projectDir, "students-log");
+            LogStudentStore.Fsync fsync = LogStudentStore.Fsync.valueOf(
+                    System.getProperty("students.fsync", "always").toUpperCase());
+            System.out.println("Students log: " + dir.toAbsolutePath() + " (fsync " + fsync + ")");
+            return new LogStudentStore(dir, fsync, LogStudentStore.DEFAULT_FSYNC_INTERVAL_MILLIS,
+                    LogStudentStore.DEFAULT_COMPACT_BYTES, LogStudentStore.DEFAULT_COMMIT_WINDOW_MICROS,
+                    LogStudentStore.DEFAULT_MAX_BATCH);
+        }
+        Path dataFile = Path.of(projectDir, "students.txt");
+        System.out.println("Students file path: " + dataFile.toAbsolutePath());
+        return new FileStudentStore(dataFile);
+    }
 }
@@ -4,53 +4,101 @@ import unitbv.devops.models.Student;
 import unitbv.devops.ports.StudentStore;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * File-backed implementation of StudentStore.
  * Each student is stored as a single line in UTF-8: "FirstName;LastName".
  * Thread-safe and uses atomic writes to avoid data corruption.
+ * <p>
+ * The file is read once at startup into an immutable snapshot. Writers build a new list under
+ * the lock, persist it and only then swap the snapshot in, so readers take no lock and do no
+ * disk I/O. Changes made to the file by other processes while running are not seen.
+ * <p>
+ * Writes are group committed: each change is queued, and a caller that finds the lock free
+ * takes everything queued within a short window, up to a batch size, and writes the result with
+ * one rewrite, one fsync and one rename. Then it completes every caller in the batch, so under
+ * many parallel writers the cost of a rewrite is shared instead of paid once per change.
  */
 public class FileStudentStore implements StudentStore {
+    public static final long DEFAULT_COMMIT_WINDOW_MICROS = 500;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final byte CLEAR = 3;
+
     private final Path file;
-    private final Object lock = new Object();
+    private final long commitWindowNanos;
+    private final int maxBatch;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final BlockingQueue<Change> pending = new LinkedBlockingQueue<>();
+    private volatile List<Student> snapshot;
+
+    // Written only under lock
+    private volatile long commits;
+
+    /** One queued change and the caller waiting for it. */
+    private static final class Change {
+        final byte type;
+        final List<Student> added;
+        final int index;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Change(byte type, List<Student> added, int index) {
+            this.type = type;
+            this.added = added;
+            this.index = index;
+        }
+    }
 
     public FileStudentStore(Path file) throws IOException {
+        this(file, DEFAULT_COMMIT_WINDOW_MICROS, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param commitWindowMicros how long a batch waits for more changes once it has one; 0 takes only what is queued
+     * @param maxBatch           most changes written together
+     */
+    public FileStudentStore(Path file, long commitWindowMicros, int maxBatch) throws IOException {
         this.file = file;
+        this.commitWindowNanos = TimeUnit.MICROSECONDS.toNanos(commitWindowMicros);
+        this.maxBatch = Math.max(1, maxBatch);
         initFile();
+        this.snapshot = readFile();
     }
 
     /** Ensure file and parent directory exist. */
     private void initFile() throws IOException {
-        synchronized (lock) {
-            Files.createDirectories(file.getParent());
-            if (Files.notExists(file)) {
-                Files.writeString(file, "", StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
-            }
+        Files.createDirectories(file.getParent());
+        if (Files.notExists(file)) {
+            Files.writeString(file, "", StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
         }
     }
 
-    /** Return all students currently stored. */
+    /** Return all students currently stored, as an unmodifiable snapshot. */
     @Override
-    public List<Student> list() throws IOException {
-        synchronized (lock) {
-            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
-            List<Student> out = new ArrayList<>(lines.size());
-            for (String line : lines) {
-                Student s = Student.fromFileLine(line);
-                if (s != null) out.add(s);
-            }
-            return out;
-        }
+    public List<Student> list() {
+        return snapshot;
     }
 
     /** Count the number of stored students. */
     @Override
-    public int count() throws IOException {
-        return list().size();
+    public int count() {
+        return snapshot.size();
     }
 
     /**
@@ -61,47 +109,137 @@ public class FileStudentStore implements StudentStore {
     @Override
     public void addAll(List<String> names) throws IOException {
         if (names == null || names.isEmpty()) return;
-        synchronized (lock) {
-            List<Student> current = list();
-            for (String n : names) {
-                if (n == null) continue;
-                String trimmed = n.trim();
-                if (trimmed.isEmpty()) continue;
-
-                // Split into first and last by first space
-                String[] parts = trimmed.split("\\s+", 2);
-                String first = parts.length > 0 ? parts[0] : "";
-                String last  = parts.length > 1 ? parts[1] : "";
-                if (!first.isEmpty()) {
-                    current.add(new Student(first, last));
-                }
-            }
-            writeAllAtomic(current);
+        List<Student> added = new ArrayList<>(names.size());
+        for (String n : names) {
+            Student s = Student.fromName(n);
+            if (s != null) added.add(s);
         }
+        if (added.isEmpty()) return;
+        submit(new Change(ADD, added, -1));
     }
 
-    /** Delete a student by index (0-based). */
+    /** Delete a student by index (0-based), as it stands when the change is committed. */
     @Override
     public void deleteByIndex(int index) throws IOException {
-        synchronized (lock) {
-            List<Student> current = list();
-            if (index < 0 || index >= current.size()) {
-                throw new IndexOutOfBoundsException("index out of range");
-            }
-            current.remove(index);
-            writeAllAtomic(current);
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("index out of range");
         }
+        submit(new Change(DELETE, null, index));
     }
 
     /** Clear all students. */
     @Override
     public void clear() throws IOException {
-        synchronized (lock) {
-            writeAllAtomic(List.of());
+        submit(new Change(CLEAR, null, -1));
+    }
+
+    /**
+     * Queues a change and waits until it is committed, or has failed. A caller that finds no
+     * batch being written writes what is queued itself; everyone else only waits. Whoever
+     * finishes a batch looks at the queue again after letting go of the lock, so a change
+     * queued while the lock was taken is never left behind.
+     */
+    private void submit(Change change) throws IOException {
+        pending.add(change);
+        while (!pending.isEmpty() && lock.tryLock()) {
+            try {
+                List<Change> batch = new ArrayList<>();
+                while (!pending.isEmpty()) {
+                    collect(batch);
+                    commit(batch);
+                    batch.clear();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        try {
+            change.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for commit; the change may still be applied");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
         }
     }
 
-    /** Write all students atomically to disk. */
+    /** Takes what is queued and what arrives within the commit window, up to {@code maxBatch}. */
+    private void collect(List<Change> batch) {
+        pending.drainTo(batch, maxBatch);
+        long deadline = System.nanoTime() + commitWindowNanos;
+        try {
+            while (batch.size() < maxBatch) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                Change next = pending.poll(left, TimeUnit.NANOSECONDS);
+                if (next == null) break;
+                batch.add(next);
+                pending.drainTo(batch, maxBatch - batch.size());
+            }
+        } catch (InterruptedException e) {
+            // commit what there is; the caller sees the flag afterwards
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies a batch in order to a copy of the list, writes it once and completes the callers.
+     * A delete whose index is out of range at its turn fails on its own.
+     */
+    private void commit(List<Change> batch) {
+        List<Student> next = new ArrayList<>(snapshot);
+        List<Change> accepted = new ArrayList<>(batch.size());
+        for (Change c : batch) {
+            if (c.type == ADD) {
+                next.addAll(c.added);
+            } else if (c.type == DELETE) {
+                if (c.index >= next.size()) {
+                    c.done.completeExceptionally(new IndexOutOfBoundsException("index out of range"));
+                    continue;
+                }
+                next.remove(c.index);
+            } else {
+                next.clear();
+            }
+            accepted.add(c);
+        }
+        if (accepted.isEmpty()) return;
+
+        try {
+            writeAllAtomic(next);
+        } catch (Throwable t) {
+            // Every caller in the batch must hear back, or it waits for a change no one will commit
+            IOException e = t instanceof IOException ? (IOException) t : new IOException("commit failed", t);
+            for (Change c : accepted) {
+                c.done.completeExceptionally(e);
+            }
+            return;
+        }
+        commits++;
+        for (Change c : accepted) {
+            c.done.complete(null);
+        }
+    }
+
+    /** Batches written so far. */
+    long commits() {
+        return commits;
+    }
+
+    private List<Student> readFile() throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        List<Student> out = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            Student s = Student.fromFileLine(line);
+            if (s != null) out.add(s);
+        }
+        return Collections.unmodifiableList(out);
+    }
+
+    /** Write all students atomically and durably to disk, then publish them as the new snapshot. */
     private void writeAllAtomic(List<Student> students) throws IOException {
         Path tmp = Files.createTempFile(file.getParent(), "students-", ".tmp");
         try {
@@ -109,12 +247,19 @@ public class FileStudentStore implements StudentStore {
             for (Student s : students) {
                 sb.append(s.toFileLine()).append('\n');
             }
-            Files.writeString(tmp, sb.toString(), StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer buf = StandardCharsets.UTF_8.encode(sb.toString());
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                ch.force(true);
+            }
             try {
                 Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
             } catch (AtomicMoveNotSupportedException e) {
                 Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
             }
+            snapshot = Collections.unmodifiableList(students);
         } finally {
             try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
         }
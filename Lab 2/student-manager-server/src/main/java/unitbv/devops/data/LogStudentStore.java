@@ -0,0 +1,677 @@
+package unitbv.devops.data;
+
+import unitbv.devops.models.Student;
+import unitbv.devops.ports.StudentStore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log implementation of StudentStore.
+ * The live list is kept in memory and every change is appended to a log as one checksummed
+ * record before it is applied, so a POST costs a small append instead of a full rewrite.
+ *
+ * <p>Changes are group committed: callers queue them and wait, and a single commit thread takes
+ * whatever arrives within {@code commitWindowMicros} (at most {@code maxBatch} changes), writes
+ * their records with one write and one fsync, applies them in order and then wakes every caller.
+ * Under load many POSTs share one fsync instead of queueing for one each.
+ *
+ * <p>The live list is an immutable copy that the commit thread replaces after each durable batch,
+ * so {@link #list()} and {@link #count()} take no lock and never wait for the disk.
+ *
+ * <p>Files in {@code dir}:
+ * <ul>
+ *   <li>{@code students-<gen>.log}: records {@code length:int crc32:int type:byte body},
+ *       where length and checksum cover type and body</li>
+ *   <li>{@code students.snapshot}: the whole list as it was when log {@code gen} was started</li>
+ * </ul>
+ *
+ * <p>On startup the snapshot is loaded and the logs from its generation on are replayed in order.
+ * A record at the end of the last log that was cut short by a crash, or whose checksum does not
+ * match, is a torn write: the log is truncated there. Once the current log grows past
+ * {@code compactBytes} the commit thread starts a new log and a background thread writes a
+ * snapshot and deletes the old logs, so a restart never replays much more than that.
+ */
+public class LogStudentStore implements StudentStore, Closeable {
+    /** When appended records are forced to disk. */
+    public enum Fsync {
+        /** Once per batch, before its callers return; nothing acknowledged is lost in a crash. */
+        ALWAYS,
+        /** Every {@code fsyncIntervalMillis}; a crash loses at most that much. */
+        INTERVAL,
+        /** Left to the OS, except on log rotation and close. */
+        NEVER
+    }
+
+    public static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_COMPACT_BYTES = 4L * 1024 * 1024;
+    public static final long DEFAULT_COMMIT_WINDOW_MICROS = 500;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private static final String SNAPSHOT = "students.snapshot";
+    private static final String LOG_PREFIX = "students-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int SNAPSHOT_MAGIC = 0x53545553; // "STUS"
+    private static final int RECORD_HEADER = 8;
+    private static final int MAX_RECORD = 64 * 1024 * 1024;
+    /** Body bytes that fit in one record beside its type byte. */
+    private static final int MAX_BODY = MAX_RECORD - 1;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final byte CLEAR = 3;
+
+    private final Path dir;
+    private final Fsync fsync;
+    private final long compactBytes;
+    private final long commitWindowNanos;
+    private final int maxBatch;
+    private final Object lock = new Object();
+    private final BlockingQueue<Change> pending = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService background;
+    private final Thread committer;
+
+    private volatile List<Student> current;
+
+    // Guarded by lock
+    private FileChannel log;
+    private long generation;
+    private boolean dirty;
+    private volatile boolean closed;
+
+    // Only touched by the commit thread once it runs
+    private long logBytes;
+    // Written only by the commit thread
+    private volatile long commits;
+    // Set by the commit thread when the log or the list can no longer be trusted; read by submit
+    private volatile Throwable broken;
+
+    /** One queued change, as one or more records of the same type, and the caller waiting for it. */
+    private static final class Change {
+        final byte type;
+        final List<byte[]> bodies;
+        final List<Student> added;
+        final int index;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Change(byte type, List<byte[]> bodies, List<Student> added, int index) {
+            this.type = type;
+            this.bodies = bodies;
+            this.added = added;
+            this.index = index;
+        }
+    }
+
+    /** A store in {@code dir} that forces every batch to disk, with the default window and sizes. */
+    public static LogStudentStore open(Path dir) throws IOException {
+        return new LogStudentStore(dir, Fsync.ALWAYS, DEFAULT_FSYNC_INTERVAL_MILLIS, DEFAULT_COMPACT_BYTES,
+                DEFAULT_COMMIT_WINDOW_MICROS, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param fsyncIntervalMillis how often {@link Fsync#INTERVAL} forces the log
+     * @param compactBytes        log size after which a snapshot is taken and the log restarted
+     * @param commitWindowMicros  how long a batch waits for more changes once it has one; 0 takes only what is queued
+     * @param maxBatch            most changes written together
+     */
+    public LogStudentStore(Path dir, Fsync fsync, long fsyncIntervalMillis, long compactBytes,
+                           long commitWindowMicros, int maxBatch) throws IOException {
+        this.dir = dir.toAbsolutePath();
+        this.fsync = fsync;
+        this.compactBytes = compactBytes;
+        this.commitWindowNanos = TimeUnit.MICROSECONDS.toNanos(commitWindowMicros);
+        this.maxBatch = Math.max(1, maxBatch);
+        recover();
+
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "student-log");
+            t.setDaemon(true);
+            return t;
+        });
+        if (fsync == Fsync.INTERVAL) {
+            background.scheduleWithFixedDelay(this::flushQuietly,
+                    fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        this.committer = new Thread(this::commitLoop, "student-log-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /** Return all students currently stored, as an unmodifiable snapshot. */
+    @Override
+    public List<Student> list() {
+        return current;
+    }
+
+    /** Count the number of stored students. */
+    @Override
+    public int count() {
+        return current.size();
+    }
+
+    /**
+     * Add a batch of student names.
+     * Each string is expected in "FirstName LastName" format.
+     * Lines are trimmed; empty lines are ignored.
+     * A batch too large for one log record is split at line boundaries into several, all
+     * written in the same commit.
+     */
+    @Override
+    public void addAll(List<String> names) throws IOException {
+        if (names == null || names.isEmpty()) return;
+        List<Student> added = new ArrayList<>(names.size());
+        List<byte[]> bodies = new ArrayList<>(1);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (String n : names) {
+            Student s = Student.fromName(n);
+            if (s == null) continue;
+            byte[] line = (s.toFileLine() + '\n').getBytes(StandardCharsets.UTF_8);
+            if (line.length > MAX_BODY) {
+                throw new IllegalArgumentException("student name too long: " + line.length + " bytes");
+            }
+            if (body.size() + line.length > MAX_BODY) {
+                bodies.add(body.toByteArray());
+                body.reset();
+            }
+            body.write(line, 0, line.length);
+            added.add(s);
+        }
+        if (added.isEmpty()) return;
+        bodies.add(body.toByteArray());
+        submit(new Change(ADD, bodies, added, -1));
+    }
+
+    /** Delete a student by index (0-based), as it stands when the change is committed. */
+    @Override
+    public void deleteByIndex(int index) throws IOException {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("index out of range");
+        }
+        submit(new Change(DELETE, List.of(ByteBuffer.allocate(4).putInt(index).array()), null, index));
+    }
+
+    /** Clear all students. */
+    @Override
+    public void clear() throws IOException {
+        submit(new Change(CLEAR, List.of(new byte[0]), null, -1));
+    }
+
+    /** Commits what is queued, forces the log to disk and stops both threads. Later calls fail. */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            if (log != null) {
+                try {
+                    log.force(false);
+                } finally {
+                    log.close();
+                    log = null;
+                }
+            }
+        }
+    }
+
+    /** Queues a change and waits until it is committed, or has failed. */
+    private void submit(Change change) throws IOException {
+        synchronized (lock) {
+            // Checked under the lock so nothing is queued after the commit thread's last look
+            if (closed) throw new IOException("store is closed");
+            if (broken != null) throw new IOException("store is unusable after a failed commit", broken);
+            pending.add(change);
+        }
+        try {
+            change.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for commit; the change may still be applied");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void commitLoop() {
+        List<Change> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                Change first = pending.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) return;
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+            } catch (InterruptedException e) {
+                // only close() stops this thread, and it does so through the closed flag
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    commit(batch);
+                    if (logBytes >= compactBytes) {
+                        rotate();
+                    }
+                } catch (Throwable t) {
+                    // This thread must outlive the failure, or every later submit() waits forever
+                    if (broken == null) broken = t;
+                    System.err.println("Student log: commit failed: " + t);
+                    IOException e = new IOException("commit failed", t);
+                    for (Change c : batch) {
+                        c.done.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /** Adds to {@code batch} what arrives within the commit window, up to {@code maxBatch}. */
+    private void collect(List<Change> batch) throws InterruptedException {
+        pending.drainTo(batch, maxBatch - batch.size());
+        long deadline = System.nanoTime() + commitWindowNanos;
+        while (batch.size() < maxBatch) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) break;
+            Change next = pending.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) break;
+            batch.add(next);
+            pending.drainTo(batch, maxBatch - batch.size());
+        }
+    }
+
+    /**
+     * Writes the valid changes of a batch as one gathering append and one fsync, then applies
+     * them and wakes their callers. A delete whose index is out of range at its turn fails on
+     * its own.
+     */
+    private void commit(List<Change> batch) {
+        int size = current.size(); // only this thread replaces it
+        List<Change> accepted = new ArrayList<>(batch.size());
+        List<ByteBuffer> records = new ArrayList<>(batch.size() * 2);
+        for (Change c : batch) {
+            if (c.type == DELETE) {
+                if (c.index >= size) {
+                    c.done.completeExceptionally(new IndexOutOfBoundsException("index out of range"));
+                    continue;
+                }
+                size--;
+            } else if (c.type == ADD) {
+                size += c.added.size();
+            } else {
+                size = 0;
+            }
+            accepted.add(c);
+            for (byte[] body : c.bodies) {
+                // Header and body go out as separate buffers, so no batch is copied into one
+                records.add(ByteBuffer.allocate(RECORD_HEADER + 1)
+                        .putInt(1 + body.length).putInt(checksum(c.type, body)).put(c.type).flip());
+                records.add(ByteBuffer.wrap(body));
+            }
+        }
+        if (accepted.isEmpty()) return;
+
+        try {
+            append(records.toArray(new ByteBuffer[0]));
+        } catch (IOException e) {
+            for (Change c : accepted) {
+                c.done.completeExceptionally(e);
+            }
+            return;
+        }
+
+        // Copy on write: readers keep the list they already have
+        List<Student> next = new ArrayList<>(size);
+        next.addAll(current);
+        for (Change c : accepted) {
+            if (c.type == ADD) {
+                next.addAll(c.added);
+            } else if (c.type == DELETE) {
+                next.remove(c.index);
+            } else {
+                next.clear();
+            }
+        }
+        current = Collections.unmodifiableList(next);
+        commits++;
+        for (Change c : accepted) {
+            c.done.complete(null);
+        }
+    }
+
+    /** Batches written so far. */
+    long commits() {
+        return commits;
+    }
+
+    /** Appends encoded records, taking back a partial write so it cannot hide the records after it. */
+    private void append(ByteBuffer[] bufs) throws IOException {
+        if (broken != null) throw new IOException("log is unusable after a failed write", broken);
+        FileChannel ch;
+        synchronized (lock) {
+            if (log == null) {
+                openLog();
+            }
+            ch = log;
+        }
+
+        long total = 0;
+        for (ByteBuffer buf : bufs) {
+            total += buf.remaining();
+        }
+        long start = logBytes;
+        try {
+            for (long written = 0; written < total; ) {
+                written += ch.write(bufs);
+            }
+            if (fsync == Fsync.ALWAYS) {
+                ch.force(false);
+            } else {
+                synchronized (lock) {
+                    dirty = true;
+                }
+            }
+        } catch (IOException e) {
+            try {
+                ch.truncate(start);
+                ch.position(start);
+            } catch (IOException t) {
+                e.addSuppressed(t);
+                broken = e;
+            }
+            throw e;
+        }
+        logBytes = start + total;
+    }
+
+    private void flushQuietly() {
+        FileChannel ch;
+        synchronized (lock) {
+            if (!dirty || log == null) return;
+            ch = log;
+            dirty = false;
+        }
+        // Outside the lock: writers keep appending while the disk catches up
+        try {
+            ch.force(false);
+        } catch (ClosedChannelException e) {
+            // rotated or closed, which forced it already
+        } catch (IOException e) {
+            synchronized (lock) {
+                dirty = true;
+            }
+            System.err.println("Student log: fsync failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a new log and has the background thread write the list as of that point as the
+     * snapshot. The old logs are only deleted once the snapshot is in place, so a crash anywhere
+     * in between still recovers.
+     */
+    private void rotate() {
+        List<Student> copy;
+        long gen;
+        synchronized (lock) {
+            copy = current;
+            try {
+                if (log != null) {
+                    log.force(false);
+                    log.close();
+                    log = null;
+                }
+                generation++;
+                logBytes = 0;
+                dirty = false;
+                openLog();
+            } catch (IOException e) {
+                // the next append opens the log again
+                System.err.println("Student log: rotation failed: " + e.getMessage());
+                return;
+            }
+            gen = generation;
+        }
+        background.execute(() -> {
+            try {
+                writeSnapshot(copy, gen);
+                for (long old : logGenerations()) {
+                    if (old < gen) {
+                        Files.deleteIfExists(logFile(old));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Student log: compaction failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private void openLog() throws IOException {
+        FileChannel ch = FileChannel.open(logFile(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logBytes = ch.size();
+        ch.position(logBytes);
+        log = ch;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(dir);
+        List<Student> students = new ArrayList<>();
+        long snapshotGen = readSnapshot(students);
+
+        List<Long> gens = new ArrayList<>();
+        for (long gen : logGenerations()) {
+            if (gen < snapshotGen) {
+                Files.deleteIfExists(logFile(gen)); // left behind by a compaction that did not finish deleting
+            } else {
+                gens.add(gen);
+            }
+        }
+        for (int i = 0; i < gens.size(); i++) {
+            replay(logFile(gens.get(i)), i == gens.size() - 1, students);
+        }
+        current = Collections.unmodifiableList(students);
+        generation = gens.isEmpty() ? snapshotGen : gens.get(gens.size() - 1);
+        openLog();
+    }
+
+    /** Applies the records of one log. A bad record ends the last log; anywhere else it is an error. */
+    private void replay(Path file, boolean last, List<Student> students) throws IOException {
+        long offset = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 64 * 1024));
+            long size = ch.size();
+            while (offset < size) {
+                byte[] record = readRecord(in, size - offset);
+                if (record == null) {
+                    if (!last) {
+                        throw new IOException("Corrupt record in " + file + " at offset " + offset);
+                    }
+                    System.err.println("Student log: truncating torn tail of " + file + " at offset " + offset
+                            + " (" + (size - offset) + " bytes)");
+                    ch.truncate(offset);
+                    ch.force(false);
+                    return;
+                }
+                apply(record, file, offset, students);
+                offset += RECORD_HEADER + record.length;
+            }
+        }
+    }
+
+    /** Type and body of the next record, or null if it is incomplete or fails its checksum. */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        if (remaining < RECORD_HEADER + 1) return null;
+        int length = in.readInt();
+        int crc = in.readInt();
+        if (length < 1 || length > MAX_RECORD || length > remaining - RECORD_HEADER) return null;
+        byte[] record = new byte[length];
+        try {
+            in.readFully(record);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 check = new CRC32();
+        check.update(record);
+        return (int) check.getValue() == crc ? record : null;
+    }
+
+    private static void apply(byte[] record, Path file, long offset, List<Student> students) throws IOException {
+        switch (record[0]) {
+            case ADD:
+                students.addAll(parse(new String(record, 1, record.length - 1, StandardCharsets.UTF_8)));
+                break;
+            case DELETE:
+                int index = record.length == 5 ? ByteBuffer.wrap(record, 1, 4).getInt() : -1;
+                if (index < 0 || index >= students.size()) {
+                    throw new IOException("Bad delete in " + file + " at offset " + offset);
+                }
+                students.remove(index);
+                break;
+            case CLEAR:
+                students.clear();
+                break;
+            default:
+                throw new IOException("Unknown record type " + record[0] + " in " + file + " at offset " + offset);
+        }
+    }
+
+    /** Loads the snapshot if there is one and returns the first log generation it does not cover. */
+    private long readSnapshot(List<Student> students) throws IOException {
+        Path file = dir.resolve(SNAPSHOT);
+        if (Files.notExists(file)) return 0;
+
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() < 20 || buf.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a student snapshot: " + file);
+        }
+        long gen = buf.getLong();
+        int crc = buf.getInt();
+        int length = buf.getInt();
+        if (length != buf.remaining()) {
+            throw new IOException("Truncated student snapshot: " + file);
+        }
+        CRC32 check = new CRC32();
+        check.update(buf.array(), buf.position(), length);
+        if ((int) check.getValue() != crc) {
+            throw new IOException("Student snapshot fails its checksum: " + file);
+        }
+        students.addAll(parse(new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8)));
+        return gen;
+    }
+
+    /** Replaces the snapshot atomically with {@code list}, to be followed by log {@code gen}. */
+    private void writeSnapshot(List<Student> list, long gen) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Student s : list) {
+            sb.append(s.toFileLine()).append('\n');
+        }
+        byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 check = new CRC32();
+        check.update(body);
+        ByteBuffer buf = ByteBuffer.allocate(20 + body.length);
+        buf.putInt(SNAPSHOT_MAGIC).putLong(gen).putInt((int) check.getValue()).putInt(body.length).put(body).flip();
+
+        Path file = dir.resolve(SNAPSHOT);
+        Path tmp = Files.createTempFile(dir, "students-", ".snapshot.tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                ch.force(true);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory();
+        } finally {
+            try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Makes the rename durable; not every platform can open a directory, which is fine there. */
+    private void syncDirectory() {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private List<Long> logGenerations() throws IOException {
+        List<Long> gens = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+                    try {
+                        gens.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            });
+        }
+        gens.sort(null);
+        return gens;
+    }
+
+    private Path logFile(long gen) {
+        return dir.resolve(String.format("%s%010d%s", LOG_PREFIX, gen, LOG_SUFFIX));
+    }
+
+    private static List<Student> parse(String lines) {
+        List<Student> out = new ArrayList<>();
+        for (String line : lines.split("\n")) {
+            Student s = Student.fromFileLine(line);
+            if (s != null) out.add(s);
+        }
+        return out;
+    }
+
+    private static int checksum(byte type, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
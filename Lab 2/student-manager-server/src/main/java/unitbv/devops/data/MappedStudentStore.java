@@ -0,0 +1,507 @@
+package unitbv.devops.data;
+
+import unitbv.devops.models.Student;
+import unitbv.devops.ports.StudentStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory-mapped implementation of StudentStore for large lists.
+ * The data file is mapped in 1 GiB segments and the heap only holds one {@code long} per live
+ * student: the offset where its record starts, kept in an {@link OffsetIndex}. Looking a student
+ * up by index is a search over the index chunks, one array read and one decode, and
+ * {@link #list()} is a lazy view, so a {@code subList} of it decodes only the students it returns.
+ *
+ * <p>File layout: a header {@code magic:int reserved:int end:long}, then records
+ * {@code flag:byte length:int utf8("First;Last")}. Records are written past {@code end} and
+ * forced before the header moves {@code end} over them, so a crash mid-write leaves them unseen.
+ * A delete only flips the record's flag to a tombstone. Once tombstones take up half the file a
+ * background thread copies the live records to a new file and swaps it in.
+ *
+ * <p>Writers hold the lock; readers take the current view and never lock. Bytes a view can see
+ * are never overwritten: clear and compaction write a new file, and the old mapping stays valid
+ * for views still reading it.
+ */
+public class MappedStudentStore implements StudentStore, Closeable {
+    public static final long DEFAULT_COMPACT_MIN_BYTES = 1024 * 1024;
+
+    private static final int MAGIC = 0x5354554d; // "STUM"
+    private static final int HEADER = 16;
+    private static final int END_AT = 8;
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT = 1L << SEGMENT_SHIFT;
+    private static final long MIN_GROWTH = 1024 * 1024;
+    private static final int RECORD_HEADER = 5;
+    private static final byte LIVE = 0;
+    private static final byte DEAD = 1;
+
+    private final Path file;
+    private final long compactMinBytes;
+    private final Object lock = new Object();
+    private final ExecutorService compactor;
+
+    // Guarded by lock
+    private FileChannel channel;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long end;
+    private OffsetIndex index;
+    private long deadBytes;
+    private long fileGeneration;
+    private boolean compacting;
+    private boolean closed;
+
+    private volatile View current;
+
+    /**
+     * The students of one moment: offsets into a mapping that is never overwritten below them.
+     * Decodes on {@link #get(int)}; read-only like every {@link AbstractList} that does not
+     * override the mutators.
+     */
+    private static final class View extends AbstractList<Student> implements RandomAccess {
+        private final MappedByteBuffer[] segments;
+        private final OffsetIndex offsets;
+
+        View(MappedByteBuffer[] segments, OffsetIndex offsets) {
+            this.segments = segments;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public Student get(int index) {
+            long pos = offsets.get(index);
+            byte[] bytes = new byte[readInt(segments, pos + 1)];
+            read(segments, pos + RECORD_HEADER, bytes);
+            return Student.fromFileLine(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int size() {
+            return offsets.size();
+        }
+    }
+
+    public MappedStudentStore(Path file) throws IOException {
+        this(file, DEFAULT_COMPACT_MIN_BYTES);
+    }
+
+    /** @param compactMinBytes tombstoned bytes below which the file is never compacted */
+    public MappedStudentStore(Path file, long compactMinBytes) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.compactMinBytes = compactMinBytes;
+        synchronized (lock) {
+            if (this.file.getParent() != null) {
+                Files.createDirectories(this.file.getParent());
+            }
+            open();
+        }
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "student-compact");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Return all students currently stored, as an unmodifiable view decoded on access. */
+    @Override
+    public List<Student> list() {
+        return current;
+    }
+
+    /** Count the number of stored students. */
+    @Override
+    public int count() {
+        return current.size();
+    }
+
+    /**
+     * Add a batch of student names.
+     * Each string is expected in "FirstName LastName" format.
+     * Lines are trimmed; empty lines are ignored.
+     */
+    @Override
+    public void addAll(List<String> names) throws IOException {
+        if (names == null || names.isEmpty()) return;
+        List<byte[]> records = new ArrayList<>(names.size());
+        long total = 0;
+        for (String n : names) {
+            Student s = Student.fromName(n);
+            if (s != null) {
+                byte[] record = encode(s);
+                records.add(record);
+                total += record.length;
+            }
+        }
+        if (records.isEmpty()) return;
+
+        synchronized (lock) {
+            ensureOpen();
+            ensureCapacity(end + total);
+            long[] added = new long[records.size()];
+            long pos = end;
+            int n = 0;
+            for (byte[] record : records) {
+                write(pos, record);
+                added[n++] = pos;
+                pos += record.length;
+            }
+            force(end, pos - end);
+            setEnd(pos);
+            index = index.append(added, n);
+            publish();
+        }
+    }
+
+    /** Delete a student by index (0-based). */
+    @Override
+    public void deleteByIndex(int i) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (i < 0 || i >= index.size()) {
+                throw new IndexOutOfBoundsException("index out of range");
+            }
+            long pos = index.get(i);
+            segment(pos).put(offsetIn(pos), DEAD);
+            force(pos, 1);
+
+            index = index.remove(i);
+            deadBytes += RECORD_HEADER + readInt(segments, pos + 1);
+            publish();
+            maybeCompact();
+        }
+    }
+
+    /** Clear all students. */
+    @Override
+    public void clear() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            Path tmp = Files.createTempFile(file.getParent(), "students-", ".dat.tmp");
+            try {
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    ch.write(header(HEADER));
+                    ch.force(true);
+                }
+                install(tmp, OffsetIndex.empty(), 0);
+            } finally {
+                try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /** Waits for a running compaction and closes the file. Views already handed out stay readable. */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("store is closed");
+    }
+
+    /** Maps the file, creating it if needed, and indexes its live records. */
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            channel.write(header(HEADER), 0);
+            channel.force(true);
+        }
+        capacity = channel.size();
+        segments = map(channel, capacity, new MappedByteBuffer[0]);
+
+        if (capacity < HEADER || segments[0].getInt(0) != MAGIC) {
+            throw new IOException("Not a student data file: " + file);
+        }
+        end = segments[0].getLong(END_AT);
+        if (end < HEADER || end > capacity) {
+            throw new IOException("Bad end offset " + end + " in " + file);
+        }
+
+        index = OffsetIndex.empty();
+        long[] live = new long[OffsetIndex.CHUNK];
+        int pendingLive = 0;
+        deadBytes = 0;
+        long pos = HEADER;
+        while (pos < end) {
+            if (end - pos < RECORD_HEADER) {
+                throw new IOException("Truncated record in " + file + " at offset " + pos);
+            }
+            byte flag = segment(pos).get(offsetIn(pos));
+            int length = readInt(segments, pos + 1);
+            if (length < 0 || length > end - pos - RECORD_HEADER || (flag != LIVE && flag != DEAD)) {
+                throw new IOException("Corrupt record in " + file + " at offset " + pos);
+            }
+            if (flag == LIVE) {
+                live[pendingLive++] = pos;
+                if (pendingLive == live.length) {
+                    index = index.append(live, pendingLive);
+                    pendingLive = 0;
+                }
+            } else {
+                deadBytes += RECORD_HEADER + length;
+            }
+            pos += RECORD_HEADER + length;
+        }
+        index = index.append(live, pendingLive);
+        publish();
+    }
+
+    private void publish() {
+        current = new View(segments, index);
+    }
+
+    /** Grows the file, and its mapping, so that {@code needed} bytes fit. */
+    private void ensureCapacity(long needed) throws IOException {
+        if (needed <= capacity) return;
+        long grown = capacity + Math.max(MIN_GROWTH, Math.min(capacity, SEGMENT));
+        capacity = Math.max(needed, grown);
+        segments = map(channel, capacity, segments);
+    }
+
+    /** Maps {@code capacity} bytes, reusing the segments that already have the right size. */
+    private static MappedByteBuffer[] map(FileChannel ch, long capacity, MappedByteBuffer[] old) throws IOException {
+        int n = (int) ((capacity + SEGMENT - 1) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] next = Arrays.copyOf(old, n);
+        for (int k = 0; k < n; k++) {
+            long start = (long) k << SEGMENT_SHIFT;
+            long length = Math.min(SEGMENT, capacity - start);
+            if (next[k] == null || next[k].capacity() != length) {
+                next[k] = ch.map(FileChannel.MapMode.READ_WRITE, start, length);
+            }
+        }
+        return next;
+    }
+
+    private void setEnd(long newEnd) {
+        segments[0].putLong(END_AT, newEnd);
+        segments[0].force(0, HEADER);
+        end = newEnd;
+    }
+
+    private void maybeCompact() {
+        if (compacting || closed || deadBytes < compactMinBytes || deadBytes * 2 < end - HEADER) return;
+        compacting = true;
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("Student data: compaction failed: " + e.getMessage());
+            } finally {
+                synchronized (lock) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies the live records of the current view to a new file without the lock. Then, under
+     * the lock, tombstones in the copy what was deleted meanwhile, appends what was added
+     * meanwhile and swaps the file in. Gives up only if clear replaced the file first.
+     */
+    private void compact() throws IOException {
+        View view;
+        long seen;
+        synchronized (lock) {
+            if (closed) return;
+            view = current;
+            seen = fileGeneration;
+        }
+
+        Path tmp = Files.createTempFile(file.getParent(), "students-", ".dat.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            OffsetIndex old = view.offsets;
+            OffsetIndex copied = OffsetIndex.empty();
+            long[] batch = new long[OffsetIndex.CHUNK];
+            int n = 0;
+            ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+            long pos = HEADER;
+            out.position(HEADER);
+            for (int i = 0; i < old.size(); i++) {
+                batch[n++] = pos;
+                if (n == batch.length) {
+                    copied = copied.append(batch, n);
+                    n = 0;
+                }
+                pos = copyRecord(view.segments, old.get(i), out, buf, pos);
+            }
+            copied = copied.append(batch, n);
+            n = 0;
+            flush(out, buf);
+
+            synchronized (lock) {
+                if (closed || fileGeneration != seen) return;
+                // Both offset lists are in file order: walk them together to map old to new
+                OffsetIndex moved = OffsetIndex.empty();
+                long dead = 0;
+                int i = 0;
+                for (int j = 0; j < index.size(); j++) {
+                    long at = index.get(j);
+                    while (i < old.size() && old.get(i) != at) {
+                        dead += markDead(out, copied.get(i), view.segments, old.get(i));
+                        i++;
+                    }
+                    if (i < old.size()) {
+                        batch[n++] = copied.get(i++);
+                    } else {
+                        batch[n++] = pos;
+                        pos = copyRecord(segments, at, out, buf, pos);
+                    }
+                    if (n == batch.length) {
+                        moved = moved.append(batch, n);
+                        n = 0;
+                    }
+                }
+                moved = moved.append(batch, n);
+                for (; i < old.size(); i++) {
+                    dead += markDead(out, copied.get(i), view.segments, old.get(i));
+                }
+                flush(out, buf);
+                out.write(header(pos), 0);
+                out.force(true);
+                install(tmp, moved, dead);
+            }
+        } finally {
+            try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Tombstones a record of the copy that was deleted after it was copied; returns its size. */
+    private static long markDead(FileChannel out, long at, MappedByteBuffer[] from, long was) throws IOException {
+        out.write(ByteBuffer.wrap(new byte[] {DEAD}), at);
+        return recordLength(from, was);
+    }
+
+    /** Replaces the data file with {@code tmp}, whose live records start at {@code newIndex}. */
+    private void install(Path tmp, OffsetIndex newIndex, long newDeadBytes) throws IOException {
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // The old mapping outlives its channel, so views still reading it are unaffected
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        capacity = channel.size();
+        segments = map(channel, capacity, new MappedByteBuffer[0]);
+        end = segments[0].getLong(END_AT);
+        index = newIndex;
+        deadBytes = newDeadBytes;
+        fileGeneration++;
+        publish();
+    }
+
+    private static long copyRecord(MappedByteBuffer[] from, long at, FileChannel out, ByteBuffer buf, long pos)
+            throws IOException {
+        byte[] record = new byte[(int) recordLength(from, at)];
+        read(from, at, record);
+        if (buf.remaining() < record.length) {
+            flush(out, buf);
+        }
+        if (record.length > buf.capacity()) {
+            out.write(ByteBuffer.wrap(record));
+        } else {
+            buf.put(record);
+        }
+        return pos + record.length;
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static long recordLength(MappedByteBuffer[] segs, long pos) {
+        return RECORD_HEADER + readInt(segs, pos + 1);
+    }
+
+    private static ByteBuffer header(long end) {
+        return ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(0).putLong(end).flip();
+    }
+
+    private static byte[] encode(Student s) {
+        byte[] text = s.toFileLine().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(RECORD_HEADER + text.length).put(LIVE).putInt(text.length).put(text).array();
+    }
+
+    private MappedByteBuffer segment(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offsetIn(long pos) {
+        return (int) (pos & (SEGMENT - 1));
+    }
+
+    private void write(long pos, byte[] src) {
+        int done = 0;
+        while (done < src.length) {
+            MappedByteBuffer seg = segment(pos + done);
+            int at = offsetIn(pos + done);
+            int n = Math.min(src.length - done, seg.capacity() - at);
+            seg.put(at, src, done, n);
+            done += n;
+        }
+    }
+
+    private void force(long pos, long length) {
+        while (length > 0) {
+            MappedByteBuffer seg = segment(pos);
+            int at = offsetIn(pos);
+            int n = (int) Math.min(length, seg.capacity() - at);
+            seg.force(at, n);
+            pos += n;
+            length -= n;
+        }
+    }
+
+    private static void read(MappedByteBuffer[] segs, long pos, byte[] dst) {
+        int done = 0;
+        while (done < dst.length) {
+            MappedByteBuffer seg = segs[(int) ((pos + done) >>> SEGMENT_SHIFT)];
+            int at = offsetIn(pos + done);
+            int n = Math.min(dst.length - done, seg.capacity() - at);
+            seg.get(at, dst, done, n);
+            done += n;
+        }
+    }
+
+    private static int readInt(MappedByteBuffer[] segs, long pos) {
+        MappedByteBuffer seg = segs[(int) (pos >>> SEGMENT_SHIFT)];
+        int at = offsetIn(pos);
+        if (at + 4 <= seg.capacity()) {
+            return seg.getInt(at);
+        }
+        byte[] b = new byte[4];
+        read(segs, pos, b);
+        return ByteBuffer.wrap(b).getInt();
+    }
+}
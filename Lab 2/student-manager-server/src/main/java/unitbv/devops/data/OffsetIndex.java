@@ -0,0 +1,122 @@
+package unitbv.devops.data;
+
+import java.util.Arrays;
+
+/**
+ * An immutable list of {@code long} file offsets, in chunks of up to {@link #CHUNK} entries.
+ * <p>
+ * Every change returns a new index and leaves this one readable as it was:
+ * <ul>
+ *   <li>{@link #remove(int)} copies the one chunk it changes and the per-chunk tables
+ *       (one pointer and one {@code int} per chunk), not the offsets themselves</li>
+ *   <li>{@link #append(long[], int)} fills chunks in place, but only slots and table entries
+ *       past the end of every index that shares them, so older indexes never see it</li>
+ * </ul>
+ * Only the newest index may be appended to. Lookup by position is a binary search over the
+ * chunk starts followed by one array read.
+ */
+final class OffsetIndex {
+    static final int CHUNK = 1024;
+
+    private final long[][] chunks;
+    /** Position of the first entry of each chunk. */
+    private final int[] starts;
+    private final int chunkCount;
+    private final int size;
+
+    private OffsetIndex(long[][] chunks, int[] starts, int chunkCount, int size) {
+        this.chunks = chunks;
+        this.starts = starts;
+        this.chunkCount = chunkCount;
+        this.size = size;
+    }
+
+    static OffsetIndex empty() {
+        return new OffsetIndex(new long[][] {new long[CHUNK]}, new int[1], 1, 0);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range for size " + size);
+        }
+        int k = chunkOf(index);
+        return chunks[k][index - starts[k]];
+    }
+
+    /** This index with the first {@code count} entries of {@code offsets} added at the end. */
+    OffsetIndex append(long[] offsets, int count) {
+        long[][] cs = chunks;
+        int[] st = starts;
+        int n = chunkCount;
+        int total = size;
+        for (int i = 0; i < count; i++) {
+            int used = total - st[n - 1];
+            if (used == CHUNK) {
+                if (n == cs.length) {
+                    cs = Arrays.copyOf(cs, n * 2);
+                    st = Arrays.copyOf(st, n * 2);
+                }
+                cs[n] = new long[CHUNK];
+                st[n] = total;
+                n++;
+                used = 0;
+            }
+            cs[n - 1][used] = offsets[i];
+            total++;
+        }
+        return new OffsetIndex(cs, st, n, total);
+    }
+
+    /** This index without the entry at {@code index}. */
+    OffsetIndex remove(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range for size " + size);
+        }
+        int k = chunkOf(index);
+        int used = chunkSize(k);
+        long[][] cs = Arrays.copyOf(chunks, chunks.length);
+        int[] st = Arrays.copyOf(starts, starts.length);
+        int n = chunkCount;
+        if (used == 1 && n > 1) {
+            // Drop the emptied chunk rather than keep a hole in the tables
+            System.arraycopy(cs, k + 1, cs, k, n - k - 1);
+            System.arraycopy(st, k + 1, st, k, n - k - 1);
+            n--;
+            cs[n] = null;
+        } else {
+            long[] chunk = new long[CHUNK];
+            int at = index - starts[k];
+            System.arraycopy(chunks[k], 0, chunk, 0, at);
+            System.arraycopy(chunks[k], at + 1, chunk, at, used - at - 1);
+            cs[k] = chunk;
+            k++;
+        }
+        for (int j = k; j < n; j++) {
+            st[j]--;
+        }
+        return new OffsetIndex(cs, st, n, size - 1);
+    }
+
+    private int chunkSize(int k) {
+        return (k + 1 < chunkCount ? starts[k + 1] : size) - starts[k];
+    }
+
+    /** The last chunk starting at or before {@code index}. */
+    private int chunkOf(int index) {
+        int lo = 0;
+        int hi = chunkCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
@@ -7,18 +7,34 @@ import unitbv.devops.ports.StudentStore;
 import unitbv.devops.util.HttpUtils;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Handles /students
- * - GET  /students       -> list students with indices (text/plain)
+ * - GET  /students       -> list students with indices (text/plain, streamed chunked)
+ * - GET  /students?offset=20&limit=10 -> one page; indices stay absolute
+ * - GET  /students?cursor=...&limit=10 -> the page after the one that returned the cursor
  * - POST /students       -> add students (text/plain body; one per line: "FirstName LastName")
  * <p>
+ * A page that is not the last names the next one in a {@code Link: <...>; rel="next"} header
+ * and a final "# next: ..." line. Its cursor remembers the last student returned, so students
+ * deleted before it do not make the next page skip anyone.
+ * <p>
  * DELETE and other methods are intentionally left for students to implement later.
  */
 public class StudentHandler implements HttpHandler {
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+    /** How far back a cursor looks for its student after deletes moved it. */
+    private static final int CURSOR_SEARCH = 1024;
+    private static final int STREAM_BUFFER = 16 * 1024;
+
     private final StudentStore store;
 
     public StudentHandler(StudentStore store) {
@@ -37,32 +53,137 @@ public class StudentHandler implements HttpHandler {
                 ex.close();
             }
         }
-        System.out.println("[/students " + method + "] on " + Thread.currentThread().getName());
     }
 
     private void handleGet(HttpExchange ex) throws IOException {
-        List<Student> students = store.list();
+        Map<String, List<String>> params = HttpUtils.queryParams(ex);
+        List<Student> students = store.list(); // a snapshot: stays consistent while we write it
+        if (!params.containsKey("offset") && !params.containsKey("limit") && !params.containsKey("cursor")) {
+            streamAll(ex, students);
+            return;
+        }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("# Students (").append(students.size()).append(")\n");
-        if (students.isEmpty()) {
-            sb.append("(empty)\n");
-        } else {
-            for (int i = 0; i < students.size(); i++) {
-                Student s = students.get(i);
-                sb.append(i).append(": ")
-                        .append(s.firstName()).append(" ").append(s.lastName())
-                        .append("\n");
+        int from;
+        int limit;
+        try {
+            limit = intParam(params, "limit", DEFAULT_LIMIT);
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+            }
+            if (params.containsKey("cursor")) {
+                from = resolveCursor(first(params, "cursor"), students);
+            } else {
+                from = intParam(params, "offset", 0);
+                if (from < 0) throw new IllegalArgumentException("offset must not be negative");
             }
+        } catch (IllegalArgumentException e) {
+            HttpUtils.sendText(ex, 400, "ERROR: " + e.getMessage() + "\n");
+            return;
+        }
+
+        int total = students.size();
+        from = Math.min(from, total);
+        int to = (int) Math.min((long) from + limit, total);
+        StringBuilder sb = new StringBuilder();
+        appendHeader(sb, total);
+        List<Student> page = students.subList(from, to);
+        for (int i = 0; i < page.size(); i++) {
+            appendLine(sb, from + i, page.get(i));
+        }
+        if (to < total) {
+            String next = "/students?limit=" + limit + "&cursor=" + cursor(to, students.get(to - 1));
+            ex.getResponseHeaders().add("Link", "<" + next + ">; rel=\"next\"");
+            sb.append("# next: ").append(next).append("\n");
         }
+        HttpUtils.sendText(ex, 200, sb.toString());
+    }
 
-        byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+    /** Writes the whole list chunked, each student as it is read, instead of building it first. */
+    private void streamAll(HttpExchange ex, List<Student> students) throws IOException {
         ex.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
-        ex.sendResponseHeaders(200, body.length);
-        ex.getResponseBody().write(body);
+        ex.sendResponseHeaders(200, 0); // 0 = unknown length, chunked
+        StringBuilder sb = new StringBuilder(STREAM_BUFFER + 256);
+        try (Writer out = new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8)) {
+            appendHeader(sb, students.size());
+            int i = 0;
+            for (Student s : students) {
+                appendLine(sb, i++, s);
+                if (sb.length() >= STREAM_BUFFER) {
+                    out.append(sb);
+                    sb.setLength(0);
+                }
+            }
+            out.append(sb);
+        }
         ex.close();
     }
 
+    private static void appendHeader(StringBuilder sb, int total) {
+        sb.append("# Students (").append(total).append(")\n");
+        if (total == 0) {
+            sb.append("(empty)\n");
+        }
+    }
+
+    private static void appendLine(StringBuilder sb, int index, Student s) {
+        sb.append(index).append(": ")
+                .append(s.firstName()).append(" ").append(s.lastName())
+                .append("\n");
+    }
+
+    /** "index.hash": where the next page starts and a hash of the student just before it. */
+    private static String cursor(int next, Student last) {
+        String raw = next + "." + Integer.toHexString(last.toFileLine().hashCode());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Where the page after {@code cursor} starts. Deletes only move students to lower indices,
+     * so if the remembered student is no longer just before the saved index it is looked for a
+     * little further back; if it is gone the saved index is used as it is.
+     */
+    private static int resolveCursor(String cursor, List<Student> students) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+        int dot = raw.indexOf('.');
+        int next;
+        int hash;
+        try {
+            next = Integer.parseInt(raw.substring(0, Math.max(dot, 0)));
+            hash = Integer.parseUnsignedInt(raw.substring(dot + 1), 16);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+        if (next < 1) throw new IllegalArgumentException("invalid cursor");
+
+        int last = Math.min(next, students.size()) - 1;
+        for (int i = last; i >= 0 && i > last - CURSOR_SEARCH; i--) {
+            if (students.get(i).toFileLine().hashCode() == hash) {
+                return i + 1;
+            }
+        }
+        return next;
+    }
+
+    private static String first(Map<String, List<String>> params, String key) {
+        List<String> vals = params.get(key);
+        return vals == null || vals.isEmpty() ? "" : vals.get(0);
+    }
+
+    private static int intParam(Map<String, List<String>> params, String key, int dflt) {
+        if (!params.containsKey(key)) return dflt;
+        String v = first(params, key).trim();
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a number");
+        }
+    }
+
     private void handlePost(HttpExchange ex) throws IOException {
         // Expecting text/plain, one student per line: "FirstName LastName"
         String raw = HttpUtils.readBody(ex);
@@ -0,0 +1,47 @@
+package unitbv.devops.http;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import unitbv.devops.util.AccessLog;
+
+import java.io.IOException;
+
+/**
+ * Logs every exchange of a context to an {@link AccessLog} once its handler is done.
+ * Add it with {@code server.createContext(...).getFilters().add(new AccessLogFilter(log))}.
+ */
+public class AccessLogFilter extends Filter {
+    private final AccessLog log;
+
+    public AccessLogFilter(AccessLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(ex);
+        } finally {
+            // -1 until the handler sent the response headers
+            int status = ex.getResponseCode();
+            log.log(ex.getRequestMethod(), ex.getRequestURI().getRawPath(), status, contentLength(ex),
+                    System.nanoTime() - start);
+        }
+    }
+
+    private static long contentLength(HttpExchange ex) {
+        String value = ex.getResponseHeaders().getFirst("Content-length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Writes one access log line per exchange";
+    }
+}
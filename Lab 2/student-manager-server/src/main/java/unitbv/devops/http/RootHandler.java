@@ -23,6 +23,7 @@ public class RootHandler implements HttpHandler {
 
                 Available endpoints (planned):
                 - GET  /students        -> list students with indices
+                - GET  /students?offset=0&limit=100 -> one page (follow "# next:" for the rest)
                 - POST /students        -> add students (text/plain, one per line: "First Last")
                 - GET  /count           -> total number of students
                 - DELETE /students      -> clear all, or ?i=<index> to delete one
@@ -37,7 +38,5 @@ public class RootHandler implements HttpHandler {
         ex.sendResponseHeaders(200, bytes.length);
         ex.getResponseBody().write(bytes);
         ex.close();
-
-        System.out.println("[/] GET on " + Thread.currentThread().getName());
     }
 }
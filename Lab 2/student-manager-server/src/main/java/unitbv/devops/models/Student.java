@@ -28,6 +28,23 @@ public final class Student {
         return firstName + ";" + lastName;
     }
 
+    /** Parse a name as typed by a client ("Ana Popescu" -> first "Ana", last "Popescu"), or null if blank. */
+    public static Student fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        String trimmed = name.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+
+        // Split into first and last by first space
+        String[] parts = trimmed.split("\\s+", 2);
+        String first = parts[0];
+        String last  = parts.length > 1 ? parts[1] : "";
+        return first.isEmpty() ? null : new Student(first, last);
+    }
+
     /** Parse a line from file ("Ana;Popescu" -> new Student("Ana", "Popescu")). */
     public static Student fromFileLine(String line) {
         if (line == null || line.isBlank()) {
@@ -16,7 +16,8 @@ public interface StudentStore {
     /**
      * Returns all students currently stored.
      *
-     * @return list of students (never null, may be empty)
+     * @return list of students (never null, may be empty); may be an unmodifiable
+     *         snapshot, so callers must not change it
      * @throws IOException if file read fails
      */
     List<Student> list() throws IOException;
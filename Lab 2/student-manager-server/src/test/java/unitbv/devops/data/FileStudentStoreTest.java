@@ -0,0 +1,66 @@
+package unitbv.devops.data;
+
+import static unitbv.devops.data.LogStudentStoreTest.deleteTree;
+import static unitbv.devops.data.LogStudentStoreTest.names;
+import static unitbv.devops.data.LogStudentStoreTest.writeConcurrently;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class FileStudentStoreTest extends TestCase {
+    private Path dir;
+    private Path file;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("student-file-test");
+        file = dir.resolve("students.txt");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        deleteTree(dir);
+    }
+
+    public void testChangesReachTheFile() throws IOException {
+        FileStudentStore store = new FileStudentStore(file);
+        store.addAll(List.of("Ana Popescu", "  ", "Bogdan Ionescu", "Cristina Matei"));
+        store.deleteByIndex(1);
+        assertEquals(List.of("Ana Popescu", "Cristina Matei"), names(store.list()));
+        assertEquals("Ana;Popescu\nCristina;Matei\n", Files.readString(file, StandardCharsets.UTF_8));
+
+        store.clear();
+        store.addAll(List.of("Dan Stan"));
+        assertEquals(List.of("Dan Stan"), names(new FileStudentStore(file).list()));
+    }
+
+    public void testDeleteOutOfRangeFailsAlone() throws IOException {
+        FileStudentStore store = new FileStudentStore(file);
+        store.addAll(List.of("Ana Popescu"));
+        try {
+            store.deleteByIndex(1);
+            fail("deleted past the end");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            store.deleteByIndex(-1);
+            fail("deleted before the start");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        store.addAll(List.of("Bogdan Ionescu"));
+        assertEquals(List.of("Ana Popescu", "Bogdan Ionescu"), names(new FileStudentStore(file).list()));
+    }
+
+    public void testConcurrentWritersShareCommits() throws Exception {
+        FileStudentStore store = new FileStudentStore(file, 2000, 64);
+        List<String> written = writeConcurrently(store, 16, 40);
+        // 40 adds and 10 deletes from each writer
+        assertTrue("batched: " + store.commits(), store.commits() < 16 * 50);
+        assertEquals(written, names(new FileStudentStore(file).list()));
+    }
+}
@@ -0,0 +1,296 @@
+package unitbv.devops.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+import unitbv.devops.models.Student;
+import unitbv.devops.ports.StudentStore;
+
+public class LogStudentStoreTest extends TestCase {
+    private Path dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("student-log-test");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        deleteTree(dir);
+    }
+
+    public void testReopenReplaysLog() throws IOException {
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            store.addAll(List.of("Ana Popescu", "Bogdan Ionescu", "  ", "Cristina Matei"));
+            store.deleteByIndex(1);
+            store.clear();
+            store.addAll(List.of("Dan Stan", "Elena Radu"));
+            store.deleteByIndex(0);
+        }
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            assertEquals(List.of("Elena Radu"), names(store.list()));
+        }
+    }
+
+    public void testReplayAcrossRotation() throws IOException {
+        // Every commit passes 256 bytes now and then, so the log rotates and snapshots all along
+        List<String> expected = new ArrayList<>();
+        Random random = new Random(21);
+        try (LogStudentStore store = open(256)) {
+            for (int i = 0; i < 500; i++) {
+                if (!expected.isEmpty() && random.nextInt(3) == 0) {
+                    int index = random.nextInt(expected.size());
+                    store.deleteByIndex(index);
+                    expected.remove(index);
+                } else {
+                    String name = "First" + i + " Last" + i;
+                    store.addAll(List.of(name));
+                    expected.add(name);
+                }
+            }
+            assertEquals(expected, names(store.list()));
+        }
+        assertTrue(Files.exists(dir.resolve("students.snapshot")));
+        assertEquals("older logs are gone", 1, logs().size());
+        try (LogStudentStore store = open(256)) {
+            assertEquals(expected, names(store.list()));
+        }
+    }
+
+    public void testTornTailIsTruncated() throws IOException {
+        long first = twoCommits();
+        Path log = dir.resolve(logName(0));
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            assertEquals(List.of("Ana Popescu"), names(store.list()));
+            assertEquals(first, Files.size(log));
+            // appends go after the last good record
+            store.addAll(List.of("Dan Stan"));
+        }
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            assertEquals(List.of("Ana Popescu", "Dan Stan"), names(store.list()));
+        }
+    }
+
+    public void testBadChecksumTailIsTruncated() throws IOException {
+        long first = twoCommits();
+        Path log = dir.resolve(logName(0));
+        flipLastByte(log);
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            assertEquals(List.of("Ana Popescu"), names(store.list()));
+            assertEquals(first, Files.size(log));
+        }
+    }
+
+    public void testCorruptRecordBeforeLastLogFails() throws IOException {
+        twoCommits();
+        flipLastByte(dir.resolve(logName(0)));
+        Files.createFile(dir.resolve(logName(1)));
+        try {
+            LogStudentStore.open(dir).close();
+            fail("opened a store with a corrupt log that is not the last");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt record"));
+        }
+    }
+
+    public void testCrashBetweenRotationAndSnapshot() throws IOException {
+        // What a crash leaves when a rotation has opened log 1 but the snapshot was never written
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            store.addAll(List.of("Ana Popescu", "Bogdan Ionescu"));
+        }
+        Path first = Files.move(dir.resolve(logName(0)), dir.resolveSibling(dir.getFileName() + ".log0"));
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            store.addAll(List.of("Cristina Matei"));
+            store.deleteByIndex(0);
+        }
+        Files.move(dir.resolve(logName(0)), dir.resolve(logName(1)));
+        Files.move(first, dir.resolve(logName(0)));
+
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            // log 0 and then log 1: the delete applies to the list log 0 left
+            assertEquals(List.of("Bogdan Ionescu", "Cristina Matei"), names(store.list()));
+            store.addAll(List.of("Dan Stan"));
+        }
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            assertEquals(List.of("Bogdan Ionescu", "Cristina Matei", "Dan Stan"), names(store.list()));
+        }
+    }
+
+    public void testLogsOlderThanSnapshotAreDropped() throws IOException {
+        // What a crash leaves when the snapshot was written but the old logs not yet deleted
+        Path other = Files.createTempDirectory("student-log-test");
+        try {
+            try (LogStudentStore store = LogStudentStore.open(other)) {
+                store.addAll(List.of("Old Record"));
+            }
+            try (LogStudentStore store = open(1)) {
+                store.addAll(List.of("Ana Popescu"));
+                store.addAll(List.of("Bogdan Ionescu"));
+            }
+            Files.copy(other.resolve(logName(0)), dir.resolve(logName(0)));
+        } finally {
+            deleteTree(other);
+        }
+        try (LogStudentStore store = open(1)) {
+            assertEquals(List.of("Ana Popescu", "Bogdan Ionescu"), names(store.list()));
+        }
+        assertFalse(Files.exists(dir.resolve(logName(0))));
+    }
+
+    public void testDeleteOutOfRangeFailsAlone() throws IOException {
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            store.addAll(List.of("Ana Popescu"));
+            try {
+                store.deleteByIndex(1);
+                fail("deleted past the end");
+            } catch (IndexOutOfBoundsException expected) {
+            }
+            store.addAll(List.of("Bogdan Ionescu"));
+        }
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            assertEquals(List.of("Ana Popescu", "Bogdan Ionescu"), names(store.list()));
+        }
+    }
+
+    public void testClosedStoreRejectsChanges() throws IOException {
+        LogStudentStore store = LogStudentStore.open(dir);
+        store.close();
+        try {
+            store.addAll(List.of("Ana Popescu"));
+            fail("added to a closed store");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testConcurrentWritersShareCommits() throws Exception {
+        List<String> written;
+        try (LogStudentStore store = new LogStudentStore(dir, LogStudentStore.Fsync.ALWAYS,
+                LogStudentStore.DEFAULT_FSYNC_INTERVAL_MILLIS, LogStudentStore.DEFAULT_COMPACT_BYTES, 2000, 64)) {
+            written = writeConcurrently(store, 16, 40);
+            // 40 adds and 10 deletes from each writer
+            assertTrue("batched: " + store.commits(), store.commits() < 16 * 50);
+        }
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            assertEquals(written, names(store.list()));
+        }
+    }
+
+    /**
+     * Has {@code threads} writers add {@code each} students one at a time, deleting the first
+     * student after every fourth, all at once. Checks that nothing was lost and that each
+     * writer's students kept their order; returns the list as it ended.
+     */
+    static List<String> writeConcurrently(StudentStore store, int threads, int each) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int writer = t;
+                writers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < each; i++) {
+                        store.addAll(List.of("Writer" + writer + " Student" + i));
+                        // a writer's own adds are in before its delete, so there is always one to delete
+                        if (i % 4 == 3) {
+                            store.deleteByIndex(0);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> w : writers) {
+                w.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<String> names = names(store.list());
+        assertEquals(threads * (each - each / 4), names.size());
+        int[] last = new int[threads];
+        Arrays.fill(last, -1);
+        for (String name : names) {
+            String[] parts = name.substring("Writer".length()).split(" Student");
+            int writer = Integer.parseInt(parts[0]);
+            int i = Integer.parseInt(parts[1]);
+            assertTrue(name + " out of order", i > last[writer]);
+            last[writer] = i;
+        }
+        return names;
+    }
+
+    /** Commits one student, then another; returns the size of the log after the first. */
+    private long twoCommits() throws IOException {
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            store.addAll(List.of("Ana Popescu"));
+        }
+        long first = Files.size(dir.resolve(logName(0)));
+        try (LogStudentStore store = LogStudentStore.open(dir)) {
+            store.addAll(List.of("Bogdan Ionescu"));
+        }
+        return first;
+    }
+
+    private LogStudentStore open(long compactBytes) throws IOException {
+        return new LogStudentStore(dir, LogStudentStore.Fsync.ALWAYS, LogStudentStore.DEFAULT_FSYNC_INTERVAL_MILLIS,
+                compactBytes, 0, LogStudentStore.DEFAULT_MAX_BATCH);
+    }
+
+    private List<Path> logs() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> logs = new ArrayList<>();
+            files.filter(p -> p.getFileName().toString().endsWith(".log")).forEach(logs::add);
+            return logs;
+        }
+    }
+
+    private static String logName(long gen) {
+        return String.format("students-%010d.log", gen);
+    }
+
+    private static void flipLastByte(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, ch.size() - 1);
+            b.put(0, (byte) (b.get(0) ^ 0x01)).rewind();
+            ch.write(b, ch.size() - 1);
+        }
+    }
+
+    static List<String> names(List<Student> students) {
+        List<String> names = new ArrayList<>(students.size());
+        for (Student s : students) {
+            names.add(s.toString());
+        }
+        return names;
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
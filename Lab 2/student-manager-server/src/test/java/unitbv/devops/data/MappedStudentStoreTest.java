@@ -0,0 +1,186 @@
+package unitbv.devops.data;
+
+import static unitbv.devops.data.LogStudentStoreTest.deleteTree;
+import static unitbv.devops.data.LogStudentStoreTest.names;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import unitbv.devops.models.Student;
+
+public class MappedStudentStoreTest extends TestCase {
+    private Path dir;
+    private Path file;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("student-mapped-test");
+        file = dir.resolve("students.dat");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        deleteTree(dir);
+    }
+
+    public void testReopen() throws IOException {
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            store.addAll(List.of("Ana Popescu", "Bogdan Ionescu", "  ", "Cristina Matei"));
+            store.deleteByIndex(1);
+            assertEquals(List.of("Ana Popescu", "Cristina Matei"), names(store.list()));
+        }
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            assertEquals(List.of("Ana Popescu", "Cristina Matei"), names(store.list()));
+            store.clear();
+            store.addAll(List.of("Dan Stan"));
+        }
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            assertEquals(List.of("Dan Stan"), names(store.list()));
+        }
+    }
+
+    public void testViewsOutliveLaterChanges() throws IOException {
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            store.addAll(List.of("Ana Popescu", "Bogdan Ionescu"));
+            List<Student> before = store.list();
+            store.deleteByIndex(0);
+            store.clear();
+            store.addAll(List.of("Cristina Matei"));
+            assertEquals(List.of("Ana Popescu", "Bogdan Ionescu"), names(before));
+            assertEquals(List.of("Cristina Matei"), names(store.list()));
+        }
+    }
+
+    public void testUnpublishedAppendIsIgnored() throws IOException {
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            store.addAll(List.of("Ana Popescu"));
+        }
+        // A crash after the record was written past end, before the header moved end over it
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            ch.read(header, 0);
+            long end = header.getLong(8);
+            ch.write(record("Eve;Ghost"), end);
+            assertEquals(end, readEnd(ch));
+        }
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            assertEquals(List.of("Ana Popescu"), names(store.list()));
+            // the next append writes over it
+            store.addAll(List.of("Bogdan Ionescu"));
+        }
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            assertEquals(List.of("Ana Popescu", "Bogdan Ionescu"), names(store.list()));
+        }
+    }
+
+    public void testCorruptRecordFailsOpen() throws IOException {
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            store.addAll(List.of("Ana Popescu"));
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[] {7}), 16);
+        }
+        try {
+            new MappedStudentStore(file).close();
+            fail("opened a file with a bad record flag");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt record"));
+        }
+    }
+
+    public void testCompactionWhileChanging() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        long appended = 0;
+        for (int i = 0; i < 50_000; i++) {
+            String name = "First" + i + " Last" + i;
+            batch.add(name);
+            appended += recordSize(name);
+        }
+        Random random = new Random(24);
+        try (MappedStudentStore store = new MappedStudentStore(file, 1)) {
+            store.addAll(batch);
+            expected.addAll(batch);
+            // Past half the file in tombstones a compaction starts, and copies while these go on
+            for (int i = 0; i < 60_000; i++) {
+                int op = random.nextInt(10);
+                if (op < 6 && !expected.isEmpty()) {
+                    int index = random.nextInt(expected.size());
+                    store.deleteByIndex(index);
+                    expected.remove(index);
+                } else if (op < 9 || expected.isEmpty()) {
+                    String name = "Added" + i + " Later" + i;
+                    store.addAll(List.of(name));
+                    expected.add(name);
+                    appended += recordSize(name);
+                } else {
+                    // reads never lock; check one against the list as it should be
+                    int index = random.nextInt(expected.size());
+                    assertEquals(expected.get(index), store.list().get(index).toString());
+                }
+            }
+            assertEquals(expected, names(store.list()));
+        }
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            assertEquals(expected, names(store.list()));
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertTrue("compacted", readEnd(ch) - 16 < appended);
+        }
+    }
+
+    public void testClearDuringCompaction() throws IOException {
+        List<String> batch = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            batch.add("First" + i + " Last" + i);
+        }
+        try (MappedStudentStore store = new MappedStudentStore(file, 1)) {
+            store.addAll(batch);
+            // Half the file is tombstones a little before the last of these, so the copy is under way
+            for (int i = 0; i < 25_500; i++) {
+                store.deleteByIndex(0);
+            }
+            // and must not install the old students over the cleared file
+            store.clear();
+            store.addAll(List.of("Ana Popescu"));
+            assertEquals(List.of("Ana Popescu"), names(store.list()));
+        }
+        try (MappedStudentStore store = new MappedStudentStore(file)) {
+            assertEquals(List.of("Ana Popescu"), names(store.list()));
+        }
+    }
+
+    public void testClosedStoreRejectsChanges() throws IOException {
+        MappedStudentStore store = new MappedStudentStore(file);
+        store.close();
+        try {
+            store.addAll(List.of("Ana Popescu"));
+            fail("added to a closed store");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static long readEnd(FileChannel ch) throws IOException {
+        ByteBuffer end = ByteBuffer.allocate(8);
+        ch.read(end, 8);
+        return end.getLong(0);
+    }
+
+    private static ByteBuffer record(String line) {
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(5 + text.length).put((byte) 0).putInt(text.length).put(text).flip();
+    }
+
+    private static long recordSize(String name) {
+        return 5 + Student.fromName(name).toFileLine().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,145 @@
+package unitbv.devops.handlers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import unitbv.devops.data.FileStudentStore;
+
+public class StudentHandlerTest extends TestCase {
+    private Path dir;
+    private FileStudentStore store;
+    private HttpServer server;
+    private HttpClient client;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("student-handler-test");
+        store = new FileStudentStore(dir.resolve("students.txt"));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/students", new StudentHandler(store));
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        server.stop(0);
+        Files.deleteIfExists(dir.resolve("students.txt"));
+        Files.deleteIfExists(dir);
+    }
+
+    public void testBadPageParameters() throws Exception {
+        store.addAll(List.of("Ana Popescu"));
+        for (String query : new String[] {"limit=0", "limit=1001", "limit=-1", "limit=ten", "offset=-1",
+                "offset=1&limit=0", "cursor=%25%25", "cursor=bm90LWEtY3Vyc29y", "cursor=MC4w", "cursor="}) {
+            HttpResponse<String> response = get("/students?" + query);
+            assertEquals(query, 400, response.statusCode());
+            assertTrue(query, response.body().startsWith("ERROR: "));
+        }
+        assertEquals(200, get("/students?limit=1000").statusCode());
+        assertEquals(200, get("/students?limit=1").statusCode());
+    }
+
+    public void testOffsetPages() throws Exception {
+        store.addAll(List.of("Ana Popescu", "Bogdan Ionescu", "Cristina Matei", "Dan Stan", "Elena Radu"));
+        HttpResponse<String> page = get("/students?offset=1&limit=2");
+        assertEquals(200, page.statusCode());
+        assertTrue(page.body(), page.body().startsWith("# Students (5)\n1: Bogdan Ionescu\n2: Cristina Matei\n# next: "));
+        assertTrue(page.headers().firstValue("Link").isPresent());
+
+        HttpResponse<String> last = get("/students?offset=3&limit=2");
+        assertEquals("# Students (5)\n3: Dan Stan\n4: Elena Radu\n", last.body());
+        assertFalse("no next page", last.headers().firstValue("Link").isPresent());
+
+        assertEquals("# Students (5)\n", get("/students?offset=99").body());
+    }
+
+    public void testLinkHeaderWalksEveryPage() throws Exception {
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            added.add("First" + i + " Last" + i);
+        }
+        store.addAll(added);
+        List<String> seen = new ArrayList<>();
+        String next = "/students?limit=5";
+        int pages = 0;
+        while (next != null) {
+            HttpResponse<String> page = get(next);
+            assertEquals(200, page.statusCode());
+            pages++;
+            seen.addAll(students(page.body()));
+            next = nextLink(page);
+            if (next != null) {
+                assertTrue(page.body(), page.body().endsWith("# next: " + next + "\n"));
+            }
+        }
+        assertEquals(5, pages);
+        assertEquals(added, seen);
+    }
+
+    public void testCursorSurvivesDeletesBeforeIt() throws Exception {
+        store.addAll(List.of("Ana Popescu", "Bogdan Ionescu", "Cristina Matei", "Dan Stan", "Elena Radu"));
+        HttpResponse<String> first = get("/students?limit=2");
+        assertEquals(List.of("Ana Popescu", "Bogdan Ionescu"), students(first.body()));
+        // a student before the cursor goes away; an offset of 2 would now skip Cristina
+        store.deleteByIndex(0);
+        HttpResponse<String> second = get(nextLink(first));
+        assertEquals(List.of("Cristina Matei", "Dan Stan"), students(second.body()));
+        assertTrue(second.body(), second.body().startsWith("# Students (4)\n1: Cristina Matei\n"));
+
+        // and students added at the end show up on the last page
+        store.addAll(List.of("Florin Pop"));
+        assertEquals(List.of("Elena Radu", "Florin Pop"), students(get(nextLink(second)).body()));
+    }
+
+    public void testCursorKeepsItsPlaceWhenNothingChanged() throws Exception {
+        store.addAll(List.of("Ana Popescu", "Ana Popescu", "Ana Popescu", "Bogdan Ionescu"));
+        // the same name before the cursor must not pull the next page back
+        HttpResponse<String> first = get("/students?limit=3");
+        HttpResponse<String> second = get(nextLink(first));
+        assertEquals("# Students (4)\n3: Bogdan Ionescu\n", second.body());
+    }
+
+    public void testWholeListIsStreamed() throws Exception {
+        assertEquals("# Students (0)\n(empty)\n", get("/students").body());
+        store.addAll(List.of("Ana Popescu", "Bogdan Ionescu"));
+        HttpResponse<String> all = get("/students");
+        assertEquals("# Students (2)\n0: Ana Popescu\n1: Bogdan Ionescu\n", all.body());
+        assertFalse(all.headers().firstValue("Link").isPresent());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        return client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /** The target of the {@code rel="next"} Link header, or null on the last page. */
+    private static String nextLink(HttpResponse<String> page) {
+        String link = page.headers().firstValue("Link").orElse(null);
+        if (link == null) return null;
+        assertTrue(link, link.startsWith("<") && link.endsWith(">; rel=\"next\""));
+        return link.substring(1, link.indexOf('>'));
+    }
+
+    /** The names on a page, without their indices. */
+    private static List<String> students(String body) {
+        List<String> names = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (!line.startsWith("#")) {
+                names.add(line.substring(line.indexOf(": ") + 2));
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,80 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection-rate load test for the NIO server: every client opens a connection, sends one
+ * request with {@code Connection: close}, reads the answer and starts over, so the server spends
+ * its time accepting. Each event loop count runs once with the single shared acceptor and once
+ * with one {@code SO_REUSEPORT} listener per loop.
+ * <p>
+ * Arguments (all optional): {@code clients seconds loops}, e.g. {@code 64 10 1,2,4,8}.
+ * Run client and server on different machines, or leave cores for the clients, to see the
+ * server side scale.
+ */
+public class AcceptBenchmark {
+    private static final byte[] REQUEST =
+            "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String[] loopCounts = (args.length > 2 ? args[2] : "1,2,4").split(",");
+
+        System.out.printf("%d clients, %d s per run, %d cores%n", clients, seconds, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-6s %-11s %12s %10s%n", "loops", "acceptor", "connections", "conn/s");
+
+        int port = 9200;
+        for (String loops : loopCounts) {
+            for (boolean reusePort : new boolean[]{false, true}) {
+                ServerConfig config = ServerConfig.fromArgs(new String[]{
+                        "--mode=nio", "--port=" + port++, "--event-loops=" + loops, "--reuse-port=" + reusePort});
+                Router router = new Router();
+                router.get("/", request -> new Response(200, "text/plain", "ok"));
+                Server server = Main.createServer(config, Main.workerPool(config), router::dispatchAsync);
+                server.start();
+                long done = run(config.getPort(), clients, seconds);
+                System.out.printf("%-6s %-11s %12d %10.0f%n", loops, reusePort ? "reuse-port" : "shared", done, done / (double) seconds);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static long run(int port, int clients, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LongAdder completed = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread t = new Thread(() -> {
+                byte[] scratch = new byte[512];
+                while (System.nanoTime() < deadline) {
+                    try (Socket socket = new Socket("localhost", port)) {
+                        OutputStream out = socket.getOutputStream();
+                        out.write(REQUEST);
+                        InputStream in = socket.getInputStream();
+                        while (in.read(scratch) >= 0) {
+                            // read until the server closes
+                        }
+                        if (System.nanoTime() < deadline) completed.increment();
+                    } catch (IOException e) {
+                        // refused or reset under load; counts as not served
+                    }
+                }
+            }, "client-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return completed.sum();
+    }
+}
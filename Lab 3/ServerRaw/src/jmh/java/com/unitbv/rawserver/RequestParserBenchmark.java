@@ -0,0 +1,74 @@
+package com.unitbv.rawserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of the legacy {@link Request#fromString} against {@link RequestParser}.
+ * Run with {@code -prof gc} and compare {@code gc.alloc.rate.norm} for the bytes allocated per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestParserBenchmark {
+
+    @Param({"GET", "POST"})
+    public String kind;
+
+    private byte[] raw;
+    private ByteBuffer buffer;
+    private RequestParser parser;
+
+    @Setup
+    public void setup() {
+        String head = "Host: localhost:8080\r\n" +
+                "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n" +
+                "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+                "Accept-Language: en-US,en;q=0.5\r\n" +
+                "Accept-Encoding: gzip, deflate\r\n" +
+                "Connection: keep-alive\r\n" +
+                "Cache-Control: max-age=0\r\n";
+        String request;
+        if ("GET".equals(kind)) {
+            request = "GET /students?page=2&size=50 HTTP/1.1\r\n" + head + "\r\n";
+        } else {
+            String body = "Ana Popescu\nBogdan Ionescu\nCarla Matei\n";
+            request = "POST /students HTTP/1.1\r\n" + head +
+                    "Content-Type: text/plain\r\n" +
+                    "Content-Length: " + body.length() + "\r\n\r\n" + body;
+        }
+        raw = request.getBytes(StandardCharsets.US_ASCII);
+        buffer = ByteBuffer.allocateDirect(raw.length);
+        buffer.put(raw).flip();
+        parser = new RequestParser();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Benchmark
+    public Request legacyFromString() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(raw)));
+        return Request.fromString(in);
+    }
+
+    @Benchmark
+    public Request byteParser() throws HttpParseException {
+        buffer.position(0);
+        return parser.parse(buffer);
+    }
+
+    @Benchmark
+    public String byteParserWithHeaderLookup() throws HttpParseException {
+        buffer.position(0);
+        return parser.parse(buffer).getHeader("Host");
+    }
+}
@@ -0,0 +1,64 @@
+package com.unitbv.rawserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing a response into pooled buffers. The sink drops the bytes and returns the
+ * buffers, as the socket would. Run with {@code -prof gc}: {@code gc.alloc.rate.norm} should stay
+ * near zero for every body type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseEncoderBenchmark {
+    private PooledOutputStream out;
+    private ResponseSink sink;
+
+    private Response text;
+    private Response bytes;
+    private Response buffer;
+
+    @Setup
+    public void setup() {
+        BufferPool pool = new BufferPool();
+        sink = new ResponseSink() {
+            @Override
+            public void send(ByteBuffer pooled) {
+                pool.release(pooled);
+            }
+
+            @Override
+            public void sendFile(FileRegion file) {
+            }
+        };
+        out = new PooledOutputStream(pool, sink);
+
+        text = new Response(200, "text/plain", "# Students (3)\n0: Ana Popescu\n1: Bogdan Ionescu\n2: Carla Matei\n");
+        bytes = new Response(200, "application/octet-stream", new byte[2048]);
+        ByteBuffer prepared = ByteBuffer.allocateDirect(2048);
+        buffer = new Response(200, "application/octet-stream", prepared);
+        buffer.addHeader("Cache-Control", "max-age=60");
+    }
+
+    @Benchmark
+    public boolean stringBody() throws IOException {
+        return ResponseEncoder.write(text, null, true, out, sink);
+    }
+
+    @Benchmark
+    public boolean byteArrayBody() throws IOException {
+        return ResponseEncoder.write(bytes, null, true, out, sink);
+    }
+
+    @Benchmark
+    public boolean byteBufferBody() throws IOException {
+        return ResponseEncoder.write(buffer, null, true, out, sink);
+    }
+}
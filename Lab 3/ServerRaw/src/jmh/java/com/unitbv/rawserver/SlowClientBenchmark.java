@@ -0,0 +1,129 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Slow-client load test for the server modes.
+ * <p>
+ * Every client keeps one keep-alive connection and sends each request in two parts with a pause
+ * in between, like a client on a slow link. The same workload runs against each mode in turn and
+ * the throughput, latency and number of clients that got any answer at all are printed.
+ * <p>
+ * Arguments (all optional): {@code clients seconds pauseMs modes}, e.g.
+ * {@code 1000 10 200 blocking,virtual,nio}. Mode {@code virtual} needs Java 21.
+ */
+public class SlowClientBenchmark {
+    private static final byte[] PART1 = "GET / HTTP/1.1\r\nHost: localhost\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PART2 = "User-Agent: slow-client\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int pauseMs = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        String[] modes = (args.length > 3 ? args[3] : "blocking,virtual,nio").split(",");
+
+        System.out.printf("%d clients, %d s, %d ms pause inside every request%n", clients, seconds, pauseMs);
+        System.out.printf("%-9s %10s %10s %10s %10s %8s%n", "mode", "requests", "req/s", "p50 ms", "p99 ms", "served");
+
+        int port = 9100;
+        for (String mode : modes) {
+            ServerConfig config = ServerConfig.fromArgs(new String[]{"--mode=" + mode, "--port=" + port++});
+            Router router = new Router();
+            router.get("/", request -> new Response(200, "text/plain", "Hello from Java HTTP Server!"));
+            Server server;
+            try {
+                server = Main.createServer(config, Main.workerPool(config), router::dispatchAsync);
+            } catch (IllegalStateException e) {
+                System.out.printf("%-9s skipped: %s%n", mode, e.getMessage());
+                continue;
+            }
+            server.start();
+            run(mode, config.getPort(), clients, seconds, pauseMs);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int port, int clients, int seconds, int pauseMs) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        ConcurrentLinkedQueue<long[]> latencies = new ConcurrentLinkedQueue<>();
+        List<Socket> sockets = new ArrayList<>();
+        AtomicInteger served = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < clients; i++) {
+            Thread t = new Thread(() -> {
+                long[] samples = new long[1024];
+                int n = 0;
+                try (Socket socket = new Socket("localhost", port)) {
+                    synchronized (sockets) {
+                        sockets.add(socket);
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = socket.getInputStream();
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        out.write(PART1);
+                        out.flush();
+                        Thread.sleep(pauseMs);
+                        out.write(PART2);
+                        out.flush();
+                        readResponse(in);
+                        long end = System.nanoTime();
+                        if (end > deadline) break; // answered only because the run is tearing down
+                        if (n == samples.length) samples = Arrays.copyOf(samples, n * 2);
+                        samples[n++] = end - start;
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                    // closed at the end of the run
+                }
+                if (n > 0) served.incrementAndGet();
+                latencies.add(Arrays.copyOf(samples, n));
+            }, "client-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        synchronized (sockets) {
+            for (Socket s : sockets) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+        for (Thread t : threads) {
+            t.join(2000);
+        }
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%-9s %10d %10.0f %10.1f %10.1f %8d%n", mode, all.length, all.length / (double) seconds,
+                percentile(all, 0.50), percentile(all, 0.99), served.get());
+    }
+
+    /** Reads one response, using Content-Length to find its end. */
+    private static void readResponse(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            head.append((char) b);
+            if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) break;
+        }
+        if (b < 0) throw new IOException("connection closed");
+        int idx = head.indexOf("Content-Length: ");
+        int length = Integer.parseInt(head.substring(idx + 16, head.indexOf("\r\n", idx)));
+        in.readNBytes(length);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
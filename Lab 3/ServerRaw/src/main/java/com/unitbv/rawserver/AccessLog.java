@@ -0,0 +1,300 @@
+package com.unitbv.rawserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log written off the request path.
+ * <p>
+ * Request threads put entries into a fixed-size ring buffer (Vyukov's bounded multi-producer
+ * queue: one CAS to claim a slot, no lock) and return. One background thread takes them out
+ * in batches, formats them as JSON lines and writes each batch with a single write call. When
+ * the file passes {@code maxFileBytes} it is renamed to {@code <file>.1} (older ones move up
+ * to {@code <file>.<maxFiles>}, the oldest is deleted) and a new file is started.
+ * <p>
+ * When the buffer is full, {@link Overflow#DROP} throws the entry away and counts it in
+ * {@link #getDropped()}, so a slow disk never slows down requests; {@link Overflow#BLOCK}
+ * makes the request thread wait for room instead.
+ */
+public final class AccessLog implements Closeable {
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final long DEFAULT_MAX_FILE_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    private static final int BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /** What {@link #log} does when the buffer is full. */
+    public enum Overflow { DROP, BLOCK }
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final Overflow overflow;
+
+    // Slot i holds an entry once sequences[i] == claimed position + 1
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the writer thread
+    private long head;
+    private OutputStream out;
+    private long fileBytes;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /** A log at {@code file} with the default buffer and rotation sizes that drops entries when full. */
+    public static AccessLog open(Path file) throws IOException {
+        return new AccessLog(file, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES, Overflow.DROP);
+    }
+
+    /**
+     * @param capacity     entries the buffer holds, rounded up to a power of two
+     * @param maxFileBytes size at which the file is rotated
+     * @param maxFiles     rotated files kept besides the current one
+     */
+    public AccessLog(Path file, int capacity, long maxFileBytes, int maxFiles, Overflow overflow) throws IOException {
+        int n = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.file = file.toAbsolutePath();
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.overflow = overflow;
+        this.slots = new AtomicReferenceArray<>(n);
+        this.sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = n - 1;
+
+        if (this.file.getParent() != null) {
+            Files.createDirectories(this.file.getParent());
+        }
+        openFile();
+        this.writer = new Thread(this::drainLoop, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records one request. Never blocks with {@link Overflow#DROP}.
+     *
+     * @param bytes          response body length, or -1 if unknown
+     * @param durationNanos  time the request took
+     */
+    public void log(String method, String path, int status, long bytes, long durationNanos) {
+        Entry entry = new Entry(System.currentTimeMillis(), method, path, status, bytes,
+                durationNanos, Thread.currentThread().getName());
+        while (!offer(entry)) {
+            if (overflow == Overflow.DROP || closed) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+    }
+
+    /** Entries thrown away because the buffer was full or the file could not be written. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /** Entries written to the file. */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /** Writes what is buffered, then stops the writer thread. Entries logged afterwards are dropped. */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean offer(Entry entry) {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) pos & mask;
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(idx, entry);
+                    sequences.set(idx, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // the writer has not freed this slot yet: full
+            } else {
+                pos = tail.get(); // another producer took it
+            }
+        }
+    }
+
+    /** The next entry, or null when none is ready. */
+    private Entry poll() {
+        int idx = (int) head & mask;
+        if (sequences.get(idx) != head + 1) {
+            return null;
+        }
+        Entry entry = slots.get(idx);
+        slots.set(idx, null);
+        sequences.set(idx, head + mask + 1);
+        head++;
+        return entry;
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(BATCH * 160);
+        while (true) {
+            int count = 0;
+            Entry entry;
+            while (count < BATCH && (entry = poll()) != null) {
+                entry.appendTo(batch);
+                count++;
+            }
+            if (count > 0) {
+                write(batch, count);
+                batch.setLength(0);
+            } else if (closed) {
+                break;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        closeFile();
+    }
+
+    private void write(StringBuilder batch, int count) {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out == null) {
+                openFile();
+            }
+            out.write(bytes);
+            fileBytes += bytes.length;
+            written.add(count);
+            if (fileBytes >= maxFileBytes) {
+                rotate();
+            }
+        } catch (IOException e) {
+            dropped.add(count);
+            System.err.println("access log: " + e.getMessage());
+            closeFile(); // try a fresh file with the next batch
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        Files.deleteIfExists(rotated(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = rotated(i);
+            if (Files.exists(from)) {
+                Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(file);
+        }
+        openFile();
+    }
+
+    private Path rotated(int i) {
+        return file.resolveSibling(file.getFileName() + "." + i);
+    }
+
+    private void openFile() throws IOException {
+        out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileBytes = Files.size(file);
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+
+    private static final class Entry {
+        final long timeMillis;
+        final String method;
+        final String path;
+        final int status;
+        final long bytes;
+        final long durationNanos;
+        final String thread;
+
+        Entry(long timeMillis, String method, String path, int status, long bytes, long durationNanos, String thread) {
+            this.timeMillis = timeMillis;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.bytes = bytes;
+            this.durationNanos = durationNanos;
+            this.thread = thread;
+        }
+
+        /** One JSON object per line. */
+        void appendTo(StringBuilder sb) {
+            sb.append("{\"time\":\"");
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(timeMillis), sb);
+            sb.append("\",\"method\":");
+            string(sb, method);
+            sb.append(",\"path\":");
+            string(sb, path);
+            sb.append(",\"status\":").append(status);
+            sb.append(",\"bytes\":");
+            if (bytes >= 0) sb.append(bytes); else sb.append("null");
+            sb.append(",\"duration_us\":").append(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+            sb.append(",\"thread\":");
+            string(sb, thread);
+            sb.append("}\n");
+        }
+
+        private static void string(StringBuilder sb, String s) {
+            if (s == null) {
+                sb.append("null");
+                return;
+            }
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.unitbv.rawserver;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A handler that answers later. It returns at once with a stage and completes it when the
+ * response is ready, e.g. from the callback of an asynchronous file read, so no worker thread
+ * waits in the meantime.
+ * <p>
+ * The server stops waiting after {@link ServerConfig#getHandlerTimeoutMs()} and answers
+ * {@code 504}. If the handler's stage is a {@link java.util.concurrent.CompletableFuture} it is
+ * cancelled then, and also when the client disconnects first, so the handler can see that
+ * nobody needs the result any more.
+ */
+@FunctionalInterface
+public interface AsyncHandler {
+    CompletionStage<Response> handle(Request request);
+}
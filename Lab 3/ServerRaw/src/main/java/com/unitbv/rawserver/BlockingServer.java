@@ -0,0 +1,600 @@
+package com.unitbv.rawserver;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classic thread-per-connection server: one thread blocks in {@code accept()}
+ * and every socket is handed to the pool. With a fixed pool, at most that many
+ * connections are served at once; with a virtual-thread-per-task executor every
+ * connection gets its own cheap thread.
+ * <p>
+ * Sockets are blocking {@link SocketChannel}s rather than plain {@link Socket}s so that
+ * file bodies can be sent with {@link FileChannel#transferTo} (sendfile on Linux).
+ * <p>
+ * Timeouts do not use {@code setSoTimeout}: every connection has one entry on a shared
+ * {@link TimerWheel}, re-armed per phase (idle, request head, request body, writing), and a
+ * single "timeouts" thread closes the socket of a connection whose deadline passes, which
+ * ends the read or write its thread is blocked in. A client trickling a request byte by byte
+ * therefore loses its thread once the head deadline is up.
+ * <p>
+ * The connection's thread waits for an {@link AsyncHandler}'s stage itself, which is what
+ * this model is about (and cheap with virtual threads); it gives up with 504 after the
+ * handler timeout. A disconnect while waiting is only noticed when the response is written.
+ * <p>
+ * On {@link #shutdown} the listening socket is closed, which ends the accept loop, and the
+ * sockets of connections blocked waiting for a further keep-alive request are closed.
+ * <p>
+ * After a {@code 101} to a WebSocket handshake the connection's thread keeps reading frames
+ * and runs the handler callbacks itself, so every WebSocket holds a thread for as long as it
+ * is open; with virtual threads that is cheap, with the fixed pool it is one worker each.
+ * Frames are written on the sending thread under a per-connection lock and the write
+ * deadline. Pings are sent from a single "websocket-ping" thread.
+ */
+public class BlockingServer implements Server {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SLOTS = 512;
+    private static final long DRAIN_POLL_MS = 10;
+
+    private enum Phase { NONE, IDLE, HEADER, BODY, WRITE }
+
+    private final ServerConfig config;
+    private final WorkerPool pool;
+    private final AsyncHandler dispatcher;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AccessLog accessLog;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final BufferPool buffers = new BufferPool();
+    // Shared by all connection threads, so every access holds timerLock
+    private final TimerWheel timers = new TimerWheel(TICK_MS, WHEEL_SLOTS, now());
+    private final ReentrantLock timerLock = new ReentrantLock();
+    // Connections being served, so shutdown can close the idle ones
+    private final Set<ConnectionTimer> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean draining;
+    private ServerSocketChannel listener;
+    private Thread ticker;
+    private ExecutorService pinger;
+
+    /** @param accessLog where each request is logged, or null for none */
+    public BlockingServer(ServerConfig config, WorkerPool pool, AsyncHandler dispatcher, AccessLog accessLog) {
+        this.config = config;
+        this.pool = pool;
+        this.dispatcher = dispatcher;
+        this.accessLog = accessLog;
+    }
+
+    @Override
+    public void start() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(config.getPort()));
+        this.listener = server;
+        Thread acceptor = new Thread(() -> acceptLoop(server), "acceptor");
+        acceptor.start();
+        ticker = new Thread(this::tickLoop, "timeouts");
+        ticker.setDaemon(true);
+        ticker.start();
+        pinger = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "websocket-ping");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean shutdown(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        draining = true;
+        try {
+            listener.close();
+        } catch (IOException ignored) {
+        }
+        for (ConnectionTimer connection : open) {
+            connection.drain();
+        }
+        while (active.get() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(DRAIN_POLL_MS);
+        }
+        boolean drained = active.get() == 0;
+        for (ConnectionTimer connection : open) {
+            connection.close();
+        }
+        ticker.interrupt();
+        pinger.shutdownNow();
+        return drained;
+    }
+
+    private void tickLoop() {
+        while (true) {
+            try {
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            timerLock.lock();
+            try {
+                timers.advance(now());
+            } finally {
+                timerLock.unlock();
+            }
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    @Override
+    public int activeConnections() {
+        return active.get();
+    }
+
+    @Override
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    private void acceptLoop(ServerSocketChannel server) {
+        while (!draining) {
+            try {
+                SocketChannel client = server.accept(); // waits for connection
+                active.incrementAndGet();
+                metrics.connectionOpened();
+                pool.execute(() -> {
+                    try {
+                        handle(client);
+                    } catch (IOException e) {
+                        // reset or broken pipe; handle() has closed the connection, which is all there is to do
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                }, () -> {
+                    try {
+                        reject(client);
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                }); // handle in thread pool
+            } catch (ClosedChannelException e) {
+                return; // shutting down
+            } catch (IOException e) {
+                System.out.println("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Serves requests on one connection until the client, the keep-alive limits or a timeout close it. */
+    void handle(SocketChannel client) throws IOException {
+        ConnectionTimer timer = new ConnectionTimer(client);
+        open.add(timer);
+        try (client) {
+            RequestParser parser = new RequestParser(config);
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).limit(0);
+            ChannelSink sink = new ChannelSink(client, buffers, timer, metrics);
+            PooledOutputStream out = new PooledOutputStream(buffers, sink);
+            int served = 0;
+            try {
+                while (true) {
+                    Request request;
+                    try {
+                        request = readRequest(client, parser, buffer, timer, served > 0);
+                    } catch (HttpParseException e) {
+                        ResponseEncoder.write(new Response(e.getStatus(), "text/plain", e.getMessage()), null, false, out, sink);
+                        return;
+                    }
+                    if (request == null) {
+                        return;
+                    }
+
+                    served++;
+                    boolean keepAlive = request.isKeepAlive() && served < config.getMaxRequestsPerConnection()
+                            && !draining;
+                    Response response;
+                    long start = System.nanoTime();
+                    try {
+                        response = await(dispatcher.handle(request));
+                    } catch (RuntimeException e) {
+                        response = new Response(500, "text/plain", "Internal Server Error");
+                        keepAlive = false;
+                    }
+                    metrics.handled(request, System.nanoTime() - start);
+                    try {
+                        keepAlive = ResponseEncoder.write(response, request, keepAlive && !draining, out, sink);
+                    } finally {
+                        request.releaseBody();
+                    }
+                    responded(request, response);
+                    if (response.getStatus() == 101 && response.getWebSocket() != null) {
+                        serveWebSocket(client, request, response.getWebSocket(), buffer, timer);
+                        return;
+                    }
+                    if (!keepAlive) {
+                        return;
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                // closed by a timeout while reading or writing
+            } finally {
+                out.discard();
+                parser.discard();
+            }
+        } finally {
+            timer.disarm();
+            open.remove(timer);
+        }
+    }
+
+    /** Reads frames until the WebSocket closes; {@code buffer} may already hold some. */
+    private void serveWebSocket(SocketChannel client, Request request, WebSocketHandler handler,
+                                ByteBuffer buffer, ConnectionTimer timer) throws IOException {
+        BlockingWebSocket socket = new BlockingWebSocket(client, request, handler, timer);
+        timer.webSocket = socket;
+        socket.start();
+        if (draining) {
+            socket.close(WebSocket.GOING_AWAY, "Server shutting down");
+        }
+        try {
+            while (true) {
+                if (buffer.hasRemaining()) {
+                    socket.onData(buffer);
+                }
+                if (!client.isOpen()) {
+                    return;
+                }
+                buffer.clear();
+                int n;
+                try {
+                    n = client.read(buffer);
+                } catch (IOException e) {
+                    return; // reset or closed by a timeout; dropping the connection is how clients often leave
+                }
+                metrics.received(n);
+                buffer.flip();
+                if (n < 0) {
+                    return;
+                }
+            }
+        } finally {
+            socket.stop();
+        }
+    }
+
+    private void responded(Request request, Response response) {
+        long nanos = System.nanoTime() - request.getReceivedNanos();
+        metrics.responded(request, response.getStatus(), nanos);
+        if (accessLog != null) {
+            accessLog.log(request.getMethod(), request.getUri(), response.getStatus(), response.getContentLength(), nanos);
+        }
+    }
+
+    /** The handler's response; a failed stage surfaces as a RuntimeException, like a failed handler. */
+    private Response await(CompletionStage<Response> stage) {
+        CompletableFuture<Response> future = stage.toCompletableFuture();
+        if (future.isDone()) {
+            return future.join();
+        }
+        try {
+            return future.get(config.getHandlerTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return new Response(504, "text/plain", "Handler timed out");
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Reads until the parser has a full request; bytes of a pipelined next request stay in {@code buffer}.
+     * Returns null when the client closes, or when the server is draining and a kept-alive
+     * connection ({@code keptAlive}) has no request under way.
+     */
+    private Request readRequest(SocketChannel client, RequestParser parser, ByteBuffer buffer,
+                                ConnectionTimer timer, boolean keptAlive) throws IOException {
+        long parseNanos = 0;
+        while (true) {
+            if (buffer.hasRemaining()) {
+                long start = System.nanoTime();
+                Request request = parser.parse(buffer);
+                long parsed = System.nanoTime();
+                parseNanos += parsed - start;
+                if (request != null) {
+                    timer.disarm(); // the handler itself runs without a deadline
+                    metrics.parsed(parseNanos);
+                    request.setReceivedNanos(parsed);
+                    return request;
+                }
+            }
+            if (parser.takeContinue()) {
+                ByteBuffer go = ByteBuffer.wrap(ResponseEncoder.CONTINUE);
+                while (go.hasRemaining()) {
+                    client.write(go);
+                }
+            }
+            timer.armRead(parser);
+            if (keptAlive && !parser.inProgress()) {
+                // idle is published before draining is read; shutdown does the reverse, so one of them closes
+                timer.idle = true;
+                if (draining) {
+                    return null;
+                }
+            }
+            buffer.clear();
+            int n = client.read(buffer);
+            timer.idle = false;
+            metrics.received(n);
+            buffer.flip();
+            if (n < 0) {
+                return null;
+            }
+        }
+    }
+
+    /** The timer wheel entry of one connection; firing closes the socket. */
+    private final class ConnectionTimer {
+        private final SocketChannel client;
+        private final TimerWheel.Timeout timeout;
+        private Phase phase = Phase.NONE;
+        // Blocked reading, between requests of a kept-alive connection
+        volatile boolean idle;
+        // Set once the connection is upgraded
+        volatile BlockingWebSocket webSocket;
+
+        ConnectionTimer(SocketChannel client) {
+            this.client = client;
+            this.timeout = new TimerWheel.Timeout(this::close);
+        }
+
+        void close() {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /** Shutdown: closes the connection if it waits for a keep-alive request, starts the closing handshake if it is a WebSocket. */
+        void drain() {
+            BlockingWebSocket socket = webSocket;
+            if (socket != null) {
+                socket.close(WebSocket.GOING_AWAY, "Server shutting down");
+            } else if (idle) {
+                close();
+            }
+        }
+
+        /** Arms the timeout for what the parser is waiting for; a running deadline is left as it is. */
+        void armRead(RequestParser parser) {
+            if (!parser.inProgress()) {
+                arm(Phase.IDLE, config.getIdleTimeoutMs());
+            } else if (parser.readingBody()) {
+                arm(Phase.BODY, config.getBodyTimeoutMs());
+            } else {
+                arm(Phase.HEADER, config.getHeaderTimeoutMs());
+            }
+        }
+
+        /** Write deadlines restart for every buffer, i.e. whenever the client has read something. */
+        void armWrite() {
+            phase = Phase.NONE;
+            arm(Phase.WRITE, config.getWriteTimeoutMs());
+        }
+
+        private void arm(Phase next, int ms) {
+            if (next == phase) return;
+            phase = next;
+            timerLock.lock();
+            try {
+                timers.schedule(timeout, ms, now());
+            } finally {
+                timerLock.unlock();
+            }
+        }
+
+        void disarm() {
+            if (phase == Phase.NONE) return;
+            phase = Phase.NONE;
+            timerLock.lock();
+            try {
+                timers.cancel(timeout);
+            } finally {
+                timerLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The connection after a WebSocket upgrade. Its thread parses frames and runs the callbacks;
+     * writes from any thread take the lock and run under the connection's write deadline.
+     */
+    private final class BlockingWebSocket extends WebSocketSession {
+        private final SocketChannel channel;
+        private final ConnectionTimer timer;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final TimerWheel.Timeout pingTimeout = new TimerWheel.Timeout(this::pingLater);
+
+        BlockingWebSocket(SocketChannel channel, Request request, WebSocketHandler handler, ConnectionTimer timer) {
+            super(request, handler, config);
+            this.channel = channel;
+            this.timer = timer;
+        }
+
+        void start() {
+            opened();
+            schedulePing();
+        }
+
+        /** The connection's thread is done with it. */
+        void stop() {
+            timerLock.lock();
+            try {
+                timers.cancel(pingTimeout);
+            } finally {
+                timerLock.unlock();
+            }
+            disconnected();
+        }
+
+        private void schedulePing() {
+            timerLock.lock();
+            try {
+                timers.schedule(pingTimeout, config.getWebSocketPingIntervalMs(), now());
+            } finally {
+                timerLock.unlock();
+            }
+        }
+
+        /** Runs on the timeouts thread, which must not block on a socket. */
+        private void pingLater() {
+            try {
+                pinger.execute(this::pingDue);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
+
+        /** Runs on the ping thread. */
+        private void pingDue() {
+            if (!channel.isOpen()) return;
+            if (ping()) {
+                schedulePing();
+            } else {
+                timer.close();
+            }
+        }
+
+        @Override
+        void write(ByteBuffer frame) {
+            writeLock.lock();
+            try {
+                if (!channel.isOpen()) return;
+                timer.armWrite();
+                while (frame.hasRemaining()) {
+                    metrics.sent(channel.write(frame));
+                }
+            } catch (IOException e) {
+                timer.close();
+            } finally {
+                timer.disarm();
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        void finish() {
+            // writes are synchronous, so whatever was sent is out once the lock is free
+            writeLock.lock();
+            try {
+                timer.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        void dispatch(Runnable callback) {
+            invoke(callback);
+        }
+
+        @Override
+        Executor loop() {
+            return null;
+        }
+    }
+
+    /**
+     * Answers 503 to a connection the pool has no room for and closes it. Whatever the client
+     * already sent is drained first: closing with unread input would reset the connection and
+     * could destroy the 503 before the client reads it.
+     */
+    private void reject(SocketChannel client) {
+        try (client) {
+            client.configureBlocking(false);
+            ByteBuffer scratch = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (client.read(scratch) > 0) {
+                scratch.clear();
+            }
+            client.configureBlocking(true);
+            ChannelSink sink = new ChannelSink(client, buffers, null, metrics);
+            PooledOutputStream out = new PooledOutputStream(buffers, sink);
+            try {
+                ResponseEncoder.write(WorkerPool.overloaded(), null, false, out, sink);
+            } finally {
+                out.discard();
+            }
+        } catch (IOException ignored) {
+            // the client is gone already
+        }
+    }
+
+    /** Writes response parts straight to the socket on the calling thread. */
+    private static final class ChannelSink implements ResponseSink {
+        private final SocketChannel channel;
+        private final BufferPool pool;
+        private final ConnectionTimer timer;
+        private final ServerMetrics metrics;
+
+        /** @param timer write deadline for each part, or null for none */
+        ChannelSink(SocketChannel channel, BufferPool pool, ConnectionTimer timer, ServerMetrics metrics) {
+            this.channel = channel;
+            this.pool = pool;
+            this.timer = timer;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void send(ByteBuffer pooled) throws IOException {
+            if (timer != null) timer.armWrite();
+            try {
+                while (pooled.hasRemaining()) {
+                    metrics.sent(channel.write(pooled));
+                }
+            } finally {
+                pool.release(pooled);
+                if (timer != null) timer.disarm();
+            }
+        }
+
+        @Override
+        public void sendFile(FileRegion file) throws IOException {
+            if (timer != null) timer.armWrite();
+            try (FileChannel fc = FileChannel.open(file.getPath())) {
+                long position = file.getPosition();
+                long remaining = file.getCount();
+                while (remaining > 0) {
+                    long n = fc.transferTo(position, remaining, channel);
+                    if (n <= 0 && position >= fc.size()) {
+                        throw new EOFException("File shrank while being sent: " + file.getPath());
+                    }
+                    position += n;
+                    remaining -= n;
+                    metrics.sent(n);
+                }
+            } finally {
+                if (timer != null) timer.disarm();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces a response body by writing it, instead of building it in memory first.
+ * The stream is backed by pooled buffers; {@code flush()} pushes what was written so far to the client.
+ * Writes block while the client is too far behind, and fail once it has gone away.
+ */
+@FunctionalInterface
+public interface BodyWriter {
+    void writeTo(OutputStream out) throws IOException;
+}
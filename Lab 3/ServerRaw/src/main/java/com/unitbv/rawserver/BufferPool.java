@@ -0,0 +1,49 @@
+package com.unitbv.rawserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed-size direct buffers reused for writing responses. Direct buffers go to the socket
+ * without the extra copy the JDK makes for heap buffers, and reusing them keeps the
+ * response path from allocating.
+ * <p>
+ * When the pool is empty a new buffer is allocated; when it is full a released buffer is dropped.
+ * Read-only buffers, e.g. frames shared between connections, are never taken in.
+ */
+public final class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 1024;
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    public BufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /** An empty buffer in write mode. */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        return buf != null ? buf : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer buf) {
+        if (buf.capacity() != bufferSize || !buf.isDirect() || buf.isReadOnly()) return;
+        buf.clear();
+        free.offer(buf);
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public int available() {
+        return free.size();
+    }
+}
@@ -0,0 +1,94 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Frames a body of unknown length as {@code Transfer-Encoding: chunked}.
+ * <p>
+ * Small writes are collected and go out as one chunk when the staging array fills up or the
+ * writer calls {@link #flush()}; writes at least as large as the array become a chunk of their
+ * own without the extra copy. Memory use is fixed however long the body gets.
+ */
+final class ChunkedOutputStream extends OutputStream {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final PooledOutputStream out;
+    private final byte[] staging;
+    private final byte[] size = new byte[16];
+    private int staged;
+
+    ChunkedOutputStream(PooledOutputStream out, int chunkSize) {
+        this.out = out;
+        this.staging = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (staged == staging.length) {
+            writeStaged();
+        }
+        staging[staged++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= staging.length) {
+            writeStaged();
+            writeChunk(b, off, len);
+            return;
+        }
+        if (staged + len > staging.length) {
+            writeStaged();
+        }
+        System.arraycopy(b, off, staging, staged, len);
+        staged += len;
+    }
+
+    /** Sends the bytes written so far to the client as a chunk. */
+    @Override
+    public void flush() throws IOException {
+        writeStaged();
+        out.flush();
+    }
+
+    /** The body is ended by {@link #finish()}, not by closing the stream. */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /** Drops anything staged by an earlier, failed response. */
+    void reset() {
+        staged = 0;
+    }
+
+    /** Writes the remaining bytes and the terminating zero-length chunk. */
+    void finish() throws IOException {
+        writeStaged();
+        out.write(LAST_CHUNK);
+    }
+
+    private void writeStaged() throws IOException {
+        if (staged > 0) {
+            writeChunk(staging, 0, staged);
+            staged = 0;
+        }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return; // a zero-length chunk would end the body
+        }
+        int i = size.length;
+        for (int v = len; v > 0; v >>>= 4) {
+            size[--i] = HEX[v & 0xF];
+        }
+        out.write(size, i, size.length - i);
+        out.write(CRLF);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+}
@@ -0,0 +1,115 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses into {@code out} in gzip (RFC 1952) or zlib (RFC 1950, what HTTP calls
+ * {@code deflate}) format. Both wrap the same raw deflate stream, so one pooled
+ * {@code Deflater(level, nowrap = true)} serves either; this class writes the header and the
+ * checksum trailer itself.
+ * <p>
+ * {@link #flush()} does a sync flush, so a streamed body still reaches the client piece by piece.
+ * The deflater is borrowed, not owned: {@link #finish()} leaves it for the caller to reset and
+ * return to its pool.
+ */
+final class CompressingOutputStream extends OutputStream {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+
+    private final OutputStream out;
+    private final Deflater deflater;
+    private final byte[] buf;
+    private final boolean gzip;
+    private final Checksum checksum;
+    private long bytesIn;
+    private long bytesOut;
+
+    CompressingOutputStream(OutputStream out, Deflater deflater, byte[] buf, boolean gzip) throws IOException {
+        this.out = out;
+        this.deflater = deflater;
+        this.buf = buf;
+        this.gzip = gzip;
+        this.checksum = gzip ? new CRC32() : new Adler32();
+        writeRaw(gzip ? GZIP_HEADER : ZLIB_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return;
+        checksum.update(b, off, len);
+        bytesIn += len;
+        deflater.setInput(b, off, len);
+        drain(Deflater.NO_FLUSH);
+    }
+
+    /** Compresses {@code src} from its position to its limit without changing it. */
+    void write(ByteBuffer src) throws IOException {
+        ByteBuffer in = src.duplicate();
+        checksum.update(in.duplicate());
+        bytesIn += in.remaining();
+        deflater.setInput(in);
+        drain(Deflater.NO_FLUSH);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain(Deflater.SYNC_FLUSH);
+        out.flush();
+    }
+
+    /** Ends the compressed stream and writes the trailer; {@code out} stays open. */
+    void finish() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            writeRaw(buf, n);
+        }
+        long sum = checksum.getValue();
+        if (gzip) {
+            writeRaw(new byte[]{
+                    (byte) sum, (byte) (sum >> 8), (byte) (sum >> 16), (byte) (sum >> 24),
+                    (byte) bytesIn, (byte) (bytesIn >> 8), (byte) (bytesIn >> 16), (byte) (bytesIn >> 24)});
+        } else {
+            writeRaw(new byte[]{(byte) (sum >> 24), (byte) (sum >> 16), (byte) (sum >> 8), (byte) sum});
+        }
+    }
+
+    long bytesIn() {
+        return bytesIn;
+    }
+
+    long bytesOut() {
+        return bytesOut;
+    }
+
+    private void drain(int flush) throws IOException {
+        while (true) {
+            int n = deflater.deflate(buf, 0, buf.length, flush);
+            writeRaw(buf, n);
+            // a full buffer may mean there is more pending output
+            if (n < buf.length && deflater.needsInput()) return;
+        }
+    }
+
+    private void writeRaw(byte[] b) throws IOException {
+        writeRaw(b, b.length);
+    }
+
+    private void writeRaw(byte[] b, int n) throws IOException {
+        if (n > 0) {
+            out.write(b, 0, n);
+            bytesOut += n;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses response bodies for clients that send {@code Accept-Encoding: gzip} or
+ * {@code deflate}.
+ * <p>
+ * Only successful responses with a compressible content type (text, JSON, JavaScript, XML,
+ * SVG) of at least {@code minBytes} are touched, and never ones that already carry a
+ * {@code Content-Encoding}. In-memory bodies are compressed up front; streamed bodies are
+ * compressed as they are written and go out chunked. Whole static files are compressed once
+ * and then served from a {@link PrecompressedCache}; files too large for it are compressed
+ * while streaming. Deflaters are pooled, because each one holds a few hundred KB of native
+ * memory that is slow to set up. In-memory bodies with a strong {@code ETag} (see
+ * {@link ResponseCache}) are cached the same way, and the tag gets a {@code -gzip} or
+ * {@code -deflate} suffix, because the compressed bytes are a representation of their own.
+ * <p>
+ * Per route it counts bytes in and out and the CPU time spent compressing; see {@link #report()}.
+ */
+public class Compression {
+    public static final int DEFAULT_MIN_BYTES = 1024;
+    public static final long DEFAULT_CACHE_BYTES = 32L * 1024 * 1024;
+
+    private static final int LEVEL = 6;
+    private static final int MAX_POOLED = 64;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final String UNMATCHED = "(unmatched)";
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    enum Encoding { GZIP, DEFLATE }
+
+    private final int minBytes;
+    private final long maxCachedFile;
+    private final PrecompressedCache cache;
+    private final ArrayBlockingQueue<PooledDeflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+    private final Map<String, RouteStats> stats = new ConcurrentHashMap<>();
+
+    public Compression(int minBytes, long cacheBytes) {
+        this.minBytes = minBytes;
+        this.cache = new PrecompressedCache(cacheBytes);
+        // a single file may take up to an eighth of the cache
+        this.maxCachedFile = cacheBytes / 8;
+    }
+
+    /**
+     * {@link #apply(Request, Response)} on the result of {@code stage}. Cancelling the returned
+     * stage still cancels {@code stage}, so an async handler hears about timeouts and disconnects.
+     */
+    public CompletionStage<Response> apply(Request request, CompletionStage<Response> stage) {
+        CompletableFuture<Response> source = stage.toCompletableFuture();
+        if (source.isDone() && !source.isCompletedExceptionally()) {
+            return CompletableFuture.completedFuture(apply(request, source.join()));
+        }
+        CompletableFuture<Response> compressed = source.thenApply(response -> apply(request, response));
+        compressed.whenComplete((response, failure) -> {
+            if (failure instanceof CancellationException) {
+                source.cancel(true);
+            }
+        });
+        return compressed;
+    }
+
+    /** The compressed equivalent of {@code response}, or {@code response} itself. */
+    public Response apply(Request request, Response response) {
+        if (response == null || response.getStatus() != 200 || !isCompressible(response.getContentType())
+                || response.getHeaders().containsKey("Content-Encoding")) {
+            return response;
+        }
+        long length = response.getContentLength();
+        if (length >= 0 && length < minBytes) {
+            return response;
+        }
+        addVary(response);
+        Encoding encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            return response;
+        }
+
+        RouteStats route = stats.computeIfAbsent(request.getRoute() == null ? UNMATCHED : request.getRoute(), r -> new RouteStats());
+        try {
+            if (response.getFile() != null) {
+                return compressFile(response, encoding, route);
+            }
+            if (response.getBodyWriter() != null) {
+                return compressStream(response, response.getBodyWriter(), encoding, route);
+            }
+            return compressed(response, compressBody(response, encoding, route), encoding);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** One line per route: bodies compressed, bytes in and out, ratio, CPU time and cache hits. */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-30s %9s %12s %12s %6s %9s %10s%n",
+                "route", "compressed", "bytes in", "bytes out", "ratio", "cpu ms", "cache hits"));
+        for (Map.Entry<String, RouteStats> e : new TreeMap<>(stats).entrySet()) {
+            RouteStats s = e.getValue();
+            long in = s.bytesIn.sum();
+            long out = s.bytesOut.sum();
+            sb.append(String.format(Locale.ROOT, "%-30s %9d %12d %12d %6.2f %9.1f %10d%n",
+                    e.getKey(), s.responses.sum(), in, out, in == 0 ? 0.0 : out / (double) in,
+                    s.cpuNanos.sum() / 1e6, s.cacheHits.sum()));
+        }
+        sb.append("cache: ").append(cache.size()).append(" entries, ").append(cache.bytes()).append(" bytes\n");
+        return sb.toString();
+    }
+
+    Map<String, RouteStats> stats() {
+        return stats;
+    }
+
+    /**
+     * An in-memory body with a strong {@code ETag} is the same bytes every time it is served with
+     * that tag, so its compressed form is cached under the tag, like a static file.
+     */
+    private byte[] compressBody(Response response, Encoding encoding, RouteStats route) throws IOException {
+        String etag = response.getHeaders().get("ETag");
+        String key = etag != null && !etag.startsWith("W/") ? "E " + encoding + " " + etag : null;
+        if (key != null) {
+            byte[] bytes = cache.get(key);
+            if (bytes != null) {
+                route.cacheHits.increment();
+                return bytes;
+            }
+        }
+        byte[] bytes = deflate(response, encoding, route);
+        if (key != null) {
+            cache.put(key, bytes);
+        }
+        return bytes;
+    }
+
+    private byte[] deflate(Response response, Encoding encoding, RouteStats route) throws IOException {
+        long start = cpuTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(64, response.getContentLength() / 3));
+        PooledDeflater pooled = acquire();
+        try {
+            CompressingOutputStream z = new CompressingOutputStream(out, pooled.deflater, pooled.buf, encoding == Encoding.GZIP);
+            if (response.getBodyBytes() != null) {
+                z.write(response.getBodyBytes());
+            } else if (response.getBodyBuffer() != null) {
+                z.write(response.getBodyBuffer());
+            } else if (response.getBody() != null) {
+                z.write(response.getBody().getBytes(StandardCharsets.UTF_8));
+            }
+            z.finish();
+            route.record(z.bytesIn(), z.bytesOut(), cpuTime() - start);
+        } finally {
+            release(pooled);
+        }
+        return out.toByteArray();
+    }
+
+    private Response compressFile(Response response, Encoding encoding, RouteStats route) throws IOException {
+        FileRegion file = response.getFile();
+        if (file.getCount() > maxCachedFile) {
+            return compressStream(response, out -> {
+                try (InputStream in = Files.newInputStream(file.getPath())) {
+                    in.skipNBytes(file.getPosition());
+                    byte[] buf = new byte[BUFFER_SIZE];
+                    long remaining = file.getCount();
+                    while (remaining > 0) {
+                        int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                        if (n < 0) throw new IOException("File shrank while being sent: " + file.getPath());
+                        out.write(buf, 0, n);
+                        remaining -= n;
+                    }
+                }
+            }, encoding, route);
+        }
+
+        String lastModified = response.getHeaders().get("Last-Modified");
+        String version = lastModified != null ? lastModified : Files.getLastModifiedTime(file.getPath()).toString();
+        String key = encoding + " " + file.getPath() + " " + file.getPosition() + "+" + file.getCount() + " " + version;
+        byte[] bytes = cache.get(key);
+        if (bytes != null) {
+            route.cacheHits.increment();
+        } else {
+            long start = cpuTime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(64, file.getCount() / 3));
+            PooledDeflater pooled = acquire();
+            try (InputStream in = Files.newInputStream(file.getPath())) {
+                in.skipNBytes(file.getPosition());
+                CompressingOutputStream z = new CompressingOutputStream(out, pooled.deflater, pooled.buf, encoding == Encoding.GZIP);
+                byte[] buf = new byte[BUFFER_SIZE];
+                long remaining = file.getCount();
+                while (remaining > 0) {
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (n < 0) throw new IOException("File shrank while being compressed: " + file.getPath());
+                    z.write(buf, 0, n);
+                    remaining -= n;
+                }
+                z.finish();
+                route.record(z.bytesIn(), z.bytesOut(), cpuTime() - start);
+            } finally {
+                release(pooled);
+            }
+            bytes = out.toByteArray();
+            cache.put(key, bytes);
+        }
+        // the cached array is never modified, so a read-only view can go out as is
+        return compressed(response, bytes, encoding);
+    }
+
+    private Response compressStream(Response response, BodyWriter body, Encoding encoding, RouteStats route) {
+        Response streamed = new Response(response.getStatus(), response.getContentType(), out -> {
+            long start = cpuTime();
+            PooledDeflater pooled = acquire();
+            try {
+                CompressingOutputStream z = new CompressingOutputStream(out, pooled.deflater, pooled.buf, encoding == Encoding.GZIP);
+                body.writeTo(z);
+                z.finish();
+                // includes the time the writer itself took, since the two interleave
+                route.record(z.bytesIn(), z.bytesOut(), cpuTime() - start);
+            } finally {
+                release(pooled);
+            }
+        });
+        return copyHeaders(response, streamed, encoding);
+    }
+
+    private static Response compressed(Response response, byte[] bytes, Encoding encoding) {
+        Response compressed = new Response(response.getStatus(), response.getContentType(), ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+        return copyHeaders(response, compressed, encoding);
+    }
+
+    private static Response copyHeaders(Response from, Response to, Encoding encoding) {
+        to.getHeaders().putAll(from.getHeaders());
+        String coding = encoding == Encoding.GZIP ? "gzip" : "deflate";
+        to.addHeader("Content-Encoding", coding);
+        // the compressed bytes are a different representation and need a tag of their own
+        String etag = from.getHeaders().get("ETag");
+        if (etag != null) {
+            to.addHeader("ETag", variantTag(etag, coding));
+        }
+        return to;
+    }
+
+    /** {@code "abc"} -> {@code "abc-gzip"}, keeping a {@code W/} prefix. */
+    static String variantTag(String etag, String coding) {
+        if (etag.length() < 2 || etag.charAt(etag.length() - 1) != '"') {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + coding + "\"";
+    }
+
+    private static void addVary(Response response) {
+        String vary = response.getHeaders().get("Vary");
+        if (vary == null) {
+            response.addHeader("Vary", "Accept-Encoding");
+        } else if (!vary.toLowerCase(Locale.ROOT).contains("accept-encoding")) {
+            response.addHeader("Vary", vary + ", Accept-Encoding");
+        }
+    }
+
+    /**
+     * gzip if acceptable, then deflate; null when the client accepts neither. A coding the header
+     * names takes its own q, and {@code *} stands for the ones it does not name.
+     */
+    static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+        Boolean gzip = null;
+        Boolean deflate = null;
+        boolean wildcard = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            boolean acceptable = true;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(p.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = acceptable;
+                case "deflate" -> deflate = acceptable;
+                case "*" -> wildcard = acceptable;
+                default -> { }
+            }
+        }
+        if (gzip == null ? wildcard : gzip) return Encoding.GZIP;
+        if (deflate == null ? wildcard : deflate) return Encoding.DEFLATE;
+        return null;
+    }
+
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) return false;
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/xml")
+                || type.startsWith("image/svg+xml");
+    }
+
+    private PooledDeflater acquire() {
+        PooledDeflater pooled = deflaters.poll();
+        return pooled != null ? pooled : new PooledDeflater();
+    }
+
+    private void release(PooledDeflater pooled) {
+        pooled.deflater.reset();
+        if (!deflaters.offer(pooled)) {
+            pooled.deflater.end();
+        }
+    }
+
+    /** CPU time of the current thread, or wall time where the JVM cannot measure it (e.g. virtual threads). */
+    private static long cpuTime() {
+        long t = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        return t >= 0 ? t : System.nanoTime();
+    }
+
+    private static final class PooledDeflater {
+        final Deflater deflater = new Deflater(LEVEL, true);
+        final byte[] buf = new byte[BUFFER_SIZE];
+    }
+
+    /** Counters of one route. */
+    static final class RouteStats {
+        final LongAdder responses = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder cacheHits = new LongAdder();
+
+        void record(long in, long out, long cpu) {
+            responses.increment();
+            bytesIn.add(in);
+            bytesOut.add(out);
+            cpuNanos.add(cpu);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * One selector thread. All channel state it owns is touched only from this
+ * thread; other threads hand work over with {@link #execute(Runnable)}.
+ */
+class EventLoop implements Runnable, Executor {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SLOTS = 512;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ServerConfig config;
+    private final WorkerPool workers;
+    private final AsyncHandler dispatcher;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Written by this loop only, read by /status
+    private volatile int connections;
+    private volatile boolean draining;
+    private volatile boolean running = true;
+    private ServerSocketChannel listener;
+
+    // Shared by every connection on this loop; data is copied out only when a request is incomplete
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    // Response buffers for the connections of this loop
+    private final BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 256);
+
+    private EventLoop[] group;
+    private int nextLoop;
+
+    // Timeouts of this loop's connections; the loop wakes up at least once per tick to advance it
+    private final TimerWheel timers;
+    private long now = currentTimeMillis();
+
+    EventLoop(String name, ServerConfig config, WorkerPool workers, AsyncHandler dispatcher,
+              ServerMetrics metrics, AccessLog accessLog) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.config = config;
+        this.workers = workers;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.timers = new TimerWheel(TICK_MS, WHEEL_SLOTS, now);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops accepting (taking what is already in the listen backlog first, so those clients are
+     * not reset) and lets every connection close once it has nothing in progress.
+     */
+    void drain() {
+        draining = true;
+        execute(() -> {
+            if (listener != null) {
+                try {
+                    accept(listener);
+                } catch (IOException ignored) {
+                }
+                try {
+                    listener.close();
+                } catch (IOException ignored) {
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection conn) {
+                    conn.drain();
+                }
+            }
+        });
+    }
+
+    /** Whether the server is shutting down; responses then go out with {@code Connection: close}. */
+    boolean isDraining() {
+        return draining;
+    }
+
+    /** Closes the connections that are left and ends the loop thread. */
+    void stop() throws InterruptedException {
+        execute(() -> running = false);
+        thread.join();
+    }
+
+    /** Accept connections from {@code listener} and spread them round-robin over {@code group}. */
+    void listen(ServerSocketChannel listener, EventLoop[] group) throws IOException {
+        this.group = group;
+        this.listener = listener;
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Like {@link #execute(Runnable)} for work on behalf of {@code conn}: if the task throws,
+     * only that connection is closed.
+     */
+    void execute(NioConnection conn, Runnable task) {
+        execute(guard(conn, task));
+    }
+
+    /** {@code task}, closing {@code conn} instead of letting a RuntimeException reach the loop. */
+    Runnable guard(NioConnection conn, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failed(e);
+                conn.close();
+            }
+        };
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    ServerConfig config() {
+        return config;
+    }
+
+    WorkerPool workers() {
+        return workers;
+    }
+
+    AsyncHandler dispatcher() {
+        return dispatcher;
+    }
+
+    ServerMetrics metrics() {
+        return metrics;
+    }
+
+    /** The response to {@code request} has been handed to its connection. */
+    void responded(Request request, Response response) {
+        long nanos = System.nanoTime() - request.getReceivedNanos();
+        metrics.responded(request, response.getStatus(), nanos);
+        if (accessLog != null) {
+            accessLog.log(request.getMethod(), request.getUri(), response.getStatus(), response.getContentLength(), nanos);
+        }
+    }
+
+    void connectionClosed() {
+        connections--;
+    }
+
+    /** Connections currently registered with this loop. */
+    int connectionCount() {
+        return connections;
+    }
+
+    BufferPool buffers() {
+        return buffers;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    TimerWheel timers() {
+        return timers;
+    }
+
+    /** Monotonic milliseconds, as of the last wake-up of the loop. */
+    long now() {
+        return now;
+    }
+
+    private static long currentTimeMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(TICK_MS);
+                now = currentTimeMillis();
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        try {
+                            accept((ServerSocketChannel) key.channel());
+                        } catch (RuntimeException e) {
+                            failed(e);
+                        }
+                        continue;
+                    }
+                    NioConnection conn = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) conn.onReadable();
+                        if (key.isValid() && key.isWritable()) conn.onWritable();
+                    } catch (CancelledKeyException ignored) {
+                        // closed while its events were being processed
+                    } catch (RuntimeException e) {
+                        failed(e);
+                        conn.close();
+                    }
+                }
+                timers.advance(now);
+            } catch (IOException e) {
+                System.out.println("[" + thread.getName() + "] selector failure: " + e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection conn) {
+                conn.close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            // one failing task must not end the loop and strand every other connection on it
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+        }
+    }
+
+    private void failed(RuntimeException e) {
+        System.err.println("[" + thread.getName() + "] " + e);
+    }
+
+    private void accept(ServerSocketChannel listener) throws IOException {
+        SocketChannel ch;
+        while ((ch = listener.accept()) != null) {
+            EventLoop target = group[nextLoop];
+            nextLoop = (nextLoop + 1) % group.length;
+            SocketChannel accepted = ch;
+            if (target == this) {
+                register(accepted);
+            } else {
+                target.execute(() -> target.register(accepted));
+            }
+        }
+    }
+
+    private void register(SocketChannel ch) {
+        try {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+            NioConnection conn = new NioConnection(this, ch, key);
+            key.attach(conn);
+            connections++;
+            metrics.connectionOpened();
+            if (draining) {
+                // handed over by loop 0 after this loop's drain task went through its connections
+                conn.drain();
+            }
+        } catch (IOException e) {
+            try { ch.close(); } catch (IOException ignored) {}
+        }
+    }
+}
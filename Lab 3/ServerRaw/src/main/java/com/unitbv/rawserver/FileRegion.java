@@ -0,0 +1,37 @@
+package com.unitbv.rawserver;
+
+import java.nio.file.Path;
+
+/**
+ * A byte range of a file used as a response body. The server streams it from the
+ * file to the socket with {@link java.nio.channels.FileChannel#transferTo}, so the
+ * bytes never pass through the Java heap.
+ */
+public final class FileRegion {
+    private final Path path;
+    private final long position;
+    private final long count;
+
+    public FileRegion(Path path, long position, long count) {
+        this.path = path;
+        this.position = position;
+        this.count = count;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion{" + path + ", " + position + "+" + count + '}';
+    }
+}
@@ -0,0 +1,103 @@
+package com.unitbv.rawserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in the layout of Gil Tene's HdrHistogram: buckets are linear within each
+ * power of two, 64 to 128 per power, so every recorded value keeps about two significant
+ * digits (under 1.6 % error) from 1 ns up to {@link #MAX_VALUE}. Larger values are counted in
+ * the last bucket.
+ * <p>
+ * {@link #record(long)} is one array index computation and one atomic increment; it takes no
+ * lock and does not allocate, so any number of threads can record into the same histogram.
+ * Readers see a slightly moving picture, which is fine for monitoring. Histograms recorded
+ * separately, e.g. one per route, can be combined with {@link #add(Histogram)}.
+ */
+final class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    /** About 68 seconds in nanoseconds. */
+    static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    /** Records one value, usually a duration in nanoseconds. Negative values count as 0. */
+    void record(long value) {
+        long v = Math.max(0, Math.min(value, MAX_VALUE));
+        counts.incrementAndGet(index(v));
+        sum.add(v);
+    }
+
+    /** Adds every value recorded in {@code other} to this histogram. */
+    void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n != 0) counts.addAndGet(i, n);
+        }
+        sum.add(other.sum.sum());
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    long sum() {
+        return sum.sum();
+    }
+
+    /** Number of recorded values up to and including {@code value}, give or take one bucket. */
+    long countAtOrBelow(long value) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS && lowestValue(i) <= value; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /** The value below which {@code percentile} percent of the recorded values fall, or 0 when empty. */
+    long valueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) return highestValue(i);
+        }
+        return MAX_VALUE;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // shift so the value lands in [HALF, SUB_BUCKETS); each shift doubles the bucket width
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        return (long) (index % HALF + HALF) << shift;
+    }
+
+    static long highestValue(int index) {
+        return index + 1 < BUCKETS ? lowestValue(index + 1) - 1 : MAX_VALUE;
+    }
+}
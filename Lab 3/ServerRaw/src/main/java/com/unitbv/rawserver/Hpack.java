@@ -0,0 +1,407 @@
+package com.unitbv.rawserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression (RFC 7541) for {@link Http2Connection}. Each connection has one
+ * {@link Decoder} for the requests and one {@link Encoder} for the responses, each with its
+ * dynamic table, shared by all streams of the connection: a header sent on one stream is a
+ * one-byte index on the next. Both must see the header blocks in connection order, so they
+ * are only used on the event loop.
+ * <p>
+ * Names and values are handled as ISO-8859-1 strings, one char per octet, like
+ * {@link HttpHeaders} does for HTTP/1.x.
+ */
+final class Hpack {
+    /** Table size both sides start with, and the most the encoder uses even if the client allows more. */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""},
+    };
+    private static final int STATIC_SIZE = STATIC_TABLE.length;
+
+    // Lowest static index of each name, and of each name + '\0' + value
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC_SIZE; i >= 1; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i - 1][0], i);
+            STATIC_FIELDS.put(STATIC_TABLE[i - 1][0] + '\0' + STATIC_TABLE[i - 1][1], i);
+        }
+    }
+
+    private Hpack() {}
+
+    /** Entries in insertion order, newest first when indexed; evicts the oldest to stay within the size. */
+    private static final class DynamicTable {
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int newest = -1; // slot of the newest entry
+        private int count;
+        private int size;
+        private int maxSize = DEFAULT_TABLE_SIZE;
+
+        /** Entry {@code index}, counting from 1 for the newest. */
+        String name(int index) {
+            return names[slot(index)];
+        }
+
+        String value(int index) {
+            return values[slot(index)];
+        }
+
+        int count() {
+            return count;
+        }
+
+        private int slot(int index) {
+            return Math.floorMod(newest - (index - 1), names.length);
+        }
+
+        void add(String name, String value) {
+            int entrySize = entrySize(name, value);
+            evict(maxSize - entrySize);
+            if (entrySize > maxSize) {
+                return; // too big for the table: it just empties it (RFC 7541, 4.4)
+            }
+            if (count == names.length) {
+                grow();
+            }
+            newest = (newest + 1) % names.length;
+            names[newest] = name;
+            values[newest] = value;
+            count++;
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int target) {
+            while (count > 0 && size > target) {
+                int oldest = slot(count);
+                size -= entrySize(names[oldest], values[oldest]);
+                names[oldest] = null;
+                values[oldest] = null;
+                count--;
+            }
+        }
+
+        private void grow() {
+            String[] n = new String[names.length * 2];
+            String[] v = new String[values.length * 2];
+            for (int i = count; i >= 1; i--) {
+                n[count - i] = name(i);
+                v[count - i] = value(i);
+            }
+            names = n;
+            values = v;
+            newest = count - 1;
+        }
+
+        private static int entrySize(String name, String value) {
+            return name.length() + value.length() + 32;
+        }
+    }
+
+    /** Reads the request header blocks of one connection. */
+    static final class Decoder {
+        private final DynamicTable table = new DynamicTable();
+        private final int maxTableSize;
+
+        /** @param maxTableSize the {@code SETTINGS_HEADER_TABLE_SIZE} the server announced */
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            table.setMaxSize(maxTableSize);
+        }
+
+        /**
+         * Decodes a complete header block, adding name and value of each field to {@code fields}.
+         * Any error is a {@code COMPRESSION_ERROR}: the table may be out of step with the client's now.
+         */
+        void decode(byte[] block, int length, List<String> fields) throws Http2Exception {
+            int[] pos = {0};
+            boolean fieldSeen = false;
+            while (pos[0] < length) {
+                int b = block[pos[0]] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    int index = readInt(block, length, pos, 7);
+                    fields.add(name(index));
+                    fields.add(value(index));
+                    fieldSeen = true;
+                } else if ((b & 0xC0) == 0x40) {
+                    String[] field = readLiteral(block, length, pos, 6);
+                    table.add(field[0], field[1]);
+                    fields.add(field[0]);
+                    fields.add(field[1]);
+                    fieldSeen = true;
+                } else if ((b & 0xE0) == 0x20) {
+                    if (fieldSeen) {
+                        throw error("Table size update after a header field");
+                    }
+                    int size = readInt(block, length, pos, 5);
+                    if (size > maxTableSize) {
+                        throw error("Table size " + size + " above the announced " + maxTableSize);
+                    }
+                    table.setMaxSize(size);
+                } else {
+                    // without indexing (0000) or never indexed (0001); nothing is stored either way
+                    String[] field = readLiteral(block, length, pos, 4);
+                    fields.add(field[0]);
+                    fields.add(field[1]);
+                    fieldSeen = true;
+                }
+            }
+        }
+
+        private String[] readLiteral(byte[] block, int length, int[] pos, int prefix) throws Http2Exception {
+            int index = readInt(block, length, pos, prefix);
+            String name = index == 0 ? readString(block, length, pos) : name(index);
+            return new String[]{name, readString(block, length, pos)};
+        }
+
+        private String name(int index) throws Http2Exception {
+            if (index >= 1 && index <= STATIC_SIZE) return STATIC_TABLE[index - 1][0];
+            if (index > STATIC_SIZE && index <= STATIC_SIZE + table.count()) return table.name(index - STATIC_SIZE);
+            throw error("Invalid table index " + index);
+        }
+
+        private String value(int index) throws Http2Exception {
+            if (index >= 1 && index <= STATIC_SIZE) return STATIC_TABLE[index - 1][1];
+            if (index > STATIC_SIZE && index <= STATIC_SIZE + table.count()) return table.value(index - STATIC_SIZE);
+            throw error("Invalid table index " + index);
+        }
+
+        private static int readInt(byte[] block, int length, int[] pos, int prefix) throws Http2Exception {
+            int max = (1 << prefix) - 1;
+            int value = block[pos[0]++] & max;
+            if (value < max) {
+                return value;
+            }
+            for (int shift = 0; shift <= 28; shift += 7) {
+                if (pos[0] >= length) {
+                    throw error("Truncated integer");
+                }
+                int b = block[pos[0]++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                if (value < 0) {
+                    break;
+                }
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw error("Integer too large");
+        }
+
+        private static String readString(byte[] block, int length, int[] pos) throws Http2Exception {
+            if (pos[0] >= length) {
+                throw error("Truncated string");
+            }
+            boolean huffman = (block[pos[0]] & 0x80) != 0;
+            int n = readInt(block, length, pos, 7);
+            if (n > length - pos[0]) {
+                throw error("Truncated string");
+            }
+            String s;
+            if (huffman) {
+                s = Huffman.decode(block, pos[0], n);
+                if (s == null) {
+                    throw error("Invalid Huffman code");
+                }
+            } else {
+                s = new String(block, pos[0], n, java.nio.charset.StandardCharsets.ISO_8859_1);
+            }
+            pos[0] += n;
+            return s;
+        }
+
+        private static Http2Exception error(String message) {
+            return new Http2Exception(Http2Frames.COMPRESSION_ERROR, message);
+        }
+    }
+
+    /** Writes the response header blocks of one connection. */
+    static final class Encoder {
+        private final DynamicTable table = new DynamicTable();
+        private byte[] out = new byte[256];
+        private int length;
+        // Smallest size set since the last block, and the size to announce, or -1 when unchanged
+        private int minPendingSize = -1;
+        private int pendingSize = -1;
+
+        /** The client's {@code SETTINGS_HEADER_TABLE_SIZE}; the table shrinks to fit, and never grows past the default. */
+        void setMaxTableSize(int peerMax) {
+            int size = Math.min(peerMax, DEFAULT_TABLE_SIZE);
+            minPendingSize = minPendingSize < 0 ? size : Math.min(minPendingSize, size);
+            pendingSize = size;
+        }
+
+        /** Encodes {@code fields} (name, value, name, value, ...; names in lower case) into one block. */
+        byte[] encode(List<String> fields) {
+            length = 0;
+            if (pendingSize >= 0) {
+                // announce the smallest size first if it went down and up again, so evictions match
+                if (minPendingSize < pendingSize) {
+                    table.setMaxSize(minPendingSize);
+                    writeInt(0x20, 5, minPendingSize);
+                }
+                table.setMaxSize(pendingSize);
+                writeInt(0x20, 5, pendingSize);
+                pendingSize = -1;
+                minPendingSize = -1;
+            }
+            for (int i = 0; i < fields.size(); i += 2) {
+                encode(fields.get(i), fields.get(i + 1));
+            }
+            return Arrays.copyOf(out, length);
+        }
+
+        private void encode(String name, String value) {
+            Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+            if (exact != null) {
+                writeInt(0x80, 7, exact);
+                return;
+            }
+            int nameIndex = STATIC_NAMES.getOrDefault(name, 0);
+            for (int i = 1; i <= table.count(); i++) {
+                if (table.name(i).equals(name)) {
+                    if (table.value(i).equals(value)) {
+                        writeInt(0x80, 7, STATIC_SIZE + i);
+                        return;
+                    }
+                    if (nameIndex == 0) nameIndex = STATIC_SIZE + i;
+                }
+            }
+            switch (indexing(name)) {
+                case 0 -> {
+                    writeInt(0x40, 6, nameIndex);
+                    table.add(name, value);
+                }
+                case 1 -> writeInt(0x00, 4, nameIndex);
+                default -> writeInt(0x10, 4, nameIndex);
+            }
+            if (nameIndex == 0) {
+                writeString(name);
+            }
+            writeString(value);
+        }
+
+        /**
+         * 0: worth a table entry; 1: changes with every response, so an entry would only push
+         * out useful ones; 2: sensitive, must never be indexed, not even by an intermediary.
+         */
+        private static int indexing(String name) {
+            return switch (name) {
+                case "set-cookie", "authorization", "proxy-authorization" -> 2;
+                case ":status", "content-length", "date", "etag", "last-modified", "age", "expires",
+                     "content-range", "location" -> 1;
+                default -> 0;
+            };
+        }
+
+        private void writeString(String s) {
+            int huffmanLength = Huffman.encodedLength(s);
+            if (huffmanLength < s.length()) {
+                writeInt(0x80, 7, huffmanLength);
+                ensure(huffmanLength);
+                length = Huffman.encode(s, out, length);
+            } else {
+                writeInt(0x00, 7, s.length());
+                ensure(s.length());
+                for (int i = 0; i < s.length(); i++) {
+                    out[length++] = (byte) s.charAt(i);
+                }
+            }
+        }
+
+        private void writeInt(int flags, int prefix, int value) {
+            ensure(6);
+            int max = (1 << prefix) - 1;
+            if (value < max) {
+                out[length++] = (byte) (flags | value);
+                return;
+            }
+            out[length++] = (byte) (flags | max);
+            value -= max;
+            while (value >= 0x80) {
+                out[length++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            out[length++] = (byte) value;
+        }
+
+        private void ensure(int more) {
+            if (length + more > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, length + more));
+            }
+        }
+    }
+}
@@ -0,0 +1,1216 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.unitbv.rawserver.Http2Frames.*;
+
+/**
+ * Cleartext HTTP/2 (h2c, RFC 9113) on an NIO connection. A client gets here either by opening
+ * with the connection preface ("prior knowledge") or with {@code Upgrade: h2c} on an HTTP/1.1
+ * request, which then becomes stream 1.
+ * <p>
+ * Frames are parsed on the event loop. Every request is a stream of its own and goes to a
+ * worker as soon as it is complete, so a slow handler no longer holds up the requests behind
+ * it as it does on an HTTP/1.1 connection. Header blocks are decoded and encoded on the loop
+ * only, in the order they cross the wire: HPACK keeps one dynamic table per direction for the
+ * whole connection.
+ * <p>
+ * Request bodies are taken off the socket as they arrive, so receive windows are handed back
+ * once half used; {@link #RECEIVE_WINDOW} bounds what a client may have in flight per stream.
+ * A worker writing a response takes send window from its stream and from the connection
+ * before each DATA frame and waits, at most the write timeout, while either is used up. On
+ * top of that the connection's write queue parks it as it would an HTTP/1.1 response.
+ * <p>
+ * Not supported: server push (turned off in the settings), priorities (ignored) and trailers
+ * on responses. Trailers on requests are accepted and dropped.
+ */
+final class Http2Connection implements NioConnection.Protocol {
+    /** Receive window of the connection and of each stream. */
+    static final int RECEIVE_WINDOW = 1024 * 1024;
+    // Header fields of one request, counted as HPACK does (name + value + 32 per field)
+    private static final int MAX_HEADER_LIST = RequestParser.DEFAULT_MAX_REQUEST_LINE + RequestParser.DEFAULT_MAX_HEADER_BYTES;
+    private static final byte[] NO_DATA = new byte[0];
+
+    private enum Timer { NONE, IDLE, BODY }
+
+    private final NioConnection conn;
+    private final EventLoop loop;
+    private final ServerConfig config;
+    private final int maxStreams;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    // An incomplete frame carried over to the next read
+    private final ByteBuffer partial = ByteBuffer.allocate(HEADER_LENGTH + MAX_FRAME_SIZE);
+
+    // Touched only on the loop
+    private int prefaceMatched;
+    private boolean settingsReceived;
+    private int lastStreamId;
+    private Stream headersFor;
+    private byte[] headerBlock = new byte[1024];
+    private int headerBlockLength;
+    private boolean headerBlockEndsStream;
+    private int receiveWindow = RECEIVE_WINDOW;
+    private int handling;
+    private int receiving;
+    private Timer timer = Timer.NONE;
+    private boolean goingAway;
+    private int goAwayStreamId = Integer.MAX_VALUE;
+    private boolean finishing;
+
+    // Send windows: the loop opens them, workers writing DATA take from them
+    private final ReentrantLock flowLock = new ReentrantLock();
+    private final Condition windowOpened = flowLock.newCondition();
+    private long sendWindow = DEFAULT_WINDOW;
+    private int initialSendWindow = DEFAULT_WINDOW;
+    private volatile boolean closed;
+
+    Http2Connection(NioConnection conn, EventLoop loop) {
+        this.conn = conn;
+        this.loop = loop;
+        this.config = loop.config();
+        this.maxStreams = config.getHttp2MaxStreams();
+    }
+
+    /** Whether {@code data} starts like the client preface; four bytes are enough to tell it from HTTP/1.x. */
+    static boolean isPreface(ByteBuffer data) {
+        int n = Math.min(data.remaining(), PREFACE.length);
+        if (n < 4) return false;
+        for (int i = 0; i < n; i++) {
+            if (data.get(data.position() + i) != PREFACE[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether {@code request} asks to switch to h2c (RFC 7540, 3.2) with valid settings. The
+     * body has been read by then, so a request with one may upgrade too.
+     */
+    static boolean isUpgrade(Request request) {
+        if (!"HTTP/1.1".equals(request.getVersion())
+                || !WebSocketUpgrade.hasToken(request.getHeader("Upgrade"), "h2c")) {
+            return false;
+        }
+        String connection = request.getHeader("Connection");
+        return WebSocketUpgrade.hasToken(connection, "upgrade")
+                && WebSocketUpgrade.hasToken(connection, "http2-settings")
+                && upgradeSettings(request) != null;
+    }
+
+    /** The decoded {@code HTTP2-Settings} header, or null when it is missing or malformed. */
+    private static byte[] upgradeSettings(Request request) {
+        String value = request.getHeader("HTTP2-Settings");
+        if (value == null) return null;
+        try {
+            byte[] settings = Base64.getUrlDecoder().decode(value.trim());
+            return settings.length % 6 == 0 ? settings : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs on the loop when the connection switches over. Sends the server's settings; for an
+     * upgrade, these follow the {@code 101} and {@code request} is answered on stream 1.
+     */
+    void start(Request request) {
+        ByteBuffer buf = loop.buffers().acquire();
+        header(buf, 4 * 6, SETTINGS, 0, 0);
+        setting(buf, SETTINGS_ENABLE_PUSH, 0);
+        setting(buf, SETTINGS_MAX_CONCURRENT_STREAMS, maxStreams);
+        setting(buf, SETTINGS_INITIAL_WINDOW_SIZE, RECEIVE_WINDOW);
+        setting(buf, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST);
+        header(buf, 4, WINDOW_UPDATE, 0, 0);
+        buf.putInt(RECEIVE_WINDOW - DEFAULT_WINDOW);
+        send(buf);
+        if (request != null) {
+            try {
+                applySettings(ByteBuffer.wrap(upgradeSettings(request)));
+            } catch (Http2Exception e) {
+                connectionError(e);
+                return;
+            }
+            Stream stream = new Stream(1);
+            lastStreamId = 1;
+            streams.put(1, stream);
+            stream.request = request;
+            dispatch(stream);
+        }
+        if (loop.isDraining()) {
+            drain();
+        }
+        updateTimer();
+    }
+
+    private static void setting(ByteBuffer buf, int id, int value) {
+        buf.putShort((short) id).putInt(value);
+    }
+
+    @Override
+    public void onReadable(ByteBuffer data) {
+        if (finishing) {
+            data.position(data.limit()); // nothing more is read after GOAWAY
+            return;
+        }
+        try {
+            if (prefaceMatched < PREFACE.length && !matchPreface(data)) {
+                return;
+            }
+            while (data.hasRemaining() && !finishing) {
+                if (partial.position() == 0) {
+                    frames(data);
+                    if (data.hasRemaining()) {
+                        partial.put(data); // less than one frame is left
+                    }
+                    break;
+                }
+                // complete the carried-over frame: its header first, then its payload
+                int want = partial.position() < HEADER_LENGTH ? HEADER_LENGTH : frameLength(partial, 0);
+                int n = Math.min(want - partial.position(), data.remaining());
+                partial.put(partial.position(), data, data.position(), n);
+                partial.position(partial.position() + n);
+                data.position(data.position() + n);
+                if (partial.position() >= HEADER_LENGTH && partial.position() == frameLength(partial, 0)) {
+                    partial.flip();
+                    frames(partial);
+                    partial.clear();
+                }
+            }
+        } catch (Http2Exception e) {
+            connectionError(e);
+            return;
+        }
+        updateTimer();
+    }
+
+    private boolean matchPreface(ByteBuffer data) throws Http2Exception {
+        while (prefaceMatched < PREFACE.length && data.hasRemaining()) {
+            if (data.get() != PREFACE[prefaceMatched++]) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Invalid connection preface");
+            }
+        }
+        return prefaceMatched == PREFACE.length;
+    }
+
+    /** Header plus payload length of the frame at {@code at}, once its header is there. */
+    private static int frameLength(ByteBuffer buf, int at) throws Http2Exception {
+        int length = (buf.get(at) & 0xFF) << 16 | (buf.get(at + 1) & 0xFF) << 8 | buf.get(at + 2) & 0xFF;
+        if (length > MAX_FRAME_SIZE) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+        }
+        return HEADER_LENGTH + length;
+    }
+
+    /** Handles every complete frame in {@code buf}, leaving a partial one in it. */
+    private void frames(ByteBuffer buf) throws Http2Exception {
+        while (buf.remaining() >= HEADER_LENGTH && !finishing) {
+            int start = buf.position();
+            int end = start + frameLength(buf, start);
+            if (end > buf.limit()) return;
+            int type = buf.get(start + 3) & 0xFF;
+            int flags = buf.get(start + 4) & 0xFF;
+            int streamId = buf.getInt(start + 5) & Integer.MAX_VALUE;
+            ByteBuffer payload = buf.slice(start + HEADER_LENGTH, end - start - HEADER_LENGTH);
+            buf.position(end);
+            try {
+                frame(type, flags, streamId, payload);
+            } catch (Http2Exception e) {
+                if (e.getStreamId() == 0) throw e;
+                streamError(e.getStreamId(), e.getErrorCode());
+            }
+        }
+    }
+
+    private void frame(int type, int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (headersFor != null && (type != CONTINUATION || streamId != headersFor.id)) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Header block interrupted");
+        }
+        if (!settingsReceived && type != SETTINGS) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Expected SETTINGS after the preface");
+        }
+        switch (type) {
+            case DATA -> data(flags, streamId, payload);
+            case HEADERS -> headers(flags, streamId, payload);
+            case PRIORITY -> {
+                if (streamId == 0) throw new Http2Exception(PROTOCOL_ERROR, "PRIORITY on stream 0");
+                if (payload.remaining() != 5) throw new Http2Exception(FRAME_SIZE_ERROR, streamId, "PRIORITY size");
+            }
+            case RST_STREAM -> rstStream(streamId, payload);
+            case SETTINGS -> settings(flags, streamId, payload);
+            case PUSH_PROMISE -> throw new Http2Exception(PROTOCOL_ERROR, "Clients cannot push");
+            case PING -> ping(flags, streamId, payload);
+            case GOAWAY -> {
+                if (streamId != 0) throw new Http2Exception(PROTOCOL_ERROR, "GOAWAY on a stream");
+                // the client opens nothing new; let what is in progress finish
+                goingAway = true;
+                if (streams.isEmpty()) finish();
+            }
+            case WINDOW_UPDATE -> windowUpdate(streamId, payload);
+            case CONTINUATION -> continuation(flags, streamId, payload);
+            default -> {
+                // unknown frame types are ignored (RFC 9113, 5.5)
+            }
+        }
+    }
+
+    private void settings(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS on a stream");
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.hasRemaining()) throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS ack with payload");
+            return;
+        }
+        if (payload.remaining() % 6 != 0) throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS size");
+        settingsReceived = true;
+        applySettings(payload);
+        ByteBuffer buf = loop.buffers().acquire();
+        header(buf, 0, SETTINGS, FLAG_ACK, 0);
+        send(buf);
+    }
+
+    private void applySettings(ByteBuffer payload) throws Http2Exception {
+        while (payload.remaining() >= 6) {
+            int id = payload.getShort() & 0xFFFF;
+            int value = payload.getInt();
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE -> encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                case SETTINGS_ENABLE_PUSH -> {
+                    if (value != 0 && value != 1) throw new Http2Exception(PROTOCOL_ERROR, "ENABLE_PUSH " + value);
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if (value < 0) throw new Http2Exception(FLOW_CONTROL_ERROR, "INITIAL_WINDOW_SIZE " + value);
+                    initialWindow(value);
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    // frames the server sends stay at the minimum every client accepts
+                    if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "MAX_FRAME_SIZE " + value);
+                    }
+                }
+                default -> {
+                    // MAX_CONCURRENT_STREAMS only limits pushes; the rest are advisory or unknown
+                }
+            }
+        }
+    }
+
+    /** Moves every stream's send window by the change of the initial size (RFC 9113, 6.9.2). */
+    private void initialWindow(int value) throws Http2Exception {
+        flowLock.lock();
+        try {
+            int delta = value - initialSendWindow;
+            initialSendWindow = value;
+            for (Stream stream : streams.values()) {
+                stream.sendWindow += delta;
+                if (stream.sendWindow > MAX_WINDOW) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Stream window overflow");
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void ping(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) throw new Http2Exception(PROTOCOL_ERROR, "PING on a stream");
+        if (payload.remaining() != 8) throw new Http2Exception(FRAME_SIZE_ERROR, "PING size");
+        if ((flags & FLAG_ACK) != 0) return;
+        ByteBuffer buf = loop.buffers().acquire();
+        header(buf, 8, PING, FLAG_ACK, 0);
+        buf.put(payload);
+        send(buf);
+    }
+
+    private void windowUpdate(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (payload.remaining() != 4) throw new Http2Exception(FRAME_SIZE_ERROR, "WINDOW_UPDATE size");
+        int increment = payload.getInt() & Integer.MAX_VALUE;
+        if (increment == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, streamId, "WINDOW_UPDATE of 0");
+        }
+        Stream stream = null;
+        if (streamId != 0) {
+            stream = streams.get(streamId);
+            if (stream == null) {
+                if (streamId > lastStreamId) throw new Http2Exception(PROTOCOL_ERROR, "WINDOW_UPDATE on an idle stream");
+                return; // a stream that just ended
+            }
+        }
+        flowLock.lock();
+        try {
+            if (stream == null) {
+                sendWindow += increment;
+                if (sendWindow > MAX_WINDOW) throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window overflow");
+            } else {
+                stream.sendWindow += increment;
+                if (stream.sendWindow > MAX_WINDOW) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void rstStream(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) throw new Http2Exception(PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        if (payload.remaining() != 4) throw new Http2Exception(FRAME_SIZE_ERROR, "RST_STREAM size");
+        if (streamId > lastStreamId) throw new Http2Exception(PROTOCOL_ERROR, "RST_STREAM on an idle stream");
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            reset(stream);
+        }
+    }
+
+    private void headers(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0 || streamId % 2 == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "HEADERS on stream " + streamId);
+        }
+        payload = unpad(flags, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            if (payload.remaining() < 5) throw new Http2Exception(FRAME_SIZE_ERROR, "HEADERS priority");
+            if ((payload.getInt() & Integer.MAX_VALUE) == streamId) {
+                throw new Http2Exception(PROTOCOL_ERROR, streamId, "Stream depends on itself");
+            }
+            payload.get(); // weight
+        }
+        Stream stream;
+        if (streamId > lastStreamId) {
+            lastStreamId = streamId;
+            stream = new Stream(streamId);
+        } else {
+            stream = streams.get(streamId);
+            if (stream == null) {
+                // trailers of a stream that already ended; decoded only to keep the table in step
+                stream = new Stream(streamId);
+                stream.reset = true;
+            } else if (!stream.receiving) {
+                throw new Http2Exception(STREAM_CLOSED, "HEADERS on closed stream " + streamId);
+            }
+            if ((flags & FLAG_END_STREAM) == 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Trailers must end the stream");
+            }
+            stream.trailers = true;
+        }
+        headersFor = stream;
+        headerBlockLength = 0;
+        headerBlockEndsStream = (flags & FLAG_END_STREAM) != 0;
+        appendHeaderBlock(payload);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            headerBlockDone();
+        }
+    }
+
+    private void continuation(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (headersFor == null) {
+            throw new Http2Exception(PROTOCOL_ERROR, "CONTINUATION without HEADERS");
+        }
+        appendHeaderBlock(payload);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            headerBlockDone();
+        }
+    }
+
+    private void appendHeaderBlock(ByteBuffer payload) throws Http2Exception {
+        int n = payload.remaining();
+        // the block has to be decoded whole to keep the table in step, so its size is capped instead
+        if (headerBlockLength + n > 2 * MAX_HEADER_LIST) {
+            throw new Http2Exception(ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        if (headerBlockLength + n > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length * 2, headerBlockLength + n));
+        }
+        payload.get(headerBlock, headerBlockLength, n);
+        headerBlockLength += n;
+    }
+
+    /** A complete header block: a new request, or trailers that end one. */
+    private void headerBlockDone() throws Http2Exception {
+        Stream stream = headersFor;
+        headersFor = null;
+        List<String> fields = new ArrayList<>();
+        decoder.decode(headerBlock, headerBlockLength, fields);
+        if (stream.reset) {
+            return;
+        }
+        if (stream.trailers) {
+            for (int i = 0; i < fields.size(); i += 2) {
+                if (fields.get(i).startsWith(":")) {
+                    throw new Http2Exception(PROTOCOL_ERROR, stream.id, "Pseudo-header in trailers");
+                }
+            }
+            endOfRequest(stream);
+            return;
+        }
+        if (goingAway && stream.id > goAwayStreamId) {
+            return; // decoded only to keep the table in step; the client retries it elsewhere
+        }
+        if (streams.size() >= maxStreams) {
+            streamError(stream.id, REFUSED_STREAM);
+            return;
+        }
+        streams.put(stream.id, stream);
+        stream.receiving = true;
+        receiving++;
+        stream.request = request(stream, fields);
+        if (stream.response == null && !headerBlockEndsStream) {
+            try {
+                if (stream.expectedLength >= 0) {
+                    stream.body = RequestBody.allocate(stream.expectedLength, config.getBodySpillBytes());
+                } else {
+                    stream.unsized = new ByteArrayOutputStream();
+                }
+            } catch (IOException e) {
+                stream.response = new Response(500, "text/plain", "Cannot store request body: " + e.getMessage());
+            }
+        }
+        if (headerBlockEndsStream) {
+            endOfRequest(stream);
+        } else if (stream.response != null) {
+            dispatch(stream);
+        }
+    }
+
+    /**
+     * Builds the request from the decoded fields. A malformed request is a stream error; one the
+     * server refuses, e.g. for its size, gets its response in {@link Stream#response}.
+     */
+    private Request request(Stream stream, List<String> fields) throws Http2Exception {
+        String method = null;
+        String scheme = null;
+        String path = null;
+        String authority = null;
+        List<String> regular = new ArrayList<>(fields.size() + 2);
+        long listSize = 0;
+        boolean hasHost = false;
+        for (int i = 0; i < fields.size(); i += 2) {
+            String name = fields.get(i);
+            String value = fields.get(i + 1);
+            listSize += name.length() + value.length() + 32;
+            if (name.startsWith(":")) {
+                if (!regular.isEmpty()) throw malformed(stream, "Pseudo-header after a regular one");
+                switch (name) {
+                    case ":method" -> method = only(stream, method, value);
+                    case ":scheme" -> scheme = only(stream, scheme, value);
+                    case ":path" -> path = only(stream, path, value);
+                    case ":authority" -> authority = only(stream, authority, value);
+                    default -> throw malformed(stream, "Unknown pseudo-header " + name);
+                }
+                continue;
+            }
+            for (int c = 0; c < name.length(); c++) {
+                char ch = name.charAt(c);
+                if (ch >= 'A' && ch <= 'Z') throw malformed(stream, "Upper-case header name");
+            }
+            switch (name) {
+                case "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" ->
+                        throw malformed(stream, "Connection-specific header " + name);
+                case "te" -> {
+                    if (!value.equals("trailers")) throw malformed(stream, "TE other than trailers");
+                }
+                case "host" -> hasHost = true;
+                case "content-length" -> {
+                    long length = parseLength(value);
+                    if (length < 0 || stream.expectedLength >= 0 && stream.expectedLength != length) {
+                        throw malformed(stream, "Invalid content-length");
+                    }
+                    stream.expectedLength = length;
+                }
+                default -> {
+                }
+            }
+            regular.add(name);
+            regular.add(value);
+        }
+        if (method == null || scheme == null || path == null || path.isEmpty()) {
+            throw malformed(stream, "Missing pseudo-header");
+        }
+        if (authority != null && !hasHost) {
+            regular.add("host");
+            regular.add(authority);
+        }
+        if (listSize > MAX_HEADER_LIST) {
+            stream.response = new Response(431, "text/plain", "Request header fields too large");
+        } else if (stream.expectedLength > config.getMaxBodyBytes()) {
+            stream.response = new Response(413, "text/plain", "Request body too large");
+        }
+        // like the HTTP/1.x parser: the path stays percent-encoded, its octets read as UTF-8
+        String target = new String(path.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+        int q = target.indexOf('?');
+        String uri = q < 0 ? target : target.substring(0, q);
+        String query = q < 0 ? null : target.substring(q + 1);
+        return new Request(method, uri, query, "HTTP/2.0", HttpHeaders.of(regular));
+    }
+
+    private static String only(Stream stream, String previous, String value) throws Http2Exception {
+        if (previous != null) throw malformed(stream, "Repeated pseudo-header");
+        return value;
+    }
+
+    private static Http2Exception malformed(Stream stream, String message) {
+        return new Http2Exception(PROTOCOL_ERROR, stream.id, message);
+    }
+
+    private static long parseLength(String value) {
+        if (value.isEmpty() || value.length() > 18) return -1;
+        long n = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int d = value.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    private void data(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) throw new Http2Exception(PROTOCOL_ERROR, "DATA on stream 0");
+        int frameSize = payload.remaining();
+        receiveWindow -= frameSize;
+        if (receiveWindow < 0) throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window exceeded");
+        // every byte counts against the connection window, also those of streams that are gone
+        if (RECEIVE_WINDOW - receiveWindow >= RECEIVE_WINDOW / 2) {
+            windowUpdate(0, RECEIVE_WINDOW - receiveWindow);
+            receiveWindow = RECEIVE_WINDOW;
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) throw new Http2Exception(PROTOCOL_ERROR, "DATA on an idle stream");
+            return; // sent before the client saw the stream end (RFC 9113, 5.1)
+        }
+        if (!stream.receiving) {
+            throw new Http2Exception(STREAM_CLOSED, streamId, "DATA after END_STREAM");
+        }
+        payload = unpad(flags, payload);
+        stream.receiveWindow -= frameSize;
+        if (stream.receiveWindow < 0) throw new Http2Exception(FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        boolean end = (flags & FLAG_END_STREAM) != 0;
+        if (!end && RECEIVE_WINDOW - stream.receiveWindow >= RECEIVE_WINDOW / 2) {
+            windowUpdate(streamId, RECEIVE_WINDOW - stream.receiveWindow);
+            stream.receiveWindow = RECEIVE_WINDOW;
+        }
+        receiveBody(stream, payload);
+        if (end) {
+            endOfRequest(stream);
+        }
+    }
+
+    private void receiveBody(Stream stream, ByteBuffer payload) throws Http2Exception {
+        int n = payload.remaining();
+        stream.received += n;
+        if (stream.dispatched) {
+            return; // already refused, the rest is dropped
+        }
+        if (stream.expectedLength >= 0 && stream.received > stream.expectedLength) {
+            throw malformed(stream, "Body longer than content-length");
+        }
+        if (stream.unsized != null) {
+            // no length up front, so the body cannot be spilled; it is kept to the spill size
+            if (stream.received > Math.min(config.getBodySpillBytes(), config.getMaxBodyBytes())) {
+                stream.unsized = null;
+                stream.response = new Response(413, "text/plain", "Request body without content-length too large");
+                dispatch(stream);
+                return;
+            }
+            byte[] bytes = new byte[n];
+            payload.get(bytes);
+            stream.unsized.write(bytes, 0, n);
+            return;
+        }
+        try {
+            stream.body.receive(payload);
+        } catch (IOException e) {
+            stream.response = new Response(500, "text/plain", "Cannot store request body: " + e.getMessage());
+            dispatch(stream);
+        }
+    }
+
+    /** Strips the padding of a DATA or HEADERS frame. */
+    private static ByteBuffer unpad(int flags, ByteBuffer payload) throws Http2Exception {
+        if ((flags & FLAG_PADDED) == 0) return payload;
+        if (!payload.hasRemaining()) throw new Http2Exception(FRAME_SIZE_ERROR, "Padded frame without padding length");
+        int padding = payload.get() & 0xFF;
+        if (padding > payload.remaining()) throw new Http2Exception(PROTOCOL_ERROR, "Padding exceeds the frame");
+        payload.limit(payload.limit() - padding);
+        return payload;
+    }
+
+    /** The client has sent all of the request: END_STREAM on its HEADERS, DATA or trailers. */
+    private void endOfRequest(Stream stream) throws Http2Exception {
+        stream.receiving = false;
+        receiving--;
+        if (stream.dispatched) {
+            finishIfDone(stream); // refused early; what followed was dropped
+            return;
+        }
+        if (stream.expectedLength >= 0 && stream.received != stream.expectedLength) {
+            throw malformed(stream, "Body shorter than content-length");
+        }
+        try {
+            if (stream.unsized != null) {
+                byte[] bytes = stream.unsized.toByteArray();
+                stream.unsized = null;
+                stream.body = RequestBody.allocate(bytes.length, bytes.length);
+                stream.body.receive(ByteBuffer.wrap(bytes));
+            }
+        } catch (IOException e) {
+            stream.response = new Response(500, "text/plain", "Cannot store request body: " + e.getMessage());
+        }
+        dispatch(stream);
+    }
+
+    /**
+     * Hands the stream to a worker: the request to the handler, or the answer the server gave
+     * in its place, possibly before the client has sent all of the body.
+     */
+    private void dispatch(Stream stream) {
+        stream.dispatched = true;
+        handling++;
+        stream.request.setReceivedNanos(System.nanoTime());
+        if (stream.response != null) {
+            Response refusal = stream.response;
+            if (stream.body != null) stream.body.close();
+            loop.workers().resume(() -> write(stream, refusal));
+            return;
+        }
+        if (stream.body != null) {
+            stream.request.setBody(stream.body);
+        }
+        loop.workers().execute(() -> respond(stream), () -> loop.execute(conn, () -> overloaded(stream)));
+    }
+
+    /** Runs on the loop when the worker pool refused the stream; the client may retry it. */
+    private void overloaded(Stream stream) {
+        stream.request.releaseBody();
+        handling--;
+        streamError(stream.id, REFUSED_STREAM);
+        updateTimer();
+    }
+
+    /** Runs on a worker thread. */
+    private void respond(Stream stream) {
+        Request request = stream.request;
+        CompletableFuture<Response> future;
+        long start = System.nanoTime();
+        try {
+            future = loop.dispatcher().handle(request).toCompletableFuture();
+        } catch (RuntimeException e) {
+            loop.metrics().handled(request, System.nanoTime() - start);
+            write(stream, null);
+            return;
+        }
+        if (future.isDone()) {
+            loop.metrics().handled(request, System.nanoTime() - start);
+            write(stream, NioConnection.result(future));
+            return;
+        }
+        // the worker is free from here on; the stream's timer holds the handler timeout
+        stream.future = future;
+        loop.execute(conn, () -> awaitAsync(stream));
+        future.whenComplete((response, failure) -> {
+            loop.metrics().handled(request, System.nanoTime() - start);
+            if (stream.settled.compareAndSet(false, true)) {
+                loop.execute(conn, () -> loop.timers().cancel(stream.timeout));
+                loop.workers().resume(() -> write(stream, NioConnection.result(future)));
+            }
+        });
+    }
+
+    private void awaitAsync(Stream stream) {
+        if (stream.reset || closed) {
+            cancel(stream);
+            return;
+        }
+        if (!stream.settled.get()) {
+            loop.timers().schedule(stream.timeout, config.getHandlerTimeoutMs(), loop.now());
+        }
+    }
+
+    /** Runs on the loop when a stream's async handler has not answered in time. */
+    private void handlerTimedOut(Stream stream) {
+        if (!stream.settled.compareAndSet(false, true)) return;
+        stream.future.cancel(true);
+        loop.workers().resume(() -> write(stream, new Response(504, "text/plain", "Handler timed out")));
+    }
+
+    /** Stops the handler of a stream that is gone. */
+    private void cancel(Stream stream) {
+        loop.timers().cancel(stream.timeout);
+        if (stream.future != null && stream.settled.compareAndSet(false, true)) {
+            stream.future.cancel(true);
+            stream.request.releaseBody();
+            handling--;
+        }
+    }
+
+    /** Runs on a worker thread: writes {@code response} on the stream, or a 500 when it is null. */
+    private void write(Stream stream, Response response) {
+        Request request = stream.request;
+        try {
+            if (response == null || response.getStatus() < 200) {
+                // no interim responses and no switching protocols on a stream
+                response = new Response(500, "text/plain", "Internal Server Error");
+            }
+            int status = response.getStatus();
+            boolean bodiless = !ResponseEncoder.hasBody(status) || "HEAD".equals(request.getMethod());
+            long length = ResponseEncoder.hasBody(status) ? response.getContentLength() : 0;
+            List<String> fields = new ArrayList<>(8 + response.getHeaders().size() * 2);
+            fields.add(":status");
+            fields.add(Integer.toString(status));
+            if (response.getContentType() != null && ResponseEncoder.hasBody(status)) {
+                fields.add("content-type");
+                fields.add(response.getContentType());
+            }
+            if (length >= 0 && ResponseEncoder.hasBody(status)) {
+                fields.add("content-length");
+                fields.add(Long.toString(length));
+            }
+            for (Map.Entry<String, String> h : response.getHeaders().entrySet()) {
+                String name = h.getKey().toLowerCase(Locale.ROOT);
+                switch (name) {
+                    case "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" -> {
+                        // connection-specific, not allowed in HTTP/2
+                    }
+                    default -> {
+                        fields.add(name);
+                        fields.add(h.getValue());
+                    }
+                }
+            }
+            boolean endStream = bodiless || length == 0;
+            loop.execute(conn, () -> sendHeaders(stream, fields, endStream));
+            if (!endStream) {
+                DataOutputStream out = new DataOutputStream(stream);
+                try {
+                    writeBody(response, length, out);
+                    out.finish();
+                } finally {
+                    out.discard();
+                }
+            }
+            loop.responded(request, response);
+        } catch (IOException | RuntimeException e) {
+            loop.execute(conn, () -> {
+                if (!stream.reset) streamError(stream.id, INTERNAL_ERROR);
+            });
+        } finally {
+            request.releaseBody();
+            loop.execute(conn, () -> responded(stream));
+        }
+    }
+
+    private static void writeBody(Response response, long length, DataOutputStream out) throws IOException {
+        if (response.getFile() != null) {
+            out.write(response.getFile());
+        } else if (response.getBodyBytes() != null) {
+            out.write(response.getBodyBytes());
+        } else if (response.getBodyBuffer() != null) {
+            ByteBuffer body = response.getBodyBuffer().duplicate();
+            byte[] chunk = new byte[Math.min(body.remaining(), 8192)];
+            while (body.hasRemaining()) {
+                int n = Math.min(chunk.length, body.remaining());
+                body.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        } else if (response.getBodyWriter() != null) {
+            response.getBodyWriter().writeTo(out);
+            if (length >= 0 && out.count != length) {
+                throw new IOException("Body writer produced " + out.count + " bytes, declared " + length);
+            }
+        } else if (response.getBody() != null) {
+            out.write(response.getBody().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Runs on the loop: encodes the response head, split into HEADERS and CONTINUATION frames. */
+    private void sendHeaders(Stream stream, List<String> fields, boolean endStream) {
+        if (stream.reset || closed) return;
+        byte[] block = encoder.encode(fields);
+        int max = loop.buffers().bufferSize() - HEADER_LENGTH;
+        int offset = 0;
+        do {
+            int n = Math.min(max, block.length - offset);
+            boolean last = offset + n == block.length;
+            int type = offset == 0 ? HEADERS : CONTINUATION;
+            int flags = (last ? FLAG_END_HEADERS : 0) | (offset == 0 && endStream ? FLAG_END_STREAM : 0);
+            ByteBuffer buf = loop.buffers().acquire();
+            header(buf, n, type, flags, stream.id);
+            buf.put(block, offset, n);
+            send(buf);
+            offset += n;
+        } while (offset < block.length);
+    }
+
+    /** Runs on the loop once the worker is done with the stream. */
+    private void responded(Stream stream) {
+        handling--;
+        stream.responded = true;
+        if (stream.receiving && !stream.reset && !closed) {
+            // the request was refused before the client finished sending it
+            streamError(stream.id, NO_ERROR);
+        }
+        finishIfDone(stream);
+        updateTimer();
+    }
+
+    private void finishIfDone(Stream stream) {
+        if (stream.responded && !stream.receiving && streams.get(stream.id) == stream) {
+            streams.remove(stream.id);
+        }
+        if (goingAway && streams.isEmpty()) {
+            finish();
+        }
+    }
+
+    /** Ends one stream with RST_STREAM; the connection goes on. */
+    private void streamError(int streamId, int errorCode) {
+        if (closed) return;
+        ByteBuffer buf = loop.buffers().acquire();
+        header(buf, 4, RST_STREAM, 0, streamId);
+        buf.putInt(errorCode);
+        send(buf);
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            reset(stream);
+        }
+    }
+
+    /** The stream ends here: nothing more is read for it or sent on it. */
+    private void reset(Stream stream) {
+        stream.reset = true;
+        if (stream.receiving) {
+            stream.receiving = false;
+            receiving--;
+        }
+        if (stream.body != null && !stream.dispatched) {
+            stream.body.close();
+        }
+        cancel(stream);
+        streams.remove(stream.id);
+        flowLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+        if (goingAway && streams.isEmpty()) {
+            finish();
+        }
+    }
+
+    /** Ends the connection with GOAWAY after a protocol error. */
+    private void connectionError(Http2Exception e) {
+        goAway(e.getErrorCode(), e.getMessage());
+        finish();
+    }
+
+    private void goAway(int errorCode, String debug) {
+        if (closed) return;
+        byte[] text = debug == null ? NO_DATA : debug.getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(text.length, loop.buffers().bufferSize() - HEADER_LENGTH - 8);
+        ByteBuffer buf = loop.buffers().acquire();
+        header(buf, 8 + n, GOAWAY, 0, 0);
+        buf.putInt(lastStreamId).putInt(errorCode).put(text, 0, n);
+        send(buf);
+        goingAway = true;
+        goAwayStreamId = Math.min(goAwayStreamId, lastStreamId);
+    }
+
+    private void windowUpdate(int streamId, int increment) {
+        ByteBuffer buf = loop.buffers().acquire();
+        header(buf, 4, WINDOW_UPDATE, 0, streamId);
+        buf.putInt(increment);
+        send(buf);
+    }
+
+    /** Queues a control frame; runs on the loop. */
+    private void send(ByteBuffer buf) {
+        buf.flip();
+        conn.sendFrame(buf);
+    }
+
+    /** Closes the connection once what is queued has been written. */
+    private void finish() {
+        if (finishing) return;
+        finishing = true;
+        if (conn.hasPendingWrites()) {
+            conn.updateInterest();
+        } else {
+            conn.close();
+        }
+    }
+
+    /**
+     * The connection timer: the idle timeout while no stream is open, the body timeout while
+     * a client is still sending a request, nothing while only handlers are at work.
+     */
+    private void updateTimer() {
+        if (closed || finishing) return;
+        Timer next = receiving > 0 ? Timer.BODY : streams.isEmpty() && handling == 0 ? Timer.IDLE : Timer.NONE;
+        if (next == timer) return;
+        timer = next;
+        switch (next) {
+            case IDLE -> conn.armProtocol(config.getIdleTimeoutMs());
+            case BODY -> conn.armProtocol(config.getBodyTimeoutMs());
+            default -> conn.disarmProtocol();
+        }
+    }
+
+    @Override
+    public void timedOut() {
+        if (timer == Timer.BODY) {
+            // requests the client stopped sending are cancelled, the others go on
+            for (Stream stream : new ArrayList<>(streams.values())) {
+                if (stream.receiving) streamError(stream.id, CANCEL);
+            }
+            timer = Timer.NONE;
+            updateTimer();
+            return;
+        }
+        goAway(NO_ERROR, "Idle");
+        finish();
+    }
+
+    @Override
+    public int interest() {
+        return (finishing ? 0 : SelectionKey.OP_READ) | (conn.hasPendingWrites() ? SelectionKey.OP_WRITE : 0);
+    }
+
+    @Override
+    public void drained() {
+        if (finishing) {
+            conn.close();
+            return;
+        }
+        if (!conn.timerArmed()) {
+            timer = Timer.NONE;
+            updateTimer();
+        }
+        conn.updateInterest();
+    }
+
+    /** Shutdown: no new streams, and the connection closes when the open ones are answered. */
+    @Override
+    public void drain() {
+        if (finishing) return;
+        goAway(NO_ERROR, "Server shutting down");
+        if (streams.isEmpty()) finish();
+    }
+
+    @Override
+    public void connectionClosed() {
+        closed = true;
+        for (Stream stream : streams.values()) {
+            stream.reset = true;
+            if (stream.body != null && !stream.dispatched) stream.body.close();
+            cancel(stream);
+        }
+        streams.clear();
+        flowLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /**
+     * Takes up to {@code wanted} bytes of send window for a DATA frame on {@code stream}, waiting
+     * while the stream or the connection has none. Runs on a worker.
+     */
+    private int reserve(Stream stream, int wanted) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getWriteTimeoutMs());
+        flowLock.lock();
+        try {
+            while (!stream.reset && !closed && (stream.sendWindow <= 0 || sendWindow <= 0)) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new IOException("Client did not open the flow-control window");
+                }
+                windowOpened.awaitNanos(left);
+            }
+            if (stream.reset || closed) {
+                throw new IOException("Stream " + stream.id + " reset");
+            }
+            int n = (int) Math.min(wanted, Math.min(stream.sendWindow, sendWindow));
+            stream.sendWindow -= n;
+            sendWindow -= n;
+            return n;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the flow-control window");
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /** One request/response exchange. */
+    private final class Stream {
+        final int id;
+        final TimerWheel.Timeout timeout = new TimerWheel.Timeout(loop.guard(conn, () -> handlerTimedOut(this)));
+        final AtomicBoolean settled = new AtomicBoolean();
+        // Guarded by flowLock
+        long sendWindow;
+        volatile boolean reset;
+        volatile CompletableFuture<Response> future;
+
+        // Loop only
+        Request request;
+        boolean receiving;
+        boolean dispatched;
+        boolean responded;
+        boolean trailers;
+        long expectedLength = -1;
+        long received;
+        int receiveWindow = RECEIVE_WINDOW;
+        RequestBody body;
+        ByteArrayOutputStream unsized;
+        // Set when the server answers without calling the handler
+        Response response;
+
+        Stream(int id) {
+            this.id = id;
+            flowLock.lock();
+            try {
+                this.sendWindow = initialSendWindow;
+            } finally {
+                flowLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A response body as DATA frames. Each frame is built in a pooled buffer with room left for
+     * its header, so the payload is copied once; it is sent when the buffer is full, on
+     * {@code flush()}, and at the end, which sets END_STREAM.
+     */
+    private final class DataOutputStream extends OutputStream {
+        private final Stream stream;
+        private ByteBuffer buf;
+        long count;
+
+        DataOutputStream(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensure();
+            buf.put((byte) b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                ensure();
+                int n = Math.min(len, buf.remaining());
+                buf.put(b, off, n);
+                off += n;
+                len -= n;
+                count += n;
+            }
+        }
+
+        /** Reads the region straight into the frame buffers; there is no zero-copy path through the framing. */
+        void write(FileRegion region) throws IOException {
+            try (FileChannel file = FileChannel.open(region.getPath())) {
+                long position = region.getPosition();
+                long end = position + region.getCount();
+                while (position < end) {
+                    ensure();
+                    int limit = buf.limit();
+                    buf.limit((int) Math.min(limit, buf.position() + (end - position)));
+                    int n = file.read(buf, position);
+                    buf.limit(limit);
+                    if (n < 0) throw new IOException("File shrank while being sent");
+                    position += n;
+                    count += n;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buf != null && buf.position() > HEADER_LENGTH) {
+                emit(false);
+            }
+        }
+
+        void finish() throws IOException {
+            if (buf == null) {
+                buf = loop.buffers().acquire();
+                buf.position(HEADER_LENGTH);
+            }
+            emit(true);
+        }
+
+        void discard() {
+            if (buf != null) {
+                loop.buffers().release(buf);
+                buf = null;
+            }
+        }
+
+        private void ensure() throws IOException {
+            if (buf != null && !buf.hasRemaining()) {
+                emit(false);
+            }
+            if (buf == null) {
+                buf = loop.buffers().acquire();
+                buf.position(HEADER_LENGTH);
+            }
+        }
+
+        /** Sends the buffer as DATA, split where the send window is smaller than the payload. */
+        private void emit(boolean end) throws IOException {
+            int payload = buf.position() - HEADER_LENGTH;
+            while (true) {
+                int allowed = payload == 0 ? 0 : reserve(stream, payload);
+                if (allowed < payload) {
+                    ByteBuffer rest = loop.buffers().acquire();
+                    rest.position(HEADER_LENGTH);
+                    rest.put(rest.position(), buf, HEADER_LENGTH + allowed, payload - allowed);
+                    rest.position(HEADER_LENGTH + payload - allowed);
+                    buf.position(HEADER_LENGTH + allowed);
+                    frame(allowed, false);
+                    buf = rest;
+                    payload -= allowed;
+                    continue;
+                }
+                frame(payload, end);
+                return;
+            }
+        }
+
+        private void frame(int length, boolean end) throws IOException {
+            if (stream.reset) {
+                throw new IOException("Stream " + stream.id + " reset");
+            }
+            ByteBuffer frame = buf;
+            buf = null;
+            header(frame, 0, length, DATA, end ? FLAG_END_STREAM : 0, stream.id);
+            frame.flip();
+            conn.send(frame);
+        }
+    }
+}
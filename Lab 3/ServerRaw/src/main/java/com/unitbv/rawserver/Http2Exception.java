@@ -0,0 +1,32 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+
+/**
+ * An HTTP/2 protocol violation. With a stream id it only ends that stream ({@code RST_STREAM});
+ * with stream 0 it ends the connection ({@code GOAWAY}). {@link #getErrorCode()} is the
+ * RFC 9113 error code sent.
+ */
+public class Http2Exception extends IOException {
+    private final int errorCode;
+    private final int streamId;
+
+    public Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    public Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /** The stream to reset, or 0 when the whole connection has to go. */
+    public int getStreamId() {
+        return streamId;
+    }
+}
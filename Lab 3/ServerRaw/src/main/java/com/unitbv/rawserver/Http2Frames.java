@@ -0,0 +1,68 @@
+package com.unitbv.rawserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/2 frame layout (RFC 9113, section 4): a 9-byte header with a 24-bit payload length,
+ * type, flags and a 31-bit stream id, followed by the payload. Constants for the frame types,
+ * flags, settings and error codes the server uses.
+ */
+final class Http2Frames {
+    /** What a client sends first, before its SETTINGS. */
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER_LENGTH = 9;
+    /** Largest payload every peer accepts; the server never sends more or asks for more. */
+    static final int MAX_FRAME_SIZE = 16384;
+    static final int DEFAULT_WINDOW = 65535;
+    static final int MAX_WINDOW = Integer.MAX_VALUE;
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private Http2Frames() {}
+
+    /** Writes a frame header at the buffer's position. */
+    static void header(ByteBuffer buf, int length, int type, int flags, int streamId) {
+        buf.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        buf.put((byte) type).put((byte) flags).putInt(streamId & Integer.MAX_VALUE);
+    }
+
+    /** Writes a frame header at {@code index}, e.g. into space left free before a payload. */
+    static void header(ByteBuffer buf, int index, int length, int type, int flags, int streamId) {
+        buf.put(index, (byte) (length >>> 16)).put(index + 1, (byte) (length >>> 8)).put(index + 2, (byte) length);
+        buf.put(index + 3, (byte) type).put(index + 4, (byte) flags).putInt(index + 5, streamId & Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,128 @@
+package com.unitbv.rawserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request headers kept as the raw bytes of the header block plus the offsets of every name and value.
+ * Nothing is decoded to a {@code String} until a header is actually asked for.
+ */
+public final class HttpHeaders {
+    static final HttpHeaders EMPTY = new HttpHeaders(new byte[0], new int[0], 0);
+
+    private final byte[] data;
+    // nameStart, nameEnd, valueStart, valueEnd for each header
+    private final int[] slices;
+    private final int count;
+
+    HttpHeaders(byte[] data, int[] slices, int count) {
+        this.data = data;
+        this.slices = slices;
+        this.count = count;
+    }
+
+    /** Headers from decoded names and values (name, value, name, value, ...), e.g. of an HTTP/2 request. */
+    static HttpHeaders of(List<String> namesAndValues) {
+        int length = 0;
+        for (String s : namesAndValues) {
+            length += s.length();
+        }
+        byte[] data = new byte[length];
+        int[] slices = new int[namesAndValues.size() * 2];
+        int p = 0;
+        for (int i = 0; i < namesAndValues.size(); i++) {
+            String s = namesAndValues.get(i);
+            slices[i * 2] = p;
+            for (int c = 0; c < s.length(); c++) {
+                data[p++] = (byte) s.charAt(c);
+            }
+            slices[i * 2 + 1] = p;
+        }
+        return new HttpHeaders(data, slices, namesAndValues.size() / 2);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String name(int i) {
+        return decode(slices[i * 4], slices[i * 4 + 1]);
+    }
+
+    public String value(int i) {
+        return decode(slices[i * 4 + 2], slices[i * 4 + 3]);
+    }
+
+    /** Index of the first header named {@code name} (case-insensitive), or -1. Does not allocate. */
+    public int indexOf(String name) {
+        return indexOf(name, 0);
+    }
+
+    /** Index of the first header named {@code name} at or after {@code from}, or -1. */
+    public int indexOf(String name, int from) {
+        for (int i = from; i < count; i++) {
+            if (regionEqualsIgnoreCase(slices[i * 4], slices[i * 4 + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** First value of the header named {@code name} (case-insensitive), or null. */
+    public String get(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : value(i);
+    }
+
+    /** Whether the value of header {@code i} equals {@code expected}, ignoring case. Does not allocate. */
+    public boolean valueEqualsIgnoreCase(int i, String expected) {
+        return regionEqualsIgnoreCase(slices[i * 4 + 2], slices[i * 4 + 3], expected);
+    }
+
+    /** Parses header {@code i} as a non-negative decimal number, or returns -1 if it is not one. */
+    public long valueAsLong(int i) {
+        int start = slices[i * 4 + 2];
+        int end = slices[i * 4 + 3];
+        if (start == end || end - start > 18) return -1;
+        long n = 0;
+        for (int p = start; p < end; p++) {
+            int d = data[p] - '0';
+            if (d < 0 || d > 9) return -1;
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.putIfAbsent(name(i), value(i));
+        }
+        return map;
+    }
+
+    private String decode(int start, int end) {
+        return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String s) {
+        if (end - start != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int a = data[start + i] & 0xff;
+            int b = s.charAt(i);
+            if (a != b && toLower(a) != toLower(b)) return false;
+        }
+        return true;
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + 32 : c;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
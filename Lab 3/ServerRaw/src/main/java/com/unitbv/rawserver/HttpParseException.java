@@ -0,0 +1,20 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+
+/**
+ * A request that cannot be parsed or exceeds a limit.
+ * {@link #getStatus()} is the status the server answers with before closing the connection.
+ */
+public class HttpParseException extends IOException {
+    private final int status;
+
+    public HttpParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,97 @@
+package com.unitbv.rawserver;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Orderly shutdown of a running server: stop accepting, drain the connections (see
+ * {@link Server#shutdown}), stop the worker pool, then flush the access log. It runs once,
+ * whether the JVM shutdown hook (SIGTERM, Ctrl+C) or {@code POST /admin/shutdown} asks first;
+ * a second caller waits for the first to finish, so the JVM does not exit halfway through.
+ */
+public final class Lifecycle {
+    private final Server server;
+    private final WorkerPool pool;
+    private final AccessLog accessLog;
+    private final Duration drainTimeout;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /** @param accessLog closed last, or null when there is none */
+    public Lifecycle(Server server, WorkerPool pool, AccessLog accessLog, Duration drainTimeout) {
+        this.server = server;
+        this.pool = pool;
+        this.accessLog = accessLog;
+        this.drainTimeout = drainTimeout;
+    }
+
+    /** Runs {@link #shutdown()} when the JVM is asked to exit. */
+    public void installShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "shutdown-hook"));
+    }
+
+    /** Whether a shutdown has started. */
+    public boolean isShuttingDown() {
+        return started.get();
+    }
+
+    /** Shuts down, or waits for the shutdown already under way. */
+    public void shutdown() {
+        if (!started.compareAndSet(false, true)) {
+            awaitStopped();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            System.out.println("Shutting down, draining connections for up to " + drainTimeout.toMillis() + " ms");
+            boolean drained = server.shutdown(drainTimeout);
+            long left = Math.max(0, drainTimeout.toNanos() - (System.nanoTime() - start));
+            boolean idle = pool.shutdown(Duration.ofNanos(left));
+            System.out.println("Server stopped in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms"
+                    + (drained && idle ? "" : ", work still running at the deadline was cut off"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (accessLog != null) {
+                accessLog.close();
+            }
+            stopped.countDown();
+        }
+    }
+
+    private void awaitStopped() {
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@code POST /admin/shutdown}: answers 202 and then shuts down and exits on a thread of its
+     * own, so this response is drained like any other. Needs {@code Authorization: Bearer <token>}.
+     */
+    public Handler shutdownHandler(String token) {
+        byte[] expected = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        return request -> {
+            String auth = request.getHeader("Authorization");
+            if (auth == null || !MessageDigest.isEqual(expected, auth.getBytes(StandardCharsets.UTF_8))) {
+                return new Response(401, "text/plain", "Unauthorized")
+                        .addHeader("WWW-Authenticate", "Bearer");
+            }
+            if (started.get()) {
+                return new Response(409, "text/plain", "Already shutting down");
+            }
+            Thread stopper = new Thread(() -> {
+                shutdown();
+                System.exit(0);
+            }, "admin-shutdown");
+            stopper.start();
+            return new Response(202, "text/plain", "Draining");
+        };
+    }
+}
@@ -1,59 +1,153 @@
 package com.unitbv.rawserver;
 
-import java.io.*;
-import java.net.*;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class Main {
     public static Router router = new Router();
+    static Compression compression;
+    static ResponseCache responseCache;
+    static AccessLog accessLog;
+    static final WebSocketBroadcast statusSubscribers = new WebSocketBroadcast();
 
     public static void main(String[] args) throws Exception {
-        router.get("/", (request) ->
-                new Response(
-                        200, "text/plain", "Hello from Java HTTP Server!"));
-
-        ServerSocket server = new ServerSocket(8080);
-        ExecutorService pool = Executors.newFixedThreadPool(4);
-        System.out.println("Server running on http://localhost:8080");
+        ServerConfig config = ServerConfig.fromArgs(args);
+        WorkerPool pool = workerPool(config);
+        if (config.isCompression()) {
+            compression = new Compression(config.getCompressMinBytes(), config.getCompressCacheBytes());
+        }
+        if (config.getResponseCacheBytes() > 0) {
+            responseCache = new ResponseCache(config.getResponseCacheBytes());
+        }
 
-        while (true) {
-            Socket client = server.accept(); // waits for connection
-            pool.execute(() -> {
-                try {
-                    handle(client);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }); // handle in thread pool
+        if (config.getAccessLog() != null) {
+            accessLog = AccessLog.open(Path.of(config.getAccessLog()));
         }
-    }
 
-    static void handle(Socket client) throws IOException {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-             PrintWriter out = new PrintWriter(client.getOutputStream())) {
+        Server server = createServer(config, pool, Main::dispatch, accessLog);
+        Lifecycle lifecycle = new Lifecycle(server, pool, accessLog, Duration.ofMillis(config.getDrainTimeoutMs()));
 
-            Request request = Request.fromString(in);
-            if (request == null) {
-                throw new IOException("Invalid request");
+        router.get("/", cached(Duration.ofHours(1), (request) ->
+                new Response(
+                        200, "text/plain", "Hello from Java HTTP Server!")));
+        Supplier<String> status = () -> "mode: " + config.getMode() +
+                "\nconnections: " + server.activeConnections() +
+                "\nqueue depth: " + pool.getQueueDepth() +
+                "\nactive workers: " + pool.getActiveWorkers() +
+                "\nlast queue delay ms: " + pool.getLastQueueDelayMillis() +
+                "\ncompleted: " + pool.getCompleted() +
+                "\nrejected: " + pool.getRejected() +
+                "\nshed: " + pool.getShed() +
+                "\nshutting down: " + lifecycle.isShuttingDown() +
+                "\nstatus subscribers: " + statusSubscribers.size() +
+                latency(server.metrics().totalLatency());
+        router.get("/status", (request) -> new Response(200, "text/plain", status.get()));
+        // Dashboards get /status pushed every second instead of polling it
+        router.websocket("/ws/status", new WebSocketHandler() {
+            @Override
+            public void onOpen(WebSocket socket) {
+                statusSubscribers.subscribe(socket);
             }
+        });
+        router.get("/metrics", new MetricsHandler(server, pool, compression, responseCache, accessLog));
+        if (compression != null) {
+            router.get("/status/compression", (request) ->
+                    new Response(200, "text/plain", compression.report()));
+        }
+        if (responseCache != null) {
+            router.get("/status/cache", (request) ->
+                    new Response(200, "text/plain", "entries: " + responseCache.size() +
+                            "\nbytes: " + responseCache.bytes() +
+                            "\nhits: " + responseCache.getHits() +
+                            "\nmisses: " + responseCache.getMisses() +
+                            "\nbypassed: " + responseCache.getBypassed() +
+                            "\nnot modified: " + responseCache.getNotModified()));
+            router.delete("/status/cache", (request) -> {
+                responseCache.invalidateAll();
+                return new Response(204, null, (String) null);
+            });
+        }
+        if (config.getAdminToken() != null) {
+            router.post("/admin/shutdown", lifecycle.shutdownHandler(config.getAdminToken()));
+        }
+        if (config.getStaticDir() != null) {
+            StaticFileHandler.mount(router, "/static", Path.of(config.getStaticDir()));
+        }
+        if (config.getStudentsFile() != null) {
+            // streamed with no known length, so not worth caching: it would be buffered in full first
+            router.get("/students", new StudentListHandler(Path.of(config.getStudentsFile())));
+            router.getAsync("/students/count", new StudentCountHandler(Path.of(config.getStudentsFile())));
+            router.post("/students/import", new StudentImportHandler(Path.of(config.getStudentsFile()), () -> {
+                if (responseCache != null) responseCache.invalidate("/students");
+            }));
+        }
 
-            Handler handler = router.find(request.getMethod(), request.getUri());
+        server.start();
+        lifecycle.installShutdownHook();
+        pushEverySecond(statusSubscribers, status);
+        System.out.println("Server running on http://localhost:" + config.getPort() + " (" + config.getMode() + ")");
+    }
 
-            Response response;
-            if (handler == null) {
-                response = new Response(405, "text/plain", "Method Not Allowed");
-            } else {
-                response = handler.handle(request);
+    /** Broadcasts {@code message} once a second while anyone is subscribed. */
+    private static void pushEverySecond(WebSocketBroadcast broadcast, Supplier<String> message) {
+        ScheduledExecutorService pusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "status-push");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pusher.scheduleAtFixedRate(() -> {
+            if (broadcast.size() > 0) {
+                broadcast.broadcast(message.get());
             }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
 
-            out.println("HTTP/1.1 " + response.getStatus());
-            out.println("Content-Type: " + response.getContentType());
-            out.println();
+    static CompletionStage<Response> dispatch(Request request) {
+        CompletionStage<Response> response = router.dispatchAsync(request);
+        return compression == null ? response : compression.apply(request, response);
+    }
 
-            if (response.getBody() != null) {
-                out.println(response.getBody());
-            }
-            out.flush();
+    private static String latency(Histogram h) {
+        return String.format(Locale.ROOT, "%nlatency ms p50/p99/p99.9: %.3f / %.3f / %.3f",
+                h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(99) / 1e6, h.valueAtPercentile(99.9) / 1e6);
+    }
+
+    /** {@code handler} behind the response cache, or as it is when the cache is off. */
+    static Handler cached(Duration ttl, Handler handler) {
+        return responseCache == null ? handler : responseCache.cached(ttl, handler);
+    }
+
+    static Server createServer(ServerConfig config, WorkerPool pool, AsyncHandler dispatcher) {
+        return createServer(config, pool, dispatcher, null);
+    }
+
+    static Server createServer(ServerConfig config, WorkerPool pool, AsyncHandler dispatcher, AccessLog accessLog) {
+        return switch (config.getMode()) {
+            case BLOCKING, VIRTUAL -> new BlockingServer(config, pool, dispatcher, accessLog);
+            case NIO -> new NioServer(config, pool, dispatcher, accessLog);
+        };
+    }
+
+    /** Pool that runs connections (blocking modes) or handlers (NIO mode). */
+    static WorkerPool workerPool(ServerConfig config) {
+        if (config.getMode() == ServerConfig.Mode.VIRTUAL) {
+            return new WorkerPool(newVirtualThreadPerTaskExecutor());
+        }
+        return new WorkerPool(config);
+    }
+
+    // Looked up reflectively so the module still builds and runs the other modes on Java 17
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("mode=virtual needs Java 21 or newer, running on " + Runtime.version());
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
         }
     }
 }
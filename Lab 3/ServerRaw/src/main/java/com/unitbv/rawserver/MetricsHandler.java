@@ -0,0 +1,182 @@
+package com.unitbv.rawserver;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Serves the server's metrics in the Prometheus text exposition format (version 0.0.4):
+ * connections, bytes, request latency per route and status, handler and parse time, worker
+ * pool queueing, and the compression, response cache and access log counters when those are on.
+ * <p>
+ * Histograms are exported with a fixed set of {@code le} buckets from 100 µs to 10 s, so
+ * series from different instances and restarts line up; the fine-grained buckets of
+ * {@link Histogram} are folded into them when the page is rendered. Everything is read
+ * without stopping the threads that record, so a scrape is not an atomic snapshot.
+ */
+public class MetricsHandler implements Handler {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] BUCKETS_SECONDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final Server server;
+    private final WorkerPool pool;
+    private final Compression compression;
+    private final ResponseCache responseCache;
+    private final AccessLog accessLog;
+
+    /** {@code compression}, {@code responseCache} and {@code accessLog} may be null when the feature is off. */
+    public MetricsHandler(Server server, WorkerPool pool, Compression compression, ResponseCache responseCache,
+                          AccessLog accessLog) {
+        this.server = server;
+        this.pool = pool;
+        this.compression = compression;
+        this.responseCache = responseCache;
+        this.accessLog = accessLog;
+    }
+
+    @Override
+    public Response handle(Request request) {
+        return new Response(200, CONTENT_TYPE, render());
+    }
+
+    String render() {
+        StringBuilder sb = new StringBuilder(8 * 1024);
+        ServerMetrics metrics = server.metrics();
+
+        header(sb, "rawserver_connections_active", "gauge", "Connections accepted and not yet closed.");
+        sample(sb, "rawserver_connections_active", "", server.activeConnections());
+        header(sb, "rawserver_connections_opened_total", "counter", "Connections accepted since start.");
+        sample(sb, "rawserver_connections_opened_total", "", metrics.getConnectionsOpened());
+        header(sb, "rawserver_received_bytes_total", "counter", "Bytes read from clients.");
+        sample(sb, "rawserver_received_bytes_total", "", metrics.getBytesReceived());
+        header(sb, "rawserver_sent_bytes_total", "counter", "Bytes written to clients.");
+        sample(sb, "rawserver_sent_bytes_total", "", metrics.getBytesSent());
+
+        Map<String, ServerMetrics.RouteMetrics> routes = new TreeMap<>(metrics.routes());
+        header(sb, "rawserver_request_duration_seconds", "histogram",
+                "Time from the end of parsing to the response handed to the socket.");
+        for (Map.Entry<String, ServerMetrics.RouteMetrics> e : routes.entrySet()) {
+            for (int status = 0; status < e.getValue().byStatus.length(); status++) {
+                Histogram h = e.getValue().byStatus.get(status);
+                if (h != null) {
+                    histogram(sb, "rawserver_request_duration_seconds",
+                            "route=\"" + escape(e.getKey()) + "\",status=\"" + status + "\"", h);
+                }
+            }
+        }
+        header(sb, "rawserver_handler_duration_seconds", "histogram",
+                "Time until the handler returned, or its stage completed.");
+        for (Map.Entry<String, ServerMetrics.RouteMetrics> e : routes.entrySet()) {
+            histogram(sb, "rawserver_handler_duration_seconds", "route=\"" + escape(e.getKey()) + "\"", e.getValue().handlerTime);
+        }
+        header(sb, "rawserver_parse_duration_seconds", "histogram", "Time spent parsing one request.");
+        histogram(sb, "rawserver_parse_duration_seconds", "", metrics.parseTime());
+
+        header(sb, "rawserver_pool_queue_wait_seconds", "histogram", "Time work waited for a worker.");
+        histogram(sb, "rawserver_pool_queue_wait_seconds", "", pool.queueWait());
+        header(sb, "rawserver_pool_queue_depth", "gauge", "Tasks waiting for a worker.");
+        sample(sb, "rawserver_pool_queue_depth", "", pool.getQueueDepth());
+        header(sb, "rawserver_pool_active_workers", "gauge", "Workers running a task.");
+        sample(sb, "rawserver_pool_active_workers", "", pool.getActiveWorkers());
+        header(sb, "rawserver_pool_completed_total", "counter", "Tasks run to completion.");
+        sample(sb, "rawserver_pool_completed_total", "", pool.getCompleted());
+        header(sb, "rawserver_pool_rejected_total", "counter", "Tasks refused because the queue was full.");
+        sample(sb, "rawserver_pool_rejected_total", "", pool.getRejected());
+        header(sb, "rawserver_pool_shed_total", "counter", "Tasks dropped after queueing too long.");
+        sample(sb, "rawserver_pool_shed_total", "", pool.getShed());
+
+        if (compression != null) {
+            compression(sb);
+        }
+        if (responseCache != null) {
+            header(sb, "rawserver_response_cache_hits_total", "counter", "Requests answered from the response cache.");
+            sample(sb, "rawserver_response_cache_hits_total", "", responseCache.getHits());
+            header(sb, "rawserver_response_cache_misses_total", "counter", "Requests of cached routes that ran the handler.");
+            sample(sb, "rawserver_response_cache_misses_total", "", responseCache.getMisses());
+            header(sb, "rawserver_response_cache_bypassed_total", "counter", "Requests of cached routes whose response is too large to cache.");
+            sample(sb, "rawserver_response_cache_bypassed_total", "", responseCache.getBypassed());
+            header(sb, "rawserver_response_cache_not_modified_total", "counter", "Cache hits answered with 304.");
+            sample(sb, "rawserver_response_cache_not_modified_total", "", responseCache.getNotModified());
+            header(sb, "rawserver_response_cache_bytes", "gauge", "Bytes of cached bodies.");
+            sample(sb, "rawserver_response_cache_bytes", "", responseCache.bytes());
+        }
+        if (accessLog != null) {
+            header(sb, "rawserver_access_log_written_total", "counter", "Access log entries written.");
+            sample(sb, "rawserver_access_log_written_total", "", accessLog.getWritten());
+            header(sb, "rawserver_access_log_dropped_total", "counter", "Access log entries dropped: buffer full or write failed.");
+            sample(sb, "rawserver_access_log_dropped_total", "", accessLog.getDropped());
+        }
+        return sb.toString();
+    }
+
+    private void compression(StringBuilder sb) {
+        Map<String, Compression.RouteStats> stats = new TreeMap<>(compression.stats());
+        header(sb, "rawserver_compression_responses_total", "counter", "Responses compressed.");
+        for (Map.Entry<String, Compression.RouteStats> e : stats.entrySet()) {
+            sample(sb, "rawserver_compression_responses_total", route(e.getKey()), e.getValue().responses.sum());
+        }
+        header(sb, "rawserver_compression_in_bytes_total", "counter", "Bytes before compression.");
+        for (Map.Entry<String, Compression.RouteStats> e : stats.entrySet()) {
+            sample(sb, "rawserver_compression_in_bytes_total", route(e.getKey()), e.getValue().bytesIn.sum());
+        }
+        header(sb, "rawserver_compression_out_bytes_total", "counter", "Bytes after compression.");
+        for (Map.Entry<String, Compression.RouteStats> e : stats.entrySet()) {
+            sample(sb, "rawserver_compression_out_bytes_total", route(e.getKey()), e.getValue().bytesOut.sum());
+        }
+        header(sb, "rawserver_compression_cpu_seconds_total", "counter", "CPU time spent compressing.");
+        for (Map.Entry<String, Compression.RouteStats> e : stats.entrySet()) {
+            sample(sb, "rawserver_compression_cpu_seconds_total", route(e.getKey()), e.getValue().cpuNanos.sum() / 1e9);
+        }
+        header(sb, "rawserver_compression_cache_hits_total", "counter", "Compressed bodies served from the cache.");
+        for (Map.Entry<String, Compression.RouteStats> e : stats.entrySet()) {
+            sample(sb, "rawserver_compression_cache_hits_total", route(e.getKey()), e.getValue().cacheHits.sum());
+        }
+    }
+
+    private static String route(String route) {
+        return "route=\"" + escape(route) + "\"";
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(format(value)).append('\n');
+    }
+
+    /** Cumulative {@code _bucket} series, {@code _sum} and {@code _count} of a histogram of nanoseconds. */
+    private static void histogram(StringBuilder sb, String name, String labels, Histogram h) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (double le : BUCKETS_SECONDS) {
+            long count = h.countAtOrBelow((long) (le * 1e9));
+            sample(sb, name + "_bucket", prefix + "le=\"" + format(le) + "\"", count);
+        }
+        long count = h.count();
+        sample(sb, name + "_bucket", prefix + "le=\"+Inf\"", count);
+        sample(sb, name + "_sum", labels, h.sum() / 1e9);
+        sample(sb, name + "_count", labels, count);
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value)
+                : String.format(Locale.ROOT, "%.9g", value).replaceAll("0+$", "").replaceAll("\\.$", "");
+    }
+
+    /** Label values escape backslash, double quote and newline. */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,897 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-socket state of the NIO server. Only its {@link EventLoop} thread touches the socket and
+ * the write queue; the worker running a handler hands response parts over through
+ * {@link ResponseSink}, which posts them to the loop.
+ * <p>
+ * Requests on a connection are handled strictly one after another: while a request
+ * is with a worker the socket is not read, and bytes of pipelined requests that arrived
+ * with it wait in {@code leftover}. That keeps responses in request order without extra bookkeeping.
+ * <p>
+ * A handler can produce output faster than a slow client reads it. Once {@link #HIGH_WATER}
+ * bytes are queued, the worker sending more is parked until the loop has written the queue
+ * down to {@link #LOW_WATER}, so a streamed response holds a bounded amount of memory.
+ * <p>
+ * One timer per connection, on its loop's {@link TimerWheel}, is re-armed for whatever the
+ * connection is waiting for: the next request (idle), the rest of a request head or body,
+ * or the client to read a response. Head and body deadlines are fixed when the phase starts,
+ * so trickling bytes does not extend them; the write deadline moves whenever the client reads.
+ * Nothing is armed while a synchronous handler runs.
+ * <p>
+ * An {@link AsyncHandler} releases its worker as soon as it returns a pending stage. While the
+ * stage is open the connection is read again, to notice a disconnect (bytes of a pipelined
+ * request are kept for later), and the timer holds the handler timeout. Result, timeout and
+ * disconnect race through {@link AsyncResponse}; the first one decides, and the response is
+ * then written on a worker.
+ * <p>
+ * After a {@code 101} to a WebSocket handshake the connection becomes a {@link NioWebSocket}:
+ * frames are parsed on the loop as they arrive, handler callbacks run on a worker, and frames
+ * sent from anywhere are queued here. The timer then paces pings instead of requests.
+ * <p>
+ * A client that opens with the HTTP/2 preface, or asks for {@code Upgrade: h2c}, gets an
+ * {@link Http2Connection} instead, which reads and writes frames through this connection
+ * and uses its timer for the idle and body timeouts.
+ */
+class NioConnection implements ResponseSink {
+    static final int HIGH_WATER = 256 * 1024;
+    static final int LOW_WATER = 64 * 1024;
+    // Input read ahead while an async handler runs before the connection stops reading
+    private static final int READ_AHEAD_LIMIT = 64 * 1024;
+    // WebSocket frames a client may leave unread before it is dropped; a broadcast must not wait for it
+    static final int MAX_QUEUED_FRAMES = 4 * HIGH_WATER;
+    // WebSocket messages waiting for the handler before the connection stops reading
+    private static final int MAX_PENDING_CALLBACKS = 64;
+
+    private enum Phase { NONE, IDLE, HEADER, BODY, HANDLER, WRITE, PROTOCOL }
+
+    /**
+     * What the connection speaks after leaving HTTP/1.x: WebSocket or HTTP/2. Every method
+     * runs on the loop.
+     */
+    interface Protocol {
+        /** Takes what the socket delivered. */
+        void onReadable(ByteBuffer data);
+
+        /** Selection interest while the write queue is not empty. */
+        int interest();
+
+        /** Everything queued has been written. */
+        void drained();
+
+        /** The timer armed through {@link #armProtocol(int)} fired. */
+        void timedOut();
+
+        /** The server is shutting down. */
+        void drain();
+
+        /** The socket is closed. */
+        void connectionClosed();
+    }
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    // Pooled ByteBuffers and FileTransfers, written in order
+    private final ArrayDeque<Object> pendingWrites = new ArrayDeque<>();
+    // Bytes sent to the queue but not yet written; workers wait on it, the loop drains it
+    private final ReentrantLock flowLock = new ReentrantLock();
+    private final Condition drained = flowLock.newCondition();
+    private long queuedBytes;
+
+    // Created on the first byte, so sockets that never send anything cost no parser state
+    private RequestParser parser;
+    private PooledOutputStream out;
+    // Bytes received after the request currently being handled, in read mode
+    private ByteBuffer leftover;
+    private boolean processing;
+    private boolean responseComplete;
+    private boolean closeAfterWrite;
+    private int served;
+    // Time spent parsing the request that is still incomplete
+    private long parseNanos;
+    private final TimerWheel.Timeout timeout;
+    private Phase phase = Phase.NONE;
+    private AsyncResponse async;
+    // Set once a 101 is written; takes over when it is out
+    private NioWebSocket upgrade;
+    private Protocol protocol;
+
+    NioConnection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.timeout = new TimerWheel.Timeout(loop.guard(this, this::timedOut));
+        armRead();
+    }
+
+    void onReadable() {
+        ByteBuffer buf = loop.readBuffer();
+        buf.clear();
+        int n;
+        try {
+            n = channel.read(buf);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (n < 0) {
+            close();
+            return;
+        }
+        loop.metrics().received(n);
+        buf.flip();
+        if (protocol != null) {
+            protocol.onReadable(buf);
+            return;
+        }
+        if (processing) {
+            readAhead(buf);
+            return;
+        }
+        process(buf);
+        if (!processing && protocol == null) {
+            armRead();
+        }
+    }
+
+    /** Keeps what arrives while an async handler runs; it is parsed once the response is out. */
+    private void readAhead(ByteBuffer data) {
+        if (leftover == null) {
+            leftover = copyOf(data);
+        } else {
+            ByteBuffer joined = ByteBuffer.allocate(leftover.remaining() + data.remaining());
+            joined.put(leftover).put(data).flip();
+            leftover = joined;
+        }
+        if (leftover.remaining() >= READ_AHEAD_LIMIT) {
+            key.interestOps(0);
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    private void process(ByteBuffer data) {
+        if (parser == null) {
+            parser = new RequestParser(loop.config());
+            out = new PooledOutputStream(loop.buffers(), this);
+        }
+        if (served == 0 && !parser.inProgress() && loop.config().isHttp2() && Http2Connection.isPreface(data)) {
+            switchToHttp2(null, data);
+            return;
+        }
+        Request request;
+        long start = System.nanoTime();
+        try {
+            request = parser.parse(data);
+        } catch (HttpParseException e) {
+            parseNanos = 0;
+            startResponse();
+            try {
+                ResponseEncoder.write(new Response(e.getStatus(), "text/plain", e.getMessage()), null, false, out, this);
+                responseDone(true);
+            } catch (IOException ioe) {
+                close();
+            }
+            return;
+        }
+        long parsed = System.nanoTime();
+        parseNanos += parsed - start;
+        if (request == null) {
+            if (parser.takeContinue()) {
+                sendContinue();
+            }
+            return; // the parser kept everything it was given
+        }
+        loop.metrics().parsed(parseNanos);
+        parseNanos = 0;
+        request.setReceivedNanos(parsed);
+        if (data.hasRemaining()) {
+            leftover = data == loop.readBuffer() ? copyOf(data) : data;
+        }
+
+        // Stop reading until this request is answered; the handler runs off the loop
+        startResponse();
+        served++;
+        if (loop.config().isHttp2() && Http2Connection.isUpgrade(request)) {
+            ByteBuffer next = leftover;
+            leftover = null;
+            switchToHttp2(request, next);
+            return;
+        }
+        boolean keepAlive = request.isKeepAlive() && served < loop.config().getMaxRequestsPerConnection()
+                && !loop.isDraining();
+        loop.workers().execute(() -> respond(request, keepAlive), () -> loop.execute(this, () -> overloaded(request)));
+    }
+
+    /**
+     * Hands the connection to HTTP/2. For an upgrade the {@code 101} goes out first and
+     * {@code request} is answered on stream 1; {@code data} is what the client sent after it.
+     */
+    private void switchToHttp2(Request request, ByteBuffer data) {
+        Http2Connection http2 = new Http2Connection(this, loop);
+        protocol = http2;
+        processing = false;
+        disarm();
+        key.interestOps(SelectionKey.OP_READ);
+        if (request != null) {
+            ByteBuffer buf = loop.buffers().acquire();
+            buf.put(ResponseEncoder.SWITCHING_TO_H2C).flip();
+            sendFrame(buf);
+        }
+        http2.start(request);
+        if (data != null && data.hasRemaining() && channel.isOpen()) {
+            http2.onReadable(data);
+        }
+    }
+
+    /** Tells a client waiting with {@code Expect: 100-continue} to send the body. */
+    private void sendContinue() {
+        ByteBuffer buf = loop.buffers().acquire();
+        buf.put(ResponseEncoder.CONTINUE).flip();
+        queued(buf.remaining());
+        enqueue(buf);
+    }
+
+    /** Runs on the loop when the worker pool refused the request. */
+    private void overloaded(Request request) {
+        request.releaseBody();
+        if (!channel.isOpen()) return;
+        try {
+            Response response = WorkerPool.overloaded();
+            ResponseEncoder.write(response, request, false, out, this);
+            loop.responded(request, response);
+            responseDone(true);
+        } catch (IOException e) {
+            out.discard();
+            close();
+        }
+    }
+
+    /** Runs on a worker thread. */
+    private void respond(Request request, boolean keepAlive) {
+        CompletableFuture<Response> future;
+        long start = System.nanoTime();
+        try {
+            future = loop.dispatcher().handle(request).toCompletableFuture();
+        } catch (RuntimeException e) {
+            loop.metrics().handled(request, System.nanoTime() - start);
+            write(request, null, keepAlive);
+            return;
+        }
+        if (future.isDone()) {
+            loop.metrics().handled(request, System.nanoTime() - start);
+            write(request, result(future), keepAlive);
+            return;
+        }
+        // the worker is free from here on; the loop takes over waiting
+        AsyncResponse pending = new AsyncResponse(request, keepAlive, future);
+        loop.execute(this, () -> awaitAsync(pending));
+        future.whenComplete((response, failure) -> {
+            loop.metrics().handled(request, System.nanoTime() - start);
+            pending.completed();
+        });
+    }
+
+    /** The handler's response, or null if it failed. */
+    static Response result(CompletableFuture<Response> future) {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    private void awaitAsync(AsyncResponse pending) {
+        if (!channel.isOpen()) {
+            pending.disconnected();
+            return;
+        }
+        async = pending;
+        arm(Phase.HANDLER, loop.config().getHandlerTimeoutMs());
+        if (leftover == null || leftover.remaining() < READ_AHEAD_LIMIT) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /** Back to not reading until the response is written. */
+    private void stopWaiting() {
+        async = null;
+        disarm();
+        key.interestOps(0);
+    }
+
+    /** Runs on a worker thread: writes {@code response}, or a 500 when it is null. */
+    private void write(Request request, Response response, boolean keepAlive) {
+        boolean keep = keepAlive && !loop.isDraining();
+        WebSocketHandler upgradeTo = null;
+        try {
+            if (response == null) {
+                response = new Response(500, "text/plain", "Internal Server Error");
+                keep = false;
+            }
+            keep = ResponseEncoder.write(response, request, keep, out, this);
+            if (response.getStatus() == 101) {
+                upgradeTo = response.getWebSocket();
+            }
+            loop.responded(request, response);
+        } catch (IOException | RuntimeException e) {
+            // part of the response may be out already; the only safe end is closing
+            out.discard();
+            loop.execute(this, this::close);
+            return;
+        } finally {
+            request.releaseBody();
+        }
+        if (upgradeTo != null) {
+            WebSocketHandler handler = upgradeTo;
+            loop.execute(this, () -> upgraded(request, handler));
+            return;
+        }
+        boolean close = !keep;
+        loop.execute(this, () -> responseDone(close));
+    }
+
+    /** Runs on the loop once the 101 is queued; the connection switches when it is written. */
+    private void upgraded(Request request, WebSocketHandler handler) {
+        if (!channel.isOpen()) return;
+        upgrade = new NioWebSocket(request, handler);
+        responseDone(false);
+    }
+
+    @Override
+    public void send(ByteBuffer pooled) throws IOException {
+        if (loop.inLoop()) {
+            queued(pooled.remaining());
+            enqueue(pooled);
+        } else {
+            awaitCapacity(pooled);
+            loop.execute(this, () -> enqueue(pooled));
+        }
+    }
+
+    /** Queues a frame of the protocol the connection switched to; runs on the loop. */
+    void sendFrame(ByteBuffer pooled) {
+        queued(pooled.remaining());
+        enqueue(pooled);
+    }
+
+    boolean hasPendingWrites() {
+        return !pendingWrites.isEmpty();
+    }
+
+    /** Asks the selector for what the protocol needs now. */
+    void updateInterest() {
+        if (channel.isOpen()) key.interestOps(protocol.interest());
+    }
+
+    /** Arms the timer for the protocol, unless it is waiting for the client to read. */
+    void armProtocol(int ms) {
+        if (phase != Phase.WRITE) arm(Phase.PROTOCOL, ms);
+    }
+
+    void disarmProtocol() {
+        if (phase == Phase.PROTOCOL) disarm();
+    }
+
+    boolean timerArmed() {
+        return phase != Phase.NONE;
+    }
+
+    private void queued(int bytes) {
+        flowLock.lock();
+        try {
+            queuedBytes += bytes;
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /** Parks the calling worker while the client is behind; fails once the connection is gone. */
+    private void awaitCapacity(ByteBuffer pooled) throws IOException {
+        flowLock.lock();
+        try {
+            while (queuedBytes >= HIGH_WATER && channel.isOpen()) {
+                drained.await();
+            }
+            if (!channel.isOpen()) {
+                loop.buffers().release(pooled);
+                throw new IOException("Connection closed");
+            }
+            queuedBytes += pooled.remaining();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            loop.buffers().release(pooled);
+            throw new InterruptedIOException("Interrupted while waiting for the client");
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void written(int bytes) {
+        flowLock.lock();
+        try {
+            long before = queuedBytes;
+            queuedBytes -= bytes;
+            if (before >= LOW_WATER && queuedBytes < LOW_WATER) {
+                drained.signalAll();
+            }
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendFile(FileRegion file) throws IOException {
+        FileTransfer transfer = FileTransfer.open(file);
+        if (loop.inLoop()) {
+            enqueue(transfer);
+        } else {
+            loop.execute(this, () -> enqueue(transfer));
+        }
+    }
+
+    private void startResponse() {
+        processing = true;
+        responseComplete = false;
+        key.interestOps(0);
+        disarm();
+    }
+
+    /** Arms the timeout for what the parser is waiting for; a running deadline is left as it is. */
+    private void armRead() {
+        Phase next;
+        int ms;
+        if (parser == null || !parser.inProgress()) {
+            next = Phase.IDLE;
+            ms = loop.config().getIdleTimeoutMs();
+        } else if (parser.readingBody()) {
+            next = Phase.BODY;
+            ms = loop.config().getBodyTimeoutMs();
+        } else {
+            next = Phase.HEADER;
+            ms = loop.config().getHeaderTimeoutMs();
+        }
+        if (next != phase) {
+            arm(next, ms);
+        }
+    }
+
+    private void arm(Phase next, int ms) {
+        phase = next;
+        loop.timers().schedule(timeout, ms, loop.now());
+    }
+
+    private void disarm() {
+        phase = Phase.NONE;
+        loop.timers().cancel(timeout);
+    }
+
+    private void timedOut() {
+        if (!channel.isOpen()) return;
+        if (phase == Phase.HANDLER && async != null) {
+            async.timedOut();
+            return;
+        }
+        if (phase == Phase.PROTOCOL && protocol != null) {
+            phase = Phase.NONE;
+            protocol.timedOut();
+            return;
+        }
+        if ((phase == Phase.HEADER || phase == Phase.BODY) && !processing) {
+            // tell a slow client why; if it does not read this either, the write timeout closes
+            startResponse();
+            try {
+                ResponseEncoder.write(new Response(408, "text/plain", "Request Timeout"), null, false, out, this);
+                responseDone(true);
+            } catch (IOException e) {
+                out.discard();
+                close();
+            }
+            return;
+        }
+        close();
+    }
+
+    private void enqueue(Object part) {
+        if (!channel.isOpen()) {
+            release(part);
+            return;
+        }
+        pendingWrites.add(part);
+        flush();
+    }
+
+    private void responseDone(boolean close) {
+        if (!channel.isOpen()) return;
+        responseComplete = true;
+        closeAfterWrite = close;
+        flush();
+    }
+
+    private void flush() {
+        boolean progress = false;
+        try {
+            while (!pendingWrites.isEmpty()) {
+                Object head = pendingWrites.peek();
+                boolean done;
+                if (head instanceof ByteBuffer buf) {
+                    int n = channel.write(buf);
+                    loop.metrics().sent(n);
+                    progress |= n > 0;
+                    done = !buf.hasRemaining();
+                } else {
+                    FileTransfer file = (FileTransfer) head;
+                    long before = file.remaining;
+                    done = file.transferTo(channel);
+                    loop.metrics().sent(before - file.remaining);
+                    progress |= file.remaining < before;
+                }
+                if (!done) {
+                    key.interestOps(protocol != null ? protocol.interest() : SelectionKey.OP_WRITE);
+                    if (progress || phase != Phase.WRITE) {
+                        arm(Phase.WRITE, loop.config().getWriteTimeoutMs());
+                    }
+                    return;
+                }
+                release(pendingWrites.poll());
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (phase == Phase.WRITE) {
+            disarm();
+        }
+        if (protocol != null) {
+            protocol.drained();
+            return;
+        }
+        if (!processing) {
+            // an interim 100 Continue went out; the request body is still to be read
+            key.interestOps(SelectionKey.OP_READ);
+            armRead();
+            return;
+        }
+        if (!responseComplete) {
+            key.interestOps(0);
+            return;
+        }
+
+        processing = false;
+        if (upgrade != null) {
+            NioWebSocket webSocket = upgrade;
+            protocol = webSocket;
+            upgrade = null;
+            webSocket.start();
+            return;
+        }
+        if (closeAfterWrite || loop.isDraining() && leftover == null) {
+            close();
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        if (leftover != null) {
+            // a pipelined request may already be buffered
+            ByteBuffer next = leftover;
+            leftover = null;
+            process(next);
+        }
+        if (!processing && protocol == null) {
+            armRead();
+        }
+    }
+
+    private void release(Object part) {
+        if (part instanceof ByteBuffer buf) {
+            written(buf.limit());
+            loop.buffers().release(buf);
+        } else if (part instanceof FileTransfer file) {
+            file.close();
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer data) {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data).flip();
+        return copy;
+    }
+
+    /**
+     * Runs on the loop when the server starts shutting down. A kept-alive connection waiting for
+     * its next request is closed; one in the middle of a request closes after the response. A
+     * connection that has not sent its first request yet gets to send it. A WebSocket is sent a
+     * close frame and ends when the client answers it; HTTP/2 is sent GOAWAY and ends when its
+     * open streams are answered.
+     */
+    void drain() {
+        if (protocol != null) {
+            protocol.drain();
+            return;
+        }
+        if (!processing && served > 0 && !parser.inProgress()) {
+            close();
+        }
+    }
+
+    void close() {
+        if (!channel.isOpen()) return;
+        loop.connectionClosed();
+        loop.timers().cancel(timeout);
+        if (async != null) {
+            async.disconnected();
+            async = null;
+        }
+        if (protocol != null) {
+            protocol.connectionClosed();
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        if (parser != null) {
+            parser.discard();
+        }
+        for (Object pending : pendingWrites) {
+            release(pending);
+        }
+        pendingWrites.clear();
+        // wake a worker parked in send() so it sees the connection is gone
+        flowLock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /**
+     * The connection after a WebSocket upgrade. Parsing and writing run on the loop; handler
+     * callbacks run on workers, one at a time. When the handler falls
+     * {@link #MAX_PENDING_CALLBACKS} messages behind, reading stops until it catches up.
+     * A client that leaves more than {@link #MAX_QUEUED_FRAMES} bytes unread is dropped.
+     */
+    private final class NioWebSocket extends WebSocketSession implements Protocol {
+        private final ConcurrentLinkedQueue<Runnable> callbacks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCallbacks = new AtomicInteger();
+        private volatile boolean readPaused;
+        // Closing once the queue is written; nothing more is read or queued
+        private boolean finishing;
+
+        NioWebSocket(Request request, WebSocketHandler handler) {
+            super(request, handler, loop.config());
+        }
+
+        /** Runs on the loop when the 101 is out. */
+        void start() {
+            key.interestOps(SelectionKey.OP_READ);
+            arm(Phase.PROTOCOL, loop.config().getWebSocketPingIntervalMs());
+            opened();
+            if (leftover != null) {
+                // frames sent right behind the handshake
+                ByteBuffer next = leftover;
+                leftover = null;
+                onReadable(next);
+            }
+            if (loop.isDraining()) {
+                close(GOING_AWAY, "Server shutting down");
+            }
+        }
+
+        @Override
+        public void onReadable(ByteBuffer data) {
+            onData(data);
+            if (pendingCallbacks.get() >= MAX_PENDING_CALLBACKS && channel.isOpen()) {
+                readPaused = true;
+                key.interestOps(interest());
+            }
+        }
+
+        @Override
+        public int interest() {
+            return (finishing || readPaused ? 0 : SelectionKey.OP_READ)
+                    | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        }
+
+        @Override
+        public void drained() {
+            if (finishing) {
+                NioConnection.this.close();
+                return;
+            }
+            if (phase == Phase.NONE) {
+                arm(Phase.PROTOCOL, loop.config().getWebSocketPingIntervalMs());
+            }
+            key.interestOps(interest());
+        }
+
+        /** The ping interval is up. */
+        @Override
+        public void timedOut() {
+            if (ping()) {
+                arm(Phase.PROTOCOL, loop.config().getWebSocketPingIntervalMs());
+            } else {
+                NioConnection.this.close();
+            }
+        }
+
+        @Override
+        public void drain() {
+            close(GOING_AWAY, "Server shutting down");
+        }
+
+        @Override
+        public void connectionClosed() {
+            disconnected();
+        }
+
+        @Override
+        void write(ByteBuffer frame) {
+            if (loop.inLoop()) {
+                enqueueFrame(frame);
+            } else {
+                loop.execute(NioConnection.this, () -> enqueueFrame(frame));
+            }
+        }
+
+        private void enqueueFrame(ByteBuffer frame) {
+            if (finishing || !channel.isOpen()) return;
+            // only the loop changes queuedBytes once the connection is a WebSocket
+            if (queuedBytes + frame.remaining() > MAX_QUEUED_FRAMES) {
+                NioConnection.this.close();
+                return;
+            }
+            queued(frame.remaining());
+            enqueue(frame);
+        }
+
+        @Override
+        void finish() {
+            if (loop.inLoop()) {
+                finishNow();
+            } else {
+                loop.execute(NioConnection.this, this::finishNow);
+            }
+        }
+
+        private void finishNow() {
+            if (!channel.isOpen()) return;
+            finishing = true;
+            if (pendingWrites.isEmpty()) {
+                NioConnection.this.close();
+            } else {
+                key.interestOps(interest());
+            }
+        }
+
+        @Override
+        void dispatch(Runnable callback) {
+            callbacks.add(callback);
+            if (pendingCallbacks.getAndIncrement() == 0) {
+                loop.workers().resume(this::runCallbacks);
+            }
+        }
+
+        private void runCallbacks() {
+            do {
+                invoke(callbacks.poll());
+            } while (pendingCallbacks.decrementAndGet() > 0);
+            if (readPaused) {
+                loop.execute(NioConnection.this, this::resumeReading);
+            }
+        }
+
+        private void resumeReading() {
+            if (!readPaused || !channel.isOpen()) return;
+            readPaused = false;
+            key.interestOps(interest());
+        }
+
+        @Override
+        Executor loop() {
+            return loop;
+        }
+    }
+
+    /** A request whose async handler has not answered yet. */
+    private final class AsyncResponse {
+        private final Request request;
+        private final boolean keepAlive;
+        private final CompletableFuture<Response> future;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        AsyncResponse(Request request, boolean keepAlive, CompletableFuture<Response> future) {
+            this.request = request;
+            this.keepAlive = keepAlive;
+            this.future = future;
+        }
+
+        /** The stage completed; called on whatever thread completed it. */
+        void completed() {
+            if (!settled.compareAndSet(false, true)) return;
+            loop.execute(NioConnection.this, () -> {
+                if (!channel.isOpen()) {
+                    request.releaseBody();
+                    return;
+                }
+                stopWaiting();
+                loop.workers().resume(() -> write(request, result(future), keepAlive));
+            });
+        }
+
+        /** Runs on the loop. */
+        void timedOut() {
+            if (!settled.compareAndSet(false, true)) return;
+            future.cancel(true);
+            stopWaiting();
+            loop.workers().resume(() -> write(request, new Response(504, "text/plain", "Handler timed out"), keepAlive));
+        }
+
+        /** Runs on the loop. */
+        void disconnected() {
+            if (settled.compareAndSet(false, true)) {
+                future.cancel(true);
+                request.releaseBody();
+            }
+        }
+    }
+
+    /** A file region being sent; on a non-blocking socket transferTo may take several rounds. */
+    private static final class FileTransfer {
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        private FileTransfer(FileChannel file, long position, long remaining) {
+            this.file = file;
+            this.position = position;
+            this.remaining = remaining;
+        }
+
+        static FileTransfer open(FileRegion region) throws IOException {
+            return new FileTransfer(FileChannel.open(region.getPath()), region.getPosition(), region.getCount());
+        }
+
+        /** Sends as much as the socket takes; returns true once the whole region is out. */
+        boolean transferTo(SocketChannel channel) throws IOException {
+            while (remaining > 0) {
+                long n = file.transferTo(position, remaining, channel);
+                if (n <= 0) {
+                    if (position >= file.size()) throw new IOException("File shrank while being sent");
+                    return false;
+                }
+                position += n;
+                remaining -= n;
+            }
+            close();
+            return true;
+        }
+
+        void close() {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.time.Duration;
+
+/**
+ * Non-blocking server built on {@link java.nio.channels.Selector}.
+ * <p>
+ * A small, fixed number of event loops own all sockets and only react to
+ * accept/read/write readiness. Handlers never run on an event loop; they are
+ * submitted to the worker pool, so an idle or slow client costs a registered
+ * key and a few bytes of state instead of a thread.
+ * <p>
+ * By default loop 0 accepts every connection and hands it to a loop round-robin. With
+ * {@link ServerConfig#isReusePort()} each loop binds its own listener with {@code SO_REUSEPORT}
+ * and the kernel balances new connections between them, so accepting scales with the loops
+ * and a connection never changes threads. Loops keep their own buffers and counters; the
+ * router is only read once the server runs.
+ */
+public class NioServer implements Server {
+    private final ServerConfig config;
+    private final WorkerPool workers;
+    private final AsyncHandler dispatcher;
+    private final AccessLog accessLog;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private static final int BACKLOG = 1024;
+    private static final long DRAIN_POLL_MS = 10;
+
+    private EventLoop[] loops = new EventLoop[0];
+
+    /** @param accessLog where each request is logged, or null for none */
+    public NioServer(ServerConfig config, WorkerPool workers, AsyncHandler dispatcher, AccessLog accessLog) {
+        this.config = config;
+        this.workers = workers;
+        this.dispatcher = dispatcher;
+        this.accessLog = accessLog;
+    }
+
+    @Override
+    public void start() throws IOException {
+        EventLoop[] loops = new EventLoop[Math.max(1, config.getEventLoops())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("nio-loop-" + i, config, workers, dispatcher, metrics, accessLog);
+        }
+
+        if (config.isReusePort()) {
+            for (EventLoop loop : loops) {
+                loop.listen(openListener(true), new EventLoop[]{loop});
+            }
+        } else {
+            loops[0].listen(openListener(false), loops);
+        }
+
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+        this.loops = loops;
+    }
+
+    private ServerSocketChannel openListener(boolean reusePort) throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                if (!listener.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new IllegalStateException("SO_REUSEPORT is not supported on this platform");
+                }
+                listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            listener.bind(new InetSocketAddress(config.getPort()), BACKLOG);
+            return listener;
+        } catch (IOException | RuntimeException e) {
+            listener.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean shutdown(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (EventLoop loop : loops) {
+            loop.drain();
+        }
+        while (activeConnections() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(DRAIN_POLL_MS);
+        }
+        boolean drained = activeConnections() == 0;
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+        return drained;
+    }
+
+    @Override
+    public int activeConnections() {
+        int total = 0;
+        for (EventLoop loop : loops) {
+            total += loop.connectionCount();
+        }
+        return total;
+    }
+
+    @Override
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,190 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes into buffers taken from a {@link BufferPool} and hands each one to a {@link ResponseSink}
+ * when it is full or flushed. One instance is reused for every response on a connection.
+ */
+final class PooledOutputStream extends OutputStream {
+    private final BufferPool pool;
+    private final ResponseSink sink;
+    private final byte[] digits = new byte[20];
+
+    private ByteBuffer buf;
+    private long count;
+    private ChunkedOutputStream chunked;
+
+    PooledOutputStream(BufferPool pool, ResponseSink sink) {
+        this.pool = pool;
+        this.sink = sink;
+    }
+
+    /** Bytes written since the last {@link #resetCount()}. */
+    long count() {
+        return count;
+    }
+
+    void resetCount() {
+        count = 0;
+    }
+
+    /**
+     * This stream with chunked framing on top, for bodies of unknown length. One instance is
+     * reused for every chunked response on the connection; a chunk fits in one pooled buffer.
+     */
+    ChunkedOutputStream chunked() {
+        if (chunked == null) {
+            chunked = new ChunkedOutputStream(this, pool.bufferSize() - 16);
+        }
+        chunked.reset();
+        return chunked;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensure(1);
+        buf.put((byte) b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+            count += n;
+        }
+    }
+
+    /** Copies {@code src} from its position to its limit without changing it. */
+    void write(ByteBuffer src) throws IOException {
+        int pos = src.position();
+        int end = src.limit();
+        while (pos < end) {
+            ensure(1);
+            int n = Math.min(end - pos, buf.remaining());
+            buf.put(buf.position(), src, pos, n);
+            buf.position(buf.position() + n);
+            pos += n;
+            count += n;
+        }
+    }
+
+    /** Writes {@code s} as ISO-8859-1, as header text is. */
+    void writeLatin1(String s) throws IOException {
+        int len = s.length();
+        int i = 0;
+        while (i < len) {
+            ensure(1);
+            int n = Math.min(len - i, buf.remaining());
+            for (int end = i + n; i < end; i++) {
+                buf.put((byte) s.charAt(i));
+            }
+            count += n;
+        }
+    }
+
+    void writeUtf8(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            ensure(4);
+            int start = buf.position();
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+            count += buf.position() - start;
+        }
+    }
+
+    /** Bytes {@link #writeUtf8} would produce for {@code s}. */
+    static long utf8Length(String s) {
+        long n = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                n++;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
+    void writeDecimal(long v) throws IOException {
+        if (v == 0) {
+            write('0');
+            return;
+        }
+        int i = digits.length;
+        while (v > 0) {
+            digits[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        write(digits, i, digits.length - i);
+    }
+
+    /** Hands whatever has been written so far to the sink. */
+    @Override
+    public void flush() throws IOException {
+        if (buf == null) return;
+        if (buf.position() == 0) {
+            return;
+        }
+        ByteBuffer full = buf;
+        buf = null;
+        full.flip();
+        sink.send(full);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /** Returns an unsent buffer to the pool, e.g. after a failed response. */
+    void discard() {
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+        }
+    }
+
+    private void ensure(int n) throws IOException {
+        if (buf == null) {
+            buf = pool.acquire();
+        } else if (buf.remaining() < n) {
+            flush();
+            buf = pool.acquire();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.unitbv.rawserver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compressed bodies of static files, kept so that repeated GETs are served without
+ * compressing again. Least recently used entries go first once the cache holds more than
+ * {@code maxBytes} of compressed data.
+ * <p>
+ * Keys include the file's size and modification time, so a changed file misses instead of
+ * serving stale bytes; its old entry simply ages out.
+ */
+final class PrecompressedCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    PrecompressedCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized byte[] get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, byte[] compressed) {
+        if (compressed.length > maxBytes) return;
+        byte[] old = entries.put(key, compressed);
+        if (old != null) {
+            bytes -= old.length;
+        }
+        bytes += compressed.length;
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -1,16 +1,36 @@
 package com.unitbv.rawserver;
 
 import java.io.*;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Request {
+    static final byte[] NO_BODY = new byte[0];
+
     private String method;
     private String uri;
+    private String version = "HTTP/1.1";
     private Map<String, String> headers;
     private Map<String, String> params;
     private String body;
 
+    // Set when the request comes from RequestParser; the maps and the body string are decoded on first use
+    private HttpHeaders rawHeaders;
+    private String query;
+    private byte[] bodyBytes;
+    private RequestBody requestBody;
+
+    // Filled by Router: start/end offsets into uri for each path parameter, and their names
+    private int[] pathParamBounds;
+    private String[] pathParamNames;
+    private String route;
+    // System.nanoTime() when parsing finished, for latency metrics
+    private long receivedNanos;
+
     public Request(String method, String uri, Map<String, String> headers, Map<String, String> params, String body) {
         this.method = method;
         this.uri = uri;
@@ -19,14 +39,33 @@ public class Request {
         this.body = body;
     }
 
+    Request(String method, String uri, String query, String version, HttpHeaders headers) {
+        this.method = method;
+        this.uri = uri;
+        this.query = query;
+        this.version = version;
+        this.rawHeaders = headers;
+    }
+
     //TODO https://codeshare.io/5R6jRB
 
+    /**
+     * Original line-based parser, kept as the baseline for {@code RequestParserBenchmark}.
+     *
+     * @deprecated decodes the body as characters, so Content-Length is miscounted for non-ASCII
+     * bodies, and returns null for a POST without body. Use {@link RequestParser}.
+     */
+    @Deprecated
     public static Request fromString(BufferedReader in) throws IOException {
             String line = in.readLine(); // first line = request
+            if (line == null) {
+                return null; // connection closed before a new request started
+            }
 
             String[] parts = line.split(" ");
             String method = parts[0];
             String uri = parts[1];
+            String version = parts.length > 2 ? parts[2] : "HTTP/1.0";
 
             Map<String, String> params = new HashMap<>();
             if (uri.contains("?")) {
@@ -46,7 +85,9 @@ public class Request {
 
             // If method is GET or HEAD, there's no body
             if ("GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method)) {
-                return new Request(method, uri, headers, params, "");
+                Request request = new Request(method, uri, headers, params, "");
+                request.setVersion(version);
+                return request;
             }
 
             // Check if there is a Content-Length header
@@ -61,7 +102,9 @@ public class Request {
                     sb.append(buffer, 0, bytesRead);
                     bodyLength -= bytesRead;
                 }
-                return new Request(method, uri, headers, params, sb.toString());
+                Request request = new Request(method, uri, headers, params, sb.toString());
+                request.setVersion(version);
+                return request;
             }
 
             return null;
@@ -83,15 +126,68 @@ public class Request {
         this.uri = uri;
     }
 
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /** Header lookup ignoring the case of the name, as HTTP requires. */
+    public String getHeader(String name) {
+        if (rawHeaders != null) {
+            return rawHeaders.get(name);
+        }
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(name)) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the client allows the connection to stay open after this request:
+     * HTTP/1.1 is persistent unless it sends {@code Connection: close},
+     * HTTP/1.0 only when it asks for {@code Connection: keep-alive}.
+     */
+    public boolean isKeepAlive() {
+        if (rawHeaders != null) {
+            int i = rawHeaders.indexOf("Connection");
+            if ("HTTP/1.1".equals(version)) {
+                return i < 0 || !rawHeaders.valueEqualsIgnoreCase(i, "close");
+            }
+            return i >= 0 && rawHeaders.valueEqualsIgnoreCase(i, "keep-alive");
+        }
+        String connection = getHeader("Connection");
+        if ("HTTP/1.1".equals(version)) {
+            return connection == null || !connection.equalsIgnoreCase("close");
+        }
+        return connection != null && connection.equalsIgnoreCase("keep-alive");
+    }
+
     public Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = rawHeaders != null ? rawHeaders.toMap() : new HashMap<>();
+        }
         return headers;
     }
 
     public void setHeaders(Map<String, String> headers) {
         this.headers = headers;
+        this.rawHeaders = null;
+    }
+
+    /** The raw query string after {@code ?}, or null when the URI has none. */
+    public String getQuery() {
+        return query;
     }
 
     public Map<String, String> getParams() {
+        if (params == null) {
+            params = parseQuery(query);
+        }
         return params;
     }
 
@@ -99,12 +195,120 @@ public class Request {
         this.params = params;
     }
 
+    /** The body decoded as UTF-8. Reads a spilled body into memory; see {@link #getBodyStream()}. */
     public String getBody() {
+        if (body == null && (bodyBytes != null || requestBody != null)) {
+            body = new String(getBodyBytes(), StandardCharsets.UTF_8);
+        }
         return body;
     }
 
     public void setBody(String body) {
         this.body = body;
+        this.bodyBytes = null;
+        this.requestBody = null;
+    }
+
+    /** The raw body exactly as received; never null. Reads a spilled body into memory. */
+    public byte[] getBodyBytes() {
+        if (bodyBytes == null) {
+            if (requestBody != null) {
+                bodyBytes = requestBody.toByteArray();
+            } else {
+                bodyBytes = body == null ? NO_BODY : body.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return bodyBytes;
+    }
+
+    /**
+     * The body as a stream of exactly {@link #getContentLength()} bytes. For a large upload this
+     * reads from the temporary file it was received into, so the heap use does not depend on its size.
+     */
+    public InputStream getBodyStream() {
+        return requestBody != null ? requestBody.openStream() : new ByteArrayInputStream(getBodyBytes());
+    }
+
+    /** Like {@link #getBodyStream()}, as a channel; e.g. for {@link java.nio.channels.FileChannel#transferFrom}. */
+    public ReadableByteChannel getBodyChannel() {
+        return requestBody != null ? requestBody.openChannel() : Channels.newChannel(getBodyStream());
+    }
+
+    /** Length of the body in bytes. */
+    public long getContentLength() {
+        return requestBody != null ? requestBody.length() : getBodyBytes().length;
+    }
+
+    void setBody(RequestBody requestBody) {
+        this.requestBody = requestBody;
+        this.bodyBytes = null;
+        this.body = null;
+    }
+
+    /** Deletes a spilled body; the server calls it once the response is out. */
+    void releaseBody() {
+        if (requestBody != null) {
+            requestBody.close();
+        }
+    }
+
+    /**
+     * Value of a path parameter of the matched route, e.g. {@code id} for {@code /students/{id}},
+     * or null if the route has no such parameter.
+     */
+    public String getPathParam(String name) {
+        if (pathParamNames == null) return null;
+        for (int i = 0; i < pathParamNames.length; i++) {
+            if (pathParamNames[i].equals(name)) {
+                String raw = uri.substring(pathParamBounds[i * 2], pathParamBounds[i * 2 + 1]);
+                return raw.indexOf('%') < 0 ? raw : URLDecoder.decode(raw.replace("+", "%2B"), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    void setPathParamBounds(int index, int start, int end) {
+        if (pathParamBounds == null) {
+            pathParamBounds = new int[Router.MAX_PARAMS * 2];
+        }
+        pathParamBounds[index * 2] = start;
+        pathParamBounds[index * 2 + 1] = end;
+    }
+
+    void setPathParamNames(String[] names) {
+        this.pathParamNames = names.length == 0 ? null : names;
+    }
+
+    /** Pattern of the route that matched, e.g. {@code /students/{id}}; null before routing or when none did. */
+    public String getRoute() {
+        return route;
+    }
+
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    void setRoute(String route) {
+        this.route = route;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            if (param.isEmpty()) continue;
+            int eq = param.indexOf('=');
+            String key = eq < 0 ? param : param.substring(0, eq);
+            String value = eq < 0 ? "" : param.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
     }
 
     @Override
@@ -112,9 +316,12 @@ public class Request {
         return "Request{" +
                 "method='" + method + '\'' +
                 ", uri='" + uri + '\'' +
-                ", headers=" + headers +
-                ", params=" + params +
-                ", body='" + body + '\'' +
+                ", version='" + version + '\'' +
+                ", headers=" + getHeaders() +
+                ", params=" + getParams() +
+                (requestBody != null && requestBody.isOnDisk()
+                        ? ", body=<" + requestBody.length() + " bytes on disk>"
+                        : ", body='" + getBody() + '\'') +
                 '}';
     }
 }
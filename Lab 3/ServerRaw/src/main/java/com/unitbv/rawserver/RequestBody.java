@@ -0,0 +1,162 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The body of a request as received by {@link RequestParser}: a byte array when it is small,
+ * otherwise a temporary file the parser wrote it to through a {@link FileChannel}, so an
+ * upload of any size takes a fixed amount of heap. The file is deleted when the body is
+ * closed, which the server does once the response is out.
+ * <p>
+ * {@link #openStream()} and {@link #openChannel()} read exactly {@link #length()} bytes;
+ * each call starts again from the beginning.
+ */
+public final class RequestBody implements Closeable {
+    static final RequestBody EMPTY = new RequestBody(Request.NO_BODY);
+
+    private final byte[] bytes;
+    private final FileChannel file;
+    private final long length;
+    private long received;
+
+    private RequestBody(byte[] bytes) {
+        this.bytes = bytes;
+        this.file = null;
+        this.length = bytes.length;
+    }
+
+    private RequestBody(FileChannel file, long length) {
+        this.bytes = null;
+        this.file = file;
+        this.length = length;
+    }
+
+    /** A body of {@code length} bytes to be filled by {@link #receive(ByteBuffer)}; on disk above {@code spillBytes}. */
+    static RequestBody allocate(long length, long spillBytes) throws IOException {
+        if (length == 0) {
+            return EMPTY;
+        }
+        if (length <= spillBytes) {
+            return new RequestBody(new byte[(int) length]);
+        }
+        Path tmp = Files.createTempFile("rawserver-body-", ".tmp");
+        // on Unix DELETE_ON_CLOSE unlinks the file right away, so it is gone even if the process dies
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+        return new RequestBody(channel, length);
+    }
+
+    /** Takes as many body bytes from {@code in} as are still missing; returns true once complete. */
+    boolean receive(ByteBuffer in) throws IOException {
+        int n = (int) Math.min(in.remaining(), length - received);
+        if (n > 0) {
+            if (bytes != null) {
+                in.get(bytes, (int) received, n);
+            } else {
+                ByteBuffer slice = in.slice();
+                slice.limit(n);
+                long at = received;
+                while (slice.hasRemaining()) {
+                    at += file.write(slice, at);
+                }
+                in.position(in.position() + n);
+            }
+            received += n;
+        }
+        return received == length;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /** Whether the body was spilled to a temporary file. */
+    public boolean isOnDisk() {
+        return file != null;
+    }
+
+    public InputStream openStream() {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return Channels.newInputStream(openChannel());
+    }
+
+    /** A channel over the body; reading from a spilled body goes straight to the file. */
+    public ReadableByteChannel openChannel() {
+        if (bytes != null) {
+            return Channels.newChannel(new ByteArrayInputStream(bytes));
+        }
+        return new FileBodyChannel();
+    }
+
+    /** The whole body on the heap. Avoid for bodies that may be large. */
+    byte[] toByteArray() {
+        if (bytes != null) {
+            return bytes;
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Body of " + length + " bytes does not fit in an array; use openStream()");
+        }
+        try (InputStream in = openStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Positional reads, so several readers and the writer never share a file position. */
+    private final class FileBodyChannel implements ReadableByteChannel {
+        private long position;
+        private boolean open = true;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            int limit = dst.limit();
+            if (dst.remaining() > length - position) {
+                dst.limit(dst.position() + (int) (length - position));
+            }
+            try {
+                int n = file.read(dst, position);
+                if (n > 0) position += n;
+                return n;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open && file.isOpen();
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
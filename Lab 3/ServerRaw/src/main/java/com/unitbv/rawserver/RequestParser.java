@@ -0,0 +1,329 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.x request parser working directly on bytes.
+ * <p>
+ * Feed it whatever arrived with {@link #parse(ByteBuffer)}; it consumes bytes from the buffer
+ * and returns a {@link Request} once one is complete, or null when it needs more input.
+ * Bytes after a complete request are left in the buffer, so pipelined requests are parsed
+ * by calling it again. One parser serves one connection and is reused for all its requests;
+ * its scratch space survives between requests, so steady-state parsing allocates only the
+ * request itself, the path and a copy of the header block.
+ * <p>
+ * Bodies up to {@code spillBytes} are collected in memory; larger ones are written to a
+ * temporary file as they arrive (see {@link RequestBody}), so only {@code maxBodyBytes} limits
+ * an upload, not the heap. A client that sends {@code Expect: 100-continue} waits for the
+ * server's go-ahead before sending the body; {@link #takeContinue()} tells the server when.
+ */
+public class RequestParser {
+    public static final int DEFAULT_MAX_REQUEST_LINE = 8 * 1024;
+    public static final int DEFAULT_MAX_HEADER_BYTES = 16 * 1024;
+    public static final long DEFAULT_MAX_BODY_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_SPILL_BYTES = 64 * 1024;
+
+    private static final int MAX_HEADERS = 100;
+
+    private final int maxRequestLine;
+    private final int maxHeaderBytes;
+    private final long maxBodyBytes;
+    private final long spillBytes;
+
+    // Request line + headers of the request being parsed
+    private byte[] head = new byte[512];
+    private int headLen;
+    private int lineStart;
+    private int requestLineEnd = -1;
+    private int[] slices = new int[16 * 4];
+
+    private Request pending;
+    private RequestBody body;
+    private boolean continueNeeded;
+
+    public RequestParser() {
+        this(DEFAULT_MAX_REQUEST_LINE, DEFAULT_MAX_HEADER_BYTES, DEFAULT_MAX_BODY_BYTES, DEFAULT_SPILL_BYTES);
+    }
+
+    /** Default head limits with the body limits of {@code config}. */
+    public RequestParser(ServerConfig config) {
+        this(DEFAULT_MAX_REQUEST_LINE, DEFAULT_MAX_HEADER_BYTES, config.getMaxBodyBytes(), config.getBodySpillBytes());
+    }
+
+    public RequestParser(int maxRequestLine, int maxHeaderBytes, long maxBodyBytes, long spillBytes) {
+        this.maxRequestLine = maxRequestLine;
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+        this.spillBytes = spillBytes;
+    }
+
+    /** Whether part of a request has been consumed and the parser is waiting for the rest. */
+    public boolean inProgress() {
+        return headLen > 0 || pending != null;
+    }
+
+    /** Whether the head of the current request is complete and its body is still arriving. */
+    public boolean readingBody() {
+        return pending != null;
+    }
+
+    /**
+     * Whether the client is waiting for {@code 100 Continue} before it sends the body of the
+     * request whose head was just parsed. True at most once per request; the server answers it
+     * right away.
+     */
+    public boolean takeContinue() {
+        boolean result = continueNeeded;
+        continueNeeded = false;
+        return result;
+    }
+
+    public Request parse(ByteBuffer in) throws HttpParseException {
+        if (pending == null && !readHead(in)) {
+            return null;
+        }
+        try {
+            if (!body.receive(in)) {
+                return null;
+            }
+        } catch (IOException e) {
+            discard();
+            throw new HttpParseException(500, "Cannot store request body: " + e.getMessage());
+        }
+        Request request = pending;
+        request.setBody(body);
+        body = null;
+        reset();
+        return request;
+    }
+
+    /** Drops a partly received request, deleting its spilled body. For connections that close mid-request. */
+    public void discard() {
+        if (body != null) {
+            body.close();
+        }
+        reset();
+    }
+
+    /** Copies head bytes until the empty line; returns true once the head is parsed into {@code pending}. */
+    private boolean readHead(ByteBuffer in) throws HttpParseException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (headLen == 0 && (b == '\r' || b == '\n')) {
+                continue; // tolerate blank lines between pipelined requests
+            }
+            if (headLen == head.length) {
+                if (head.length >= maxRequestLine + maxHeaderBytes) {
+                    throw new HttpParseException(431, "Request header fields too large");
+                }
+                head = Arrays.copyOf(head, Math.min(head.length * 2, maxRequestLine + maxHeaderBytes));
+            }
+            head[headLen++] = b;
+
+            if (b != '\n') {
+                if (requestLineEnd < 0 && headLen > maxRequestLine) {
+                    throw new HttpParseException(414, "Request line too long");
+                }
+                continue;
+            }
+
+            int lineEnd = lineEnd(headLen - 1);
+            if (requestLineEnd < 0) {
+                requestLineEnd = lineEnd;
+            } else if (lineEnd == lineStart) {
+                pending = buildHead();
+                return true;
+            } else if (lineEnd - requestLineEnd > maxHeaderBytes) {
+                throw new HttpParseException(431, "Request header fields too large");
+            }
+            lineStart = headLen;
+        }
+        return false;
+    }
+
+    /** End of the line whose '\n' is at {@code lf}, excluding an optional '\r'. */
+    private int lineEnd(int lf) {
+        return lf > 0 && head[lf - 1] == '\r' ? lf - 1 : lf;
+    }
+
+    private Request buildHead() throws HttpParseException {
+        int sp1 = indexOf((byte) ' ', 0, requestLineEnd);
+        int sp2 = sp1 < 0 ? -1 : indexOf((byte) ' ', sp1 + 1, requestLineEnd);
+        if (sp1 <= 0 || sp2 <= sp1 + 1) {
+            throw new HttpParseException(400, "Malformed request line");
+        }
+        String method = method(0, sp1);
+        String version = version(sp2 + 1, requestLineEnd);
+
+        int q = indexOf((byte) '?', sp1 + 1, sp2);
+        int pathEnd = q < 0 ? sp2 : q;
+        String uri = new String(head, sp1 + 1, pathEnd - sp1 - 1, StandardCharsets.UTF_8);
+        String query = q < 0 ? null : new String(head, q + 1, sp2 - q - 1, StandardCharsets.UTF_8);
+
+        HttpHeaders headers = buildHeaders();
+        long contentLength = contentLength(headers);
+        if (headers.indexOf("Transfer-Encoding") >= 0) {
+            throw new HttpParseException(501, "Chunked request bodies are not supported");
+        }
+        if (contentLength > maxBodyBytes) {
+            throw new HttpParseException(413, "Request body too large");
+        }
+        int expect = headers.indexOf("Expect");
+        if (expect >= 0) {
+            if (!headers.valueEqualsIgnoreCase(expect, "100-continue")) {
+                throw new HttpParseException(417, "Expectation Failed");
+            }
+            // HTTP/1.0 clients do not know 100 Continue (RFC 9110, 10.1.1)
+            continueNeeded = contentLength > 0 && "HTTP/1.1".equals(version);
+        }
+
+        try {
+            body = RequestBody.allocate(contentLength, spillBytes);
+        } catch (IOException e) {
+            throw new HttpParseException(500, "Cannot store request body: " + e.getMessage());
+        }
+        return new Request(method, uri, query, version, headers);
+    }
+
+    /**
+     * The body length, 0 without a Content-Length. Repeated fields or a list such as
+     * {@code 42, 42} are accepted only when every value is the same (RFC 9112, 6.3): if this
+     * server and a proxy in front of it picked different ones, a request could be smuggled.
+     */
+    private static long contentLength(HttpHeaders headers) throws HttpParseException {
+        long length = -1;
+        for (int i = headers.indexOf("Content-Length"); i >= 0; i = headers.indexOf("Content-Length", i + 1)) {
+            long n = headers.valueAsLong(i);
+            if (n < 0) {
+                n = listedLength(headers.value(i));
+            }
+            if (n == -2 || length >= 0 && n != length) {
+                throw new HttpParseException(400, "Conflicting Content-Length values");
+            }
+            if (n < 0) {
+                throw new HttpParseException(400, "Invalid Content-Length");
+            }
+            length = n;
+        }
+        return Math.max(length, 0);
+    }
+
+    /** The length a comma-separated list agrees on, -2 if its values differ, -1 if one is not a length. */
+    private static long listedLength(String value) {
+        long length = -1;
+        for (String part : value.split(",", -1)) {
+            String digits = part.strip();
+            if (digits.isEmpty() || digits.length() > 18) return -1;
+            long n = 0;
+            for (int p = 0; p < digits.length(); p++) {
+                int d = digits.charAt(p) - '0';
+                if (d < 0 || d > 9) return -1;
+                n = n * 10 + d;
+            }
+            if (length >= 0 && n != length) return -2;
+            length = n;
+        }
+        return length;
+    }
+
+    private HttpHeaders buildHeaders() throws HttpParseException {
+        int blockStart = requestLineEnd + (head[requestLineEnd] == '\r' ? 2 : 1);
+        int blockEnd = lineStart;
+        if (blockEnd <= blockStart) {
+            return HttpHeaders.EMPTY;
+        }
+
+        int count = 0;
+        int p = blockStart;
+        while (p < blockEnd) {
+            int lf = indexOf((byte) '\n', p, blockEnd);
+            int end = lineEnd(lf);
+            if (head[p] == ' ' || head[p] == '\t') {
+                throw new HttpParseException(400, "Obsolete header line folding");
+            }
+            int colon = indexOf((byte) ':', p, end);
+            if (colon <= p) {
+                throw new HttpParseException(400, "Malformed header line");
+            }
+            int valueStart = colon + 1;
+            while (valueStart < end && (head[valueStart] == ' ' || head[valueStart] == '\t')) valueStart++;
+            int valueEnd = end;
+            while (valueEnd > valueStart && (head[valueEnd - 1] == ' ' || head[valueEnd - 1] == '\t')) valueEnd--;
+
+            if (count == MAX_HEADERS) {
+                throw new HttpParseException(431, "Too many header fields");
+            }
+            if ((count + 1) * 4 > slices.length) {
+                slices = Arrays.copyOf(slices, slices.length * 2);
+            }
+            // Offsets are stored relative to the copied block
+            slices[count * 4] = p - blockStart;
+            slices[count * 4 + 1] = colon - blockStart;
+            slices[count * 4 + 2] = valueStart - blockStart;
+            slices[count * 4 + 3] = valueEnd - blockStart;
+            count++;
+            p = lf + 1;
+        }
+        return new HttpHeaders(Arrays.copyOfRange(head, blockStart, blockEnd), Arrays.copyOf(slices, count * 4), count);
+    }
+
+    private String method(int start, int end) {
+        // Common methods map to constants instead of a fresh String per request
+        switch (end - start) {
+            case 3:
+                if (matches("GET", start)) return "GET";
+                if (matches("PUT", start)) return "PUT";
+                break;
+            case 4:
+                if (matches("POST", start)) return "POST";
+                if (matches("HEAD", start)) return "HEAD";
+                break;
+            case 5:
+                if (matches("PATCH", start)) return "PATCH";
+                break;
+            case 6:
+                if (matches("DELETE", start)) return "DELETE";
+                break;
+            case 7:
+                if (matches("OPTIONS", start)) return "OPTIONS";
+                break;
+            default:
+                break;
+        }
+        return new String(head, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    private String version(int start, int end) throws HttpParseException {
+        if (end - start == 8 && matches("HTTP/1.", start)) {
+            if (head[start + 7] == '1') return "HTTP/1.1";
+            if (head[start + 7] == '0') return "HTTP/1.0";
+        }
+        throw new HttpParseException(505, "Unsupported HTTP version");
+    }
+
+    private boolean matches(String s, int at) {
+        for (int i = 0; i < s.length(); i++) {
+            if (head[at + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (head[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private void reset() {
+        headLen = 0;
+        lineStart = 0;
+        requestLineEnd = -1;
+        pending = null;
+        body = null;
+        continueNeeded = false;
+    }
+}
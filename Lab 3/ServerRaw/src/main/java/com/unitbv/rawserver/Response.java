@@ -1,9 +1,25 @@
 package com.unitbv.rawserver;
 
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Status, headers and a body. The body is one of: a {@code String} (sent as UTF-8), raw bytes,
+ * a {@link ByteBuffer}, a {@link FileRegion} or a {@link BodyWriter} that streams it.
+ */
 public class Response {
     private String body;
     private int status;
     private String contentType;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private FileRegion file;
+    private byte[] bodyBytes;
+    private ByteBuffer bodyBuffer;
+    private BodyWriter bodyWriter;
+    private long contentLength = -1;
+    // Set on a 101 answer to a WebSocket handshake
+    private WebSocketHandler webSocket;
 
     public Response(int status, String contentType, String body) {
         this.body = body;
@@ -11,6 +27,50 @@ public class Response {
         this.contentType = contentType;
     }
 
+    /** Response whose body is a region of a file, sent with zero-copy transfer. */
+    public Response(int status, String contentType, FileRegion file) {
+        this.status = status;
+        this.contentType = contentType;
+        this.file = file;
+    }
+
+    public Response(int status, String contentType, byte[] body) {
+        this.status = status;
+        this.contentType = contentType;
+        this.bodyBytes = body;
+    }
+
+    /**
+     * Body taken from {@code body}'s position to its limit. The buffer itself is not modified,
+     * so one prepared buffer can back many responses.
+     */
+    public Response(int status, String contentType, ByteBuffer body) {
+        this.status = status;
+        this.contentType = contentType;
+        this.bodyBuffer = body;
+    }
+
+    /**
+     * Streamed body of unknown length, sent chunked. The writer runs after the head has gone
+     * out, and each {@code flush()} sends what it wrote so far, so the first bytes reach the
+     * client before the body is complete.
+     */
+    public Response(int status, String contentType, BodyWriter writer) {
+        this(status, contentType, -1, writer);
+    }
+
+    /**
+     * Streamed body.
+     *
+     * @param contentLength exact number of bytes {@code writer} produces, or -1 if not known up front
+     */
+    public Response(int status, String contentType, long contentLength, BodyWriter writer) {
+        this.status = status;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.bodyWriter = writer;
+    }
+
     public String getBody() {
         return body;
     }
@@ -35,6 +95,55 @@ public class Response {
         this.contentType = contentType;
     }
 
+    public byte[] getBodyBytes() {
+        return bodyBytes;
+    }
+
+    public ByteBuffer getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    public BodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+
+    /**
+     * Length of the body in bytes, or -1 when it is only known once streamed.
+     */
+    public long getContentLength() {
+        if (file != null) return file.getCount();
+        if (bodyBytes != null) return bodyBytes.length;
+        if (bodyBuffer != null) return bodyBuffer.remaining();
+        if (bodyWriter != null) return contentLength;
+        return body == null ? 0 : PooledOutputStream.utf8Length(body);
+    }
+
+    public FileRegion getFile() {
+        return file;
+    }
+
+    public void setFile(FileRegion file) {
+        this.file = file;
+    }
+
+    /** Handler the connection is handed to after a {@code 101} response, or null. */
+    WebSocketHandler getWebSocket() {
+        return webSocket;
+    }
+
+    void setWebSocket(WebSocketHandler webSocket) {
+        this.webSocket = webSocket;
+    }
+
+    /** Extra headers; Content-Type, Content-Length and Connection are written by the server. */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public Response addHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
 
     @Override
     public String toString() {
@@ -42,6 +151,8 @@ public class Response {
                 "body='" + body + '\'' +
                 ", status=" + status +
                 ", contentType='" + contentType + '\'' +
+                ", headers=" + headers +
+                ", file=" + file +
                 '}';
     }
 
@@ -0,0 +1,316 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory cache of GET responses for routes that opt in with {@link #cached(Duration, Handler)}.
+ * <p>
+ * Entries are keyed by path and query, live for the route's TTL and are evicted least recently
+ * used first once the cached bodies exceed {@code maxBytes}. A hit is answered without running
+ * the handler. Every cached response carries a strong {@code ETag} (a SHA-256 prefix of the body),
+ * and a request whose {@code If-None-Match} names it gets {@code 304 Not Modified}.
+ * <p>
+ * Only {@code 200} responses with an in-memory body, or a streamed one of known length, are
+ * kept. File bodies already come from the page cache, and streamed bodies of unknown length are
+ * passed through untouched so they still reach the client as they are written. So are responses
+ * with {@code Cache-Control: no-store} or {@code Set-Cookie}. A body larger than an eighth of the
+ * cache is not stored; that is remembered for the TTL and the response goes out as it is.
+ * <p>
+ * Handlers that change data call {@link #invalidate(String)} or {@link #invalidateRoute(String)}.
+ */
+public class ResponseCache {
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 8;
+    }
+
+    /** Wraps {@code handler} so its GET responses are cached for {@code ttl}. */
+    public Handler cached(Duration ttl, Handler handler) {
+        long ttlNanos = ttl.toNanos();
+        return request -> {
+            String key = key(request);
+            long now = System.nanoTime();
+            Entry entry = lookup(key, now);
+            if (entry != null) {
+                if (entry.tooLarge) {
+                    bypassed.increment();
+                    return handler.handle(request);
+                }
+                hits.increment();
+                return answer(entry, request);
+            }
+            misses.increment();
+
+            Response response = handler.handle(request);
+            if (!isCacheable(response)) {
+                return response;
+            }
+            byte[] body = capture(response);
+            if (body == null) {
+                store(key, new Entry(request.getRoute(), now + ttlNanos));
+                return response;
+            }
+            entry = new Entry(request.getRoute(), now + ttlNanos, response, body, etag(body));
+            store(key, entry);
+            return answer(entry, request);
+        };
+    }
+
+    /** Drops the cached responses for {@code path}, whatever their query. */
+    public synchronized void invalidate(String path) {
+        String prefix = path + "?";
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().equals(path) || e.getKey().startsWith(prefix)) {
+                bytes -= e.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    /** Drops every cached response of the route registered as {@code pattern}, e.g. {@code /students/{id}}. */
+    public synchronized void invalidateRoute(String pattern) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (pattern.equals(e.route)) {
+                bytes -= e.size();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Requests that ran the handler because their response is remembered as too large to cache. */
+    public long getBypassed() {
+        return bypassed.sum();
+    }
+
+    /** Hits answered with 304 because the client already had the body. */
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * The tag in {@code ifNoneMatch} that names {@code etag}, or null if none does. Uses the weak
+     * comparison RFC 9110 asks for here and also accepts the tag of a compressed variant of the
+     * same body (see {@link Compression}), so the 304 can repeat the tag the client holds.
+     */
+    static String match(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return null;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) return etag;
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag) || tag.equals(Compression.variantTag(etag, "gzip"))
+                    || tag.equals(Compression.variantTag(etag, "deflate"))) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    private Response answer(Entry entry, Request request) {
+        String matched = match(request.getHeader("If-None-Match"), entry.etag);
+        if (matched != null) {
+            notModified.increment();
+            Response response = new Response(304, null, (String) null);
+            response.getHeaders().putAll(entry.headers);
+            return response.addHeader("ETag", matched);
+        }
+        // the array is never written after caching, so every hit can share it
+        Response response = new Response(200, entry.contentType, ByteBuffer.wrap(entry.body).asReadOnlyBuffer());
+        response.getHeaders().putAll(entry.headers);
+        return response.addHeader("ETag", entry.etag);
+    }
+
+    private synchronized Entry lookup(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.expires >= 0) {
+            entries.remove(key);
+            bytes -= entry.size();
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void store(String key, Entry entry) {
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            bytes -= old.size();
+        }
+        bytes += entry.size();
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().size();
+            it.remove();
+        }
+    }
+
+    private static String key(Request request) {
+        return request.getQuery() == null ? request.getUri() : request.getUri() + "?" + request.getQuery();
+    }
+
+    private static boolean isCacheable(Response response) {
+        if (response.getStatus() != 200 || response.getFile() != null) return false;
+        // buffering an unknown-length stream would hold back its first byte until the last
+        if (response.getBodyWriter() != null && response.getContentLength() < 0) return false;
+        if (response.getHeaders().containsKey("Set-Cookie")) return false;
+        String cacheControl = response.getHeaders().get("Cache-Control");
+        return cacheControl == null || !cacheControl.toLowerCase(Locale.ROOT).contains("no-store");
+    }
+
+    /**
+     * The body as bytes, or null when it is larger than one entry may be. Only a body of known
+     * length gets here, so the size is checked before anything is read.
+     */
+    private byte[] capture(Response response) {
+        long length = response.getContentLength();
+        if (length > maxEntryBytes) {
+            return null;
+        }
+        if (response.getBodyBytes() != null) {
+            return response.getBodyBytes().clone();
+        }
+        if (response.getBodyBuffer() != null) {
+            ByteBuffer src = response.getBodyBuffer().duplicate();
+            byte[] copy = new byte[src.remaining()];
+            src.get(copy);
+            return copy;
+        }
+        if (response.getBodyWriter() != null) {
+            CappedOutputStream out = new CappedOutputStream(length);
+            try {
+                response.getBodyWriter().writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+        return response.getBody() == null ? new byte[0] : response.getBody().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    private static final class Entry {
+        final String route;
+        final long expires;
+        final boolean tooLarge;
+        final String contentType;
+        final Map<String, String> headers;
+        final byte[] body;
+        final String etag;
+
+        /** Marks a response too large to cache. */
+        Entry(String route, long expires) {
+            this.route = route;
+            this.expires = expires;
+            this.tooLarge = true;
+            this.contentType = null;
+            this.headers = Map.of();
+            this.body = new byte[0];
+            this.etag = null;
+        }
+
+        Entry(String route, long expires, Response response, byte[] body, String etag) {
+            this.route = route;
+            this.expires = expires;
+            this.tooLarge = false;
+            this.contentType = response.getContentType();
+            this.headers = new LinkedHashMap<>(response.getHeaders());
+            this.body = body;
+            this.etag = etag;
+        }
+
+        long size() {
+            return body.length;
+        }
+    }
+
+    /** Collects a streamed body, failing if it writes more than it declared. */
+    private static final class CappedOutputStream extends OutputStream {
+        private final long limit;
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+        CappedOutputStream(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buf.size() + (long) len > limit) {
+                throw new Full();
+            }
+            buf.write(b, off, len);
+        }
+
+        byte[] toByteArray() {
+            return buf.toByteArray();
+        }
+
+        static final class Full extends IOException {
+            Full() {
+                super("Body is longer than its Content-Length");
+            }
+        }
+    }
+}
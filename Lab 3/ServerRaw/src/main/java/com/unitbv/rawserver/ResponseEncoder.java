@@ -0,0 +1,190 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes a {@link Response} to the wire. Shared by the blocking and the NIO server so both
+ * answer identically.
+ * <p>
+ * Every response with a known length carries {@code Content-Length}, which is what lets the
+ * client find its end and reuse the connection. Streamed bodies of unknown length are sent
+ * {@code Transfer-Encoding: chunked} to HTTP/1.1 clients and delimited by closing the
+ * connection for HTTP/1.0 ones. Status lines and the usual header names are
+ * encoded once up front; everything is written into pooled direct buffers, so a steady stream
+ * of responses does not allocate here.
+ */
+public final class ResponseEncoder {
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONNECTION_UPGRADE = ascii("Connection: Upgrade\r\n");
+    private static final byte[] COLON_SPACE = ascii(": ");
+    private static final byte[] CRLF = ascii("\r\n");
+    /** Interim response to {@code Expect: 100-continue}. */
+    static final byte[] CONTINUE = ascii("HTTP/1.1 100 Continue\r\n\r\n");
+    /** Accepts {@code Upgrade: h2c}; the HTTP/2 connection preface follows. */
+    static final byte[] SWITCHING_TO_H2C = ascii("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n");
+
+    // Encoded content types and header names; these come from a small, fixed set in practice
+    private static final int MAX_CACHED = 256;
+    private static final Map<String, byte[]> ENCODED = new ConcurrentHashMap<>();
+
+    static {
+        for (int status = 100; status < STATUS_LINES.length; status++) {
+            STATUS_LINES[status] = ascii("HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\n");
+        }
+    }
+
+    private ResponseEncoder() {}
+
+    /**
+     * Writes head and body of {@code response} to {@code out}; file bodies go to {@code sink}
+     * directly. {@code request} decides whether a body is sent at all (not for HEAD) and whether
+     * chunked encoding may be used (HTTP/1.1 only); it is null for errors answered before a
+     * request could be parsed.
+     *
+     * @return whether the connection may be kept open afterwards: false when {@code keepAlive}
+     * was false or the body has no known length and is ended by closing the connection; always
+     * true for {@code 101}, after which the connection speaks another protocol
+     */
+    static boolean write(Response response, Request request, boolean keepAlive,
+                         PooledOutputStream out, ResponseSink sink) throws IOException {
+        int status = response.getStatus();
+        boolean bodiless = !hasBody(status);
+        boolean headOnly = request != null && "HEAD".equals(request.getMethod());
+        long length = bodiless ? 0 : response.getContentLength();
+        boolean chunked = false;
+        if (length < 0) {
+            chunked = request == null || "HTTP/1.1".equals(request.getVersion());
+            if (!chunked) {
+                keepAlive = false; // close-delimited body
+            }
+        }
+
+        out.write(statusLine(status));
+        if (response.getContentType() != null && !bodiless) {
+            out.write(CONTENT_TYPE);
+            out.write(encoded(response.getContentType()));
+            out.write(CRLF);
+        }
+        if (length >= 0 && !bodiless) {
+            out.write(CONTENT_LENGTH);
+            out.writeDecimal(length);
+            out.write(CRLF);
+        } else if (chunked) {
+            out.write(TRANSFER_ENCODING_CHUNKED);
+        }
+        if (status == 101) {
+            keepAlive = true;
+            out.write(CONNECTION_UPGRADE);
+        } else {
+            out.write(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+        }
+        for (Map.Entry<String, String> h : response.getHeaders().entrySet()) {
+            out.write(encoded(h.getKey()));
+            out.write(COLON_SPACE);
+            out.writeLatin1(h.getValue());
+            out.write(CRLF);
+        }
+        out.write(CRLF);
+
+        if (!headOnly && !bodiless) {
+            if (chunked) {
+                ChunkedOutputStream body = out.chunked();
+                response.getBodyWriter().writeTo(body);
+                body.finish();
+            } else {
+                writeBody(response, length, out, sink);
+            }
+        }
+        out.flush();
+        return keepAlive;
+    }
+
+    private static void writeBody(Response response, long length, PooledOutputStream out, ResponseSink sink) throws IOException {
+        if (response.getFile() != null) {
+            out.flush();
+            sink.sendFile(response.getFile());
+        } else if (response.getBodyBytes() != null) {
+            out.write(response.getBodyBytes());
+        } else if (response.getBodyBuffer() != null) {
+            out.write(response.getBodyBuffer());
+        } else if (response.getBodyWriter() != null) {
+            out.resetCount();
+            response.getBodyWriter().writeTo(out);
+            if (length >= 0 && out.count() != length) {
+                throw new IOException("Body writer produced " + out.count() + " bytes, declared " + length);
+            }
+        } else if (response.getBody() != null) {
+            out.writeUtf8(response.getBody());
+        }
+    }
+
+    private static byte[] statusLine(int status) {
+        if (status >= 100 && status < STATUS_LINES.length) {
+            return STATUS_LINES[status];
+        }
+        return ascii("HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\n");
+    }
+
+    private static byte[] encoded(String s) {
+        byte[] bytes = ENCODED.get(s);
+        if (bytes == null) {
+            bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+            if (ENCODED.size() < MAX_CACHED) {
+                ENCODED.put(s, bytes);
+            }
+        }
+        return bytes;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** 1xx, 204 and 304 responses never have a body or a Content-Length. */
+    static boolean hasBody(int status) {
+        return status >= 200 && status != 204 && status != 304;
+    }
+
+    static String reasonPhrase(int status) {
+        return switch (status) {
+            case 100 -> "Continue";
+            case 101 -> "Switching Protocols";
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 301 -> "Moved Permanently";
+            case 302 -> "Found";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 408 -> "Request Timeout";
+            case 409 -> "Conflict";
+            case 411 -> "Length Required";
+            case 413 -> "Payload Too Large";
+            case 414 -> "URI Too Long";
+            case 416 -> "Range Not Satisfiable";
+            case 417 -> "Expectation Failed";
+            case 426 -> "Upgrade Required";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 501 -> "Not Implemented";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            case 505 -> "HTTP Version Not Supported";
+            default -> "Unknown";
+        };
+    }
+}
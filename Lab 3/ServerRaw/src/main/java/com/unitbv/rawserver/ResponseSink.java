@@ -0,0 +1,15 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where the encoded parts of a response go: straight to the socket in the blocking server,
+ * to the connection's write queue on the event loop in the NIO server.
+ */
+interface ResponseSink {
+    /** Sends a filled pool buffer (read mode); the sink releases it back to the pool once written. */
+    void send(ByteBuffer pooled) throws IOException;
+
+    void sendFile(FileRegion file) throws IOException;
+}
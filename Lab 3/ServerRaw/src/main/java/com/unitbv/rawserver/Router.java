@@ -1,16 +1,376 @@
 package com.unitbv.rawserver;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
+/**
+ * Routes requests to handlers with one radix tree per HTTP method.
+ * <p>
+ * Patterns are literal paths with optional parameters:
+ * <ul>
+ *   <li>{@code /students/{id}} – {@code {id}} matches one path segment</li>
+ *   <li>{@code /static/{*path}} or {@code /static/*} – matches the rest of the path, possibly empty</li>
+ * </ul>
+ * Literal segments win over parameters, which win over wildcards. Lookup walks the path once
+ * and does not allocate for literal routes; captured parameters are recorded as offsets on the
+ * {@link Request} and only turned into strings by {@link Request#getPathParam(String)}.
+ * Routes are meant to be registered at startup, before the server accepts connections.
+ * <p>
+ * A route has either a {@link Handler} or an {@link AsyncHandler}. The servers call
+ * {@link #dispatchAsync(Request)}, which serves both. A {@link #websocket} route answers the
+ * upgrade handshake, after which the server hands the connection to its {@link WebSocketHandler}.
+ */
 public class Router {
-    private Map<String, Handler> routes = new HashMap<>();
+    static final int MAX_PARAMS = 8;
 
-    public void get(String uri, Handler handler) {
-        routes.put("GET_" + uri, handler);
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS"};
+
+    private final Node[] trees = new Node[METHODS.length];
+    private final Map<String, Node> otherTrees = new HashMap<>();
+
+    public void get(String path, Handler handler) {
+        route("GET", path, handler);
+    }
+
+    public void post(String path, Handler handler) {
+        route("POST", path, handler);
+    }
+
+    public void put(String path, Handler handler) {
+        route("PUT", path, handler);
+    }
+
+    public void delete(String path, Handler handler) {
+        route("DELETE", path, handler);
+    }
+
+    public void patch(String path, Handler handler) {
+        route("PATCH", path, handler);
     }
 
+    public void head(String path, Handler handler) {
+        route("HEAD", path, handler);
+    }
+
+    public void options(String path, Handler handler) {
+        route("OPTIONS", path, handler);
+    }
+
+    public void getAsync(String path, AsyncHandler handler) {
+        routeAsync("GET", path, handler);
+    }
+
+    public void postAsync(String path, AsyncHandler handler) {
+        routeAsync("POST", path, handler);
+    }
+
+    public void putAsync(String path, AsyncHandler handler) {
+        routeAsync("PUT", path, handler);
+    }
+
+    public void deleteAsync(String path, AsyncHandler handler) {
+        routeAsync("DELETE", path, handler);
+    }
+
+    /** A WebSocket endpoint: {@code GET path} with the upgrade handshake, then {@code handler}. */
+    public void websocket(String path, WebSocketHandler handler) {
+        route("GET", path, new WebSocketUpgrade(handler));
+    }
+
+    public void route(String method, String path, Handler handler) {
+        add(method, path, handler, null);
+    }
+
+    public void routeAsync(String method, String path, AsyncHandler handler) {
+        add(method, path, null, handler);
+    }
+
+    private void add(String method, String path, Handler handler, AsyncHandler asyncHandler) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            throw new IllegalArgumentException("Route must start with '/': " + path);
+        }
+        int idx = methodIndex(method);
+        Node root;
+        if (idx >= 0) {
+            if (trees[idx] == null) trees[idx] = new Node("");
+            root = trees[idx];
+        } else {
+            root = otherTrees.computeIfAbsent(method, m -> new Node(""));
+        }
+        insert(root, path, 0, new Target(handler, asyncHandler), new ArrayList<>(), path);
+    }
+
+    /**
+     * Synchronous handler for {@code method} and {@code uri}, or null, also when the route is
+     * asynchronous. Path parameters are not captured.
+     */
     public Handler find(String method, String uri) {
-        return routes.getOrDefault(method + "_" + uri, null);
+        Node node = lookup(tree(method), uri, null);
+        return node == null ? null : node.target.handler;
+    }
+
+    /**
+     * Runs the handler matching the request. Answers 404 when no route matches the path and
+     * 405 with an {@code Allow} header when the path exists for other methods only.
+     * An asynchronous route is waited for on the calling thread.
+     */
+    public Response dispatch(Request request) {
+        Node node = lookup(tree(request.getMethod()), request.getUri(), request);
+        if (node != null) {
+            request.setPathParamNames(node.paramNames);
+            request.setRoute(node.route);
+            Target target = node.target;
+            return target.handler != null
+                    ? target.handler.handle(request)
+                    : target.asyncHandler.handle(request).toCompletableFuture().join();
+        }
+        return notRouted(request);
+    }
+
+    /**
+     * Like {@link #dispatch(Request)}, but an asynchronous route is not waited for: its stage
+     * is returned as is. Synchronous routes run on the calling thread and come back completed.
+     */
+    public CompletionStage<Response> dispatchAsync(Request request) {
+        Node node = lookup(tree(request.getMethod()), request.getUri(), request);
+        if (node != null) {
+            request.setPathParamNames(node.paramNames);
+            request.setRoute(node.route);
+            Target target = node.target;
+            return target.asyncHandler != null
+                    ? target.asyncHandler.handle(request)
+                    : CompletableFuture.completedFuture(target.handler.handle(request));
+        }
+        return CompletableFuture.completedFuture(notRouted(request));
+    }
+
+    private Response notRouted(Request request) {
+        String allow = allowedMethods(request.getUri());
+        if (allow == null) {
+            return new Response(404, "text/plain", "Not Found");
+        }
+        return new Response(405, "text/plain", "Method Not Allowed").addHeader("Allow", allow);
+    }
+
+    /** Comma-separated methods that have a route for {@code uri}, or null if none does. */
+    public String allowedMethods(String uri) {
+        StringJoiner allow = new StringJoiner(", ");
+        for (int i = 0; i < METHODS.length; i++) {
+            if (lookup(trees[i], uri, null) != null) allow.add(METHODS[i]);
+        }
+        for (Map.Entry<String, Node> e : otherTrees.entrySet()) {
+            if (lookup(e.getValue(), uri, null) != null) allow.add(e.getKey());
+        }
+        return allow.length() == 0 ? null : allow.toString();
+    }
+
+    private Node tree(String method) {
+        int idx = methodIndex(method);
+        return idx >= 0 ? trees[idx] : otherTrees.get(method);
+    }
+
+    private static int methodIndex(String method) {
+        return switch (method) {
+            case "GET" -> 0;
+            case "POST" -> 1;
+            case "PUT" -> 2;
+            case "DELETE" -> 3;
+            case "PATCH" -> 4;
+            case "HEAD" -> 5;
+            case "OPTIONS" -> 6;
+            default -> -1;
+        };
+    }
+
+    // ---- insertion ----
+
+    private static void insert(Node node, String pattern, int i, Target target, List<String> names, String route) {
+        if (i == pattern.length()) {
+            setHandler(node, target, names, route);
+            return;
+        }
+
+        char c = pattern.charAt(i);
+        if (c == '*' || (c == '{' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*')) {
+            int end = c == '*' ? i + 1 : pattern.indexOf('}', i);
+            if (end < 0 || (c == '{' ? end + 1 : end) != pattern.length()) {
+                throw new IllegalArgumentException("Wildcard must end the route: " + route);
+            }
+            String name = c == '*' ? "*" : pattern.substring(i + 2, end);
+            if (names.size() == MAX_PARAMS) {
+                throw new IllegalArgumentException("Too many parameters in route: " + route);
+            }
+            if (node.wildcard == null) {
+                node.wildcard = new Node("");
+            }
+            names.add(name);
+            setHandler(node.wildcard, target, names, route);
+            return;
+        }
+
+        if (c == '{') {
+            int end = pattern.indexOf('}', i);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unclosed parameter in route: " + route);
+            }
+            String name = pattern.substring(i + 1, end);
+            if (name.isEmpty() || names.size() == MAX_PARAMS) {
+                throw new IllegalArgumentException("Invalid parameter in route: " + route);
+            }
+            if (node.param == null) {
+                node.param = new Node("");
+                node.paramName = name;
+            } else if (!node.paramName.equals(name)) {
+                throw new IllegalArgumentException("Parameter {" + name + "} conflicts with {" + node.paramName + "} in route: " + route);
+            }
+            names.add(name);
+            insert(node.param, pattern, end + 1, target, names, route);
+            return;
+        }
+
+        int end = i;
+        while (end < pattern.length() && pattern.charAt(end) != '{' && pattern.charAt(end) != '*') end++;
+        Node child = insertStatic(node, pattern.substring(i, end));
+        insert(child, pattern, end, target, names, route);
+    }
+
+    /** Adds the literal {@code s} below {@code node}, splitting edges as needed; returns the node it ends at. */
+    private static Node insertStatic(Node node, String s) {
+        while (true) {
+            int slot = node.childIndex(s.charAt(0));
+            if (slot < 0) {
+                Node child = new Node(s);
+                node.addChild(child);
+                return child;
+            }
+            Node child = node.children[slot];
+            int common = commonPrefix(child.prefix, s);
+            if (common < child.prefix.length()) {
+                Node split = new Node(child.prefix.substring(0, common));
+                child.prefix = child.prefix.substring(common);
+                split.addChild(child);
+                node.children[slot] = split;
+                child = split;
+            }
+            if (common == s.length()) {
+                return child;
+            }
+            node = child;
+            s = s.substring(common);
+        }
+    }
+
+    private static void setHandler(Node node, Target target, List<String> names, String route) {
+        if (node.target != null) {
+            throw new IllegalStateException("Route registered twice: " + route);
+        }
+        node.target = target;
+        node.paramNames = names.toArray(new String[0]);
+        node.route = route;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    // ---- lookup ----
+
+    private static Node lookup(Node root, String path, Request capture) {
+        if (root == null) return null;
+        return match(root, path, 0, capture, 0);
+    }
+
+    /** {@code node}'s own prefix is already matched; tries the rest of {@code path} from {@code i}. */
+    private static Node match(Node node, String path, int i, Request capture, int param) {
+        if (i == path.length()) {
+            if (node.target != null) return node;
+            if (node.wildcard != null) {
+                record(capture, param, i, i);
+                return node.wildcard;
+            }
+            return null;
+        }
+
+        int slot = node.childIndex(path.charAt(i));
+        if (slot >= 0) {
+            Node child = node.children[slot];
+            if (path.startsWith(child.prefix, i)) {
+                Node found = match(child, path, i + child.prefix.length(), capture, param);
+                if (found != null) return found;
+            }
+        }
+
+        if (node.param != null) {
+            int end = path.indexOf('/', i);
+            if (end < 0) end = path.length();
+            if (end > i) {
+                Node found = match(node.param, path, end, capture, param + 1);
+                if (found != null) {
+                    record(capture, param, i, end);
+                    return found;
+                }
+            }
+        }
+
+        if (node.wildcard != null) {
+            record(capture, param, i, path.length());
+            return node.wildcard;
+        }
+        return null;
+    }
+
+    private static void record(Request capture, int param, int start, int end) {
+        if (capture != null) {
+            capture.setPathParamBounds(param, start, end);
+        }
+    }
+
+    /** What a route runs: exactly one of the two is set. */
+    private record Target(Handler handler, AsyncHandler asyncHandler) {
+    }
+
+    private static final class Node {
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        String prefix;
+        // Literal children and the first character of each of their prefixes
+        Node[] children = NO_CHILDREN;
+        char[] indices = new char[0];
+
+        Node param;
+        String paramName;
+        Node wildcard;
+
+        Target target;
+        String[] paramNames;
+        String route;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        int childIndex(char c) {
+            char[] idx = indices;
+            for (int i = 0; i < idx.length; i++) {
+                if (idx[i] == c) return i;
+            }
+            return -1;
+        }
+
+        void addChild(Node child) {
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = child.prefix.charAt(0);
+        }
     }
 }
@@ -0,0 +1,26 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * A listening HTTP server. {@link #start()} binds the port and returns;
+ * connections are served on the server's own threads.
+ */
+public interface Server {
+    void start() throws IOException;
+
+    /**
+     * Stops accepting connections and lets the requests in progress finish. Connections waiting
+     * for a further keep-alive request are closed right away, busy ones after their current
+     * response, which goes out with {@code Connection: close}. Whatever is still open after
+     * {@code timeout} is closed. Returns whether every connection finished in time.
+     */
+    boolean shutdown(Duration timeout) throws InterruptedException;
+
+    /** Connections accepted and not yet closed. */
+    int activeConnections();
+
+    /** Counters and latency histograms, see {@link MetricsHandler}. */
+    ServerMetrics metrics();
+}
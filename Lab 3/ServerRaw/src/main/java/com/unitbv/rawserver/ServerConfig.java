@@ -0,0 +1,294 @@
+package com.unitbv.rawserver;
+
+/**
+ * Startup options for the server.
+ * Values are read from command line arguments in the form {@code --key=value},
+ * e.g. {@code --mode=nio --port=8080 --workers=8 --event-loops=2 --reuse-port=true --overload=codel}.
+ */
+public class ServerConfig {
+    /**
+     * BLOCKING: accept loop + fixed worker pool, one pooled thread per connection.
+     * VIRTUAL: accept loop + a new virtual thread per connection (Java 21+).
+     * NIO: selector event loops + worker pool for handlers.
+     */
+    public enum Mode { BLOCKING, VIRTUAL, NIO }
+
+    /**
+     * What the worker pool does under overload.
+     * REJECT: answer 503 once the queue is full.
+     * CODEL: also drop queued work once queueing delay stays above the target.
+     */
+    public enum Overload { REJECT, CODEL }
+
+    private Mode mode = Mode.BLOCKING;
+    private int port = 8080;
+    private int workers = 4;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private boolean reusePort;
+    private int idleTimeoutMs = 15_000;
+    private int headerTimeoutMs = 10_000;
+    private int bodyTimeoutMs = 30_000;
+    private int writeTimeoutMs = 30_000;
+    private int handlerTimeoutMs = 30_000;
+    private boolean compression = true;
+    private int compressMinBytes = Compression.DEFAULT_MIN_BYTES;
+    private long compressCacheBytes = Compression.DEFAULT_CACHE_BYTES;
+    private long responseCacheBytes = ResponseCache.DEFAULT_MAX_BYTES;
+    private int maxRequestsPerConnection = 1000;
+    private long maxBodyBytes = RequestParser.DEFAULT_MAX_BODY_BYTES;
+    private long bodySpillBytes = RequestParser.DEFAULT_SPILL_BYTES;
+    private String staticDir;
+    private String studentsFile;
+    private String accessLog;
+    private int drainTimeoutMs = 10_000;
+    private String adminToken;
+    private int webSocketMaxMessageBytes = 1024 * 1024;
+    private int webSocketPingIntervalMs = 30_000;
+    private boolean http2 = true;
+    private int http2MaxStreams = 100;
+    private int queueSize = 256;
+    private Overload overload = Overload.REJECT;
+    private int codelTargetMs = 5;
+    private int codelIntervalMs = 100;
+
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "mode" -> config.mode = Mode.valueOf(value.toUpperCase());
+                case "port" -> config.port = Integer.parseInt(value);
+                case "workers" -> config.workers = Integer.parseInt(value);
+                case "event-loops" -> config.eventLoops = Integer.parseInt(value);
+                case "reuse-port" -> config.reusePort = Boolean.parseBoolean(value);
+                case "idle-timeout-ms" -> config.idleTimeoutMs = Integer.parseInt(value);
+                case "header-timeout-ms" -> config.headerTimeoutMs = Integer.parseInt(value);
+                case "body-timeout-ms" -> config.bodyTimeoutMs = Integer.parseInt(value);
+                case "write-timeout-ms" -> config.writeTimeoutMs = Integer.parseInt(value);
+                case "handler-timeout-ms" -> config.handlerTimeoutMs = Integer.parseInt(value);
+                case "compression" -> config.compression = Boolean.parseBoolean(value);
+                case "compress-min-bytes" -> config.compressMinBytes = Integer.parseInt(value);
+                case "compress-cache-bytes" -> config.compressCacheBytes = Long.parseLong(value);
+                case "response-cache-bytes" -> config.responseCacheBytes = Long.parseLong(value);
+                case "max-requests" -> config.maxRequestsPerConnection = Integer.parseInt(value);
+                case "max-body-bytes" -> config.maxBodyBytes = Long.parseLong(value);
+                case "body-spill-bytes" -> config.bodySpillBytes = Long.parseLong(value);
+                case "static-dir" -> config.staticDir = value;
+                case "students-file" -> config.studentsFile = value;
+                case "access-log" -> config.accessLog = value;
+                case "drain-timeout-ms" -> config.drainTimeoutMs = Integer.parseInt(value);
+                case "admin-token" -> config.adminToken = value;
+                case "ws-max-message-bytes" -> config.webSocketMaxMessageBytes = Integer.parseInt(value);
+                case "ws-ping-interval-ms" -> config.webSocketPingIntervalMs = Integer.parseInt(value);
+                case "http2" -> config.http2 = Boolean.parseBoolean(value);
+                case "http2-max-streams" -> config.http2MaxStreams = Integer.parseInt(value);
+                case "queue-size" -> config.queueSize = Integer.parseInt(value);
+                case "overload" -> config.overload = Overload.valueOf(value.toUpperCase());
+                case "codel-target-ms" -> config.codelTargetMs = Integer.parseInt(value);
+                case "codel-interval-ms" -> config.codelIntervalMs = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + key);
+            }
+        }
+        return config;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * NIO only: give every event loop its own listening socket bound with {@code SO_REUSEPORT},
+     * so the kernel spreads new connections over the loops instead of one loop accepting all.
+     */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /** How long a keep-alive connection may sit between requests before it is closed. */
+    public int getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    /**
+     * Time from the first byte of a request to the end of its head. A deadline for the whole
+     * head, not per read, so a client trickling bytes cannot keep the connection forever.
+     */
+    public int getHeaderTimeoutMs() {
+        return headerTimeoutMs;
+    }
+
+    /** Time from the end of the head to the end of the body. */
+    public int getBodyTimeoutMs() {
+        return bodyTimeoutMs;
+    }
+
+    /** How long a response may wait for the client to read before the connection is dropped. */
+    public int getWriteTimeoutMs() {
+        return writeTimeoutMs;
+    }
+
+    /** How long an {@link AsyncHandler} may take before the server answers 504 in its place. */
+    public int getHandlerTimeoutMs() {
+        return handlerTimeoutMs;
+    }
+
+    /** Whether responses are gzip/deflate compressed for clients that accept it. */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /** Bodies shorter than this are sent as they are. */
+    public int getCompressMinBytes() {
+        return compressMinBytes;
+    }
+
+    /** Memory for compressed static files kept between requests. */
+    public long getCompressCacheBytes() {
+        return compressCacheBytes;
+    }
+
+    /** Memory for cached GET responses of the routes that opt in; 0 turns the cache off. */
+    public long getResponseCacheBytes() {
+        return responseCacheBytes;
+    }
+
+    /** Requests served on one connection before the server answers with {@code Connection: close}. */
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    /** Largest request body accepted; longer ones are refused with 413. */
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /** Request bodies longer than this are received into a temporary file instead of the heap. */
+    public long getBodySpillBytes() {
+        return bodySpillBytes;
+    }
+
+    /** Directory served under {@code /static}, or null when static files are off. */
+    public String getStaticDir() {
+        return staticDir;
+    }
+
+    /** Student file listed under {@code /students}, or null when the route is off. */
+    public String getStudentsFile() {
+        return studentsFile;
+    }
+
+    /** File requests are logged to, or null when access logging is off. */
+    public String getAccessLog() {
+        return accessLog;
+    }
+
+    /** How long shutdown waits for requests in progress before closing their connections. */
+    public int getDrainTimeoutMs() {
+        return drainTimeoutMs;
+    }
+
+    /**
+     * Bearer token for the {@code /admin} routes, e.g. {@code POST /admin/shutdown}; null leaves
+     * them off.
+     */
+    public String getAdminToken() {
+        return adminToken;
+    }
+
+    /** Largest WebSocket message accepted, fragments included; longer ones close the connection with 1009. */
+    public int getWebSocketMaxMessageBytes() {
+        return webSocketMaxMessageBytes;
+    }
+
+    /**
+     * How often WebSocket clients are pinged. One that has sent nothing, not even a pong, by
+     * the next ping is dropped.
+     */
+    public int getWebSocketPingIntervalMs() {
+        return webSocketPingIntervalMs;
+    }
+
+    /**
+     * NIO only: whether clients may speak cleartext HTTP/2, by prior knowledge or with
+     * {@code Upgrade: h2c}. The blocking modes answer every request as HTTP/1.1.
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /** Streams one HTTP/2 client may have open at a time; more are refused with {@code REFUSED_STREAM}. */
+    public int getHttp2MaxStreams() {
+        return http2MaxStreams;
+    }
+
+    /** Work that may wait for a worker; beyond that it is refused with 503. Ignored in virtual mode. */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public Overload getOverload() {
+        return overload;
+    }
+
+    /** Acceptable queueing delay for {@link Overload#CODEL}. */
+    public int getCodelTargetMs() {
+        return codelTargetMs;
+    }
+
+    /** Window over which {@link Overload#CODEL} looks for a standing queue. */
+    public int getCodelIntervalMs() {
+        return codelIntervalMs;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerConfig{" +
+                "mode=" + mode +
+                ", port=" + port +
+                ", workers=" + workers +
+                ", eventLoops=" + eventLoops +
+                ", reusePort=" + reusePort +
+                ", idleTimeoutMs=" + idleTimeoutMs +
+                ", headerTimeoutMs=" + headerTimeoutMs +
+                ", bodyTimeoutMs=" + bodyTimeoutMs +
+                ", writeTimeoutMs=" + writeTimeoutMs +
+                ", handlerTimeoutMs=" + handlerTimeoutMs +
+                ", compression=" + compression +
+                ", compressMinBytes=" + compressMinBytes +
+                ", compressCacheBytes=" + compressCacheBytes +
+                ", responseCacheBytes=" + responseCacheBytes +
+                ", maxRequestsPerConnection=" + maxRequestsPerConnection +
+                ", maxBodyBytes=" + maxBodyBytes +
+                ", bodySpillBytes=" + bodySpillBytes +
+                ", staticDir='" + staticDir + '\'' +
+                ", studentsFile='" + studentsFile + '\'' +
+                ", accessLog='" + accessLog + '\'' +
+                ", drainTimeoutMs=" + drainTimeoutMs +
+                ", adminToken=" + (adminToken == null ? "null" : "'***'") +
+                ", webSocketMaxMessageBytes=" + webSocketMaxMessageBytes +
+                ", webSocketPingIntervalMs=" + webSocketPingIntervalMs +
+                ", http2=" + http2 +
+                ", http2MaxStreams=" + http2MaxStreams +
+                ", queueSize=" + queueSize +
+                ", overload=" + overload +
+                ", codelTargetMs=" + codelTargetMs +
+                ", codelIntervalMs=" + codelIntervalMs +
+                '}';
+    }
+}
@@ -0,0 +1,108 @@
+package com.unitbv.rawserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one server, fed by its connection code.
+ * <p>
+ * Request latency runs from the end of parsing to the last response byte handed to the socket
+ * layer and is kept per route and status; handler time (until the handler's stage completes)
+ * per route; parse time is the CPU time spent in {@link RequestParser} for one request, not
+ * the time its bytes took to arrive. After the first request of a route/status pair,
+ * recording allocates nothing and takes no lock.
+ */
+public final class ServerMetrics {
+    static final String UNMATCHED = "(unmatched)";
+
+    private static final int MAX_STATUS = 600;
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final Histogram parseTime = new Histogram();
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    void received(long bytes) {
+        if (bytes > 0) bytesReceived.add(bytes);
+    }
+
+    void sent(long bytes) {
+        if (bytes > 0) bytesSent.add(bytes);
+    }
+
+    void parsed(long nanos) {
+        parseTime.record(nanos);
+    }
+
+    /** The handler for {@code request} finished after {@code nanos}. */
+    void handled(Request request, long nanos) {
+        route(request).handlerTime.record(nanos);
+    }
+
+    /** The response to {@code request}, with {@code status}, is out {@code nanos} after the request was parsed. */
+    void responded(Request request, int status, long nanos) {
+        route(request).latency(status).record(nanos);
+    }
+
+    long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    Histogram parseTime() {
+        return parseTime;
+    }
+
+    Map<String, RouteMetrics> routes() {
+        return routes;
+    }
+
+    /** Latency of all responses, merged over routes and statuses. */
+    Histogram totalLatency() {
+        Histogram total = new Histogram();
+        for (RouteMetrics route : routes.values()) {
+            for (int status = 0; status < MAX_STATUS; status++) {
+                Histogram h = route.byStatus.get(status);
+                if (h != null) total.add(h);
+            }
+        }
+        return total;
+    }
+
+    private RouteMetrics route(Request request) {
+        String name = request == null || request.getRoute() == null ? UNMATCHED : request.getRoute();
+        RouteMetrics route = routes.get(name);
+        return route != null ? route : routes.computeIfAbsent(name, n -> new RouteMetrics());
+    }
+
+    /** Histograms of one route. */
+    static final class RouteMetrics {
+        final Histogram handlerTime = new Histogram();
+        // indexed by status code, created on first use
+        final AtomicReferenceArray<Histogram> byStatus = new AtomicReferenceArray<>(MAX_STATUS);
+
+        Histogram latency(int status) {
+            int i = status >= 0 && status < MAX_STATUS ? status : 0;
+            Histogram h = byStatus.get(i);
+            if (h == null) {
+                byStatus.compareAndSet(i, null, new Histogram());
+                h = byStatus.get(i);
+            }
+            return h;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves files below a directory, e.g. {@code GET /static/css/site.css} -> {@code <root>/css/site.css}.
+ * <p>
+ * Bodies are {@link FileRegion}s, so file content goes from the page cache to the socket
+ * without being read into the heap. Supports single {@code Range} requests,
+ * {@code Last-Modified}/{@code If-Modified-Since} and picks the MIME type from the extension.
+ */
+public class StaticFileHandler implements Handler {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private static final Map<String, String> MIME_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("mjs", "text/javascript; charset=utf-8"),
+            Map.entry("json", "application/json"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("csv", "text/csv; charset=utf-8"),
+            Map.entry("md", "text/markdown; charset=utf-8"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("gz", "application/gzip"),
+            Map.entry("tar", "application/x-tar"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("mp3", "audio/mpeg"));
+
+    private final String prefix;
+    private final Path root;
+
+    /**
+     * @param prefix URL prefix the directory is mounted at, e.g. {@code /static}
+     * @param root   directory to serve
+     */
+    public StaticFileHandler(String prefix, Path root) {
+        this.prefix = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /** Registers GET and HEAD for everything below {@code prefix}. */
+    public static void mount(Router router, String prefix, Path root) {
+        StaticFileHandler handler = new StaticFileHandler(prefix, root);
+        String pattern = handler.prefix + "/{*path}";
+        router.get(pattern, handler);
+        router.head(pattern, handler);
+    }
+
+    @Override
+    public Response handle(Request request) {
+        Path file = resolve(request);
+        if (file == null) {
+            return new Response(404, "text/plain", "Not Found");
+        }
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isDirectory()) {
+                file = file.resolve("index.html");
+                attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            }
+        } catch (IOException e) {
+            return new Response(404, "text/plain", "Not Found");
+        }
+        if (!attrs.isRegularFile()) {
+            return new Response(404, "text/plain", "Not Found");
+        }
+
+        long size = attrs.size();
+        // HTTP dates have second precision; compare at that precision too
+        long modified = attrs.lastModifiedTime().toInstant().getEpochSecond();
+        String lastModified = HTTP_DATE.format(Instant.ofEpochSecond(modified));
+
+        Long since = parseDate(request.getHeader("If-Modified-Since"));
+        if (since != null && modified <= since) {
+            return new Response(304, null, (String) null).addHeader("Last-Modified", lastModified);
+        }
+
+        String contentType = contentType(file);
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(lastModified))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                return new Response(416, "text/plain", "Range Not Satisfiable")
+                        .addHeader("Content-Range", "bytes */" + size);
+            }
+            if (bounds.length == 2) {
+                long start = bounds[0];
+                long end = bounds[1];
+                return new Response(206, contentType, new FileRegion(file, start, end - start + 1))
+                        .addHeader("Content-Range", "bytes " + start + "-" + end + "/" + size)
+                        .addHeader("Accept-Ranges", "bytes")
+                        .addHeader("Last-Modified", lastModified);
+            }
+        }
+
+        return new Response(200, contentType, new FileRegion(file, 0, size))
+                .addHeader("Accept-Ranges", "bytes")
+                .addHeader("Last-Modified", lastModified);
+    }
+
+    /** Maps the request path to a file inside {@code root}; null if it would escape it. */
+    private Path resolve(Request request) {
+        String relative = request.getPathParam("path");
+        if (relative == null) {
+            String uri = request.getUri();
+            if (!uri.startsWith(prefix)) return null;
+            relative = uri.substring(prefix.length());
+        }
+        while (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        try {
+            Path file = root.resolve(relative).normalize();
+            return file.startsWith(root) ? file : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a single {@code bytes=} range. Returns {start, end} (inclusive), an empty array
+     * when the header should be ignored (multiple ranges, other units, malformed), or null
+     * when the range cannot be satisfied.
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (start >= size) return null;
+                end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+                if (end < start) return new long[0];
+                end = Math.min(end, size - 1);
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static Long parseDate(String value) {
+        if (value == null) return null;
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return "application/octet-stream";
+        return MIME_TYPES.getOrDefault(name.substring(dot + 1).toLowerCase(Locale.ROOT), "application/octet-stream");
+    }
+}
@@ -0,0 +1,106 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@code GET /students/count}: counts the non-blank lines of the student file.
+ * <p>
+ * The file is read with an {@link AsynchronousFileChannel}, one chunk per callback, so no
+ * server thread waits for the disk while the count runs. Cancelling the returned future (the
+ * server does on timeout or disconnect) stops the reads after the current chunk.
+ */
+public class StudentCountHandler implements AsyncHandler {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Path file;
+
+    public StudentCountHandler(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public CompletionStage<Response> handle(Request request) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            result.complete(count(0));
+            return result;
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        new Counter(channel, result).readFrom(0);
+        return result;
+    }
+
+    private static Response count(long students) {
+        return new Response(200, "text/plain", Long.toString(students));
+    }
+
+    /** Reads chunk after chunk, each read started from the callback of the previous one. */
+    private static final class Counter implements CompletionHandler<Integer, Long> {
+        private final AsynchronousFileChannel channel;
+        private final CompletableFuture<Response> result;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        private long students;
+        private boolean lineHasText;
+
+        Counter(AsynchronousFileChannel channel, CompletableFuture<Response> result) {
+            this.channel = channel;
+            this.result = result;
+        }
+
+        void readFrom(long position) {
+            buffer.clear();
+            channel.read(buffer, position, position, this);
+        }
+
+        @Override
+        public void completed(Integer n, Long position) {
+            if (result.isDone()) { // cancelled
+                close();
+                return;
+            }
+            if (n < 0) {
+                if (lineHasText) students++;
+                close();
+                result.complete(count(students));
+                return;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < n; i++) {
+                byte b = bytes[i];
+                if (b == '\n') {
+                    if (lineHasText) students++;
+                    lineHasText = false;
+                } else if (b != ' ' && b != '\t' && b != '\r') {
+                    lineHasText = true;
+                }
+            }
+            readFrom(position + n);
+        }
+
+        @Override
+        public void failed(Throwable e, Long position) {
+            close();
+            result.completeExceptionally(e);
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
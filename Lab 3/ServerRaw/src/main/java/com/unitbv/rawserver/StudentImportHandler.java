@@ -0,0 +1,138 @@
+package com.unitbv.rawserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@code POST /students/import}: appends students to the student file, one per body line as
+ * {@code First Last} (or already as {@code First;Last}); blank lines are skipped.
+ * <p>
+ * Meant for bulk uploads of any size: the body is read as a stream (from the temporary file
+ * the server spilled it to), converted into a temporary file next to the student file, and
+ * only appended once every line is valid, so a bad line leaves the file untouched. Memory use
+ * does not depend on the upload.
+ */
+public class StudentImportHandler implements Handler {
+    private static final int MAX_LINE = 1024;
+
+    private final Path file;
+    private final Runnable afterImport;
+    private final Object appendLock = new Object();
+
+    /** @param afterImport runs after students were added, e.g. to drop cached listings */
+    public StudentImportHandler(Path file, Runnable afterImport) {
+        this.file = file.toAbsolutePath();
+        this.afterImport = afterImport;
+    }
+
+    @Override
+    public Response handle(Request request) {
+        if (request.getContentLength() == 0) {
+            return new Response(400, "text/plain", "ERROR: request body is empty\n");
+        }
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(file.getParent(), "students-import-", ".tmp");
+            long added;
+            try (Reader in = new BufferedReader(new InputStreamReader(request.getBodyStream(), StandardCharsets.UTF_8));
+                 Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                added = convert(in, out);
+            } catch (IllegalArgumentException e) {
+                return new Response(400, "text/plain", "ERROR: " + e.getMessage() + "\n");
+            }
+            if (added == 0) {
+                return new Response(400, "text/plain", "ERROR: no students in request body\n");
+            }
+            synchronized (appendLock) {
+                try (FileChannel src = FileChannel.open(tmp);
+                     FileChannel dst = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                             StandardOpenOption.WRITE)) {
+                    endLine(dst);
+                    dst.position(dst.size());
+                    long position = 0;
+                    long size = src.size();
+                    while (position < size) {
+                        position += src.transferTo(position, size - position, dst);
+                    }
+                }
+            }
+            afterImport.run();
+            return new Response(200, "text/plain", "ADDED " + added + "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /** Adds a newline if the file does not end with one, so the first imported line stays separate. */
+    private static void endLine(FileChannel dst) throws IOException {
+        long size = dst.size();
+        if (size == 0) return;
+        ByteBuffer last = ByteBuffer.allocate(1);
+        dst.read(last, size - 1);
+        if (last.get(0) != '\n') {
+            dst.write(ByteBuffer.wrap(new byte[]{'\n'}), size);
+        }
+    }
+
+    /** Writes one {@code First;Last} line per student; returns how many. */
+    private static long convert(Reader in, Writer out) throws IOException {
+        StringBuilder line = new StringBuilder();
+        long added = 0;
+        long lineNo = 1;
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                added += convertLine(line, lineNo++, out);
+                line.setLength(0);
+            } else if (line.length() == MAX_LINE) {
+                throw new IllegalArgumentException("line " + lineNo + " is longer than " + MAX_LINE + " characters");
+            } else {
+                line.append((char) c);
+            }
+        }
+        return added + convertLine(line, lineNo, out);
+    }
+
+    private static int convertLine(StringBuilder line, long lineNo, Writer out) throws IOException {
+        String trimmed = line.toString().trim();
+        if (trimmed.isEmpty()) {
+            return 0;
+        }
+        String first;
+        String last;
+        int sep = trimmed.indexOf(';');
+        if (sep >= 0) {
+            first = trimmed.substring(0, sep).trim();
+            last = trimmed.substring(sep + 1).trim();
+        } else {
+            String[] parts = trimmed.split("\\s+", 2);
+            first = parts[0];
+            last = parts.length > 1 ? parts[1] : "";
+        }
+        if (first.isEmpty() || last.indexOf(';') >= 0) {
+            throw new IllegalArgumentException("line " + lineNo + " is not \"First Last\"");
+        }
+        out.write(first);
+        out.write(';');
+        out.write(last);
+        out.write('\n');
+        return 1;
+    }
+}
@@ -0,0 +1,55 @@
+package com.unitbv.rawserver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * {@code GET /students}: lists a student file ({@code First;Last} per line, as the
+ * student-manager server stores it) as {@code <index>: First Last}.
+ * <p>
+ * The file is read line by line while the response is streamed, so memory use does not grow
+ * with the file and the first students reach the client before the last ones are read.
+ */
+public class StudentListHandler implements Handler {
+    private final Path file;
+
+    public StudentListHandler(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public Response handle(Request request) {
+        if (!Files.isRegularFile(file)) {
+            return new Response(404, "text/plain", "No student file");
+        }
+        return new Response(200, "text/plain; charset=utf-8", out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("# Students\n");
+            writer.flush();
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                int index = 0;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    int sep = line.indexOf(';');
+                    String first = sep < 0 ? line.trim() : line.substring(0, sep).trim();
+                    String last = sep < 0 ? "" : line.substring(sep + 1).trim();
+                    writer.write(index++ + ": " + first + " " + last + "\n");
+                }
+                if (index == 0) {
+                    writer.write("(empty)\n");
+                }
+            } catch (NoSuchFileException e) {
+                writer.write("(empty)\n");
+            }
+            writer.flush();
+        });
+    }
+}
@@ -0,0 +1,129 @@
+package com.unitbv.rawserver;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timer wheel (Varghese and Lauck) for connection timeouts.
+ * <p>
+ * Time is cut into ticks of {@code tickMs}; a timeout lands in slot {@code deadlineTick % slots},
+ * and slots are doubly linked lists, so scheduling, re-arming and cancelling are O(1) whatever
+ * the number of pending timeouts. {@link #advance(long)} visits only the slots whose tick has
+ * passed; entries due in a later round of the wheel are skipped over. Timeouts are reusable
+ * nodes: a connection keeps one and re-arms it for every phase, so steady-state use does not
+ * allocate. Deadlines are rounded up to the next tick.
+ * <p>
+ * Not thread-safe: a wheel belongs to one thread, or callers must share a lock.
+ */
+final class TimerWheel {
+    private final long tickMs;
+    private final Timeout[] slots;
+    private final int mask;
+    private final ArrayList<Timeout> firing = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMs resolution of the wheel
+     * @param slots  number of slots, rounded up to a power of two
+     * @param now    current time in milliseconds
+     */
+    TimerWheel(long tickMs, int slots, long now) {
+        int n = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.tickMs = tickMs;
+        this.slots = new Timeout[n];
+        this.mask = n - 1;
+        this.currentTick = now / tickMs;
+    }
+
+    long tickMs() {
+        return tickMs;
+    }
+
+    /** Pending timeouts. */
+    int size() {
+        return size;
+    }
+
+    /** Arms {@code timeout} to fire {@code delayMs} after {@code now}, replacing an earlier deadline. */
+    void schedule(Timeout timeout, long delayMs, long now) {
+        cancel(timeout);
+        long deadline = Math.max((now + delayMs + tickMs - 1) / tickMs, currentTick + 1);
+        int slot = (int) (deadline & mask);
+        timeout.deadlineTick = deadline;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].prev = timeout;
+        }
+        slots[slot] = timeout;
+        size++;
+    }
+
+    void cancel(Timeout timeout) {
+        timeout.due = false; // also stops it if it expired in the tick being run
+        if (timeout.slot < 0) return;
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        size--;
+    }
+
+    /** Runs every timeout whose deadline is at or before {@code now}. */
+    void advance(long now) {
+        long target = now / tickMs;
+        if (target - currentTick > slots.length) {
+            // after a long pause one round of the wheel visits every slot
+            currentTick = target - slots.length;
+        }
+        while (currentTick < target) {
+            currentTick++;
+            Timeout t = slots[(int) (currentTick & mask)];
+            while (t != null) {
+                if (t.deadlineTick <= currentTick) {
+                    firing.add(t);
+                }
+                t = t.next;
+            }
+            // tasks may re-arm or cancel other timeouts, so unlink everything before running any
+            for (Timeout expired : firing) {
+                cancel(expired);
+                expired.due = true;
+            }
+            for (Timeout expired : firing) {
+                if (expired.due) { // not cancelled or re-armed by an earlier task
+                    expired.due = false;
+                    expired.task.run();
+                }
+            }
+            firing.clear();
+        }
+    }
+
+    /** A reusable timer entry; the task runs on the thread that calls {@link #advance(long)}. */
+    static final class Timeout {
+        private final Runnable task;
+        private long deadlineTick;
+        private int slot = -1;
+        // Expired in the tick being run and not yet fired
+        private boolean due;
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+}
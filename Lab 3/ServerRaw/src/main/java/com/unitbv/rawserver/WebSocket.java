@@ -0,0 +1,36 @@
+package com.unitbv.rawserver;
+
+/**
+ * One open WebSocket connection, as handed to a {@link WebSocketHandler}.
+ * <p>
+ * Sending never waits for the client in NIO mode: the frame is queued on the connection's
+ * event loop. In the blocking modes it is written on the calling thread. Messages sent once
+ * the connection is closing are dropped.
+ */
+public interface WebSocket {
+    int NORMAL_CLOSURE = 1000;
+    int GOING_AWAY = 1001;
+    int PROTOCOL_ERROR = 1002;
+    int UNSUPPORTED_DATA = 1003;
+    /** Reported to {@link WebSocketHandler#onClose} when the close frame carried no code. */
+    int NO_STATUS = 1005;
+    /** Reported to {@link WebSocketHandler#onClose} when the connection ended without a close frame. */
+    int ABNORMAL_CLOSURE = 1006;
+    int INVALID_PAYLOAD = 1007;
+    int POLICY_VIOLATION = 1008;
+    int MESSAGE_TOO_BIG = 1009;
+    int INTERNAL_ERROR = 1011;
+
+    void send(String text);
+
+    void send(byte[] data);
+
+    /** Starts the closing handshake; the connection ends once the client answers it. */
+    void close(int code, String reason);
+
+    /** Whether messages can still be sent. */
+    boolean isOpen();
+
+    /** The upgrade request, e.g. for its path parameters or query. */
+    Request getRequest();
+}
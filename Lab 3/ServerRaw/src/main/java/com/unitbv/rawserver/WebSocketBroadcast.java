@@ -0,0 +1,82 @@
+package com.unitbv.rawserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A set of WebSocket connections that receive the same messages, e.g. every dashboard
+ * watching {@code /ws/status}.
+ * <p>
+ * {@link #broadcast} encodes the frame once, into a read-only direct buffer, and every
+ * subscriber writes its own view of it, so sending to N clients costs N queue entries rather
+ * than N encodings and copies. In NIO mode subscribers are grouped by event loop and each loop
+ * gets one task for all of its connections; the caller never waits for a client. In the
+ * blocking modes the frame is written to one client after the other on the calling thread,
+ * and a client that stops reading holds it up until the write timeout drops that client.
+ * <p>
+ * Connections leave the set by themselves when they close.
+ */
+public final class WebSocketBroadcast {
+    // Key for connections whose writes need no particular thread
+    private static final Executor DIRECT = Runnable::run;
+
+    private final Map<Executor, Set<WebSocketSession>> groups = new ConcurrentHashMap<>();
+
+    public void subscribe(WebSocket socket) {
+        WebSocketSession session = (WebSocketSession) socket;
+        groups.computeIfAbsent(group(session), loop -> ConcurrentHashMap.newKeySet()).add(session);
+        session.subscribed(this);
+    }
+
+    public void unsubscribe(WebSocket socket) {
+        WebSocketSession session = (WebSocketSession) socket;
+        Set<WebSocketSession> members = groups.get(group(session));
+        if (members != null) {
+            members.remove(session);
+        }
+        session.unsubscribed(this);
+    }
+
+    /** Subscribed connections. */
+    public int size() {
+        int size = 0;
+        for (Set<WebSocketSession> members : groups.values()) {
+            size += members.size();
+        }
+        return size;
+    }
+
+    public void broadcast(String text) {
+        broadcast(WebSocketFrames.TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void broadcast(byte[] data) {
+        broadcast(WebSocketFrames.BINARY, data);
+    }
+
+    private void broadcast(int opcode, byte[] payload) {
+        ByteBuffer frame = null;
+        for (Map.Entry<Executor, Set<WebSocketSession>> group : groups.entrySet()) {
+            Set<WebSocketSession> members = group.getValue();
+            if (members.isEmpty()) continue;
+            if (frame == null) {
+                frame = WebSocketFrames.shared(opcode, payload);
+            }
+            ByteBuffer shared = frame;
+            group.getKey().execute(() -> {
+                for (WebSocketSession member : members) {
+                    member.writeShared(shared);
+                }
+            });
+        }
+    }
+
+    private static Executor group(WebSocketSession session) {
+        Executor loop = session.loop();
+        return loop == null ? DIRECT : loop;
+    }
+}
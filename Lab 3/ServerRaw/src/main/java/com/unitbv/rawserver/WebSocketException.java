@@ -0,0 +1,20 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+
+/**
+ * A WebSocket frame or message that breaks the protocol or a limit.
+ * {@link #getCloseCode()} is the code the server closes the connection with.
+ */
+public class WebSocketException extends IOException {
+    private final int closeCode;
+
+    public WebSocketException(int closeCode, String message) {
+        super(message);
+        this.closeCode = closeCode;
+    }
+
+    public int getCloseCode() {
+        return closeCode;
+    }
+}
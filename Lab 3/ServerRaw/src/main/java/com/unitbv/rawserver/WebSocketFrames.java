@@ -0,0 +1,94 @@
+package com.unitbv.rawserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * RFC 6455 framing on the server side: opcodes, encoding of the (unmasked) frames the server
+ * sends, and the handshake's accept key. Incoming frames are read by {@link WebSocketParser}.
+ */
+final class WebSocketFrames {
+    static final int CONTINUATION = 0x0;
+    static final int TEXT = 0x1;
+    static final int BINARY = 0x2;
+    static final int CLOSE = 0x8;
+    static final int PING = 0x9;
+    static final int PONG = 0xA;
+
+    /** Largest payload of a control frame. */
+    static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    private static final ByteBuffer PING_FRAME = shared(PING, NO_PAYLOAD);
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private WebSocketFrames() {}
+
+    /** A single unfragmented frame, ready to be written. */
+    static ByteBuffer encode(int opcode, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(headerLength(payload.length) + payload.length);
+        return put(frame, opcode, payload).flip();
+    }
+
+    /**
+     * Like {@link #encode}, but in a read-only direct buffer meant to be sent to many
+     * connections: each writes a {@code duplicate()}, and the socket reads it without the
+     * copy the JDK makes for heap buffers. Read-only buffers never go back to a {@link BufferPool}.
+     */
+    static ByteBuffer shared(int opcode, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(headerLength(payload.length) + payload.length);
+        return put(frame, opcode, payload).flip().asReadOnlyBuffer();
+    }
+
+    /** An empty ping. */
+    static ByteBuffer ping() {
+        return PING_FRAME.duplicate();
+    }
+
+    /** Payload of a close frame: the code, then the reason in UTF-8, cut to fit a control frame. */
+    static byte[] closePayload(int code, String reason) {
+        byte[] text = reason == null ? NO_PAYLOAD : reason.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, MAX_CONTROL_PAYLOAD - 2);
+        byte[] payload = new byte[2 + length];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, length);
+        return payload;
+    }
+
+    /** Whether a peer may send {@code code} in a close frame (1005, 1006 and 1015 are only reported locally). */
+    static boolean isValidCloseCode(int code) {
+        return code >= 1000 && code <= 1003 || code >= 1007 && code <= 1014 || code >= 3000 && code <= 4999;
+    }
+
+    /** {@code Sec-WebSocket-Accept} for the client's {@code Sec-WebSocket-Key}. */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static int headerLength(int payloadLength) {
+        return payloadLength <= 125 ? 2 : payloadLength <= 0xFFFF ? 4 : 10;
+    }
+
+    private static ByteBuffer put(ByteBuffer frame, int opcode, byte[] payload) {
+        frame.put((byte) (0x80 | opcode)); // FIN, no extensions
+        int length = payload.length;
+        if (length <= 125) {
+            frame.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) 126).putShort((short) length);
+        } else {
+            frame.put((byte) 127).putLong(length);
+        }
+        return frame.put(payload);
+    }
+}
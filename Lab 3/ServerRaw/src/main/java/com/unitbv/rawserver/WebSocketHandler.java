@@ -0,0 +1,23 @@
+package com.unitbv.rawserver;
+
+/**
+ * Callbacks of a WebSocket route, see {@link Router#websocket(String, WebSocketHandler)}.
+ * <p>
+ * The callbacks of one connection run one at a time and in order: on a worker in NIO mode,
+ * on the connection's own thread in the blocking modes. An exception thrown by a callback
+ * closes the connection with {@link WebSocket#INTERNAL_ERROR}.
+ */
+public interface WebSocketHandler {
+    default void onOpen(WebSocket socket) {
+    }
+
+    default void onText(WebSocket socket, String text) {
+    }
+
+    default void onBinary(WebSocket socket, byte[] data) {
+    }
+
+    /** Called once, after the closing handshake or when the connection is lost. */
+    default void onClose(WebSocket socket, int code, String reason) {
+    }
+}
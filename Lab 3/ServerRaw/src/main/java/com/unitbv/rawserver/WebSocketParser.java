@@ -0,0 +1,129 @@
+package com.unitbv.rawserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental parser for the frames a client sends. Feed it whatever arrived with
+ * {@link #parse}; every complete frame is passed on unmasked, and a partial one is kept until
+ * the rest comes in. Only the header is buffered byte by byte; the payload is copied into its
+ * array in as few steps as the input allows.
+ * <p>
+ * Checks what does not need message context: client frames must be masked, no extension
+ * bits (none is negotiated), known opcodes, control frames short and unfragmented, and no
+ * frame longer than the message limit. Fragment order is checked by {@link WebSocketSession}.
+ */
+final class WebSocketParser {
+    /** Receives each complete frame. */
+    interface Frames {
+        void frame(boolean fin, int opcode, byte[] payload) throws WebSocketException;
+    }
+
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    private static final int MAX_HEADER = 14;
+
+    private final long maxPayload;
+    private final byte[] header = new byte[MAX_HEADER];
+    private int headerLength;
+    // Payload of the frame being read, null while its header is incomplete
+    private byte[] payload;
+    private int payloadRead;
+
+    WebSocketParser(long maxPayload) {
+        this.maxPayload = maxPayload;
+    }
+
+    /** Consumes all of {@code data}, passing each complete frame to {@code frames}. */
+    void parse(ByteBuffer data, Frames frames) throws WebSocketException {
+        while (data.hasRemaining()) {
+            if (payload == null) {
+                header[headerLength++] = data.get();
+                if (headerLength == 2) {
+                    checkStart();
+                }
+                if (headerLength < 2 || headerLength < headerSize()) {
+                    continue;
+                }
+                payload = allocatePayload();
+                payloadRead = 0;
+            } else {
+                int n = Math.min(data.remaining(), payload.length - payloadRead);
+                data.get(payload, payloadRead, n);
+                payloadRead += n;
+            }
+            if (payloadRead == payload.length) {
+                byte[] complete = payload;
+                unmask(complete);
+                boolean fin = (header[0] & 0x80) != 0;
+                int opcode = header[0] & 0x0F;
+                payload = null;
+                headerLength = 0;
+                frames.frame(fin, opcode, complete);
+            }
+        }
+    }
+
+    private void checkStart() throws WebSocketException {
+        int b0 = header[0] & 0xFF;
+        int b1 = header[1] & 0xFF;
+        if ((b0 & 0x70) != 0) {
+            throw new WebSocketException(WebSocket.PROTOCOL_ERROR, "Reserved bits set");
+        }
+        if ((b1 & 0x80) == 0) {
+            throw new WebSocketException(WebSocket.PROTOCOL_ERROR, "Client frame not masked");
+        }
+        int opcode = b0 & 0x0F;
+        switch (opcode) {
+            case WebSocketFrames.CONTINUATION, WebSocketFrames.TEXT, WebSocketFrames.BINARY -> {
+            }
+            case WebSocketFrames.CLOSE, WebSocketFrames.PING, WebSocketFrames.PONG -> {
+                if ((b0 & 0x80) == 0 || (b1 & 0x7F) > WebSocketFrames.MAX_CONTROL_PAYLOAD) {
+                    throw new WebSocketException(WebSocket.PROTOCOL_ERROR, "Fragmented or oversized control frame");
+                }
+            }
+            default -> throw new WebSocketException(WebSocket.PROTOCOL_ERROR, "Unknown opcode " + opcode);
+        }
+    }
+
+    /** Header bytes of the current frame: 2, the extended length and the 4-byte mask. */
+    private int headerSize() {
+        int length = header[1] & 0x7F;
+        return 2 + (length == 126 ? 2 : length == 127 ? 8 : 0) + 4;
+    }
+
+    private byte[] allocatePayload() throws WebSocketException {
+        int length7 = header[1] & 0x7F;
+        long length;
+        if (length7 == 126) {
+            length = (header[2] & 0xFFL) << 8 | header[3] & 0xFFL;
+        } else if (length7 == 127) {
+            length = 0;
+            for (int i = 2; i < 10; i++) {
+                length = length << 8 | header[i] & 0xFFL;
+            }
+            if (length < 0) {
+                throw new WebSocketException(WebSocket.PROTOCOL_ERROR, "Invalid frame length");
+            }
+        } else {
+            length = length7;
+        }
+        if (length > maxPayload || length > Integer.MAX_VALUE - 8) {
+            throw new WebSocketException(WebSocket.MESSAGE_TOO_BIG, "Frame of " + length + " bytes exceeds the limit");
+        }
+        return length == 0 ? NO_PAYLOAD : new byte[(int) length];
+    }
+
+    private void unmask(byte[] data) {
+        int maskStart = headerLength - 4;
+        byte m0 = header[maskStart], m1 = header[maskStart + 1], m2 = header[maskStart + 2], m3 = header[maskStart + 3];
+        int i = 0;
+        for (int end = data.length & ~3; i < end; i += 4) {
+            data[i] ^= m0;
+            data[i + 1] ^= m1;
+            data[i + 2] ^= m2;
+            data[i + 3] ^= m3;
+        }
+        for (; i < data.length; i++) {
+            data[i] ^= header[maskStart + (i & 3)];
+        }
+    }
+}
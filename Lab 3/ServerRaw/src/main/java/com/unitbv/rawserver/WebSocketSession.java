@@ -0,0 +1,260 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The part of a WebSocket connection both servers share: reassembling fragmented messages,
+ * answering pings, the closing handshake and calling the {@link WebSocketHandler}.
+ * Subclasses move the bytes: they feed what the socket delivers to {@link #onData} from one
+ * thread, and implement {@link #write} for frames sent from any thread.
+ * <p>
+ * Liveness is checked with pings: the server calls {@link #ping()} once per interval, and a
+ * client that has sent nothing at all since the previous ping, not even the pong, is dropped.
+ * The same check ends a closing handshake the client never answers.
+ */
+abstract class WebSocketSession implements WebSocket {
+    private final Request request;
+    private final WebSocketHandler handler;
+    private final int maxMessageBytes;
+    private final WebSocketParser parser;
+    private final WebSocketParser.Frames frames = this::frame;
+    private final Set<WebSocketBroadcast> broadcasts = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closeSent = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Message being reassembled from fragments, touched only by the thread calling onData
+    private ByteArrayOutputStream fragments;
+    private int fragmentsOpcode;
+    private boolean closeReceived;
+    // Whether anything arrived since the last ping
+    private volatile boolean heard = true;
+
+    WebSocketSession(Request request, WebSocketHandler handler, ServerConfig config) {
+        this.request = request;
+        this.handler = handler;
+        this.maxMessageBytes = config.getWebSocketMaxMessageBytes();
+        this.parser = new WebSocketParser(maxMessageBytes);
+    }
+
+    /**
+     * Sends {@code frame} (read mode) after the frames sent before it. It may be a duplicate of
+     * a buffer shared with other connections and must not be modified.
+     */
+    abstract void write(ByteBuffer frame);
+
+    /** Closes the connection once what was written is out. */
+    abstract void finish();
+
+    /** Runs a handler callback after the ones dispatched before it. */
+    abstract void dispatch(Runnable callback);
+
+    /**
+     * Where {@link WebSocketBroadcast} delivers this connection's frames, so one task can serve
+     * every subscriber on the same event loop; null when {@link #write} can be called from any thread.
+     */
+    abstract Executor loop();
+
+    /** Tells the handler the connection is open; called once the 101 response is out. */
+    void opened() {
+        dispatch(() -> handler.onOpen(this));
+    }
+
+    /** Parses what the client sent; protocol errors close the connection with their code. */
+    void onData(ByteBuffer data) {
+        if (closeReceived) {
+            data.position(data.limit()); // nothing is valid after a close frame
+            return;
+        }
+        try {
+            parser.parse(data, frames);
+        } catch (WebSocketException e) {
+            fail(e.getCloseCode(), e.getMessage());
+        }
+    }
+
+    private void frame(boolean fin, int opcode, byte[] payload) throws WebSocketException {
+        heard = true;
+        if (closeReceived) return;
+        switch (opcode) {
+            case WebSocketFrames.PING -> {
+                if (!closeSent.get()) write(WebSocketFrames.encode(WebSocketFrames.PONG, payload));
+            }
+            case WebSocketFrames.PONG -> {
+                // heard is all a pong is for
+            }
+            case WebSocketFrames.CLOSE -> closeReceived(payload);
+            case WebSocketFrames.CONTINUATION -> {
+                if (fragments == null) {
+                    throw new WebSocketException(PROTOCOL_ERROR, "Continuation without a message");
+                }
+                if (fragments.size() + payload.length > maxMessageBytes) {
+                    throw new WebSocketException(MESSAGE_TOO_BIG, "Message exceeds " + maxMessageBytes + " bytes");
+                }
+                fragments.write(payload, 0, payload.length);
+                if (fin) {
+                    byte[] message = fragments.toByteArray();
+                    fragments = null;
+                    message(fragmentsOpcode, message);
+                }
+            }
+            default -> { // TEXT or BINARY, the parser lets nothing else through
+                if (fragments != null) {
+                    throw new WebSocketException(PROTOCOL_ERROR, "New message before the last one ended");
+                }
+                if (fin) {
+                    message(opcode, payload);
+                } else {
+                    fragments = new ByteArrayOutputStream(Math.max(payload.length * 2, 256));
+                    fragments.write(payload, 0, payload.length);
+                    fragmentsOpcode = opcode;
+                }
+            }
+        }
+    }
+
+    private void message(int opcode, byte[] payload) throws WebSocketException {
+        if (closeSent.get()) return; // the handler already let go of this connection
+        if (opcode == WebSocketFrames.TEXT) {
+            String text = decodeUtf8(payload);
+            dispatch(() -> handler.onText(this, text));
+        } else {
+            dispatch(() -> handler.onBinary(this, payload));
+        }
+    }
+
+    private void closeReceived(byte[] payload) throws WebSocketException {
+        int code = NO_STATUS;
+        String reason = "";
+        if (payload.length == 1) {
+            throw new WebSocketException(PROTOCOL_ERROR, "Truncated close code");
+        }
+        if (payload.length >= 2) {
+            code = (payload[0] & 0xFF) << 8 | payload[1] & 0xFF;
+            if (!WebSocketFrames.isValidCloseCode(code)) {
+                throw new WebSocketException(PROTOCOL_ERROR, "Invalid close code " + code);
+            }
+            byte[] text = new byte[payload.length - 2];
+            System.arraycopy(payload, 2, text, 0, text.length);
+            reason = decodeUtf8(text);
+        }
+        closeReceived = true;
+        if (closeSent.compareAndSet(false, true)) {
+            // echo the code, as RFC 6455 asks, then hang up
+            byte[] reply = code == NO_STATUS ? new byte[0] : WebSocketFrames.closePayload(code, "");
+            write(WebSocketFrames.encode(WebSocketFrames.CLOSE, reply));
+        }
+        closed(code, reason);
+        finish();
+    }
+
+    private static String decodeUtf8(byte[] bytes) throws WebSocketException {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            throw new WebSocketException(INVALID_PAYLOAD, "Text is not valid UTF-8");
+        }
+    }
+
+    /** Closes after a protocol error without waiting for the client to answer. */
+    private void fail(int code, String reason) {
+        closeReceived = true;
+        if (closeSent.compareAndSet(false, true)) {
+            write(WebSocketFrames.encode(WebSocketFrames.CLOSE, WebSocketFrames.closePayload(code, reason)));
+        }
+        closed(code, reason);
+        finish();
+    }
+
+    /**
+     * Sends a ping, or returns false when the client has not sent anything since the last one
+     * and should be dropped.
+     */
+    boolean ping() {
+        if (!heard) return false;
+        heard = false;
+        if (!closeSent.get()) write(WebSocketFrames.ping());
+        return true;
+    }
+
+    /** The connection is gone; tells the handler, unless the closing handshake already did. */
+    void disconnected() {
+        closeSent.set(true);
+        closed(ABNORMAL_CLOSURE, "");
+    }
+
+    private void closed(int code, String reason) {
+        if (!closed.compareAndSet(false, true)) return;
+        for (WebSocketBroadcast broadcast : broadcasts) {
+            broadcast.unsubscribe(this);
+        }
+        dispatch(() -> handler.onClose(this, code, reason));
+    }
+
+    /** Runs a callback, turning a failure into closing the connection. */
+    void invoke(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            close(INTERNAL_ERROR, "Internal error");
+        }
+    }
+
+    void subscribed(WebSocketBroadcast broadcast) {
+        broadcasts.add(broadcast);
+        if (closed.get()) {
+            broadcast.unsubscribe(this);
+        }
+    }
+
+    void unsubscribed(WebSocketBroadcast broadcast) {
+        broadcasts.remove(broadcast);
+    }
+
+    /** Sends a frame shared with other connections. */
+    void writeShared(ByteBuffer frame) {
+        if (!closeSent.get()) write(frame.duplicate());
+    }
+
+    @Override
+    public void send(String text) {
+        send(WebSocketFrames.TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void send(byte[] data) {
+        send(WebSocketFrames.BINARY, data);
+    }
+
+    private void send(int opcode, byte[] payload) {
+        if (!closeSent.get()) write(WebSocketFrames.encode(opcode, payload));
+    }
+
+    @Override
+    public void close(int code, String reason) {
+        if (closeSent.compareAndSet(false, true)) {
+            write(WebSocketFrames.encode(WebSocketFrames.CLOSE, WebSocketFrames.closePayload(code, reason)));
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closeSent.get();
+    }
+
+    @Override
+    public Request getRequest() {
+        return request;
+    }
+}
@@ -0,0 +1,67 @@
+package com.unitbv.rawserver;
+
+import java.util.Base64;
+
+/**
+ * The opening handshake of a WebSocket route. A valid upgrade request is answered with
+ * {@code 101 Switching Protocols} carrying the {@link WebSocketHandler}; the server switches
+ * the connection over once that response is out. No subprotocols or extensions are
+ * negotiated, so frames are never compressed.
+ * <p>
+ * Anything else is refused: a plain request with {@code 426} and {@code Upgrade: websocket},
+ * an unsupported protocol version with {@code 426} and the supported one, a malformed
+ * handshake with {@code 400}.
+ */
+final class WebSocketUpgrade implements Handler {
+    private static final String VERSION = "13";
+
+    private final WebSocketHandler handler;
+
+    WebSocketUpgrade(WebSocketHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public Response handle(Request request) {
+        if (!hasToken(request.getHeader("Upgrade"), "websocket")) {
+            return new Response(426, "text/plain", "This resource only speaks WebSocket")
+                    .addHeader("Upgrade", "websocket");
+        }
+        if (!"GET".equals(request.getMethod()) || !"HTTP/1.1".equals(request.getVersion())
+                || !hasToken(request.getHeader("Connection"), "upgrade")) {
+            return new Response(400, "text/plain", "Invalid WebSocket handshake");
+        }
+        if (!VERSION.equals(request.getHeader("Sec-WebSocket-Version"))) {
+            return new Response(426, "text/plain", "Unsupported WebSocket version")
+                    .addHeader("Sec-WebSocket-Version", VERSION);
+        }
+        String key = request.getHeader("Sec-WebSocket-Key");
+        if (!isValidKey(key)) {
+            return new Response(400, "text/plain", "Invalid Sec-WebSocket-Key");
+        }
+        Response response = new Response(101, null, (String) null)
+                .addHeader("Upgrade", "websocket")
+                .addHeader("Sec-WebSocket-Accept", WebSocketFrames.acceptKey(key.trim()));
+        response.setWebSocket(handler);
+        return response;
+    }
+
+    /** The key is 16 random bytes in base64. */
+    private static boolean isValidKey(String key) {
+        if (key == null) return false;
+        try {
+            return Base64.getDecoder().decode(key.trim()).length == 16;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /** Whether the comma-separated header value contains {@code token}, ignoring case. */
+    static boolean hasToken(String value, String token) {
+        if (value == null) return false;
+        for (String part : value.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,194 @@
+package com.unitbv.rawserver;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs connections (blocking mode) or requests (NIO mode) with admission control.
+ * <p>
+ * The fixed pool sits behind a bounded queue. Work that does not fit is refused right away
+ * with its {@code onShed} action, which answers {@code 503} with {@code Retry-After}, so an
+ * overloaded server stays responsive instead of piling up sockets and latency. With
+ * {@link ServerConfig.Overload#CODEL} work is also shed when it comes out of the queue after
+ * a standing queue has built up (see {@link CoDel}), which keeps queueing delay near the
+ * target even while the queue is not full.
+ * <p>
+ * Counters are cumulative since start and read without locking.
+ */
+public class WorkerPool {
+    public static final int RETRY_AFTER_SECONDS = 1;
+
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor bounded;
+    private final CoDel codel;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private volatile long lastQueueDelayNanos;
+    private final Histogram queueWait = new Histogram();
+
+    /** {@code config.getWorkers()} threads behind a queue of {@code config.getQueueSize()}. */
+    public WorkerPool(ServerConfig config) {
+        this.bounded = new ThreadPoolExecutor(config.getWorkers(), config.getWorkers(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueSize()), new ThreadPoolExecutor.AbortPolicy());
+        this.executor = bounded;
+        this.codel = config.getOverload() == ServerConfig.Overload.CODEL
+                ? new CoDel(TimeUnit.MILLISECONDS.toNanos(config.getCodelTargetMs()),
+                            TimeUnit.MILLISECONDS.toNanos(config.getCodelIntervalMs()))
+                : null;
+    }
+
+    /** Hands every task straight to {@code executor}, e.g. a thread per task; nothing is queued or shed. */
+    public WorkerPool(ExecutorService executor) {
+        this.executor = executor;
+        this.bounded = null;
+        this.codel = null;
+    }
+
+    /**
+     * Runs {@code task} on a worker, or {@code onShed} instead when the server is overloaded.
+     * {@code onShed} runs on the calling thread when the queue is full and on a worker when
+     * the task is shed after queueing; it should only send a short refusal.
+     */
+    public void execute(Runnable task, Runnable onShed) {
+        try {
+            executor.execute(new Queued(task, onShed));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            onShed.run();
+        }
+    }
+
+    /**
+     * Runs the continuation of work that was already admitted, e.g. writing the response of an
+     * asynchronous handler. It is never shed; if the queue is full it runs on the calling thread.
+     */
+    public void resume(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Refuses new work and waits up to {@code timeout} for queued and running work to finish,
+     * then interrupts what is left. Returns whether everything finished in time.
+     */
+    public boolean shutdown(Duration timeout) throws InterruptedException {
+        executor.shutdown();
+        if (executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        executor.shutdownNow();
+        return false;
+    }
+
+    /** The answer for refused work. */
+    static Response overloaded() {
+        return new Response(503, "text/plain", "Server overloaded, retry later")
+                .addHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+    }
+
+    /** Tasks waiting for a worker. */
+    public int getQueueDepth() {
+        return bounded == null ? 0 : bounded.getQueue().size();
+    }
+
+    /** Workers currently running a task. */
+    public int getActiveWorkers() {
+        return bounded == null ? 0 : bounded.getActiveCount();
+    }
+
+    /** Tasks refused because the queue was full. */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /** Tasks dropped by CoDel after waiting too long in the queue. */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /** How long the most recently started task waited in the queue. */
+    public long getLastQueueDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastQueueDelayNanos);
+    }
+
+    /** Time tasks spent in the queue before a worker picked them up, in nanoseconds. */
+    Histogram queueWait() {
+        return queueWait;
+    }
+
+    private final class Queued implements Runnable {
+        private final Runnable task;
+        private final Runnable onShed;
+        private final long enqueued = System.nanoTime();
+
+        Queued(Runnable task, Runnable onShed) {
+            this.task = task;
+            this.onShed = onShed;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            long delay = now - enqueued;
+            lastQueueDelayNanos = delay;
+            queueWait.record(delay);
+            if (codel != null && codel.shouldShed(delay, now)) {
+                shed.increment();
+                onShed.run();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                completed.increment();
+            }
+        }
+    }
+
+    /**
+     * Queue-delay based shedding after Nichols and Jacobson's CoDel, in the form used for server
+     * request queues: if no task got through the queue in less than {@code target} during the
+     * last {@code interval}, the queue is standing rather than absorbing a burst, and tasks
+     * that waited more than twice the target are dropped until delays fall again.
+     */
+    static final class CoDel {
+        private final long target;
+        private final long interval;
+
+        private long intervalEnd;
+        private long minDelay;
+        private boolean overloaded;
+
+        CoDel(long targetNanos, long intervalNanos) {
+            this.target = targetNanos;
+            this.interval = intervalNanos;
+            this.intervalEnd = System.nanoTime();
+        }
+
+        synchronized boolean shouldShed(long delay, long now) {
+            if (now - intervalEnd >= 0) {
+                // an interval with no tasks at all says nothing about the queue; start over
+                overloaded = now - intervalEnd < interval && minDelay > target;
+                minDelay = delay;
+                intervalEnd = now + interval;
+            } else if (delay < minDelay) {
+                minDelay = delay;
+            }
+            return overloaded && delay > 2 * target;
+        }
+    }
+}
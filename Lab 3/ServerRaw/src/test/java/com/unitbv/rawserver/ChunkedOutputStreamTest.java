@@ -0,0 +1,147 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ChunkedOutputStreamTest extends TestCase {
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    private final BufferPool pool = new BufferPool(64, 4);
+    private final PooledOutputStream pooled = new PooledOutputStream(pool, new ResponseSink() {
+        @Override
+        public void send(ByteBuffer buf) {
+            byte[] b = new byte[buf.remaining()];
+            buf.get(b);
+            sent.write(b, 0, b.length);
+            pool.release(buf);
+        }
+
+        @Override
+        public void sendFile(FileRegion file) {
+            throw new AssertionError("no files here");
+        }
+    });
+    private final ChunkedOutputStream chunked = new ChunkedOutputStream(pooled, 8);
+
+    public void testSmallWritesShareAChunk() throws IOException {
+        write("abc");
+        write("de");
+        assertEquals("", sent());
+        chunked.flush();
+        assertEquals("5\r\nabcde\r\n", sent());
+    }
+
+    public void testWriteThatDoesNotFitSendsStagedFirst() throws IOException {
+        write("abcdef");
+        write("ghij");
+        chunked.finish();
+        assertEquals("6\r\nabcdef\r\n4\r\nghij\r\n0\r\n\r\n", sent());
+    }
+
+    public void testWriteOfExactlyTheStagingSizeIsItsOwnChunk() throws IOException {
+        write("ab");
+        write("12345678");
+        write("c");
+        chunked.finish();
+        assertEquals("2\r\nab\r\n8\r\n12345678\r\n1\r\nc\r\n0\r\n\r\n", sent());
+    }
+
+    public void testLargeWriteSizeInHex() throws IOException {
+        byte[] big = new byte[300];
+        Arrays.fill(big, (byte) 'x');
+        chunked.write(big, 0, big.length);
+        chunked.finish();
+        assertEquals("12c\r\n" + "x".repeat(300) + "\r\n0\r\n\r\n", sent());
+    }
+
+    public void testZeroLengthWritesSendNothing() throws IOException {
+        chunked.write(new byte[0], 0, 0);
+        chunked.flush();
+        // an empty chunk here would end the body early
+        assertEquals("", sent());
+        write("abcdefgh");
+        chunked.write(new byte[8], 8, 0);
+        chunked.finish();
+        assertEquals("8\r\nabcdefgh\r\n0\r\n\r\n", sent());
+    }
+
+    public void testFinishWithNothingStaged() throws IOException {
+        chunked.finish();
+        assertEquals("0\r\n\r\n", sent());
+    }
+
+    public void testSingleBytesFillTheStagingArray() throws IOException {
+        for (char c : "abcdefghi".toCharArray()) {
+            chunked.write(c);
+        }
+        chunked.finish();
+        assertEquals("8\r\nabcdefgh\r\n1\r\ni\r\n0\r\n\r\n", sent());
+    }
+
+    public void testResetDropsStagedBytes() throws IOException {
+        write("abc");
+        chunked.reset();
+        write("de");
+        chunked.finish();
+        assertEquals("2\r\nde\r\n0\r\n\r\n", sent());
+    }
+
+    public void testRandomWritesDecodeToTheBody() throws IOException {
+        Random random = new Random(8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            byte[] b = new byte[random.nextInt(20)];
+            random.nextBytes(b);
+            int off = b.length == 0 ? 0 : random.nextInt(b.length);
+            int len = random.nextInt(b.length - off + 1);
+            chunked.write(b, off, len);
+            body.write(b, off, len);
+            if (random.nextInt(10) == 0) {
+                chunked.flush();
+            }
+        }
+        chunked.finish();
+        pooled.flush();
+        assertTrue(Arrays.equals(body.toByteArray(), dechunk(sent.toByteArray())));
+    }
+
+    /** The body framed in {@code chunked}, checking that only the last chunk is empty. */
+    private static byte[] dechunk(byte[] chunked) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int pos = 0;
+        while (true) {
+            int eol = pos;
+            while (chunked[eol] != '\r') {
+                eol++;
+            }
+            int size = Integer.parseInt(new String(chunked, pos, eol - pos, StandardCharsets.US_ASCII), 16);
+            assertEquals('\n', chunked[eol + 1]);
+            pos = eol + 2;
+            if (size == 0) {
+                assertEquals("ends after the last chunk", pos + 2, chunked.length);
+                return body.toByteArray();
+            }
+            body.write(chunked, pos, size);
+            pos += size;
+            assertEquals('\r', chunked[pos]);
+            assertEquals('\n', chunked[pos + 1]);
+            pos += 2;
+        }
+    }
+
+    private void write(String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        chunked.write(b, 0, b.length);
+    }
+
+    /** What has been sent, with the pooled stream flushed. */
+    private String sent() throws IOException {
+        pooled.flush();
+        return sent.toString(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,157 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+public class CompressingOutputStreamTest extends TestCase {
+    private final Deflater deflater = new Deflater(6, true);
+
+    @Override
+    protected void tearDown() {
+        deflater.end();
+    }
+
+    public void testGzipRoundTrip() throws IOException {
+        byte[] body = text(100_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressingOutputStream gzip = new CompressingOutputStream(out, deflater, new byte[8192], true);
+        gzip.write(body, 0, body.length);
+        gzip.finish();
+        assertTrue(Arrays.equals(body, gunzip(out.toByteArray())));
+        assertEquals(body.length, gzip.bytesIn());
+        assertEquals(out.size(), gzip.bytesOut());
+        assertTrue(out.size() < body.length / 4);
+    }
+
+    public void testDeflateRoundTrip() throws IOException {
+        byte[] body = text(100_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressingOutputStream zlib = new CompressingOutputStream(out, deflater, new byte[8192], false);
+        zlib.write(body, 0, body.length);
+        zlib.finish();
+        // InflaterInputStream checks the zlib header and the Adler-32 trailer
+        assertTrue(Arrays.equals(body, inflate(out.toByteArray())));
+    }
+
+    public void testEmptyBody() throws IOException {
+        for (boolean gzip : new boolean[] {true, false}) {
+            deflater.reset();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CompressingOutputStream stream = new CompressingOutputStream(out, deflater, new byte[64], gzip);
+            stream.write(new byte[0], 0, 0);
+            stream.finish();
+            assertEquals(0, (gzip ? gunzip(out.toByteArray()) : inflate(out.toByteArray())).length);
+        }
+    }
+
+    public void testIncompressibleInputThroughSmallBuffer() throws IOException {
+        // random bytes grow a little, so each deflate call fills the 64-byte buffer many times over
+        byte[] body = new byte[50_000];
+        new Random(13).nextBytes(body);
+        for (boolean gzip : new boolean[] {true, false}) {
+            deflater.reset();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CompressingOutputStream stream = new CompressingOutputStream(out, deflater, new byte[64], gzip);
+            for (int off = 0; off < body.length; off += 777) {
+                stream.write(body, off, Math.min(777, body.length - off));
+                stream.flush();
+            }
+            stream.finish();
+            byte[] back = gzip ? gunzip(out.toByteArray()) : inflate(out.toByteArray());
+            assertTrue(Arrays.equals(body, back));
+        }
+    }
+
+    public void testByteBuffersAndSingleBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressingOutputStream gzip = new CompressingOutputStream(out, deflater, new byte[8192], true);
+        ByteBuffer direct = ByteBuffer.allocateDirect(5).put(ascii("hello")).flip();
+        gzip.write(direct);
+        assertEquals("left as it was", 5, direct.remaining());
+        gzip.write(' ');
+        gzip.write(ByteBuffer.wrap(ascii("xxworldxx"), 2, 5));
+        gzip.finish();
+        assertEquals("hello world", new String(gunzip(out.toByteArray()), StandardCharsets.US_ASCII));
+        assertEquals(11, gzip.bytesIn());
+    }
+
+    public void testSyncFlushDeliversEachPiece() throws IOException, DataFormatException {
+        for (boolean gzip : new boolean[] {true, false}) {
+            deflater.reset();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CompressingOutputStream stream = new CompressingOutputStream(out, deflater, new byte[8192], gzip);
+            int header = out.size();
+            // a client inflating what has arrived so far sees every flushed piece, before the end
+            Inflater inflater = new Inflater(true);
+            StringBuilder seen = new StringBuilder();
+            int read = header;
+            for (int i = 0; i < 5; i++) {
+                String piece = "event " + i + "\n";
+                stream.write(ascii(piece), 0, piece.length());
+                stream.flush();
+                byte[] sent = out.toByteArray();
+                inflater.setInput(sent, read, sent.length - read);
+                read = sent.length;
+                byte[] buf = new byte[256];
+                int n;
+                while ((n = inflater.inflate(buf)) > 0) {
+                    seen.append(new String(buf, 0, n, StandardCharsets.US_ASCII));
+                }
+                assertEquals(piece, seen.substring(seen.length() - piece.length()));
+            }
+            inflater.end();
+            stream.finish();
+            byte[] whole = gzip ? gunzip(out.toByteArray()) : inflate(out.toByteArray());
+            assertEquals(seen.toString(), new String(whole, StandardCharsets.US_ASCII));
+        }
+    }
+
+    public void testDeflaterReusableAfterReset() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            deflater.reset();
+            byte[] body = text(1000 + i);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CompressingOutputStream gzip = new CompressingOutputStream(out, deflater, new byte[8192], true);
+            gzip.write(body, 0, body.length);
+            gzip.finish();
+            assertTrue(Arrays.equals(body, gunzip(out.toByteArray())));
+        }
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder sb = new StringBuilder(length + 32);
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append("student ").append(i).append(" Popescu;Ionescu\n");
+        }
+        return ascii(sb.substring(0, length));
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
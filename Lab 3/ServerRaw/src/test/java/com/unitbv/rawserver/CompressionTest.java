@@ -0,0 +1,44 @@
+package com.unitbv.rawserver;
+
+import static com.unitbv.rawserver.Compression.Encoding.DEFLATE;
+import static com.unitbv.rawserver.Compression.Encoding.GZIP;
+import static com.unitbv.rawserver.Compression.negotiate;
+
+import junit.framework.TestCase;
+
+public class CompressionTest extends TestCase {
+
+    public void testNamedCodings() {
+        assertNull(negotiate(null));
+        assertNull(negotiate(""));
+        assertNull(negotiate("br, identity"));
+        assertEquals(GZIP, negotiate("gzip"));
+        assertEquals(GZIP, negotiate("x-gzip"));
+        assertEquals(GZIP, negotiate("deflate, GZIP"));
+        assertEquals(DEFLATE, negotiate("deflate"));
+        assertEquals(DEFLATE, negotiate("br;q=1.0, deflate;q=0.5"));
+    }
+
+    public void testZeroQualityRefuses() {
+        assertEquals(DEFLATE, negotiate("gzip;q=0, deflate"));
+        assertEquals(DEFLATE, negotiate("gzip; q=0.000, deflate"));
+        assertNull(negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(negotiate("deflate;q=0"));
+        assertEquals(GZIP, negotiate("gzip;q=0.001"));
+        // a q that does not parse counts as a refusal
+        assertNull(negotiate("gzip;q=high"));
+    }
+
+    public void testWildcard() {
+        assertEquals(GZIP, negotiate("*"));
+        assertEquals(GZIP, negotiate("br, *;q=0.1"));
+        assertNull(negotiate("*;q=0"));
+        // * stands only for the codings not named
+        assertEquals(DEFLATE, negotiate("gzip;q=0, *"));
+        assertEquals(DEFLATE, negotiate("*, GZIP;q=0"));
+        assertEquals(GZIP, negotiate("deflate;q=0, *"));
+        assertNull(negotiate("gzip;q=0, deflate;q=0, *"));
+        assertEquals(GZIP, negotiate("gzip, *;q=0"));
+        assertEquals(DEFLATE, negotiate("deflate, *;q=0"));
+    }
+}
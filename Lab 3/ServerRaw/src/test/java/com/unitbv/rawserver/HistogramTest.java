@@ -0,0 +1,119 @@
+package com.unitbv.rawserver;
+
+import static com.unitbv.rawserver.Histogram.MAX_VALUE;
+import static com.unitbv.rawserver.Histogram.highestValue;
+import static com.unitbv.rawserver.Histogram.index;
+import static com.unitbv.rawserver.Histogram.lowestValue;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+    public void testBucketsHoldTheirValues() {
+        for (int shift = 0; shift <= 36; shift++) {
+            long power = 1L << shift;
+            for (long v : new long[] {power - 2, power - 1, power, power + 1, power + power / 2}) {
+                if (v >= 0 && v <= MAX_VALUE) {
+                    assertBucketHolds(v);
+                }
+            }
+        }
+        assertBucketHolds(0);
+        assertBucketHolds(MAX_VALUE);
+        assertBucketHolds(MAX_VALUE - 1);
+        Random random = new Random(15);
+        for (int i = 0; i < 100_000; i++) {
+            assertBucketHolds(random.nextLong() & MAX_VALUE);
+        }
+    }
+
+    public void testBucketsAreContiguous() {
+        assertEquals(0, lowestValue(0));
+        int last = index(MAX_VALUE);
+        for (int i = 1; i <= last; i++) {
+            assertEquals("bucket " + i, highestValue(i - 1) + 1, lowestValue(i));
+            assertEquals(i, index(lowestValue(i)));
+        }
+        assertEquals(MAX_VALUE, highestValue(last));
+    }
+
+    public void testRelativeError() {
+        for (int i = 128; i <= index(MAX_VALUE); i++) {
+            long low = lowestValue(i);
+            // a bucket is at most 1/64 as wide as its smallest value
+            assertTrue("bucket " + i, (highestValue(i) - low + 1) * 64 <= low);
+        }
+        // small values are exact
+        for (int v = 0; v < 128; v++) {
+            assertEquals(v, lowestValue(index(v)));
+            assertEquals(v, highestValue(index(v)));
+        }
+    }
+
+    public void testOutOfRangeValuesAreClamped() {
+        Histogram h = new Histogram();
+        h.record(-5);
+        h.record(MAX_VALUE + 1);
+        h.record(Long.MAX_VALUE);
+        assertEquals(3, h.count());
+        assertEquals(2 * MAX_VALUE, h.sum());
+        assertEquals(0, h.valueAtPercentile(1));
+        assertEquals(MAX_VALUE, h.valueAtPercentile(100));
+    }
+
+    public void testPercentilesOfUniformValues() {
+        Histogram h = new Histogram();
+        for (long v = 1; v <= 100_000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(100_000, h.count());
+        for (double p : new double[] {1, 10, 25, 50, 90, 99, 99.9, 100}) {
+            long exact = (long) Math.ceil(p * 1000) * 1000;
+            long reported = h.valueAtPercentile(p);
+            assertTrue(p + ": " + reported, reported >= exact);
+            assertTrue(p + ": " + reported, reported - exact <= exact / 64);
+        }
+        assertEquals("past 100 is the maximum", h.valueAtPercentile(100), h.valueAtPercentile(150));
+        assertEquals(1000, h.valueAtPercentile(0), 1000 / 64);
+    }
+
+    public void testPercentilesOfABimodalDistribution() {
+        Histogram h = new Histogram();
+        // 90 fast requests at 2 ms, 10 slow ones at 500 ms
+        for (int i = 0; i < 90; i++) {
+            h.record(2_000_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            h.record(500_000_000);
+        }
+        assertEquals(highestValue(index(2_000_000)), h.valueAtPercentile(50));
+        assertEquals(highestValue(index(2_000_000)), h.valueAtPercentile(90));
+        assertEquals(highestValue(index(500_000_000)), h.valueAtPercentile(90.1));
+        assertEquals(90 * 2_000_000L + 10 * 500_000_000L, h.sum());
+        assertEquals(90, h.countAtOrBelow(2_000_000));
+        assertEquals(90, h.countAtOrBelow(400_000_000));
+        assertEquals(100, h.countAtOrBelow(500_000_000));
+    }
+
+    public void testEmptyAndAdd() {
+        Histogram a = new Histogram();
+        assertEquals(0, a.valueAtPercentile(50));
+        assertEquals(0, a.count());
+        Histogram b = new Histogram();
+        for (int v = 1; v <= 100; v++) {
+            (v % 2 == 0 ? a : b).record(v);
+        }
+        a.add(b);
+        assertEquals(100, a.count());
+        assertEquals(5050, a.sum());
+        assertEquals(50, a.valueAtPercentile(50));
+        assertEquals(50, b.count());
+    }
+
+    private static void assertBucketHolds(long v) {
+        int i = index(v);
+        assertTrue(v + " in bucket " + i, lowestValue(i) <= v && v <= highestValue(i));
+    }
+}
@@ -0,0 +1,202 @@
+package com.unitbv.rawserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/** Header blocks from RFC 7541, Appendix C; each group is one connection, decoded in order. */
+public class HpackTest extends TestCase {
+
+    public void testRequestsWithoutHuffman() throws Http2Exception {
+        // C.3
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertDecodes(decoder, "828684410f7777772e6578616d706c652e636f6d",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertDecodes(decoder, "828684be58086e6f2d6361636865",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertDecodes(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    public void testRequestsWithHuffman() throws Http2Exception {
+        // C.4
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertDecodes(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertDecodes(decoder, "828684be5886a8eb10649cbf",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertDecodes(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    public void testResponsesWithoutHuffmanEvict() throws Http2Exception {
+        // C.5: a 256-byte table, so each block pushes out the oldest entries
+        Hpack.Decoder decoder = new Hpack.Decoder(256);
+        assertDecodes(decoder, "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d546e1768747470733a2f2f7777772e6578616d706c652e636f6d",
+                ":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        // ":status: 302" is evicted for ":status: 307"; c1 is still "cache-control: private"
+        assertDecodes(decoder, "4803333037c1c0bf",
+                ":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertDecodes(decoder, "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a04677a69707738666f6f3d4153444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d6167653d333630303b2076657273696f6e3d31",
+                ":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT",
+                "location", "https://www.example.com", "content-encoding", "gzip",
+                "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+        // three entries are left (62 to 64); everything older is gone
+        assertDecodes(decoder, "bebfc0", "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1",
+                "content-encoding", "gzip", "date", "Mon, 21 Oct 2013 20:13:22 GMT");
+        assertCompressionError(decoder, "c1");
+    }
+
+    public void testResponsesWithHuffmanEvict() throws Http2Exception {
+        // C.6
+        Hpack.Decoder decoder = new Hpack.Decoder(256);
+        assertDecodes(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3",
+                ":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertDecodes(decoder, "4883640effc1c0bf",
+                ":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertDecodes(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007",
+                ":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT",
+                "location", "https://www.example.com", "content-encoding", "gzip",
+                "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+        assertCompressionError(decoder, "c1");
+    }
+
+    public void testEncoderMatchesRequestExamples() throws Http2Exception {
+        // C.4 again, from the other side: the encoder picks the same representations
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertEncodes(encoder, decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertEncodes(encoder, decoder, "828684be5886a8eb10649cbf",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertEncodes(encoder, decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    public void testEncoderIndexesRepeatedFields() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        String[] fields = {":status", "200", "content-type", "text/plain", "server", "raw", "content-length", "12"};
+        byte[] first = roundTrip(encoder, decoder, fields);
+        byte[] second = roundTrip(encoder, decoder, fields);
+        assertTrue(second.length < first.length);
+        // one byte each for :status and the two table entries; content-length changes with every
+        // response, so it stays a literal with a static name: two bytes of index, three of value
+        assertEquals(1 + 1 + 1 + 2 + 3, second.length);
+    }
+
+    public void testEncoderNeverIndexesSensitiveFields() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        byte[] block = roundTrip(encoder, decoder, "set-cookie", "id=1");
+        assertEquals("never indexed, static name 55", 0x1f, block[0] & 0xff);
+        assertEquals(0x28, block[1] & 0xff);
+        // sent literally again rather than from the table
+        assertEquals(toHex(block), toHex(roundTrip(encoder, decoder, "set-cookie", "id=1")));
+    }
+
+    public void testEncoderAnnouncesSmallerTable() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        roundTrip(encoder, decoder, "x-request", "one");
+        encoder.setMaxTableSize(0);
+        byte[] block = roundTrip(encoder, decoder, "x-request", "one");
+        assertEquals("size update to 0 first", 0x20, block[0] & 0xff);
+        // with no table, the field goes out literally again and again
+        encoder.setMaxTableSize(0);
+        assertEquals(block.length, roundTrip(encoder, decoder, "x-request", "one").length);
+    }
+
+    public void testEncoderAnnouncesLowestOfSeveralSizes() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        roundTrip(encoder, decoder, "x-request", "one");
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(100);
+        byte[] block = roundTrip(encoder, decoder, "x-request", "one");
+        // 0 first, so the entry is evicted on both sides, then 100
+        assertEquals(0x20, block[0] & 0xff);
+        assertEquals(0x3f, block[1] & 0xff);
+        assertEquals(100 - 31, block[2] & 0xff);
+    }
+
+    public void testEncoderNeverExceedsDefaultTable() {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        encoder.setMaxTableSize(1 << 20);
+        byte[] block = encoder.encode(List.of(":status", "200"));
+        // 4096 = 31 + 4065: 0x3f, then 4065 in 7-bit groups
+        assertEquals("3fe11f88", toHex(block));
+    }
+
+    public void testTableSizeUpdateLimits() throws Http2Exception {
+        Hpack.Decoder decoder = new Hpack.Decoder(256);
+        assertDecodes(decoder, "3fe101");
+        assertCompressionError(new Hpack.Decoder(256), "3fe201");
+        // only before the first field
+        assertCompressionError(new Hpack.Decoder(256), "8220");
+    }
+
+    public void testMalformedBlocks() {
+        assertCompressionError(new Hpack.Decoder(256), "80"); // index 0
+        assertCompressionError(new Hpack.Decoder(256), "be"); // empty dynamic table
+        assertCompressionError(new Hpack.Decoder(256), "ff"); // integer cut short
+        assertCompressionError(new Hpack.Decoder(256), "ffffffffff7f"); // integer overflow
+        assertCompressionError(new Hpack.Decoder(256), "400561"); // string cut short
+        assertCompressionError(new Hpack.Decoder(256), "40"); // name missing
+        assertCompressionError(new Hpack.Decoder(256), "4181ff"); // Huffman string that is only padding
+    }
+
+    private static byte[] roundTrip(Hpack.Encoder encoder, Hpack.Decoder decoder, String... fields) throws Http2Exception {
+        byte[] block = encoder.encode(List.of(fields));
+        assertDecodes(decoder, toHex(block), fields);
+        return block;
+    }
+
+    private static void assertEncodes(Hpack.Encoder encoder, Hpack.Decoder decoder, String hex, String... fields) throws Http2Exception {
+        assertEquals(hex, toHex(roundTrip(encoder, decoder, fields)));
+    }
+
+    private static void assertDecodes(Hpack.Decoder decoder, String hex, String... expected) throws Http2Exception {
+        byte[] block = hex(hex);
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, block.length, fields);
+        assertEquals(List.of(expected), fields);
+    }
+
+    private static void assertCompressionError(Hpack.Decoder decoder, String hex) {
+        byte[] block = hex(hex);
+        try {
+            decoder.decode(block, block.length, new ArrayList<>());
+            fail("decoded " + hex);
+        } catch (Http2Exception e) {
+            assertEquals(Http2Frames.COMPRESSION_ERROR, e.getErrorCode());
+        }
+    }
+
+    static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,374 @@
+package com.unitbv.rawserver;
+
+import static com.unitbv.rawserver.Http2Frames.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/** Frame handling of {@link Http2Connection}, over a socket to a running {@link NioServer}. */
+public class Http2ConnectionTest extends TestCase {
+    private static final String BIG_HEADER = "a".repeat(30_000);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private WorkerPool pool;
+    private NioServer server;
+    private int port;
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+    @Override
+    protected void setUp() throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--mode=nio", "--port=" + port, "--http2=true"});
+        Router router = new Router();
+        router.get("/hello", request -> new Response(200, "text/plain", "hello"));
+        router.get("/bytes", request -> new Response(200, "text/plain", "x".repeat(100)));
+        router.get("/big-header", request -> new Response(200, "text/plain", "ok").addHeader("x-big", BIG_HEADER));
+        router.get("/slow", request -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Response(200, "text/plain", "late");
+        });
+        pool = new WorkerPool(config);
+        server = new NioServer(config, pool, router::dispatchAsync, null);
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        if (socket != null) {
+            socket.close();
+        }
+        server.shutdown(Duration.ofSeconds(1));
+        pool.shutdown(Duration.ofSeconds(1));
+    }
+
+    public void testRequestAndResponse() throws IOException, Http2Exception {
+        connect();
+        request(1, "/hello", true);
+        assertEquals("200", status(next(HEADERS)));
+        Frame data = next(DATA);
+        assertEquals("hello", data.text());
+        assertTrue(data.has(FLAG_END_STREAM));
+    }
+
+    public void testFramesSplitAcrossReads() throws IOException, Http2Exception {
+        open();
+        out.write(PREFACE);
+        // then every frame a byte at a time, so each is carried over between reads
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        all.write(frame(SETTINGS, 0, 0, new byte[0]));
+        all.write(frame(WINDOW_UPDATE, 0, 0, ByteBuffer.allocate(4).putInt(1).array()));
+        all.write(frame(HEADERS, FLAG_END_HEADERS | FLAG_END_STREAM, 1, block("/hello")));
+        for (byte b : all.toByteArray()) {
+            out.write(b);
+            out.flush();
+        }
+        assertEquals("200", status(next(HEADERS)));
+        assertEquals("hello", next(DATA).text());
+    }
+
+    // ---- bad lengths ----
+
+    public void testFrameLongerThanMaxFrameSize() throws IOException {
+        connect();
+        // the header alone is enough to refuse it
+        byte[] header = new byte[HEADER_LENGTH];
+        ByteBuffer.wrap(header).put((byte) 0).putShort((short) (MAX_FRAME_SIZE + 1)).put((byte) DATA).put((byte) 0).putInt(1);
+        out.write(header);
+        assertGoAway(FRAME_SIZE_ERROR);
+    }
+
+    public void testSettingsLengthNotMultipleOfSix() throws IOException {
+        open();
+        out.write(PREFACE);
+        send(SETTINGS, 0, 0, new byte[5]);
+        assertGoAway(FRAME_SIZE_ERROR);
+    }
+
+    public void testSettingsAckWithPayload() throws IOException {
+        connect();
+        send(SETTINGS, FLAG_ACK, 0, new byte[6]);
+        assertGoAway(FRAME_SIZE_ERROR);
+    }
+
+    public void testPingLength() throws IOException {
+        connect();
+        send(PING, 0, 0, new byte[7]);
+        assertGoAway(FRAME_SIZE_ERROR);
+    }
+
+    public void testWindowUpdateLength() throws IOException {
+        connect();
+        send(WINDOW_UPDATE, 0, 0, new byte[3]);
+        assertGoAway(FRAME_SIZE_ERROR);
+    }
+
+    public void testRstStreamLength() throws IOException {
+        connect();
+        send(RST_STREAM, 0, 1, new byte[3]);
+        assertGoAway(FRAME_SIZE_ERROR);
+    }
+
+    public void testPriorityLengthOnlyResetsTheStream() throws IOException {
+        connect();
+        send(PRIORITY, 0, 3, new byte[4]);
+        Frame reset = next(RST_STREAM);
+        assertEquals(3, reset.stream);
+        assertEquals(FRAME_SIZE_ERROR, reset.payloadInt(0));
+        // the connection goes on
+        send(PING, 0, 0, new byte[8]);
+        assertTrue(next(PING).has(FLAG_ACK));
+    }
+
+    // ---- CONTINUATION ----
+
+    public void testHeaderBlockInContinuations() throws IOException, Http2Exception {
+        connect();
+        byte[] block = block("/hello");
+        int a = block.length / 3;
+        int b = 2 * block.length / 3;
+        send(HEADERS, FLAG_END_STREAM, 1, Arrays.copyOfRange(block, 0, a));
+        send(CONTINUATION, 0, 1, Arrays.copyOfRange(block, a, b));
+        send(CONTINUATION, FLAG_END_HEADERS, 1, Arrays.copyOfRange(block, b, block.length));
+        assertEquals("200", status(next(HEADERS)));
+        assertEquals("hello", next(DATA).text());
+    }
+
+    public void testHeaderBlockInterruptedByOtherFrame() throws IOException {
+        connect();
+        byte[] block = block("/hello");
+        send(HEADERS, FLAG_END_STREAM, 1, Arrays.copyOf(block, 2));
+        send(PING, 0, 0, new byte[8]);
+        assertGoAway(PROTOCOL_ERROR);
+    }
+
+    public void testContinuationOnAnotherStream() throws IOException {
+        connect();
+        byte[] block = block("/hello");
+        send(HEADERS, FLAG_END_STREAM, 1, Arrays.copyOf(block, 2));
+        send(CONTINUATION, FLAG_END_HEADERS, 3, Arrays.copyOfRange(block, 2, block.length));
+        assertGoAway(PROTOCOL_ERROR);
+    }
+
+    public void testContinuationWithoutHeaders() throws IOException {
+        connect();
+        send(CONTINUATION, FLAG_END_HEADERS, 1, block("/hello"));
+        assertGoAway(PROTOCOL_ERROR);
+    }
+
+    public void testLargeResponseHeadersAreContinued() throws IOException, Http2Exception {
+        connect();
+        request(1, "/big-header", true);
+        Frame headers = next(HEADERS);
+        assertFalse(headers.has(FLAG_END_HEADERS));
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.write(headers.payload);
+        Frame continuation;
+        do {
+            continuation = next(CONTINUATION);
+            assertEquals(1, continuation.stream);
+            block.write(continuation.payload);
+        } while (!continuation.has(FLAG_END_HEADERS));
+        List<String> fields = decode(block.toByteArray());
+        assertEquals(BIG_HEADER, fields.get(fields.indexOf("x-big") + 1));
+        assertEquals("ok", next(DATA).text());
+    }
+
+    // ---- flow control ----
+
+    public void testStreamWindowLimitsData() throws IOException, Http2Exception {
+        connect(SETTINGS_INITIAL_WINDOW_SIZE, 16);
+        request(1, "/bytes", true);
+        assertEquals("200", status(next(HEADERS)));
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 16) {
+            Frame data = next(DATA);
+            assertFalse(data.has(FLAG_END_STREAM));
+            body.append(data.text());
+        }
+        assertEquals(16, body.length());
+        socket.setSoTimeout(300);
+        try {
+            Frame more = read();
+            assertFalse("DATA past the window", more.type == DATA);
+        } catch (SocketTimeoutException expected) {
+            // nothing may be sent until the window opens
+        }
+        socket.setSoTimeout(5000);
+
+        send(WINDOW_UPDATE, 0, 1, ByteBuffer.allocate(4).putInt(84).array());
+        Frame data;
+        do {
+            data = next(DATA);
+            body.append(data.text());
+        } while (!data.has(FLAG_END_STREAM));
+        assertEquals("x".repeat(100), body.toString());
+    }
+
+    public void testWindowUpdateOfZero() throws IOException {
+        connect();
+        send(WINDOW_UPDATE, 0, 0, ByteBuffer.allocate(4).putInt(0).array());
+        assertGoAway(PROTOCOL_ERROR);
+    }
+
+    public void testConnectionWindowOverflow() throws IOException {
+        connect();
+        send(WINDOW_UPDATE, 0, 0, ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array());
+        assertGoAway(FLOW_CONTROL_ERROR);
+    }
+
+    public void testStreamWindowOverflowResetsOnlyTheStream() throws IOException {
+        connect();
+        request(1, "/slow", true);
+        send(WINDOW_UPDATE, 0, 1, ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array());
+        Frame reset = next(RST_STREAM);
+        assertEquals(1, reset.stream);
+        assertEquals(FLOW_CONTROL_ERROR, reset.payloadInt(0));
+        release.countDown();
+        send(PING, 0, 0, new byte[8]);
+        assertTrue(next(PING).has(FLAG_ACK));
+    }
+
+    public void testWindowUpdateOnIdleStream() throws IOException {
+        connect();
+        send(WINDOW_UPDATE, 0, 99, ByteBuffer.allocate(4).putInt(1).array());
+        assertGoAway(PROTOCOL_ERROR);
+    }
+
+    // ---- client side ----
+
+    private void open() throws IOException {
+        socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true); // so single bytes go out as they are written
+        socket.setSoTimeout(5000);
+        in = new DataInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    /** Opens a connection and sends the preface with {@code settings} (id, value, ...). */
+    private void connect(int... settings) throws IOException {
+        open();
+        out.write(PREFACE);
+        ByteBuffer payload = ByteBuffer.allocate(settings.length / 2 * 6);
+        for (int i = 0; i < settings.length; i += 2) {
+            payload.putShort((short) settings[i]).putInt(settings[i + 1]);
+        }
+        send(SETTINGS, 0, 0, payload.array());
+    }
+
+    private byte[] block(String path) {
+        return encoder.encode(List.of(":method", "GET", ":scheme", "http", ":path", path, ":authority", "localhost"));
+    }
+
+    private void request(int stream, String path, boolean endStream) throws IOException {
+        send(HEADERS, FLAG_END_HEADERS | (endStream ? FLAG_END_STREAM : 0), stream, block(path));
+    }
+
+    private void send(int type, int flags, int stream, byte[] payload) throws IOException {
+        out.write(frame(type, flags, stream, payload));
+        out.flush();
+    }
+
+    private static byte[] frame(int type, int flags, int stream, byte[] payload) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        header(buf, payload.length, type, flags, stream);
+        buf.put(payload);
+        return buf.array();
+    }
+
+    private Frame read() throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        in.readFully(header);
+        ByteBuffer h = ByteBuffer.wrap(header);
+        int length = (h.get() & 0xFF) << 16 | (h.getShort() & 0xFFFF);
+        Frame frame = new Frame(h.get() & 0xFF, h.get() & 0xFF, h.getInt() & Integer.MAX_VALUE, new byte[length]);
+        in.readFully(frame.payload);
+        return frame;
+    }
+
+    /** The next frame of {@code type}, skipping the others (settings, window updates, ...). */
+    private Frame next(int type) throws IOException {
+        while (true) {
+            Frame frame = read();
+            if (frame.type == type) return frame;
+            if (frame.type == GOAWAY) fail("GOAWAY " + frame.payloadInt(4) + " waiting for frame type " + type);
+        }
+    }
+
+    private void assertGoAway(int errorCode) throws IOException {
+        Frame goAway = next(GOAWAY);
+        assertEquals(0, goAway.stream);
+        assertEquals(errorCode, goAway.payloadInt(4));
+        // and the server closes the connection
+        try {
+            while (true) read();
+        } catch (EOFException expected) {
+            // closed
+        }
+    }
+
+    private List<String> decode(byte[] block) throws Http2Exception {
+        List<String> fields = new ArrayList<>();
+        // the server's table is the default size; one decoder per test is enough for one block
+        new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE).decode(block, block.length, fields);
+        return fields;
+    }
+
+    private String status(Frame headers) throws Http2Exception {
+        assertTrue(headers.has(FLAG_END_HEADERS));
+        List<String> fields = decode(headers.payload);
+        assertEquals(":status", fields.get(0));
+        return fields.get(1);
+    }
+
+    private static final class Frame {
+        final int type;
+        final int flags;
+        final int stream;
+        final byte[] payload;
+
+        Frame(int type, int flags, int stream, byte[] payload) {
+            this.type = type;
+            this.flags = flags;
+            this.stream = stream;
+            this.payload = payload;
+        }
+
+        boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        int payloadInt(int at) {
+            return ByteBuffer.wrap(payload).getInt(at);
+        }
+
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+}
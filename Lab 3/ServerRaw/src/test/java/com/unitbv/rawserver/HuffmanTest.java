@@ -0,0 +1,88 @@
+package com.unitbv.rawserver;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class HuffmanTest extends TestCase {
+
+    public void testRfcExamples() {
+        // RFC 7541, C.4.1 and C.6.1
+        assertEncodes("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertEncodes("no-cache", "a8eb10649cbf");
+        assertEncodes("custom-key", "25a849e95ba97d7f");
+        assertEncodes("custom-value", "25a849e95bb8e8b4bf");
+        assertEncodes("302", "6402");
+        assertEncodes("private", "aec3771a4b");
+        assertEncodes("https://www.example.com", "9d29ad171863c78f0b97c8e9ae82ae43d3");
+    }
+
+    public void testEveryOctetRoundTrips() {
+        StringBuilder all = new StringBuilder();
+        for (int c = 0; c < 256; c++) {
+            all.append((char) c);
+            String s = String.valueOf((char) c);
+            assertEquals("octet " + c, s, roundTrip(s));
+        }
+        assertEquals(all.toString(), roundTrip(all.toString()));
+    }
+
+    public void testRandomStringsRoundTrip() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            char[] chars = new char[random.nextInt(64)];
+            for (int j = 0; j < chars.length; j++) {
+                // mostly header-like text, with some of everything else
+                chars[j] = (char) (random.nextInt(4) == 0 ? random.nextInt(256) : 0x20 + random.nextInt(0x5f));
+            }
+            String s = new String(chars);
+            assertEquals(s, roundTrip(s));
+        }
+    }
+
+    public void testEmptyString() {
+        assertEquals(0, Huffman.encodedLength(""));
+        assertEquals("", Huffman.decode(new byte[0], 0, 0));
+    }
+
+    public void testDecodesAtOffset() {
+        byte[] block = {0x00, 0x1f, 0x00}; // 'a' is 00011, padded with ones
+        assertEquals("a", Huffman.decode(block, 1, 1));
+    }
+
+    public void testPaddingMustBeOnes() {
+        assertEquals("a", Huffman.decode(new byte[]{0x1f}, 0, 1));
+        assertNull(Huffman.decode(new byte[]{0x18}, 0, 1));
+        assertNull(Huffman.decode(new byte[]{0x1d}, 0, 1));
+    }
+
+    public void testPaddingLongerThanSevenBits() {
+        // a whole byte of ones after the last symbol
+        assertNull(Huffman.decode(new byte[]{0x1f, (byte) 0xff}, 0, 2));
+        assertNull(Huffman.decode(new byte[]{(byte) 0xff}, 0, 1));
+    }
+
+    public void testEosInsideString() {
+        // EOS is 30 ones; here it is followed by two more bits of padding
+        byte[] eos = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        assertNull(Huffman.decode(eos, 0, eos.length));
+        // and after a symbol
+        byte[] afterSymbol = {0x18, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        assertNull(Huffman.decode(afterSymbol, 0, afterSymbol.length));
+    }
+
+    private static String roundTrip(String s) {
+        byte[] out = new byte[Huffman.encodedLength(s)];
+        assertEquals(out.length, Huffman.encode(s, out, 0));
+        return Huffman.decode(out, 0, out.length);
+    }
+
+    private static void assertEncodes(String s, String hex) {
+        byte[] expected = HpackTest.hex(hex);
+        assertEquals(expected.length, Huffman.encodedLength(s));
+        byte[] out = new byte[expected.length];
+        Huffman.encode(s, out, 0);
+        assertEquals(hex, HpackTest.toHex(out));
+        assertEquals(s, Huffman.decode(expected, 0, expected.length));
+    }
+}
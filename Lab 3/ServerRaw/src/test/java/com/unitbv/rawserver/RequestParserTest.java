@@ -0,0 +1,213 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+public class RequestParserTest extends TestCase {
+    private static final String POST =
+            "POST /students/import?dry=1 HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: 11\r\n" +
+            "\r\n" +
+            "hello world";
+
+    public void testGet() throws HttpParseException {
+        Request request = parseWhole(new RequestParser(), "GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertEquals("GET", request.getMethod());
+        assertEquals("/status", request.getUri());
+        assertNull(request.getQuery());
+        assertEquals("HTTP/1.1", request.getVersion());
+        assertEquals("localhost", request.getHeader("host"));
+        assertEquals("", request.getBody());
+        assertTrue(request.isKeepAlive());
+    }
+
+    public void testPost() throws HttpParseException {
+        assertPost(parseWhole(new RequestParser(), POST));
+    }
+
+    public void testBareLineFeeds() throws HttpParseException {
+        Request request = parseWhole(new RequestParser(), "GET / HTTP/1.0\nConnection: keep-alive\n\n");
+        assertEquals("HTTP/1.0", request.getVersion());
+        assertEquals("keep-alive", request.getHeader("Connection"));
+    }
+
+    public void testSplitAtEveryByte() throws HttpParseException {
+        byte[] bytes = ascii(POST);
+        for (int k = 1; k < bytes.length; k++) {
+            RequestParser parser = new RequestParser();
+            ByteBuffer first = ByteBuffer.wrap(bytes, 0, k);
+            assertNull("split at " + k, parser.parse(first));
+            assertFalse("everything is taken", first.hasRemaining());
+            assertTrue(parser.inProgress());
+            ByteBuffer rest = ByteBuffer.wrap(bytes, k, bytes.length - k);
+            assertPost(parser.parse(rest));
+            assertFalse(parser.inProgress());
+        }
+    }
+
+    public void testOneByteAtATime() throws HttpParseException {
+        byte[] bytes = ascii(POST);
+        RequestParser parser = new RequestParser();
+        for (int i = 0; i < bytes.length - 1; i++) {
+            assertNull(parser.parse(ByteBuffer.wrap(bytes, i, 1)));
+        }
+        assertPost(parser.parse(ByteBuffer.wrap(bytes, bytes.length - 1, 1)));
+    }
+
+    public void testPipelinedRequests() throws HttpParseException {
+        RequestParser parser = new RequestParser();
+        ByteBuffer in = ByteBuffer.wrap(ascii(POST + "\r\nGET /one HTTP/1.1\r\n\r\nGET /two HTTP/1.1\r\n\r\nGET /th"));
+        assertPost(parser.parse(in));
+        assertEquals("/one", parser.parse(in).getUri());
+        assertEquals("/two", parser.parse(in).getUri());
+        assertNull(parser.parse(in));
+        assertFalse(in.hasRemaining());
+        assertEquals("/three", parser.parse(ByteBuffer.wrap(ascii("ree HTTP/1.1\r\n\r\n"))).getUri());
+    }
+
+    public void testPipelinedRequestsSplitAtEveryByte() throws HttpParseException {
+        byte[] bytes = ascii(POST + "GET /next HTTP/1.1\r\n\r\n");
+        for (int k = 1; k < bytes.length; k++) {
+            RequestParser parser = new RequestParser();
+            ByteBuffer first = ByteBuffer.wrap(bytes, 0, k);
+            ByteBuffer rest = ByteBuffer.wrap(bytes, k, bytes.length - k);
+            Request a = parser.parse(first);
+            if (a == null) {
+                a = parser.parse(rest);
+            }
+            assertPost(a);
+            Request b = parser.parse(first.hasRemaining() ? first : rest);
+            if (b == null) {
+                b = parser.parse(rest);
+            }
+            assertEquals("split at " + k, "/next", b.getUri());
+        }
+    }
+
+    public void testBodySpilledToDisk() throws HttpParseException, IOException {
+        RequestParser parser = new RequestParser(1024, 1024, 1024, 4);
+        Request request = parseWhole(parser, POST);
+        try (InputStream body = request.getBodyStream()) {
+            assertEquals("hello world", new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        request.releaseBody();
+    }
+
+    public void testExpectContinue() throws HttpParseException {
+        RequestParser parser = new RequestParser();
+        String head = "PUT /x HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 2\r\n\r\n";
+        assertNull(parser.parse(ByteBuffer.wrap(ascii(head))));
+        assertTrue(parser.takeContinue());
+        assertFalse("only once", parser.takeContinue());
+        assertEquals("ok", parser.parse(ByteBuffer.wrap(ascii("ok"))).getBody());
+
+        // HTTP/1.0 clients do not wait for it
+        parser = new RequestParser();
+        assertNull(parser.parse(ByteBuffer.wrap(ascii(head.replace("HTTP/1.1", "HTTP/1.0")))));
+        assertFalse(parser.takeContinue());
+    }
+
+    public void testRepeatedContentLength() throws HttpParseException {
+        String same = "POST / HTTP/1.1\r\nContent-Length: 2\r\nContent-Length: 2\r\n\r\nok";
+        assertEquals("ok", parseWhole(new RequestParser(), same).getBody());
+        String list = "POST / HTTP/1.1\r\nContent-Length: 2, 2\r\n\r\nok";
+        assertEquals("ok", parseWhole(new RequestParser(), list).getBody());
+    }
+
+    // ---- errors ----
+
+    public void testRequestLineTooLong() {
+        RequestParser parser = new RequestParser(64, 1024, 1024, 1024);
+        assertStatus(414, parser, "GET /" + "a".repeat(64) + " HTTP/1.1\r\n\r\n");
+    }
+
+    public void testHeadersTooLarge() {
+        RequestParser parser = new RequestParser(64, 128, 1024, 1024);
+        assertStatus(431, parser, "GET / HTTP/1.1\r\nX-Big: " + "a".repeat(128) + "\r\n\r\n");
+    }
+
+    public void testTooManyHeaders() {
+        StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i <= 100; i++) {
+            head.append("X-").append(i).append(": 1\r\n");
+        }
+        assertStatus(431, new RequestParser(), head + "\r\n");
+    }
+
+    public void testMalformedRequests() {
+        assertStatus(400, new RequestParser(), "GET\r\n\r\n");
+        assertStatus(400, new RequestParser(), "GET  HTTP/1.1\r\n\r\n");
+        assertStatus(400, new RequestParser(), "GET / HTTP/1.1\r\nNo colon\r\n\r\n");
+        assertStatus(400, new RequestParser(), "GET / HTTP/1.1\r\n: empty name\r\n\r\n");
+        assertStatus(400, new RequestParser(), "GET / HTTP/1.1\r\nX-A: 1\r\n  folded\r\n\r\n");
+    }
+
+    public void testInvalidContentLength() {
+        assertStatus(400, new RequestParser(), "POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n");
+        assertStatus(400, new RequestParser(), "POST / HTTP/1.1\r\nContent-Length: 1x\r\n\r\n");
+        assertStatus(400, new RequestParser(), "POST / HTTP/1.1\r\nContent-Length: \r\n\r\n");
+        assertStatus(400, new RequestParser(), "POST / HTTP/1.1\r\nContent-Length: 1, x\r\n\r\n");
+    }
+
+    public void testConflictingContentLength() {
+        assertStatus(400, new RequestParser(), "POST / HTTP/1.1\r\nContent-Length: 2\r\nContent-Length: 3\r\n\r\nabc");
+        assertStatus(400, new RequestParser(), "POST / HTTP/1.1\r\nContent-Length: 2,3\r\n\r\nabc");
+        assertStatus(400, new RequestParser(), "POST / HTTP/1.1\r\nContent-Length: 2\r\ncontent-length: 2, 3\r\n\r\nabc");
+    }
+
+    public void testUnsupportedVersion() {
+        assertStatus(505, new RequestParser(), "GET / HTTP/2.0\r\n\r\n");
+        assertStatus(505, new RequestParser(), "GET / HTTP/1.2\r\n\r\n");
+        assertStatus(505, new RequestParser(), "GET / SPDY/3\r\n\r\n");
+    }
+
+    public void testBodyTooLarge() {
+        RequestParser parser = new RequestParser(1024, 1024, 10, 1024);
+        assertStatus(413, parser, POST);
+    }
+
+    public void testUnknownExpectation() {
+        assertStatus(417, new RequestParser(), "PUT / HTTP/1.1\r\nExpect: 200-ok\r\nContent-Length: 1\r\n\r\nx");
+    }
+
+    public void testChunkedBodyNotSupported() {
+        assertStatus(501, new RequestParser(), "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n");
+    }
+
+    private static void assertPost(Request request) {
+        assertNotNull(request);
+        assertEquals("POST", request.getMethod());
+        assertEquals("/students/import", request.getUri());
+        assertEquals("dry=1", request.getQuery());
+        assertEquals("text/plain", request.getHeader("content-type"));
+        assertEquals(11, request.getContentLength());
+        assertEquals("hello world", request.getBody());
+    }
+
+    private static Request parseWhole(RequestParser parser, String s) throws HttpParseException {
+        ByteBuffer in = ByteBuffer.wrap(ascii(s));
+        Request request = parser.parse(in);
+        assertNotNull(request);
+        assertFalse(in.hasRemaining());
+        return request;
+    }
+
+    private static void assertStatus(int status, RequestParser parser, String s) {
+        try {
+            parser.parse(ByteBuffer.wrap(ascii(s)));
+            fail("parsed: " + s);
+        } catch (HttpParseException e) {
+            assertEquals(s, status, e.getStatus());
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
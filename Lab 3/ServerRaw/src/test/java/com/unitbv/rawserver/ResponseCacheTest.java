@@ -0,0 +1,78 @@
+package com.unitbv.rawserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ResponseCacheTest extends TestCase {
+    // entries up to 100 bytes
+    private final ResponseCache cache = new ResponseCache(800);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    public void testHitsSkipTheHandler() {
+        Handler handler = cache.cached(Duration.ofMinutes(1), counting("small"));
+        Response first = handler.handle(request("/a"));
+        Response second = handler.handle(request("/a"));
+        assertEquals(1, runs.get());
+        assertEquals(200, second.getStatus());
+        assertEquals(first.getHeaders().get("ETag"), second.getHeaders().get("ETag"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getBypassed());
+    }
+
+    public void testMatchingTagIsNotModified() {
+        Handler handler = cache.cached(Duration.ofMinutes(1), counting("small"));
+        String etag = handler.handle(request("/a")).getHeaders().get("ETag");
+        Response response = handler.handle(request("/a", "If-None-Match: " + etag));
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeaders().get("ETag"));
+        assertEquals(1, cache.getNotModified());
+    }
+
+    public void testTooLargeIsBypassedNotHit() {
+        Handler handler = cache.cached(Duration.ofMinutes(1), counting("x".repeat(200)));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, handler.handle(request("/big")).getContentLength());
+        }
+        assertEquals(3, runs.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals("remembered as too large, not served from the cache", 0, cache.getHits());
+        assertEquals(2, cache.getBypassed());
+        assertEquals(0, cache.bytes());
+    }
+
+    public void testInvalidate() {
+        Handler handler = cache.cached(Duration.ofMinutes(1), counting("small"));
+        handler.handle(request("/a?page=1"));
+        handler.handle(request("/a"));
+        handler.handle(request("/b"));
+        cache.invalidate("/a");
+        assertEquals(1, cache.size());
+        handler.handle(request("/a?page=1"));
+        assertEquals(4, runs.get());
+    }
+
+    private Handler counting(String body) {
+        return request -> {
+            runs.incrementAndGet();
+            return new Response(200, "text/plain", body);
+        };
+    }
+
+    private static Request request(String uri, String... headers) {
+        StringBuilder head = new StringBuilder("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n");
+        for (String h : headers) {
+            head.append(h).append("\r\n");
+        }
+        head.append("\r\n");
+        try {
+            return new RequestParser().parse(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.US_ASCII)));
+        } catch (HttpParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.unitbv.rawserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.TestCase;
+
+public class RouterTest extends TestCase {
+    private final Router router = new Router();
+
+    public void testStaticRoutes() {
+        router.get("/", named("root"));
+        router.get("/student", named("student"));
+        router.get("/students", named("students"));
+        router.get("/students/count", named("count"));
+        router.get("/status", named("status"));
+        assertRoutes("GET", "/", "root");
+        assertRoutes("GET", "/student", "student");
+        assertRoutes("GET", "/students", "students");
+        assertRoutes("GET", "/students/count", "count");
+        assertRoutes("GET", "/status", "status");
+        assertNotFound("GET", "/stud");
+        assertNotFound("GET", "/students/");
+        assertNotFound("GET", "/students/count/x");
+    }
+
+    public void testParameters() {
+        router.get("/students/{id}", r -> ok("student " + r.getPathParam("id")));
+        router.get("/courses/{course}/students/{id}", r -> ok(r.getPathParam("course") + "/" + r.getPathParam("id")));
+        assertRoutes("GET", "/students/42", "student 42");
+        assertRoutes("GET", "/courses/devops/students/7", "devops/7");
+        assertRoutes("GET", "/students/a%20b", "student a b");
+        // a parameter is one non-empty segment
+        assertNotFound("GET", "/students/");
+        assertNotFound("GET", "/students/1/2");
+    }
+
+    public void testParameterAtEveryPosition() {
+        router.get("/{a}/{b}/{c}/{d}/{e}/{f}/{g}/{h}", r -> ok(r.getPathParam("a") + r.getPathParam("d") + r.getPathParam("h")));
+        assertRoutes("GET", "/1/2/3/4/5/6/7/8", "148");
+    }
+
+    public void testWildcard() {
+        router.get("/static/{*path}", r -> ok("file " + r.getPathParam("path")));
+        router.get("/files/*", r -> ok("any " + r.getPathParam("*")));
+        assertRoutes("GET", "/static/css/site.css", "file css/site.css");
+        assertRoutes("GET", "/static/", "file ");
+        assertRoutes("GET", "/files/a/b/c", "any a/b/c");
+        assertNotFound("GET", "/static");
+    }
+
+    public void testLiteralBeforeParameterBeforeWildcard() {
+        router.get("/users/me", named("me"));
+        router.get("/users/{id}", r -> ok("user " + r.getPathParam("id")));
+        router.get("/users/{*rest}", r -> ok("rest " + r.getPathParam("rest")));
+        assertRoutes("GET", "/users/me", "me");
+        assertRoutes("GET", "/users/mem", "user mem");
+        assertRoutes("GET", "/users/42", "user 42");
+        assertRoutes("GET", "/users/42/posts", "rest 42/posts");
+    }
+
+    public void testBacktracksFromLiteralToParameter() {
+        router.get("/a/b/d", named("literal"));
+        router.get("/a/{x}/c", r -> ok("x=" + r.getPathParam("x")));
+        assertRoutes("GET", "/a/b/d", "literal");
+        // "b" matches the literal edge, but only the parameter route goes on with "/c"
+        assertRoutes("GET", "/a/b/c", "x=b");
+    }
+
+    public void testBacktracksFromParameterToWildcard() {
+        router.get("/files/{name}/meta", r -> ok("meta " + r.getPathParam("name")));
+        router.get("/files/{*rest}", r -> ok("rest " + r.getPathParam("rest")));
+        assertRoutes("GET", "/files/report/meta", "meta report");
+        assertRoutes("GET", "/files/report/data", "rest report/data");
+    }
+
+    public void testBacktrackingKeepsEarlierCaptures() {
+        router.get("/{org}/repos/{repo}", r -> ok(r.getPathParam("org") + ":" + r.getPathParam("repo")));
+        router.get("/{org}/{*rest}", r -> ok(r.getPathParam("org") + "+" + r.getPathParam("rest")));
+        assertRoutes("GET", "/acme/repos/tools", "acme:tools");
+        assertRoutes("GET", "/acme/repos/tools/issues", "acme+repos/tools/issues");
+    }
+
+    public void testNotFoundVersusMethodNotAllowed() {
+        router.get("/students", named("list"));
+        router.post("/students", named("add"));
+        router.route("PURGE", "/students", named("purge"));
+        router.delete("/students/{id}", named("delete"));
+
+        assertNotFound("GET", "/courses");
+        Response response = router.dispatch(request("PUT", "/students"));
+        assertEquals(405, response.getStatus());
+        assertEquals("GET, POST, PURGE", response.getHeaders().get("Allow"));
+        response = router.dispatch(request("GET", "/students/1"));
+        assertEquals(405, response.getStatus());
+        assertEquals("DELETE", response.getHeaders().get("Allow"));
+        assertRoutes("PURGE", "/students", "purge");
+    }
+
+    public void testAsyncRoutes() {
+        router.getAsync("/later/{n}", r -> CompletableFuture.completedFuture(ok("later " + r.getPathParam("n"))));
+        router.get("/now", named("now"));
+        Request request = request("GET", "/later/3");
+        assertEquals("later 3", router.dispatchAsync(request).toCompletableFuture().join().getBody());
+        assertEquals("/later/{n}", request.getRoute());
+        assertEquals("now", router.dispatchAsync(request("GET", "/now")).toCompletableFuture().join().getBody());
+        // dispatch() waits for it
+        assertRoutes("GET", "/later/4", "later 4");
+        assertNull(router.find("GET", "/later/4"));
+        assertNotNull(router.find("GET", "/now"));
+    }
+
+    public void testInvalidRoutes() {
+        router.get("/students/{id}", named("a"));
+        assertRejected("students", IllegalArgumentException.class);
+        assertRejected("/students/{id}", IllegalStateException.class);
+        assertRejected("/students/{name}/x", IllegalArgumentException.class);
+        assertRejected("/x/{open", IllegalArgumentException.class);
+        assertRejected("/x/{}", IllegalArgumentException.class);
+        assertRejected("/x/{*rest}/more", IllegalArgumentException.class);
+        assertRejected("/x/*/more", IllegalArgumentException.class);
+    }
+
+    public void testTooManyParameters() {
+        StringBuilder route = new StringBuilder();
+        for (int i = 0; i < Router.MAX_PARAMS; i++) {
+            route.append("/{p").append(i).append('}');
+        }
+        router.get(route.toString(), named("max"));
+        assertRejected("/y" + route + "/{p8}", IllegalArgumentException.class);
+        // a wildcard is a capture too
+        assertRejected("/z" + route + "/{*rest}", IllegalArgumentException.class);
+        assertRejected("/w" + route + "/*", IllegalArgumentException.class);
+    }
+
+    private void assertRoutes(String method, String uri, String body) {
+        Response response = router.dispatch(request(method, uri));
+        assertEquals(method + " " + uri, 200, response.getStatus());
+        assertEquals(body, response.getBody());
+    }
+
+    private void assertNotFound(String method, String uri) {
+        assertEquals(method + " " + uri, 404, router.dispatch(request(method, uri)).getStatus());
+    }
+
+    private void assertRejected(String route, Class<? extends RuntimeException> expected) {
+        try {
+            router.get(route, named("x"));
+            fail("registered " + route);
+        } catch (RuntimeException e) {
+            assertEquals(route, expected, e.getClass());
+        }
+    }
+
+    private static Request request(String method, String uri) {
+        String head = method + " " + uri + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        try {
+            return new RequestParser().parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+        } catch (HttpParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Handler named(String name) {
+        return request -> ok(name);
+    }
+
+    private static Response ok(String body) {
+        return new Response(200, "text/plain", body);
+    }
+}
@@ -0,0 +1,190 @@
+package com.unitbv.rawserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+public class StaticFileHandlerTest extends TestCase {
+    private static final String MODIFIED = "Tue, 14 Nov 2023 22:13:20 GMT";
+
+    private Path dir;
+    private Path root;
+    private final Router router = new Router();
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("static-test");
+        root = Files.createDirectories(dir.resolve("www"));
+        write(root.resolve("hello.txt"), "0123456789");
+        write(root.resolve("empty.bin"), "");
+        write(Files.createDirectories(root.resolve("docs")).resolve("index.html"), "<h1>docs</h1>");
+        write(dir.resolve("secret.txt"), "outside the root");
+        StaticFileHandler.mount(router, "/static", root);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    public void testWholeFile() {
+        Response response = get("/static/hello.txt");
+        assertEquals(200, response.getStatus());
+        assertEquals("text/plain; charset=utf-8", response.getContentType());
+        assertRegion(response, 0, 10);
+        assertEquals("bytes", response.getHeaders().get("Accept-Ranges"));
+        assertEquals(MODIFIED, response.getHeaders().get("Last-Modified"));
+    }
+
+    public void testDirectoryServesIndex() {
+        Response response = get("/static/docs");
+        assertEquals(200, response.getStatus());
+        assertEquals("text/html; charset=utf-8", response.getContentType());
+        assertEquals(root.resolve("docs/index.html"), response.getFile().getPath());
+    }
+
+    public void testMissingFile() {
+        assertEquals(404, get("/static/nope.txt").getStatus());
+        // a directory without an index
+        assertEquals(404, get("/static/").getStatus());
+    }
+
+    public void testTraversalIsRejected() {
+        assertEquals(404, get("/static/../secret.txt").getStatus());
+        assertEquals(404, get("/static/docs/../../secret.txt").getStatus());
+        assertEquals(404, get("/static/%2e%2e/secret.txt").getStatus());
+        assertEquals(404, get("/static/docs/%2e%2e/%2e%2e/secret.txt").getStatus());
+        // without a router, the path comes from the URI
+        StaticFileHandler handler = new StaticFileHandler("/static/", root);
+        assertEquals(404, handler.handle(request("/static/../secret.txt")).getStatus());
+        assertEquals(404, handler.handle(request("/other/hello.txt")).getStatus());
+        assertEquals(200, handler.handle(request("/static//hello.txt")).getStatus());
+        // and normalizing within the root is fine
+        assertEquals(200, get("/static/docs/../hello.txt").getStatus());
+    }
+
+    public void testRange() {
+        assertPartial(get("/static/hello.txt", "Range: bytes=2-5"), 2, 4);
+        // an open end runs to the end of the file
+        assertPartial(get("/static/hello.txt", "Range: bytes=7-"), 7, 3);
+        // an end past the file is cut to it
+        assertPartial(get("/static/hello.txt", "Range: bytes=8-100"), 8, 2);
+        assertPartial(get("/static/hello.txt", "Range: bytes=0-0"), 0, 1);
+    }
+
+    public void testSuffixRange() {
+        assertPartial(get("/static/hello.txt", "Range: bytes=-3"), 7, 3);
+        // longer than the file: all of it
+        assertPartial(get("/static/hello.txt", "Range: bytes=-50"), 0, 10);
+        assertUnsatisfiable(get("/static/hello.txt", "Range: bytes=-0"), 10);
+        assertUnsatisfiable(get("/static/empty.bin", "Range: bytes=-0"), 0);
+        assertUnsatisfiable(get("/static/empty.bin", "Range: bytes=-5"), 0);
+    }
+
+    public void testUnsatisfiableRange() {
+        assertUnsatisfiable(get("/static/hello.txt", "Range: bytes=10-"), 10);
+        assertUnsatisfiable(get("/static/hello.txt", "Range: bytes=20-30"), 10);
+        assertUnsatisfiable(get("/static/empty.bin", "Range: bytes=0-"), 0);
+    }
+
+    public void testIgnoredRanges() {
+        // each of these gets the whole file
+        for (String range : new String[] {"bytes=5-2", "bytes=0-1,4-5", "bytes=0-1, 4-5", "items=0-1",
+                "bytes=abc", "bytes=1-x"}) {
+            Response response = get("/static/hello.txt", "Range: " + range);
+            assertEquals(range, 200, response.getStatus());
+            assertRegion(response, 0, 10);
+        }
+    }
+
+    public void testParseRange() {
+        assertTrue(Arrays.equals(new long[] {0, 9}, StaticFileHandler.parseRange("bytes=0-", 10)));
+        assertTrue(Arrays.equals(new long[] {9, 9}, StaticFileHandler.parseRange("bytes=-1", 10)));
+        assertTrue(Arrays.equals(new long[] {3, 4}, StaticFileHandler.parseRange("bytes= 3 - 4 ", 10)));
+        assertNull(StaticFileHandler.parseRange("bytes=-0", 0));
+        assertNull(StaticFileHandler.parseRange("bytes=10-11", 10));
+        assertEquals(0, StaticFileHandler.parseRange("bytes=4-3", 10).length);
+        assertEquals(0, StaticFileHandler.parseRange("bytes=1-2,3-4", 10).length);
+        assertEquals(0, StaticFileHandler.parseRange("bytes=5", 10).length);
+    }
+
+    public void testIfRange() {
+        assertPartial(get("/static/hello.txt", "Range: bytes=2-5", "If-Range: " + MODIFIED), 2, 4);
+        // another date, or an ETag, means the client's copy is stale: send all of it
+        Response stale = get("/static/hello.txt", "Range: bytes=2-5", "If-Range: Mon, 13 Nov 2023 00:00:00 GMT");
+        assertEquals(200, stale.getStatus());
+        assertRegion(stale, 0, 10);
+        assertEquals(200, get("/static/hello.txt", "Range: bytes=2-5", "If-Range: \"abc\"").getStatus());
+    }
+
+    public void testIfModifiedSince() {
+        Response response = get("/static/hello.txt", "If-Modified-Since: " + MODIFIED);
+        assertEquals(304, response.getStatus());
+        assertNull(response.getFile());
+        assertEquals(MODIFIED, response.getHeaders().get("Last-Modified"));
+        assertEquals(304, get("/static/hello.txt", "If-Modified-Since: Wed, 15 Nov 2023 00:00:00 GMT").getStatus());
+        assertEquals(200, get("/static/hello.txt", "If-Modified-Since: Tue, 14 Nov 2023 22:13:19 GMT").getStatus());
+        // an unparseable date is ignored
+        assertEquals(200, get("/static/hello.txt", "If-Modified-Since: yesterday").getStatus());
+    }
+
+    public void testContentType() {
+        assertEquals("image/png", StaticFileHandler.contentType(Path.of("a/B.PNG")));
+        assertEquals("application/octet-stream", StaticFileHandler.contentType(Path.of("README")));
+        assertEquals("application/octet-stream", StaticFileHandler.contentType(Path.of("x.unknown")));
+    }
+
+    private Response get(String uri, String... headers) {
+        return router.dispatch(request(uri, headers));
+    }
+
+    private static Request request(String uri, String... headers) {
+        StringBuilder head = new StringBuilder("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n");
+        for (String h : headers) {
+            head.append(h).append("\r\n");
+        }
+        head.append("\r\n");
+        try {
+            return new RequestParser().parse(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.US_ASCII)));
+        } catch (HttpParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertPartial(Response response, long start, long count) {
+        assertEquals(206, response.getStatus());
+        assertRegion(response, start, count);
+        assertEquals("bytes " + start + "-" + (start + count - 1) + "/10", response.getHeaders().get("Content-Range"));
+    }
+
+    private static void assertUnsatisfiable(Response response, long size) {
+        assertEquals(416, response.getStatus());
+        assertNull(response.getFile());
+        assertEquals("bytes */" + size, response.getHeaders().get("Content-Range"));
+    }
+
+    private static void assertRegion(Response response, long start, long count) {
+        FileRegion region = response.getFile();
+        assertNotNull(region);
+        assertEquals(start, region.getPosition());
+        assertEquals(count, region.getCount());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.ofEpochSecond(1_700_000_000)));
+    }
+}
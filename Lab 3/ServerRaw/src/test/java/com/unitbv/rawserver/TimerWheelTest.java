@@ -0,0 +1,200 @@
+package com.unitbv.rawserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TimerWheelTest extends TestCase {
+    // 8 slots of 10 ms: one round of the wheel is 80 ms
+    private final TimerWheel wheel = new TimerWheel(10, 8, 0);
+    private final List<String> fired = new ArrayList<>();
+
+    public void testSlotsRoundUpToPowerOfTwo() {
+        TimerWheel odd = new TimerWheel(10, 5, 0);
+        TimerWheel.Timeout t = timeout("t");
+        odd.schedule(t, 80, 0);
+        // with 5 slots, tick 8 would share slot 3 with tick 3
+        odd.advance(30);
+        assertTrue(fired.isEmpty());
+        odd.advance(80);
+        assertEquals(List.of("t"), fired);
+    }
+
+    public void testFiresAtDeadlineRoundedUpToTick() {
+        TimerWheel.Timeout t = timeout("t");
+        wheel.schedule(t, 25, 0);
+        assertTrue(t.isScheduled());
+        assertEquals(1, wheel.size());
+        wheel.advance(29);
+        assertTrue(fired.isEmpty());
+        wheel.advance(30);
+        assertEquals(List.of("t"), fired);
+        assertFalse(t.isScheduled());
+        assertEquals(0, wheel.size());
+        wheel.advance(1000);
+        assertEquals("fires once", 1, fired.size());
+    }
+
+    public void testZeroDelayWaitsForNextTick() {
+        wheel.advance(15);
+        wheel.schedule(timeout("t"), 0, 15);
+        wheel.advance(19);
+        assertTrue(fired.isEmpty());
+        wheel.advance(20);
+        assertEquals(List.of("t"), fired);
+    }
+
+    public void testDeadlinesRoundsAway() {
+        TimerWheel.Timeout near = timeout("near");
+        TimerWheel.Timeout far = timeout("far");
+        // same slot as near, three rounds later
+        wheel.schedule(near, 30, 0);
+        wheel.schedule(far, 30 + 3 * 80, 0);
+        for (long now = 10; now <= 400; now += 10) {
+            wheel.advance(now);
+            if (now < 30) {
+                assertTrue(fired.isEmpty());
+            } else if (now < 270) {
+                assertEquals("at " + now, List.of("near"), fired);
+            } else {
+                assertEquals("at " + now, List.of("near", "far"), fired);
+            }
+        }
+    }
+
+    public void testRescheduleReplacesDeadline() {
+        TimerWheel.Timeout t = timeout("t");
+        wheel.schedule(t, 20, 0);
+        wheel.schedule(t, 100, 0);
+        assertEquals(1, wheel.size());
+        wheel.advance(90);
+        assertTrue(fired.isEmpty());
+        wheel.advance(100);
+        assertEquals(List.of("t"), fired);
+    }
+
+    public void testCancel() {
+        TimerWheel.Timeout a = timeout("a");
+        TimerWheel.Timeout b = timeout("b");
+        TimerWheel.Timeout c = timeout("c");
+        // all in one slot, so cancelling unlinks from the head, the middle and the tail
+        wheel.schedule(a, 10, 0);
+        wheel.schedule(b, 10, 0);
+        wheel.schedule(c, 10, 0);
+        wheel.cancel(b);
+        wheel.cancel(b);
+        assertEquals(2, wheel.size());
+        assertFalse(b.isScheduled());
+        wheel.cancel(c);
+        wheel.advance(10);
+        assertEquals(List.of("a"), fired);
+        assertEquals(0, wheel.size());
+        wheel.cancel(a);
+        assertEquals("cancelling a fired timeout is harmless", 0, wheel.size());
+    }
+
+    public void testTaskRearmsItself() {
+        TimerWheel.Timeout[] self = new TimerWheel.Timeout[1];
+        long[] now = new long[1];
+        self[0] = new TimerWheel.Timeout(() -> {
+            fired.add("tick@" + now[0]);
+            if (fired.size() < 3) {
+                wheel.schedule(self[0], 100, now[0]);
+            }
+        });
+        wheel.schedule(self[0], 100, 0);
+        for (now[0] = 10; now[0] <= 600; now[0] += 10) {
+            wheel.advance(now[0]);
+        }
+        assertEquals(List.of("tick@100", "tick@200", "tick@300"), fired);
+        assertFalse(self[0].isScheduled());
+    }
+
+    public void testTaskRearmsItselfWithinOneAdvance() {
+        TimerWheel.Timeout[] self = new TimerWheel.Timeout[1];
+        self[0] = new TimerWheel.Timeout(() -> {
+            fired.add("t");
+            if (fired.size() < 3) {
+                wheel.schedule(self[0], 0, 0);
+            }
+        });
+        wheel.schedule(self[0], 10, 0);
+        // a zero delay moves it to the next tick, which the same call still runs
+        wheel.advance(50);
+        assertEquals(List.of("t", "t", "t"), fired);
+    }
+
+    public void testTaskCancelsAnotherDueInSameTick() {
+        TimerWheel.Timeout[] pair = new TimerWheel.Timeout[2];
+        pair[0] = new TimerWheel.Timeout(() -> {
+            fired.add("a");
+            wheel.cancel(pair[1]);
+        });
+        pair[1] = new TimerWheel.Timeout(() -> {
+            fired.add("b");
+            wheel.cancel(pair[0]);
+        });
+        wheel.schedule(pair[0], 10, 0);
+        wheel.schedule(pair[1], 10, 0);
+        // both expire in this tick; whichever runs first cancels the other
+        wheel.advance(10);
+        assertEquals(1, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    public void testTaskRearmsAnotherDueInSameTick() {
+        TimerWheel.Timeout[] later = new TimerWheel.Timeout[1];
+        TimerWheel.Timeout a = new TimerWheel.Timeout(() -> {
+            fired.add("a");
+            wheel.schedule(later[0], 50, 10);
+        });
+        TimerWheel.Timeout b = new TimerWheel.Timeout(() -> {
+            fired.add("b");
+            wheel.schedule(later[0], 50, 10);
+        });
+        later[0] = timeout("later");
+        wheel.schedule(later[0], 10, 0);
+        wheel.schedule(a, 10, 0);
+        wheel.schedule(b, 10, 0);
+        wheel.advance(10);
+        assertFalse("a re-armed timeout does not also fire in the old tick", fired.contains("later"));
+        assertTrue(later[0].isScheduled());
+        wheel.advance(50);
+        assertFalse(fired.contains("later"));
+        wheel.advance(60);
+        assertTrue(fired.contains("later"));
+    }
+
+    public void testCatchesUpAfterLongPause() {
+        wheel.schedule(timeout("soon"), 30, 0);
+        wheel.schedule(timeout("mid"), 1_000, 0);
+        wheel.schedule(timeout("late"), 1_990, 0);
+        wheel.schedule(timeout("after"), 2_010, 0);
+        wheel.schedule(timeout("far"), 5_000, 0);
+        // 200 ticks at once: the clamp runs one round of the wheel, which still visits every slot
+        wheel.advance(2_000);
+        assertEquals(3, fired.size());
+        assertTrue(fired.containsAll(List.of("soon", "mid", "late")));
+        assertEquals(2, wheel.size());
+        wheel.advance(2_010);
+        assertEquals("after", fired.get(3));
+        wheel.advance(4_990);
+        assertEquals(4, fired.size());
+        wheel.advance(5_000);
+        assertEquals("far", fired.get(4));
+    }
+
+    public void testScheduleAfterPauseIsRelativeToNow() {
+        wheel.advance(10_000);
+        wheel.schedule(timeout("t"), 50, 10_000);
+        wheel.advance(10_040);
+        assertTrue(fired.isEmpty());
+        wheel.advance(10_050);
+        assertEquals(List.of("t"), fired);
+    }
+
+    private TimerWheel.Timeout timeout(String name) {
+        return new TimerWheel.Timeout(() -> fired.add(name));
+    }
+}
@@ -0,0 +1,190 @@
+package com.unitbv.rawserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class WebSocketParserTest extends TestCase {
+    private static final byte[] MASK = {0x37, (byte) 0xfa, 0x21, 0x3d};
+
+    private final List<String> frames = new ArrayList<>();
+    private final List<byte[]> payloads = new ArrayList<>();
+    private final WebSocketParser.Frames collect = (fin, opcode, payload) -> {
+        frames.add((fin ? "fin " : "") + opcode + ":" + payload.length);
+        payloads.add(payload);
+    };
+
+    public void testRfcExample() throws WebSocketException {
+        // RFC 6455, 5.7: a masked "Hello"
+        parse(new WebSocketParser(1024), bytes(0x81, 0x85, 0x37, 0xfa, 0x21, 0x3d, 0x7f, 0x9f, 0x4d, 0x51, 0x58));
+        assertEquals(List.of("fin 1:5"), frames);
+        assertEquals("Hello", new String(payloads.get(0), StandardCharsets.UTF_8));
+    }
+
+    public void testUnmasksEveryLength() throws WebSocketException {
+        // lengths that are not a multiple of 4 take the byte-by-byte tail
+        for (int length = 0; length <= 13; length++) {
+            byte[] payload = payload(length);
+            WebSocketParser parser = new WebSocketParser(1024);
+            parse(parser, frame(true, WebSocketFrames.BINARY, payload));
+            assertTrue("length " + length, Arrays.equals(payload, payloads.get(payloads.size() - 1)));
+        }
+    }
+
+    public void testSplitAtEveryByte() throws WebSocketException {
+        byte[] first = frame(false, WebSocketFrames.TEXT, payload(7));
+        byte[] ping = frame(true, WebSocketFrames.PING, payload(3));
+        byte[] last = frame(true, WebSocketFrames.CONTINUATION, payload(300));
+        byte[] all = concat(first, ping, last);
+        for (int k = 1; k < all.length; k++) {
+            frames.clear();
+            WebSocketParser parser = new WebSocketParser(1024);
+            parser.parse(ByteBuffer.wrap(all, 0, k), collect);
+            parser.parse(ByteBuffer.wrap(all, k, all.length - k), collect);
+            assertEquals("split at " + k, List.of("1:7", "fin 9:3", "fin 0:300"), frames);
+        }
+    }
+
+    public void testOneByteAtATime() throws WebSocketException {
+        byte[] all = concat(frame(true, WebSocketFrames.TEXT, payload(70_000)), frame(true, WebSocketFrames.PONG, payload(0)));
+        WebSocketParser parser = new WebSocketParser(100_000);
+        for (int i = 0; i < all.length; i++) {
+            parser.parse(ByteBuffer.wrap(all, i, 1), collect);
+        }
+        assertEquals(List.of("fin 1:70000", "fin 10:0"), frames);
+        assertTrue(Arrays.equals(payload(70_000), payloads.get(0)));
+    }
+
+    public void testLengthEncodings() throws WebSocketException {
+        WebSocketParser parser = new WebSocketParser(1 << 20);
+        for (int length : new int[] {125, 126, 127, 0xFFFF, 0x10000, 300_000}) {
+            byte[] frame = frame(true, WebSocketFrames.BINARY, payload(length));
+            int expectedHeader = 2 + (length <= 125 ? 0 : length <= 0xFFFF ? 2 : 8) + 4;
+            assertEquals(expectedHeader + length, frame.length);
+            parse(parser, frame);
+            assertTrue("length " + length, Arrays.equals(payload(length), payloads.get(payloads.size() - 1)));
+        }
+    }
+
+    public void testLengthNeedNotBeMinimal() throws WebSocketException {
+        // 5 bytes sent with a 64-bit length
+        ByteBuffer frame = ByteBuffer.allocate(2 + 8 + 4 + 5);
+        frame.put((byte) 0x82).put((byte) (0x80 | 127)).putLong(5).put(MASK).put(masked(payload(5)));
+        parse(new WebSocketParser(1024), frame.array());
+        assertTrue(Arrays.equals(payload(5), payloads.get(0)));
+    }
+
+    public void testUnmaskedFrameRejected() {
+        assertRejected(new WebSocketParser(1024), bytes(0x81, 0x05, 'H', 'e', 'l', 'l', 'o'), WebSocket.PROTOCOL_ERROR);
+    }
+
+    public void testReservedBitsRejected() {
+        for (int rsv : new int[] {0x40, 0x20, 0x10}) {
+            byte[] frame = frame(true, WebSocketFrames.TEXT, payload(1));
+            frame[0] |= (byte) rsv;
+            assertRejected(new WebSocketParser(1024), frame, WebSocket.PROTOCOL_ERROR);
+        }
+    }
+
+    public void testUnknownOpcodeRejected() {
+        assertRejected(new WebSocketParser(1024), frame(true, 0x3, payload(1)), WebSocket.PROTOCOL_ERROR);
+        assertRejected(new WebSocketParser(1024), frame(true, 0xB, payload(1)), WebSocket.PROTOCOL_ERROR);
+    }
+
+    public void testBadControlFramesRejected() throws WebSocketException {
+        parse(new WebSocketParser(1024), frame(true, WebSocketFrames.PING, payload(125)));
+        frames.clear();
+        assertRejected(new WebSocketParser(1024), frame(true, WebSocketFrames.PING, payload(126)), WebSocket.PROTOCOL_ERROR);
+        assertRejected(new WebSocketParser(1024), frame(true, WebSocketFrames.CLOSE, payload(200)), WebSocket.PROTOCOL_ERROR);
+        assertRejected(new WebSocketParser(1024), frame(false, WebSocketFrames.PONG, payload(1)), WebSocket.PROTOCOL_ERROR);
+    }
+
+    public void testTooBigFramesRejected() {
+        assertRejected(new WebSocketParser(100), frame(true, WebSocketFrames.BINARY, payload(101)), WebSocket.MESSAGE_TOO_BIG);
+        // refused from the header alone, before any payload arrives
+        ByteBuffer huge = ByteBuffer.allocate(2 + 8 + 4);
+        huge.put((byte) 0x82).put((byte) (0x80 | 127)).putLong(1L << 40).put(MASK);
+        assertRejected(new WebSocketParser(Long.MAX_VALUE), huge.array(), WebSocket.MESSAGE_TOO_BIG);
+        ByteBuffer negative = ByteBuffer.allocate(2 + 8 + 4);
+        negative.put((byte) 0x82).put((byte) (0x80 | 127)).putLong(-1).put(MASK);
+        assertRejected(new WebSocketParser(Long.MAX_VALUE), negative.array(), WebSocket.PROTOCOL_ERROR);
+    }
+
+    public void testAcceptKey() {
+        // RFC 6455, 1.3
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketFrames.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    private void parse(WebSocketParser parser, byte[] data) throws WebSocketException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        parser.parse(buf, collect);
+        assertFalse(buf.hasRemaining());
+    }
+
+    private void assertRejected(WebSocketParser parser, byte[] data, int closeCode) {
+        try {
+            parser.parse(ByteBuffer.wrap(data), collect);
+            fail("accepted " + Arrays.toString(Arrays.copyOf(data, Math.min(data.length, 10))));
+        } catch (WebSocketException e) {
+            assertEquals(e.getMessage(), closeCode, e.getCloseCode());
+        }
+        assertTrue(frames.isEmpty());
+    }
+
+    /** A masked client frame. */
+    private static byte[] frame(boolean fin, int opcode, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((fin ? 0x80 : 0) | opcode);
+        int length = payload.length;
+        if (length <= 125) {
+            out.write(0x80 | length);
+        } else if (length <= 0xFFFF) {
+            out.write(0x80 | 126);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(0x80 | 127);
+            out.writeBytes(ByteBuffer.allocate(8).putLong(length).array());
+        }
+        out.writeBytes(MASK);
+        out.writeBytes(masked(payload));
+        return out.toByteArray();
+    }
+
+    private static byte[] masked(byte[] payload) {
+        byte[] out = payload.clone();
+        for (int i = 0; i < out.length; i++) {
+            out[i] ^= MASK[i % 4];
+        }
+        return out;
+    }
+
+    private static byte[] payload(int length) {
+        byte[] p = new byte[length];
+        for (int i = 0; i < length; i++) {
+            p[i] = (byte) (i * 31 + 7);
+        }
+        return p;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) {
+            out.writeBytes(p);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = (byte) values[i];
+        }
+        return out;
+    }
+}